@@ -0,0 +1,137 @@
+package db;
+
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates synthetic databases shaped like {@code src/test/data/test_data.json}, for benchmarks and for measuring
+ * changes by hand. The file contains a {@code default} table with the requested number of items and an {@code events}
+ * table a tenth of the size:
+ * <pre>
+ *     {"default": {"1": {"name": "item 1", "id": 48213, "content": "..."}, ...},
+ *      "events": {"1": {"name": "event 1", "description": "...", "id": 1231}, ...}}
+ * </pre>
+ * The file is written as a stream, so a dataset of a million items does not have to fit in memory. The same seed always
+ * generates the same file.
+ * <p>
+ * Run from the command line with {@code java -cp benchmarks.jar db.DatasetGenerator <path> <rows> [seed]}.
+ */
+public class DatasetGenerator {
+
+    static final String ITEMS_TABLE = "default";
+
+    static final String EVENTS_TABLE = "events";
+
+    private static final String[] WORDS = {"rent", "food", "car", "phone", "coffee", "travel", "books", "gym",
+            "insurance", "gift", "repair", "holiday"};
+
+    private final Random random;
+
+    /**
+     * @param seed seed for the random values, so the same seed always generates the same items.
+     */
+    public DatasetGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Creates an item for the {@code default} table with the given id.
+     */
+    public Map<String, Object> item(int n) {
+        Map<String, Object> item = new HashMap<>();
+        item.put("name", "item " + n);
+        item.put("id", random.nextInt(Integer.MAX_VALUE));
+        item.put("content", "content of " + words(6));
+        return item;
+    }
+
+    /**
+     * Creates an item for the {@code events} table with the given id.
+     */
+    public Map<String, Object> event(int n) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("name", "event " + n);
+        event.put("description", "description of " + words(8));
+        event.put("id", random.nextInt(100000));
+        return event;
+    }
+
+    /**
+     * Creates the contents of a {@code default} table with {@code rows} items, keyed by id.
+     */
+    public JSONObject table(int rows) {
+        Map<String, Object> table = new HashMap<>();
+        for (int i = 1; i <= rows; i++) {
+            table.put(Integer.toString(i), new JSONObject(item(i)));
+        }
+        return new JSONObject(table);
+    }
+
+    /**
+     * Writes a database with {@code rows} items in its {@code default} table to the {@code file}, replacing any existing
+     * contents.
+     *
+     * @throws IOException if the file could not be written.
+     */
+    public void write(File file, int rows) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), FileHelper.UTF_8));
+        try {
+            writer.write("{\"" + ITEMS_TABLE + "\":{");
+            for (int i = 1; i <= rows; i++) {
+                writeItem(writer, i, item(i), i == 1);
+            }
+
+            writer.write("},\"" + EVENTS_TABLE + "\":{");
+            int events = rows / 10 + 1;
+            for (int i = 1; i <= events; i++) {
+                writeItem(writer, i, event(i), i == 1);
+            }
+            writer.write("}}");
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void writeItem(Writer writer, int id, Map<String, Object> item, boolean first) throws IOException {
+        if (!first)
+            writer.write(',');
+
+        writer.write('"');
+        writer.write(Integer.toString(id));
+        writer.write("\":");
+        writer.write(new JSONObject(item).toString());
+    }
+
+    private String words(int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                builder.append(' ');
+            builder.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Writes a dataset to the path given by the first argument, with the number of rows given by the second. An optional
+     * third argument sets the seed.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: DatasetGenerator <path> <rows> [seed]");
+            System.exit(1);
+        }
+
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        new DatasetGenerator(seed).write(new File(args[0]), Integer.parseInt(args[1]));
+    }
+}
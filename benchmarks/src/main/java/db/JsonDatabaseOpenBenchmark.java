@@ -0,0 +1,58 @@
+package db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures opening a {@link JsonDatabase}, which parses every table in the file, with and without memory-mapping.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonDatabaseOpenBenchmark {
+
+    @Param({"10", "1000", "100000", "1000000"})
+    public int rows;
+
+    private File file;
+
+    @Setup(Level.Trial)
+    public void createDataset() throws IOException {
+        file = File.createTempFile("minidb-open", ".json");
+        new DatasetGenerator(1).write(file, rows);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDataset() {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    @Benchmark
+    public JsonDatabase open() {
+        return new JsonDatabase(file);
+    }
+
+    @Benchmark
+    public JsonDatabase openMemoryMapped() {
+        return new JsonDatabase(file, new DatabaseOptions().memoryMapped(true));
+    }
+}
@@ -0,0 +1,125 @@
+package db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the mutating methods of {@link JsonDatabase}, both when every mutation rewrites the file and when mutations
+ * are appended to the write-ahead log.
+ * <p>
+ * Each iteration starts from a fresh copy of the generated dataset, so the table only grows by the items appended within
+ * one iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonDatabaseWriteBenchmark {
+
+    @Param({"10", "1000", "100000", "1000000"})
+    public int rows;
+
+    @Param({"false", "true"})
+    public boolean writeAheadLog;
+
+    private File dataset;
+
+    private File file;
+
+    private DatasetGenerator generator;
+
+    /**
+     * Item added by {@link #append()}.
+     */
+    private Map<String, Object> item;
+
+    private JsonDatabase db;
+
+    /**
+     * Number of calls to {@link #appendValueToTable()} this iteration. Each call adds a value to the next item in turn,
+     * and a key can only be added to an item once, so each pass over the table uses a new key.
+     */
+    private int valuesAdded;
+
+    @Setup(Level.Trial)
+    public void createDataset() throws IOException {
+        dataset = File.createTempFile("minidb-dataset", ".json");
+        file = new File(dataset.getPath() + ".db");
+        generator = new DatasetGenerator(1);
+        generator.write(dataset, rows);
+        item = generator.item(rows + 1);
+    }
+
+    @Setup(Level.Iteration)
+    public void openDatabase() throws IOException {
+        Files.copy(dataset.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        db = new JsonDatabase(file, new DatabaseOptions().writeAheadLog(writeAheadLog));
+        valuesAdded = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeDatabase() throws IOException {
+        db.close();
+        Files.deleteIfExists(WriteAheadLog.logFileFor(file).toPath());
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDataset() throws IOException {
+        Files.deleteIfExists(file.toPath());
+        Files.deleteIfExists(dataset.toPath());
+    }
+
+    /**
+     * Holds an item appended before each invocation of {@link #delete(Deletable)}, so there is always an item to delete.
+     * Every delete is slower than the overhead of a per-invocation setup when the file is rewritten, but the results for
+     * the write-ahead log include some of that overhead.
+     */
+    @State(Scope.Thread)
+    public static class Deletable {
+
+        int id;
+
+        @Setup(Level.Invocation)
+        public void appendItem(JsonDatabaseWriteBenchmark benchmark) throws IOException {
+            Table table = benchmark.db.getTable(DatasetGenerator.ITEMS_TABLE);
+            id = table.getNextId();
+            benchmark.db.append(DatasetGenerator.ITEMS_TABLE, benchmark.generator.item(id));
+        }
+    }
+
+    @Benchmark
+    public void append() throws IOException {
+        db.append(DatasetGenerator.ITEMS_TABLE, item);
+    }
+
+    @Benchmark
+    public void appendValueToTable() throws IOException {
+        db.appendValueToTable(DatasetGenerator.ITEMS_TABLE, valuesAdded % rows + 1, "paid" + valuesAdded / rows, true);
+        valuesAdded++;
+    }
+
+    @Benchmark
+    public void delete(Deletable deletable) throws IOException {
+        db.delete(deletable.id, DatasetGenerator.ITEMS_TABLE);
+    }
+}
@@ -0,0 +1,61 @@
+package db;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures creating a {@link Table} over an already parsed table, {@link Table#getNextId()} and
+ * {@link Table#getItem(int)}, with the items held on and off the heap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TableBenchmark {
+
+    @Param({"10", "1000", "100000", "1000000"})
+    public int rows;
+
+    @Param({"HEAP", "DIRECT"})
+    public RowStorage storage;
+
+    private JSONObject items;
+
+    private Table table;
+
+    @Setup(Level.Trial)
+    public void createTable() {
+        items = new DatasetGenerator(1).table(rows);
+        table = new Table(items, null, storage, null);
+    }
+
+    @Benchmark
+    public Table load() {
+        return new Table(items, null, storage, null);
+    }
+
+    @Benchmark
+    public int getNextId() {
+        return table.getNextId();
+    }
+
+    @Benchmark
+    public JSONObject getItem() {
+        return table.getItem(rows / 2 + 1);
+    }
+}
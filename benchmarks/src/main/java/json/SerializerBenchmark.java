@@ -0,0 +1,89 @@
+package json;
+
+import db.DatasetGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link JsonSerializer#toJsonString(Map)} over a whole table of items, and {@link ObjectSerializer#toMap()}
+ * over the same number of objects.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializerBenchmark {
+
+    /**
+     * Object shaped like an item of the {@code default} table, with a superclass so inherited fields are serialized too.
+     */
+    static class Item extends Record {
+        private final String name;
+        private final String content;
+
+        Item(int id, String name, String content) {
+            super(id);
+            this.name = name;
+            this.content = content;
+        }
+    }
+
+    static class Record {
+        private final int id;
+
+        Record(int id) {
+            this.id = id;
+        }
+    }
+
+    @Param({"10", "1000", "100000", "1000000"})
+    public int rows;
+
+    private Map<String, Map<String, Object>> table;
+
+    private List<Item> objects;
+
+    @Setup(Level.Trial)
+    public void createItems() {
+        DatasetGenerator generator = new DatasetGenerator(1);
+        table = new HashMap<>();
+        objects = new ArrayList<>(rows);
+
+        for (int i = 1; i <= rows; i++) {
+            Map<String, Object> item = generator.item(i);
+            table.put(Integer.toString(i), item);
+            objects.add(new Item((Integer) item.get("id"), (String) item.get("name"), (String) item.get("content")));
+        }
+    }
+
+    @Benchmark
+    public String toJsonString() {
+        return JsonSerializer.toJsonString(table);
+    }
+
+    @Benchmark
+    public void toMap(Blackhole blackhole) {
+        for (Item item : objects) {
+            blackhole.consume(new ObjectSerializer(item).toMap());
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package db;
+
+import exceptions.ParsingException;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects several mutations of a {@link JsonDatabase} so they are applied together and persisted with a single write.
+ * A batch is created with {@link JsonDatabase#batch()}, filled by chaining calls and then committed:
+ * <pre>
+ *     List&lt;Integer&gt; ids = db.batch()
+ *             .newTable("expenses", null)
+ *             .append("expenses", rent)
+ *             .append("expenses", food)
+ *             .delete(3, "default")
+ *             .commit();
+ * </pre>
+ * Nothing is changed until {@link #commit()} is called. The operations are then applied in order, and no other thread
+ * sees the database part way through the batch. If any operation fails, for example because its table does not exist,
+ * the operations already applied are undone and the database is left as it was. Ids allocated to undone appends are
+ * not reused.
+ * <p>
+ * Without the write-ahead log the whole batch costs one rewrite of the file rather than one per operation. With the
+ * log, the batch is written as a single record, so after a crash either every operation is replayed or none are.
+ * <p>
+ * A batch can only be committed once.
+ */
+public class Batch {
+
+    /**
+     * A single operation added to the batch.
+     */
+    static final class Operation {
+
+        enum Kind { APPEND, APPEND_VALUE, DELETE, NEW_TABLE }
+
+        final Kind kind;
+        final String table;
+        final int id;
+        final String key;
+        final Object value;
+
+        Operation(Kind kind, String table, int id, String key, Object value) {
+            this.kind = kind;
+            this.table = table;
+            this.id = id;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private final JsonDatabase database;
+
+    private final List<Operation> operations = new ArrayList<>();
+
+    private boolean committed = false;
+
+    /**
+     * Package-private constructor used by {@link JsonDatabase#batch()}.
+     */
+    Batch(JsonDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Appends the given {@code values} to the table. See {@link JsonDatabase#append(String, Map)}.
+     *
+     * @throws ParsingException if the {@code values} could not converted to a {@code JSONObject}
+     */
+    public Batch append(String tableName, Map<String, Object> values) throws ParsingException {
+        JSONObject content = new JSONObject();
+        try {
+            for (String key : values.keySet()) {
+                content.put(key, values.get(key));
+            }
+        } catch (JSONException e) {
+            throw new ParsingException("Could not add the values to the table.", e);
+        }
+
+        return add(new Operation(Operation.Kind.APPEND, tableName, 0, null, content));
+    }
+
+    /**
+     * Adds a value to an existing item. See {@link JsonDatabase#appendValueToTable(String, int, String, Object)}.
+     */
+    public Batch appendValueToTable(String tableName, int id, String valueKey, Object value) {
+        return add(new Operation(Operation.Kind.APPEND_VALUE, tableName, id, valueKey, value));
+    }
+
+    /**
+     * Deletes the item with the given {@code id} from the table. See {@link JsonDatabase#delete(int, String)}.
+     */
+    public Batch delete(int id, String table) {
+        return delete(String.valueOf(id), table);
+    }
+
+    /**
+     * Deletes the item with the given {@code key} from the table. See {@link JsonDatabase#delete(String, String)}.
+     */
+    public Batch delete(String key, String table) {
+        return add(new Operation(Operation.Kind.DELETE, table, 0, key, null));
+    }
+
+    /**
+     * Creates a new table. See {@link JsonDatabase#newTable(String, Map)}. Later operations in the batch can use the
+     * new table.
+     */
+    public Batch newTable(String name, @Nullable Map<String, ?> initialValues) {
+        return add(new Operation(Operation.Kind.NEW_TABLE, name, 0, null, new JSONObject(initialValues)));
+    }
+
+    /**
+     * Returns the number of operations in the batch.
+     */
+    public int size() {
+        return operations.size();
+    }
+
+    /**
+     * Applies every operation in the batch and persists them with a single write. If any operation fails none of the
+     * operations are applied. As with the other mutating methods of {@code JsonDatabase}, changes which were applied are
+     * kept in memory even if writing them to the file fails.
+     *
+     * @return the ids allocated to the appended items, in the order they were added to the batch.
+     * @throws IllegalArgumentException if an operation failed, see the matching method of {@code JsonDatabase}.
+     * @throws IllegalStateException if the batch has already been committed.
+     * @throws IOException if the batch could not be written.
+     */
+    public List<Integer> commit() throws IOException {
+        if (committed)
+            throw new IllegalStateException("Batch has already been committed");
+
+        committed = true;
+        return database.commit(operations);
+    }
+
+    private Batch add(Operation operation) {
+        if (committed)
+            throw new IllegalStateException("Batch has already been committed");
+
+        operations.add(operation);
+        return this;
+    }
+}
@@ -0,0 +1,501 @@
+package db;
+
+import exceptions.ParsingException;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONString;
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores the database in a compact binary format, which is smaller than JSON and faster to read because numbers and
+ * strings do not have to be parsed character by character.
+ * <p>
+ * The file starts with the four bytes {@code MDB1}, followed by the root object. Every value is written as a one byte
+ * tag followed by its contents:
+ * <ul>
+ *     <li>whole numbers are written as zig-zag encoded variable length integers, so small values take a single byte</li>
+ *     <li>other numbers are written as 8 byte doubles, or as their decimal string if they are a {@code BigDecimal} or
+ *     {@code BigInteger}</li>
+ *     <li>strings are written as their UTF-8 length followed by their UTF-8 bytes</li>
+ *     <li>objects and arrays are written as the number of members followed by each member</li>
+ * </ul>
+ * Object keys are written through a dictionary which is shared by the whole file. The first time a key is written it is
+ * stored in full, and every later use of it is written as its position in the dictionary, so the field names repeated in
+ * every item of a table only take a byte or two per item. Tables whose keys are all item ids are written with each id
+ * as an integer rather than a string.
+ * <p>
+ * Values are read back as the same types as {@link JsonStorageEngine} would, except a {@code BigDecimal} or
+ * {@code BigInteger} keeps its type.
+ */
+public class BinaryStorageEngine implements StorageEngine {
+
+    private static final byte[] MAGIC = {'M', 'D', 'B', '1'};
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_FALSE = 1;
+    private static final int TAG_TRUE = 2;
+    private static final int TAG_INT = 3;
+    private static final int TAG_DOUBLE = 4;
+    private static final int TAG_STRING = 5;
+    private static final int TAG_OBJECT = 6;
+    private static final int TAG_ARRAY = 7;
+    private static final int TAG_TABLE = 8;
+    private static final int TAG_BIG_INTEGER = 9;
+    private static final int TAG_BIG_DECIMAL = 10;
+
+    /**
+     * Maximum number of keys held in the key dictionary. Keys beyond this are always written in full.
+     */
+    private static final int MAX_KEYS = 64 * 1024;
+
+    /**
+     * Size of the buffer used when reading from or writing to a channel.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Override
+    public JSONObject read(ReadableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.flip();
+        return new Reader(channel, buffer).readRoot();
+    }
+
+    @Override
+    public JSONObject read(ByteBuffer buffer) throws IOException {
+        return new Reader(null, buffer.duplicate()).readRoot();
+    }
+
+    @Override
+    public void write(JSONObject rootObject, WritableByteChannel channel) throws IOException {
+        Writer writer = new Writer(channel);
+        writer.writeRoot(rootObject);
+        writer.flush();
+    }
+
+    /**
+     * Returns the id of a table's item key, or -1 if the key is not an id written in its usual form.
+     */
+    private static int parseId(String key) {
+        int length = key.length();
+        if (length == 0 || length > 9 || (length > 1 && key.charAt(0) == '0'))
+            return -1;
+
+        int id = 0;
+        for (int i = 0; i < length; i++) {
+            char c = key.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            id = id * 10 + (c - '0');
+        }
+        return id;
+    }
+
+    /**
+     * Returns {@code true} if every key of the {@code object} is an id and every value is an item, so it can be written
+     * as a table.
+     */
+    private static boolean isTable(JSONObject object, List<String> keys) {
+        for (String key : keys) {
+            if (parseId(key) == -1 || !(object.opt(key) instanceof JSONObject))
+                return false;
+        }
+        return true;
+    }
+
+    private static List<String> keysOf(JSONObject object) {
+        List<String> keys = new ArrayList<>(object.length());
+        Iterator<?> iterator = object.keys();
+        while (iterator.hasNext()) {
+            keys.add((String) iterator.next());
+        }
+        return keys;
+    }
+
+    /**
+     * Writes values to a channel through a fixed size buffer.
+     */
+    private static final class Writer {
+
+        private final WritableByteChannel channel;
+
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        private final Map<String, Integer> keys = new HashMap<>();
+
+        Writer(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        void writeRoot(JSONObject rootObject) throws IOException {
+            buffer.put(MAGIC);
+
+            List<String> names = keysOf(rootObject);
+            buffer.put((byte) TAG_OBJECT);
+            writeVarInt(names.size());
+
+            for (String name : names) {
+                writeKey(name);
+
+                Object value = rootObject.opt(name);
+                if (value instanceof JSONObject)
+                    writeTableOrObject((JSONObject) value);
+                else
+                    writeValue(value);
+            }
+        }
+
+        private void writeTableOrObject(JSONObject object) throws IOException {
+            List<String> ids = keysOf(object);
+            if (!isTable(object, ids)) {
+                writeObject(object, ids);
+                return;
+            }
+
+            ensure(1);
+            buffer.put((byte) TAG_TABLE);
+            writeVarInt(ids.size());
+            for (String id : ids) {
+                writeVarInt(parseId(id));
+                writeObject((JSONObject) object.opt(id), keysOf((JSONObject) object.opt(id)));
+            }
+        }
+
+        private void writeObject(JSONObject object, List<String> names) throws IOException {
+            ensure(1);
+            buffer.put((byte) TAG_OBJECT);
+            writeVarInt(names.size());
+
+            for (String name : names) {
+                writeKey(name);
+                writeValue(object.opt(name));
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void writeValue(Object value) throws IOException {
+            ensure(10);
+
+            if (value == null || value == JSONObject.NULL) {
+                buffer.put((byte) TAG_NULL);
+            } else if (value instanceof Boolean) {
+                buffer.put((byte) ((Boolean) value ? TAG_TRUE : TAG_FALSE));
+            } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                    || value instanceof Byte) {
+                buffer.put((byte) TAG_INT);
+                long l = ((Number) value).longValue();
+                writeVarLong((l << 1) ^ (l >> 63));
+            } else if (value instanceof Double) {
+                buffer.put((byte) TAG_DOUBLE);
+                buffer.putDouble((Double) value);
+            } else if (value instanceof Float) {
+                // widen through the decimal text, as JSON would, so 1.1f reads back as 1.1
+                buffer.put((byte) TAG_DOUBLE);
+                buffer.putDouble(Double.parseDouble(value.toString()));
+            } else if (value instanceof BigInteger) {
+                buffer.put((byte) TAG_BIG_INTEGER);
+                writeString(value.toString());
+            } else if (value instanceof BigDecimal) {
+                buffer.put((byte) TAG_BIG_DECIMAL);
+                writeString(value.toString());
+            } else if (value instanceof JSONObject) {
+                writeObject((JSONObject) value, keysOf((JSONObject) value));
+            } else if (value instanceof JSONArray) {
+                writeArray((JSONArray) value);
+            } else if (value instanceof Map) {
+                writeObject(new JSONObject((Map) value), new ArrayList<String>(((Map) value).keySet()));
+            } else if (value instanceof Collection) {
+                writeArray(new JSONArray((Collection) value));
+            } else if (value instanceof JSONString) {
+                writeValue(parseJsonString((JSONString) value));
+            } else {
+                buffer.put((byte) TAG_STRING);
+                writeString(value.toString());
+            }
+        }
+
+        private void writeArray(JSONArray array) throws IOException {
+            ensure(1);
+            buffer.put((byte) TAG_ARRAY);
+            writeVarInt(array.length());
+
+            for (int i = 0; i < array.length(); i++) {
+                writeValue(array.opt(i));
+            }
+        }
+
+        private void writeKey(String key) throws IOException {
+            Integer index = keys.get(key);
+            if (index != null) {
+                writeVarInt(index + 1);
+                return;
+            }
+
+            writeVarInt(0);
+            writeString(key);
+            if (keys.size() < MAX_KEYS)
+                keys.put(key, keys.size());
+        }
+
+        private void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(FileHelper.UTF_8);
+            writeVarInt(bytes.length);
+
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (!buffer.hasRemaining())
+                    flush();
+
+                int count = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, count);
+                offset += count;
+            }
+        }
+
+        private void writeVarInt(int value) throws IOException {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        /**
+         * Makes room for at least {@code bytes} bytes in the buffer.
+         */
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes)
+                flush();
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            FileHelper.writeFully(channel, buffer);
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Converts a value which writes its own JSON into the value that JSON describes.
+     */
+    private static Object parseJsonString(JSONString value) {
+        try {
+            return new JSONTokener(value.toJSONString()).nextValue();
+        } catch (JSONException e) {
+            throw new ParsingException("Could not convert " + value + " to JSON", e);
+        }
+    }
+
+    /**
+     * Reads values from a channel through a fixed size buffer, or straight from a buffer holding the whole file.
+     */
+    private static final class Reader {
+
+        private final ReadableByteChannel channel;
+
+        private final ByteBuffer buffer;
+
+        private final List<String> keys = new ArrayList<>();
+
+        Reader(ReadableByteChannel channel, ByteBuffer buffer) {
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        JSONObject readRoot() throws IOException {
+            if (!buffer.hasRemaining() && !fill())
+                return null;
+
+            for (byte b : MAGIC) {
+                if (readByte() != b)
+                    throw new ParsingException("Not a binary database file");
+            }
+
+            Object root = readValue();
+            if (!(root instanceof JSONObject))
+                throw new ParsingException("Expected the root to be an object");
+            return (JSONObject) root;
+        }
+
+        private Object readValue() throws IOException {
+            int tag = readByte();
+
+            switch (tag) {
+                case TAG_NULL:
+                    return JSONObject.NULL;
+                case TAG_FALSE:
+                    return Boolean.FALSE;
+                case TAG_TRUE:
+                    return Boolean.TRUE;
+                case TAG_INT:
+                    long zigZag = readVarLong();
+                    long value = (zigZag >>> 1) ^ -(zigZag & 1);
+                    if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE)
+                        return (int) value;
+                    return value;
+                case TAG_DOUBLE:
+                    ensure(8);
+                    return buffer.getDouble();
+                case TAG_STRING:
+                    return readString();
+                case TAG_BIG_INTEGER:
+                    return new BigInteger(readString());
+                case TAG_BIG_DECIMAL:
+                    return new BigDecimal(readString());
+                case TAG_OBJECT:
+                    return readObject();
+                case TAG_ARRAY:
+                    return readArray();
+                case TAG_TABLE:
+                    return readTable();
+                default:
+                    throw new ParsingException("Unknown value tag " + tag);
+            }
+        }
+
+        private JSONObject readObject() throws IOException {
+            int count = readVarInt();
+            JSONObject object = new JSONObject();
+
+            for (int i = 0; i < count; i++) {
+                put(object, readKey(), readValue());
+            }
+            return object;
+        }
+
+        private JSONObject readTable() throws IOException {
+            int count = readVarInt();
+            JSONObject table = new JSONObject();
+
+            for (int i = 0; i < count; i++) {
+                String id = Integer.toString(readVarInt());
+                if (readByte() != TAG_OBJECT)
+                    throw new ParsingException("Expected item " + id + " to be an object");
+                put(table, id, readObject());
+            }
+            return table;
+        }
+
+        private JSONArray readArray() throws IOException {
+            int count = readVarInt();
+            JSONArray array = new JSONArray();
+
+            for (int i = 0; i < count; i++) {
+                array.put(readValue());
+            }
+            return array;
+        }
+
+        private String readKey() throws IOException {
+            int index = readVarInt();
+            if (index > 0) {
+                if (index > keys.size())
+                    throw new ParsingException("Unknown key " + index);
+                return keys.get(index - 1);
+            }
+
+            String key = readString();
+            if (keys.size() < MAX_KEYS)
+                keys.add(key);
+            return key;
+        }
+
+        private String readString() throws IOException {
+            int length = readVarInt();
+            if (length < 0)
+                throw new ParsingException("Invalid string length");
+
+            byte[] bytes = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                if (!buffer.hasRemaining() && !fill())
+                    throw new ParsingException("Unexpected end of input");
+
+                int count = Math.min(buffer.remaining(), length - offset);
+                buffer.get(bytes, offset, count);
+                offset += count;
+            }
+            return new String(bytes, FileHelper.UTF_8);
+        }
+
+        private int readVarInt() throws IOException {
+            long value = readVarLong();
+            if (value > 0xFFFFFFFFL)
+                throw new ParsingException("Invalid length");
+            return (int) value;
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new ParsingException("Invalid variable length integer");
+        }
+
+        private int readByte() throws IOException {
+            ensure(1);
+            return buffer.get() & 0xFF;
+        }
+
+        /**
+         * Makes sure at least {@code bytes} bytes are left in the buffer.
+         *
+         * @throws ParsingException if the input ends first.
+         */
+        private void ensure(int bytes) throws IOException {
+            while (buffer.remaining() < bytes) {
+                if (!fill())
+                    throw new ParsingException("Unexpected end of input");
+            }
+        }
+
+        /**
+         * Reads more of the channel into the buffer, keeping any bytes which have not been read yet.
+         *
+         * @return {@code false} if the end of the input has been reached.
+         */
+        private boolean fill() throws IOException {
+            if (channel == null)
+                return false;
+
+            buffer.compact();
+            int read;
+            do {
+                read = channel.read(buffer);
+            } while (read == 0);
+            buffer.flip();
+
+            return read != -1;
+        }
+
+        private static void put(JSONObject object, String key, Object value) {
+            try {
+                object.put(key, value);
+            } catch (JSONException e) {
+                throw new ParsingException("Invalid value for key " + key, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,432 @@
+package db;
+
+import exceptions.ParsingException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reads and writes the block framed format used to store files with {@link Compression#DEFLATE}.
+ * <p>
+ * A compressed file starts with the four bytes {@code MDZ1}, followed by any number of blocks:
+ * <pre>
+ *     flags (1 byte) | uncompressed length (4 bytes) | compressed length (4 bytes) | compressed bytes
+ * </pre>
+ * Each block holds at most {@link #BLOCK_SIZE} bytes, compressed with raw deflate and ended with a sync flush, so it can
+ * be inflated as soon as it has been read and a file never has to be decompressed in one piece. A block with the
+ * {@link #NEW_STREAM} flag starts a new deflate stream, while other blocks continue the stream of the block before them
+ * and so can refer back to text in earlier blocks. The database file starts a new stream with every block. The
+ * write-ahead log continues one stream across appends, so a small record still compresses well against the records
+ * written before it.
+ */
+class BlockCodec {
+
+    /**
+     * First bytes of every compressed file.
+     */
+    static final byte[] MAGIC = {'M', 'D', 'Z', '1'};
+
+    /**
+     * Maximum number of uncompressed bytes held in a single block.
+     */
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * Flag set on a block which starts a new deflate stream.
+     */
+    static final int NEW_STREAM = 1;
+
+    private static final int HEADER_SIZE = 9;
+
+    /**
+     * Largest compressed block accepted when reading. Deflate can only grow incompressible input by a few bytes per
+     * block, so anything larger means the file is corrupt.
+     */
+    private static final int MAX_COMPRESSED_SIZE = BLOCK_SIZE + BLOCK_SIZE / 2;
+
+    /**
+     * Returns {@code true} if the remaining bytes of the {@code buffer} start with the compressed file header. The
+     * position of the buffer is not changed.
+     */
+    static boolean isCompressed(ByteBuffer buffer) {
+        if (buffer.remaining() < MAGIC.length)
+            return false;
+
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(buffer.position() + i) != MAGIC[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns {@code true} if the file held by the {@code fileHelper} starts with the compressed file header.
+     *
+     * @throws IOException if the file could not be read.
+     */
+    static boolean isCompressed(FileHelper fileHelper) throws IOException {
+        if (fileHelper.length() < MAGIC.length)
+            return false;
+
+        FileChannel channel = fileHelper.openChannel();
+        try {
+            ByteBuffer head = ByteBuffer.allocate(MAGIC.length);
+            while (head.hasRemaining() && channel.read(head, head.position()) != -1) {
+                // keep reading until the header is complete
+            }
+            head.flip();
+            return isCompressed(head);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Returns a channel which reads the decompressed contents of the compressed file being read by the {@code channel},
+     * starting with its header. Closing the returned channel does not close the {@code channel}.
+     *
+     * @param lenient {@code true} to treat a block cut short by the end of the file as the end of the contents, rather
+     *                than an error. Used for the write-ahead log, whose final block may have been torn by a crash.
+     * @throws IOException if the header could not be read.
+     * @throws ParsingException if the file does not start with the compressed file header.
+     */
+    static ReadableByteChannel decompress(ReadableByteChannel channel, boolean lenient) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(MAGIC.length);
+        if (!readFully(channel, head) || !isCompressed((ByteBuffer) head.flip()))
+            throw new ParsingException("Not a compressed file");
+
+        return new Input(channel, lenient);
+    }
+
+    /**
+     * Returns a channel which reads the decompressed contents of the compressed file held in the remaining bytes of the
+     * {@code buffer}, for example a memory-mapped file. The position of the buffer is not changed.
+     *
+     * @throws IOException if the header could not be read.
+     * @throws ParsingException if the buffer does not start with the compressed file header.
+     */
+    static ReadableByteChannel decompress(final ByteBuffer buffer) throws IOException {
+        final ByteBuffer source = buffer.duplicate();
+
+        return decompress(new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) {
+                if (!source.hasRemaining())
+                    return -1;
+
+                int count = Math.min(source.remaining(), dst.remaining());
+                ByteBuffer slice = source.duplicate();
+                slice.limit(slice.position() + count);
+                dst.put(slice);
+                source.position(source.position() + count);
+                return count;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        }, false);
+    }
+
+    /**
+     * Fills the remaining space of the {@code buffer} from the {@code channel}.
+     *
+     * @return {@code false} if the channel ended before the buffer was full.
+     */
+    private static boolean readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) == -1)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compresses bytes into blocks. Each encoder owns a {@code Deflater}, which must be released with {@link #end()}.
+     */
+    static final class Encoder {
+
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+
+        /**
+         * {@code true} if every block should start a new stream.
+         */
+        private final boolean independentBlocks;
+
+        /**
+         * {@code true} if the next block should start a new stream.
+         */
+        private boolean newStream = true;
+
+        private byte[] output = new byte[HEADER_SIZE + BLOCK_SIZE];
+
+        /**
+         * @param independentBlocks {@code true} to start a new stream with every block, {@code false} to continue one
+         *                          stream across every call to {@link #encode}.
+         */
+        Encoder(boolean independentBlocks) {
+            this.independentBlocks = independentBlocks;
+        }
+
+        /**
+         * Compresses {@code length} bytes of {@code data}, which must be at most {@link #BLOCK_SIZE}, into a single
+         * block. The returned buffer is reused by the next call.
+         */
+        ByteBuffer encodeBlock(byte[] data, int offset, int length) {
+            int flags = 0;
+            if (newStream || independentBlocks) {
+                deflater.reset();
+                flags = NEW_STREAM;
+                newStream = false;
+            }
+
+            deflater.setInput(data, offset, length);
+
+            int compressed = 0;
+            while (true) {
+                int space = output.length - HEADER_SIZE - compressed;
+                compressed += deflater.deflate(output, HEADER_SIZE + compressed, space, Deflater.SYNC_FLUSH);
+
+                // a sync flush is only complete once it leaves space in the output
+                if (HEADER_SIZE + compressed < output.length)
+                    break;
+                output = Arrays.copyOf(output, output.length * 2);
+            }
+
+            ByteBuffer block = ByteBuffer.wrap(output, 0, HEADER_SIZE + compressed);
+            block.put(0, (byte) flags);
+            block.putInt(1, length);
+            block.putInt(5, compressed);
+            return block;
+        }
+
+        /**
+         * Compresses every byte of {@code data} into as many blocks as it needs.
+         *
+         * @param header {@code true} to start with the compressed file header.
+         */
+        byte[] encode(byte[] data, boolean header) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + HEADER_SIZE + MAGIC.length);
+            if (header)
+                out.write(MAGIC, 0, MAGIC.length);
+
+            for (int offset = 0; offset < data.length; offset += BLOCK_SIZE) {
+                ByteBuffer block = encodeBlock(data, offset, Math.min(BLOCK_SIZE, data.length - offset));
+                out.write(block.array(), 0, block.limit());
+            }
+
+            return out.toByteArray();
+        }
+
+        /**
+         * Starts a new stream with the next block, for example because the previous block could not be written.
+         */
+        void restart() {
+            newStream = true;
+        }
+
+        /**
+         * Releases the {@code Deflater}. The encoder cannot be used afterwards.
+         */
+        void end() {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Channel which compresses everything written to it into blocks, writing them to another channel. The compressed file
+     * header is written as soon as the channel is created. The final block is only written by {@link #close()}, which
+     * does not close the underlying channel.
+     */
+    static final class Output implements WritableByteChannel {
+
+        private final WritableByteChannel channel;
+
+        private final Encoder encoder = new Encoder(true);
+
+        private final byte[] block = new byte[BLOCK_SIZE];
+
+        private int length = 0;
+
+        private boolean open = true;
+
+        Output(WritableByteChannel channel) throws IOException {
+            this.channel = channel;
+            FileHelper.writeFully(channel, ByteBuffer.wrap(MAGIC));
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int written = src.remaining();
+
+            while (src.hasRemaining()) {
+                int count = Math.min(src.remaining(), block.length - length);
+                src.get(block, length, count);
+                length += count;
+
+                if (length == block.length)
+                    flushBlock();
+            }
+
+            return written;
+        }
+
+        private void flushBlock() throws IOException {
+            FileHelper.writeFully(channel, encoder.encodeBlock(block, 0, length));
+            length = 0;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!open)
+                return;
+
+            open = false;
+            try {
+                if (length > 0)
+                    flushBlock();
+            } finally {
+                encoder.end();
+            }
+        }
+    }
+
+    /**
+     * Channel which reads the decompressed contents of the blocks read from another channel.
+     */
+    private static final class Input implements ReadableByteChannel {
+
+        private final ReadableByteChannel channel;
+
+        private final boolean lenient;
+
+        private final Inflater inflater = new Inflater(true);
+
+        private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+        private byte[] compressed = new byte[BLOCK_SIZE];
+
+        private final byte[] block = new byte[BLOCK_SIZE];
+
+        private int position = 0;
+
+        private int length = 0;
+
+        private boolean finished = false;
+
+        private boolean open = true;
+
+        Input(ReadableByteChannel channel, boolean lenient) {
+            this.channel = channel;
+            this.lenient = lenient;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            while (position == length) {
+                if (finished || !nextBlock()) {
+                    finished = true;
+                    return -1;
+                }
+            }
+
+            int count = Math.min(dst.remaining(), length - position);
+            dst.put(block, position, count);
+            position += count;
+            return count;
+        }
+
+        /**
+         * Reads and inflates the next block.
+         *
+         * @return {@code false} if there are no more blocks.
+         * @throws ParsingException if the block is corrupt.
+         */
+        private boolean nextBlock() throws IOException {
+            header.clear();
+            if (!readFully(channel, header))
+                return endOfInput(header.position() == 0);
+
+            int flags = header.get(0);
+            int rawLength = header.getInt(1);
+            int compressedLength = header.getInt(5);
+            if (rawLength < 0 || rawLength > BLOCK_SIZE || compressedLength < 0
+                    || compressedLength > MAX_COMPRESSED_SIZE)
+                throw new ParsingException("Invalid compressed block");
+
+            if (compressed.length < compressedLength)
+                compressed = new byte[MAX_COMPRESSED_SIZE];
+            if (!readFully(channel, ByteBuffer.wrap(compressed, 0, compressedLength)))
+                return endOfInput(false);
+
+            if ((flags & NEW_STREAM) != 0)
+                inflater.reset();
+            inflater.setInput(compressed, 0, compressedLength);
+
+            try {
+                int inflated = 0;
+                while (inflated < rawLength) {
+                    int count = inflater.inflate(block, inflated, rawLength - inflated);
+                    if (count == 0 && (inflater.needsInput() || inflater.needsDictionary() || inflater.finished()))
+                        break;
+                    inflated += count;
+                }
+
+                // consume the end of the sync flush, so the stream can be continued by the next block
+                if (inflated == rawLength && !inflater.needsInput() && inflater.inflate(new byte[1]) != 0)
+                    inflated++;
+
+                if (inflated != rawLength || !inflater.needsInput())
+                    throw new ParsingException("Corrupt compressed block");
+            } catch (DataFormatException e) {
+                throw new ParsingException("Corrupt compressed block", e);
+            }
+
+            position = 0;
+            length = rawLength;
+            return true;
+        }
+
+        /**
+         * Handles the end of the input part way through reading a block.
+         *
+         * @param clean {@code true} if the input ended between two blocks.
+         */
+        private boolean endOfInput(boolean clean) {
+            if (!clean && !lenient)
+                throw new ParsingException("Unexpected end of compressed input");
+            return false;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            if (open) {
+                open = false;
+                inflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package db;
+
+/**
+ * Controls whether the database file and its write-ahead log are compressed when they are written.
+ * <p>
+ * Compressed files are split into blocks by a {@link BlockCodec}, so they can still be read as a stream. Files are
+ * recognised by their header when they are read, so a database can always be opened whatever compression it was
+ * written with, and changing the compression takes effect the next time each file is rewritten.
+ */
+public enum Compression {
+
+    /**
+     * Write files as they are. This is the default and matches the original behaviour of the database.
+     */
+    NONE,
+
+    /**
+     * Compress files with the JDK's {@link java.util.zip.Deflater} at its fastest level. The field names repeated in
+     * every item of a table compress very well, so this greatly reduces the size of the file and the time spent
+     * writing it, at the cost of some CPU time.
+     */
+    DEFLATE
+}
@@ -0,0 +1,302 @@
+package db;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records where a {@link JsonDatabase} spends its time, returned by {@link JsonDatabase#getMetrics()}.
+ * <p>
+ * Every database keeps these metrics while it is open:
+ * <ul>
+ *     <li>a {@link LatencyHistogram} for each {@link Operation}</li>
+ *     <li>the number of bytes serialized for the database file and write-ahead log, before any compression</li>
+ *     <li>the number of bytes written to the disk</li>
+ *     <li>the number of items checked by queries, and the number they returned</li>
+ *     <li>the total time spent waiting for locks held by other threads</li>
+ *     <li>the hits, misses and evictions of the {@link RowCache row caches} of tables held off the heap</li>
+ * </ul>
+ * Recording only updates a few striped counters and never blocks, and lock waits are only timed when a lock is actually
+ * contended, so the metrics are cheap enough to always leave on. They can also be published through JMX with
+ * {@link #registerMBean(String)}.
+ */
+public class DatabaseMetrics implements DatabaseMetricsMXBean {
+
+    /**
+     * Domain of the {@code ObjectName} the metrics are registered under.
+     */
+    static final String JMX_DOMAIN = "minidb";
+
+    /**
+     * Operations whose latency is recorded.
+     */
+    public enum Operation {
+
+        /**
+         * Opening the database, or lazily loading one of its tables.
+         */
+        LOAD,
+
+        /**
+         * {@link JsonDatabase#append}, until the change is durable.
+         */
+        APPEND,
+
+        /**
+         * {@link JsonDatabase#appendValueToTable}, until the change is durable.
+         */
+        APPEND_VALUE,
+
+        /**
+         * {@link JsonDatabase#delete}, until the change is durable.
+         */
+        DELETE,
+
+        /**
+         * {@link Batch#commit()}, until the changes are durable.
+         */
+        BATCH,
+
+        /**
+         * Running a {@link Query} or one of the {@code find} methods, including those run on a {@link Snapshot}.
+         */
+        QUERY,
+
+        /**
+         * A single write of the database file or the write-ahead log, including forcing it to the disk.
+         */
+        FLUSH
+    }
+
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+
+    private final LongAdder bytesSerialized = new LongAdder();
+
+    private final LongAdder bytesWritten = new LongAdder();
+
+    private final LongAdder rowsScanned = new LongAdder();
+
+    private final LongAdder rowsReturned = new LongAdder();
+
+    private final LongAdder lockWaitNanos = new LongAdder();
+
+    private final LongAdder rowCacheHits = new LongAdder();
+
+    private final LongAdder rowCacheMisses = new LongAdder();
+
+    private final LongAdder rowCacheEvictions = new LongAdder();
+
+    /**
+     * Name the metrics are registered under, or {@code null} if they are not registered.
+     */
+    private ObjectName objectName = null;
+
+    DatabaseMetrics() {
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Returns the latency histogram of the given {@code operation}.
+     */
+    public LatencyHistogram getLatency(Operation operation) {
+        return latencies.get(operation);
+    }
+
+    @Override
+    public Map<String, LatencyHistogram> getLatencies() {
+        Map<String, LatencyHistogram> byName = new LinkedHashMap<>();
+        for (Map.Entry<Operation, LatencyHistogram> entry : latencies.entrySet()) {
+            byName.put(entry.getKey().name(), entry.getValue());
+        }
+        return byName;
+    }
+
+    /**
+     * Returns the number of bytes produced by serializing the database file and write-ahead log records, before they
+     * were compressed.
+     */
+    @Override
+    public long getBytesSerialized() {
+        return bytesSerialized.sum();
+    }
+
+    /**
+     * Returns the number of bytes written to the database file and write-ahead log.
+     */
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /**
+     * Returns the number of items queries have checked against their conditions.
+     */
+    @Override
+    public long getRowsScanned() {
+        return rowsScanned.sum();
+    }
+
+    /**
+     * Returns the number of items queries have returned.
+     */
+    @Override
+    public long getRowsReturned() {
+        return rowsReturned.sum();
+    }
+
+    /**
+     * Returns the total time, in nanoseconds, threads have spent waiting for a lock held by another thread.
+     */
+    @Override
+    public long getLockWaitNanos() {
+        return lockWaitNanos.sum();
+    }
+
+    /**
+     * Returns the number of items read from a row cache instead of being parsed.
+     */
+    @Override
+    public long getRowCacheHits() {
+        return rowCacheHits.sum();
+    }
+
+    /**
+     * Returns the number of items which were not in a row cache, so had to be parsed.
+     */
+    @Override
+    public long getRowCacheMisses() {
+        return rowCacheMisses.sum();
+    }
+
+    /**
+     * Returns the number of items evicted from a row cache to make room for others.
+     */
+    @Override
+    public long getRowCacheEvictions() {
+        return rowCacheEvictions.sum();
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : latencies.values()) {
+            histogram.reset();
+        }
+        bytesSerialized.reset();
+        bytesWritten.reset();
+        rowsScanned.reset();
+        rowsReturned.reset();
+        lockWaitNanos.reset();
+        rowCacheHits.reset();
+        rowCacheMisses.reset();
+        rowCacheEvictions.reset();
+    }
+
+    /**
+     * Publishes these metrics through the platform MBean server, under the name
+     * {@code minidb:type=DatabaseMetrics,name=<name>}. They are unregistered when the database is closed.
+     *
+     * @return the name the metrics were registered under.
+     * @throws IllegalStateException if the metrics have already been registered.
+     * @throws JMException if the name is invalid, or is already used by another database.
+     */
+    public synchronized ObjectName registerMBean(String name) throws JMException {
+        if (objectName != null)
+            throw new IllegalStateException("Metrics are already registered as " + objectName);
+
+        ObjectName registered = new ObjectName(JMX_DOMAIN + ":type=DatabaseMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, registered);
+
+        objectName = registered;
+        return registered;
+    }
+
+    /**
+     * Removes these metrics from the platform MBean server, if they were registered.
+     */
+    public synchronized void unregisterMBean() {
+        if (objectName == null)
+            return;
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(objectName);
+        } catch (JMException e) {
+            // already unregistered by someone else
+        }
+        objectName = null;
+    }
+
+    /**
+     * Records the latency of an {@code operation} which started at {@code startNanos}, as returned by
+     * {@link System#nanoTime()}.
+     */
+    void record(Operation operation, long startNanos) {
+        latencies.get(operation).record(System.nanoTime() - startNanos);
+    }
+
+    void addBytesSerialized(long bytes) {
+        bytesSerialized.add(bytes);
+    }
+
+    /**
+     * Returns a channel which writes to the {@code channel}, counting every byte written as serialized.
+     */
+    WritableByteChannel countSerialized(final WritableByteChannel channel) {
+        return new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                int written = channel.write(src);
+                bytesSerialized.add(written);
+                return written;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    void addBytesWritten(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    /**
+     * Records a query which checked {@code scanned} items and returned {@code returned} of them.
+     */
+    void addRows(long scanned, long returned) {
+        rowsScanned.add(scanned);
+        rowsReturned.add(returned);
+    }
+
+    void addLockWait(long nanos) {
+        lockWaitNanos.add(nanos);
+    }
+
+    void addRowCacheHit() {
+        rowCacheHits.increment();
+    }
+
+    void addRowCacheMiss() {
+        rowCacheMisses.increment();
+    }
+
+    void addRowCacheEviction() {
+        rowCacheEvictions.increment();
+    }
+}
@@ -0,0 +1,36 @@
+package db;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link DatabaseMetrics}, exposing the metrics of a {@link JsonDatabase} through JMX once they
+ * have been registered with {@link DatabaseMetrics#registerMBean(String)}.
+ */
+public interface DatabaseMetricsMXBean {
+
+    /**
+     * Returns the latency of each {@link DatabaseMetrics.Operation}, keyed by its name.
+     */
+    Map<String, LatencyHistogram> getLatencies();
+
+    long getBytesSerialized();
+
+    long getBytesWritten();
+
+    long getRowsScanned();
+
+    long getRowsReturned();
+
+    long getLockWaitNanos();
+
+    long getRowCacheHits();
+
+    long getRowCacheMisses();
+
+    long getRowCacheEvictions();
+
+    /**
+     * Clears every metric.
+     */
+    void reset();
+}
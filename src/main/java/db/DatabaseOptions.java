@@ -0,0 +1,296 @@
+package db;
+
+/**
+ * Options controlling how a {@link JsonDatabase} persists its contents. Each setter returns this instance so options can
+ * be chained:
+ * <pre>
+ *     DatabaseOptions options = new DatabaseOptions()
+ *             .writeAheadLog(true)
+ *             .checkpointThreshold(1024 * 1024);
+ * </pre>
+ * The default options match the original behaviour of the database, where every mutation rewrites the entire file.
+ */
+public class DatabaseOptions {
+
+    /**
+     * Default size, in bytes, the write-ahead log can reach before it is folded back into the database file.
+     */
+    static final long DEFAULT_CHECKPOINT_THRESHOLD = 4 * 1024 * 1024;
+
+    /**
+     * Default time a group commit waits for further mutations after the first one arrives.
+     */
+    static final long DEFAULT_GROUP_COMMIT_WINDOW_MILLIS = 2;
+
+    /**
+     * Default size of a group commit batch, in bytes, at which it is written without waiting for the window.
+     */
+    static final int DEFAULT_GROUP_COMMIT_MAX_BYTES = 1024 * 1024;
+
+    /**
+     * Default minimum time between forced writes when using {@link FsyncPolicy#PERIODIC}.
+     */
+    static final long DEFAULT_FSYNC_INTERVAL_MILLIS = 1000;
+
+    private boolean writeAheadLog = false;
+
+    private long checkpointThreshold = DEFAULT_CHECKPOINT_THRESHOLD;
+
+    private boolean groupCommit = false;
+
+    private long groupCommitWindowMillis = DEFAULT_GROUP_COMMIT_WINDOW_MILLIS;
+
+    private int groupCommitMaxBytes = DEFAULT_GROUP_COMMIT_MAX_BYTES;
+
+    private FsyncPolicy fsyncPolicy = FsyncPolicy.NEVER;
+
+    private boolean memoryMapped = false;
+
+    private long fsyncIntervalMillis = DEFAULT_FSYNC_INTERVAL_MILLIS;
+
+    private boolean lazyLoading = false;
+
+    private StorageEngine storageEngine = new JsonStorageEngine();
+
+    private Compression compression = Compression.NONE;
+
+    private RowStorage rowStorage = RowStorage.HEAP;
+
+    private long rowCacheBytes = 0;
+
+    /**
+     * Sets whether mutations should be appended to a {@link WriteAheadLog} rather than rewriting the entire file.
+     * Defaults to {@code false}.
+     */
+    public DatabaseOptions writeAheadLog(boolean enabled) {
+        this.writeAheadLog = enabled;
+        return this;
+    }
+
+    /**
+     * Sets the size, in bytes, the write-ahead log can reach before a new snapshot is written and the log is cleared.
+     * This has no effect unless the write-ahead log is enabled.
+     *
+     * @throws IllegalArgumentException if {@code bytes} is not positive.
+     */
+    public DatabaseOptions checkpointThreshold(long bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("Checkpoint threshold must be positive");
+
+        this.checkpointThreshold = bytes;
+        return this;
+    }
+
+    /**
+     * Sets whether mutations made by concurrent threads should be collected and persisted together with a single write.
+     * See {@link GroupCommitWriter}. Defaults to {@code false}.
+     */
+    public DatabaseOptions groupCommit(boolean enabled) {
+        this.groupCommit = enabled;
+        return this;
+    }
+
+    /**
+     * Sets how long, in milliseconds, a group commit keeps collecting mutations after the first one arrives. Longer
+     * windows give larger batches at the cost of latency. This has no effect unless group commit is enabled.
+     *
+     * @throws IllegalArgumentException if {@code millis} is negative.
+     */
+    public DatabaseOptions groupCommitWindow(long millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException("Group commit window cannot be negative");
+
+        this.groupCommitWindowMillis = millis;
+        return this;
+    }
+
+    /**
+     * Sets the approximate size, in bytes, at which a group commit batch is written without waiting for the rest of the
+     * window. This has no effect unless group commit is enabled.
+     *
+     * @throws IllegalArgumentException if {@code bytes} is not positive.
+     */
+    public DatabaseOptions groupCommitMaxBytes(int bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("Group commit batch size must be positive");
+
+        this.groupCommitMaxBytes = bytes;
+        return this;
+    }
+
+    /**
+     * Sets when writes to the database file and write-ahead log are forced to the disk. Defaults to
+     * {@link FsyncPolicy#NEVER}.
+     *
+     * @throws NullPointerException if {@code policy} is null.
+     */
+    public DatabaseOptions fsyncPolicy(FsyncPolicy policy) {
+        if (policy == null)
+            throw new NullPointerException("policy is null");
+
+        this.fsyncPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Sets the minimum time, in milliseconds, between forced writes when using {@link FsyncPolicy#PERIODIC}.
+     *
+     * @throws IllegalArgumentException if {@code millis} is negative.
+     */
+    public DatabaseOptions fsyncInterval(long millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException("Fsync interval cannot be negative");
+
+        this.fsyncIntervalMillis = millis;
+        return this;
+    }
+
+    /**
+     * Sets whether the database file should be memory-mapped and parsed in place when it is opened, rather than read
+     * through a buffer. This avoids copying the file onto the heap, which makes opening large, mostly-read databases
+     * faster. Files larger than 2GB are always read through a buffer. Defaults to {@code false}.
+     * <p>
+     * The mapping is released once it has been garbage collected. On platforms such as Windows a file cannot be
+     * replaced while it is mapped, so this is best suited to databases which are rarely written.
+     */
+    public DatabaseOptions memoryMapped(boolean enabled) {
+        this.memoryMapped = enabled;
+        return this;
+    }
+
+    /**
+     * Sets whether tables should only be parsed the first time they are used, rather than when the database is opened.
+     * The file is written with a {@link TableDirectory} at its start recording where each table is stored, so opening
+     * the database only reads the directory. This makes opening a large database to use a few of its tables much
+     * faster. Defaults to {@code false}.
+     * <p>
+     * A file without a directory is loaded in full the first time, and is given a directory the next time it is
+     * written. Files with a directory can still be opened without lazy loading.
+     */
+    public DatabaseOptions lazyLoading(boolean enabled) {
+        this.lazyLoading = enabled;
+        return this;
+    }
+
+    /**
+     * Sets the format the database file is stored in. A database must always be opened with the same engine it was
+     * written with. Defaults to a {@link JsonStorageEngine}.
+     * <p>
+     * Lazy loading relies on the JSON format, so it can only be used with a {@code JsonStorageEngine}.
+     *
+     * @throws NullPointerException if {@code engine} is null.
+     */
+    public DatabaseOptions storageEngine(StorageEngine engine) {
+        if (engine == null)
+            throw new NullPointerException("engine is null");
+
+        this.storageEngine = engine;
+        return this;
+    }
+
+    /**
+     * Sets how the database file and write-ahead log are compressed when they are written. Files are read whatever
+     * compression they were written with, so this can be changed for an existing database. Defaults to
+     * {@link Compression#NONE}.
+     * <p>
+     * The {@link #checkpointThreshold(long) checkpoint threshold} is compared with the compressed size of the log. Lazy
+     * loading needs to find each table within the file, so it can only be used without compression.
+     *
+     * @throws NullPointerException if {@code compression} is null.
+     */
+    public DatabaseOptions compression(Compression compression) {
+        if (compression == null)
+            throw new NullPointerException("compression is null");
+
+        this.compression = compression;
+        return this;
+    }
+
+    /**
+     * Sets where the items of each table are held in memory. Defaults to {@link RowStorage#HEAP}.
+     * <p>
+     * A table is moved off the heap the first time it is used. Unless lazy loading is enabled the whole file is still
+     * parsed onto the heap when the database is opened, so large databases should also enable
+     * {@link #lazyLoading(boolean)}, which moves each table's items off the heap as they are parsed.
+     *
+     * @throws NullPointerException if {@code storage} is null.
+     */
+    public DatabaseOptions rowStorage(RowStorage storage) {
+        if (storage == null)
+            throw new NullPointerException("storage is null");
+
+        this.rowStorage = storage;
+        return this;
+    }
+
+    /**
+     * Sets the size, in bytes of JSON text, of the cache each table held off the heap keeps of the items it has parsed,
+     * so the items read most often are not parsed again on every read. See {@link RowCache}. Hits, misses and evictions
+     * are recorded in the database's {@link DatabaseMetrics}. This has no effect on tables held on the heap. Defaults to
+     * 0, which disables the cache.
+     * <p>
+     * Parsed items take up several times the size of their text on the heap, so the heap needs room for several times
+     * this size for each table in use.
+     *
+     * @throws IllegalArgumentException if {@code bytes} is negative.
+     */
+    public DatabaseOptions rowCacheBytes(long bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException("Row cache size cannot be negative");
+
+        this.rowCacheBytes = bytes;
+        return this;
+    }
+
+    boolean isWriteAheadLog() {
+        return writeAheadLog;
+    }
+
+    long getCheckpointThreshold() {
+        return checkpointThreshold;
+    }
+
+    boolean isGroupCommit() {
+        return groupCommit;
+    }
+
+    long getGroupCommitWindowMillis() {
+        return groupCommitWindowMillis;
+    }
+
+    int getGroupCommitMaxBytes() {
+        return groupCommitMaxBytes;
+    }
+
+    boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    boolean isLazyLoading() {
+        return lazyLoading;
+    }
+
+    StorageEngine getStorageEngine() {
+        return storageEngine;
+    }
+
+    Compression getCompression() {
+        return compression;
+    }
+
+    RowStorage getRowStorage() {
+        return rowStorage;
+    }
+
+    long getRowCacheBytes() {
+        return rowCacheBytes;
+    }
+
+    FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    long getFsyncIntervalMillis() {
+        return fsyncIntervalMillis;
+    }
+}
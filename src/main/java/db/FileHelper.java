@@ -1,26 +1,121 @@
 package db;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Utility class for performing synchronized read/writes to a {@code File}.
  * <p>
  * Both reading and writing to the file are synchronized, however, synchronized reading is only a precaution. Since the
- * entire contents are read into memory and stored as a {@code JSONObject} by the {@link JsonDatabase} class, {@code read()}
- * should only be called when the program first runs. For normal database queries {@code JsonDatabase} should use its JSONObject
+ * entire contents are read into memory and stored as a {@code JSONObject} by the {@link JsonDatabase} class, the file
+ * should only be read when the program first runs. {@code JsonDatabase} parses it as a stream through
+ * {@link #openChannel()} rather than reading it into a String with {@link #read()}. For normal database queries {@code JsonDatabase} should use its JSONObject
  * rather than re-read the file.
  * @see JsonDatabase#rootObject for further details.
  * <p>
- * Please note, when calling {@link #write(String)} this will override all existing content with the given string.
+ * Please note, when calling {@link #write(String)} this will override all existing content with the given string. To add
+ * to the end of the file without touching the existing content use {@link #append(String)} instead.
+ * <p>
+ * {@code write} never modifies the file in place. The contents are written to a temporary file next to it, which is then
+ * renamed over the original, so a crash part way through a write leaves either the old or the new contents but never a
+ * truncated file. Whether writes are forced to the disk is controlled by the {@link FsyncPolicy}. Writes left to the
+ * operating system by {@link FsyncPolicy#PERIODIC} are forced by a timer once the interval has passed, or by
+ * {@link #close()}.
  */
 class FileHelper {
 
+    /**
+     * Writes the new contents of the file for {@link #write(Contents)}.
+     */
+    interface Contents {
+
+        /**
+         * Writes the entire contents to the {@code channel}.
+         *
+         * @throws IOException if the contents could not be written.
+         */
+        void writeTo(WritableByteChannel channel) throws IOException;
+    }
+
+    /**
+     * Charset used for reading and writing every file.
+     */
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Extension added to the file name to get the temporary file used by {@link #write(String)}.
+     */
+    static final String TEMP_EXTENSION = ".tmp";
+
+    /**
+     * Forces the writes of every file which have been left to the operating system by {@link FsyncPolicy#PERIODIC}.
+     */
+    private static final ScheduledExecutorService FSYNC_TIMER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "minidb-fsync");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
     /**
      * The file we are operating on.
      */
     private final File file;
 
+    /**
+     * When writes to the {@code file} should be forced to the disk.
+     */
+    private FsyncPolicy fsyncPolicy = FsyncPolicy.NEVER;
+
+    /**
+     * Minimum time between forced writes when using {@link FsyncPolicy#PERIODIC}.
+     */
+    private long fsyncIntervalNanos = 0;
+
+    /**
+     * Value of {@link System#nanoTime()} when a write was last forced.
+     */
+    private long lastFsync = System.nanoTime();
+
+    /**
+     * {@code true} if the contents of the file have been written since it was last forced.
+     */
+    private boolean dataPending = false;
+
+    /**
+     * {@code true} if the file has been replaced by a rename since its directory was last forced.
+     */
+    private boolean directoryPending = false;
+
+    /**
+     * Pending run of {@link #forceScheduled()}, or {@code null} if none is scheduled.
+     */
+    private ScheduledFuture<?> scheduledForce = null;
+
+    /**
+     * Records each write to the file, or {@code null} if writes are not recorded.
+     */
+    private DatabaseMetrics metrics = null;
+
     /**
      * Creates a new {@code FileHelper} for the given {@code File}.
      * <p>
@@ -68,6 +163,21 @@ class FileHelper {
         return new FileHelper(file);
     }
 
+    /**
+     * Returns a {@code FileHelper} for the given {@code File}, creating an empty file first if it does not exist.
+     * <p>
+     * Unlike {@link #createFile(String)} this will not create any missing parent directories.
+     *
+     * @throws IOException if the file did not exist and could not be created.
+     */
+    static FileHelper getOrCreate(File file) throws IOException {
+        if (!file.exists() && !file.createNewFile() && !file.exists()) {
+            throw new IOException("Could not create file " + file.getPath());
+        }
+
+        return new FileHelper(file);
+    }
+
     /**
      * Writes the {@code contents} to {@code file}.
      *
@@ -75,9 +185,337 @@ class FileHelper {
      * @throws IOException if an i/o error occurred.
      */
     synchronized void write(String contents) throws IOException {
-        FileOutputStream writer = new FileOutputStream(this.file);
-        writer.write(contents.getBytes());
-        writer.close();
+        write(ByteBuffer.wrap(contents.getBytes(UTF_8)));
+    }
+
+    /**
+     * Replaces the contents of {@code file} with the remaining bytes of each of the {@code parts}, in order, in the same
+     * way as {@link #write(String)}. This lets a caller assemble a file from pieces, such as slices of a mapped buffer,
+     * without first copying them into a single array.
+     *
+     * @throws IOException if an i/o error occurred.
+     */
+    synchronized void write(final ByteBuffer... parts) throws IOException {
+        write(new Contents() {
+            @Override
+            public void writeTo(WritableByteChannel channel) throws IOException {
+                for (ByteBuffer part : parts) {
+                    writeFully(channel, part.duplicate());
+                }
+            }
+        });
+    }
+
+    /**
+     * Replaces the contents of {@code file} with whatever the {@code contents} write, in the same way as
+     * {@link #write(String)}. This lets a caller stream the new contents straight to the file rather than building them
+     * in memory first.
+     *
+     * @throws IOException if an i/o error occurred.
+     */
+    synchronized void write(Contents contents) throws IOException {
+        long start = System.nanoTime();
+        File temp = new File(file.getPath() + TEMP_EXTENSION);
+        boolean forced;
+        long written;
+
+        FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            contents.writeTo(channel);
+            written = channel.size();
+            forced = forceIfRequired(channel);
+        } finally {
+            channel.close();
+        }
+
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        // the rename is only durable once the directory entry has been forced as well
+        if (forced) {
+            forceDirectory();
+            directoryPending = false;
+        } else if (fsyncPolicy == FsyncPolicy.PERIODIC) {
+            directoryPending = true;
+        }
+
+        recordFlush(start, written);
+    }
+
+    /**
+     * Sets when writes to the file should be forced to the disk.
+     *
+     * @param policy the new policy.
+     * @param intervalMillis minimum time between forced writes, only used by {@link FsyncPolicy#PERIODIC}.
+     */
+    synchronized void setFsyncPolicy(FsyncPolicy policy, long intervalMillis) {
+        this.fsyncPolicy = policy;
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    }
+
+    /**
+     * Sets the metrics that writes to the file are recorded in, or {@code null} to stop recording them.
+     */
+    synchronized void setMetrics(DatabaseMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    private void recordFlush(long startNanos, long bytes) {
+        if (metrics == null)
+            return;
+
+        metrics.addBytesWritten(bytes);
+        metrics.record(DatabaseMetrics.Operation.FLUSH, startNanos);
+    }
+
+    /**
+     * Writes every remaining byte of the {@code buffer} to the {@code channel}.
+     */
+    static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Forces the {@code channel} to the disk if the {@code fsyncPolicy} requires it.
+     *
+     * @return {@code true} if the channel was forced.
+     */
+    private boolean forceIfRequired(FileChannel channel) throws IOException {
+        switch (fsyncPolicy) {
+            case ALWAYS:
+                break;
+            case PERIODIC:
+                if (System.nanoTime() - lastFsync < fsyncIntervalNanos) {
+                    dataPending = true;
+                    scheduleForce();
+                    return false;
+                }
+                break;
+            default:
+                return false;
+        }
+
+        channel.force(true);
+        lastFsync = System.nanoTime();
+        dataPending = false;
+        return true;
+    }
+
+    /**
+     * Schedules {@link #forceScheduled()} for when the interval since the last forced write has passed, unless it is
+     * already scheduled.
+     */
+    private void scheduleForce() {
+        if (scheduledForce != null)
+            return;
+
+        long delay = Math.max(0, lastFsync + fsyncIntervalNanos - System.nanoTime());
+        scheduledForce = FSYNC_TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                forceScheduled();
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Run by the timer to force the writes left to the operating system. If the force fails they stay pending, and are
+     * forced by the next forced write or by {@link #close()}.
+     */
+    private synchronized void forceScheduled() {
+        scheduledForce = null;
+        try {
+            forcePending();
+        } catch (IOException e) {
+            // left pending, there is no caller to report the failure to
+        }
+    }
+
+    /**
+     * Forces any writes which have been left to the operating system.
+     *
+     * @throws IOException if the file could not be forced.
+     */
+    private void forcePending() throws IOException {
+        if (dataPending) {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+            dataPending = false;
+        }
+        if (directoryPending) {
+            forceDirectory();
+            directoryPending = false;
+        }
+        lastFsync = System.nanoTime();
+    }
+
+    /**
+     * Returns {@code true} if there are writes which have been left to the operating system and not yet forced.
+     */
+    synchronized boolean isForcePending() {
+        return dataPending || directoryPending;
+    }
+
+    /**
+     * Forces any writes which have been left to the operating system, and cancels the timer which would have forced
+     * them. The file can still be written afterwards.
+     *
+     * @throws IOException if the file could not be forced.
+     */
+    synchronized void close() throws IOException {
+        if (scheduledForce != null) {
+            scheduledForce.cancel(false);
+            scheduledForce = null;
+        }
+        forcePending();
+    }
+
+    /**
+     * Forces the directory containing the {@code file}, so a rename within it survives a crash. Not every platform
+     * allows a directory to be opened, in which case this does nothing.
+     */
+    private void forceDirectory() {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory == null)
+            return;
+
+        try {
+            FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            // directories cannot be opened on some platforms, the rename is still atomic
+        }
+    }
+
+    /**
+     * Appends the {@code contents} to the end of {@code file}, leaving the existing content untouched.
+     *
+     * @param contents String contents to append.
+     * @throws IOException if an i/o error occurred.
+     */
+    synchronized void append(String contents) throws IOException {
+        append(ByteBuffer.wrap(contents.getBytes(UTF_8)));
+    }
+
+    /**
+     * Appends the remaining bytes of the {@code contents} to the end of {@code file}, leaving the existing content
+     * untouched.
+     *
+     * @throws IOException if an i/o error occurred.
+     */
+    synchronized void append(ByteBuffer contents) throws IOException {
+        long start = System.nanoTime();
+        long written = contents.remaining();
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        try {
+            writeFully(channel, contents);
+            forceIfRequired(channel);
+        } finally {
+            channel.close();
+        }
+
+        recordFlush(start, written);
+    }
+
+    /**
+     * Returns the current length of {@code file} in bytes.
+     */
+    long length() {
+        return file.length();
+    }
+
+    /**
+     * Reads the {@code file} and returns each line as a separate String. Unlike {@link #read()} the line structure of
+     * the file is preserved.
+     *
+     * @throws IOException if readLine() fails.
+     */
+    synchronized List<String> readLines() throws IOException {
+        List<String> lines = new ArrayList<>();
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+
+        return lines;
+    }
+
+    /**
+     * Deletes {@code file} from the disk.
+     *
+     * @throws IOException if the file exists but could not be deleted.
+     */
+    synchronized void delete() throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not delete file " + file.getPath());
+        }
+        // nothing is left to force
+        dataPending = false;
+        directoryPending = false;
+    }
+
+    /**
+     * Opens a read-only channel on the {@code file}, so it can be parsed as a stream rather than read into memory with
+     * {@link #read()}. The caller is responsible for closing the channel.
+     *
+     * @throws IOException if the file could not be opened.
+     */
+    FileChannel openChannel() throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+
+    /**
+     * Maps the entire {@code file} into memory, read-only. See {@link #map(long, long)}.
+     *
+     * @throws IOException if the file could not be mapped, for example because it is larger than 2GB.
+     */
+    MappedByteBuffer map() throws IOException {
+        return map(0, file.length());
+    }
+
+    /**
+     * Maps {@code size} bytes of the {@code file}, starting at {@code position}, into memory, read-only.
+     * <p>
+     * The returned buffer is backed by the operating system's page cache rather than the Java heap, so reading from it
+     * neither copies the file nor creates garbage. The mapping remains valid after this method returns, and is released
+     * once the buffer has been garbage collected. Writes made by {@link #write(String)} replace the file rather than
+     * modifying it, so they are not visible through an existing mapping.
+     *
+     * @throws IOException if the file could not be mapped.
+     * @throws IllegalArgumentException if {@code size} is larger than {@link Integer#MAX_VALUE}.
+     */
+    MappedByteBuffer map(long position, long size) throws IOException {
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Cannot map more than " + Integer.MAX_VALUE + " bytes");
+
+        FileChannel channel = openChannel();
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        } finally {
+            channel.close();
+        }
     }
 
     /**
@@ -88,11 +526,15 @@ class FileHelper {
     synchronized String read() throws IOException {
         StringBuilder builder = new StringBuilder();
 
-        BufferedReader reader = new BufferedReader(new FileReader(file));
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
 
         String line;
-        while ( (line = reader.readLine()) != null) {
-            builder.append(line);
+        try {
+            while ( (line = reader.readLine()) != null) {
+                builder.append(line);
+            }
+        } finally {
+            reader.close();
         }
 
         String contents = builder.toString();
@@ -0,0 +1,28 @@
+package db;
+
+/**
+ * Controls when the database forces its writes through to the storage device.
+ * <p>
+ * Without a force a completed write may only have reached the operating system's page cache, and can be lost if the
+ * machine crashes. Forcing is expensive, so the policy lets the caller trade durability against write cost.
+ */
+public enum FsyncPolicy {
+
+    /**
+     * Never force writes, leave it to the operating system to decide when they reach the disk. This is the default and
+     * matches the original behaviour of the database.
+     */
+    NEVER,
+
+    /**
+     * Force every write before it returns.
+     */
+    ALWAYS,
+
+    /**
+     * Force a write only if the interval set by {@link DatabaseOptions#fsyncInterval(long)} has passed since the last
+     * forced write. Writes in between are forced by a timer once the interval has passed, or when the database is
+     * closed, so a write is on the disk at most one interval after it was made.
+     */
+    PERIODIC
+}
@@ -0,0 +1,236 @@
+package db;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batches writes from several threads so they are persisted together with a single write.
+ * <p>
+ * Callers {@link #submit(String)} an entry and receive a {@code Future} which completes once the entry is durable. A
+ * single flusher thread waits for the first entry, then keeps collecting entries until either the commit window has
+ * passed or the batch has reached its byte budget, and hands the whole batch to the {@link Sink} in one call. Entries are
+ * always handed to the sink in the order they were submitted.
+ * <p>
+ * If the sink fails, every entry in that batch fails with the same exception. If the flusher thread stops for any
+ * other reason than {@link #close()}, such as an {@code Error} or an interrupt, every entry still queued fails and
+ * further calls to {@link #submit(String)} throw, so no caller waits for a write that will never happen.
+ */
+class GroupCommitWriter implements Closeable {
+
+    /**
+     * Destination of a batch of entries.
+     */
+    interface Sink {
+
+        /**
+         * Persists every entry in the batch, in order.
+         *
+         * @throws IOException if the batch could not be persisted.
+         */
+        void write(List<String> entries) throws IOException;
+    }
+
+    /**
+     * An entry waiting to be written, along with the future that is completed once it has been.
+     */
+    private static final class Pending {
+        final String entry;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(String entry) {
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * Queued by {@link #close()} to tell the flusher thread to stop once everything before it has been written.
+     */
+    private static final Pending SHUTDOWN = new Pending("");
+
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+
+    private final Sink sink;
+
+    private final long windowNanos;
+
+    private final int maxBatchBytes;
+
+    private final Thread flusher;
+
+    private boolean closed = false;
+
+    /**
+     * Why the flusher thread stopped before the writer was closed, or {@code null} if it has not.
+     */
+    private Throwable failure = null;
+
+    /**
+     * Creates a new writer and starts its flusher thread.
+     *
+     * @param sink destination of each batch.
+     * @param windowMillis how long to keep collecting entries after the first entry of a batch arrives.
+     * @param maxBatchBytes approximate size at which a batch is written without waiting for the rest of the window.
+     */
+    GroupCommitWriter(Sink sink, long windowMillis, int maxBatchBytes) {
+        this.sink = sink;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxBatchBytes = maxBatchBytes;
+
+        this.flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        }, "minidb-group-commit");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Queues the {@code entry} to be written with the next batch.
+     *
+     * @return a future which completes once the batch containing the entry has been written, or completes
+     *          exceptionally if the write failed.
+     * @throws IllegalStateException if the writer has been closed, or its flusher thread has stopped.
+     */
+    synchronized Future<Void> submit(String entry) {
+        if (failure != null)
+            throw new IllegalStateException("GroupCommitWriter has stopped", failure);
+        if (closed)
+            throw new IllegalStateException("GroupCommitWriter has been closed");
+
+        Pending pending = new Pending(entry);
+        queue.add(pending);
+        return pending.done;
+    }
+
+    /**
+     * Writes every entry that has already been submitted and stops the flusher thread.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed)
+                return;
+
+            closed = true;
+            queue.add(SHUTDOWN);
+        }
+
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Body of the flusher thread. If it stops before reading {@link #SHUTDOWN}, fails every entry left.
+     */
+    private void flushLoop() {
+        try {
+            collectAndFlush();
+        } catch (Throwable e) {
+            stop(e);
+        }
+    }
+
+    /**
+     * Collects entries into batches and flushes them until {@link #SHUTDOWN} is read.
+     *
+     * @throws InterruptedException if the thread was interrupted, once the batch in progress has been written.
+     */
+    private void collectAndFlush() throws InterruptedException {
+        List<Pending> batch = new ArrayList<>();
+        boolean running = true;
+        InterruptedException interrupted = null;
+
+        while (running) {
+            try {
+                Pending first = queue.take();
+                if (first == SHUTDOWN)
+                    break;
+
+                batch.add(first);
+                int bytes = first.entry.length();
+                long deadline = System.nanoTime() + windowNanos;
+
+                while (bytes < maxBatchBytes) {
+                    long remaining = deadline - System.nanoTime();
+                    Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+
+                    if (next == null)
+                        break;
+                    if (next == SHUTDOWN) {
+                        running = false;
+                        break;
+                    }
+
+                    batch.add(next);
+                    bytes += next.entry.length();
+                }
+            } catch (InterruptedException e) {
+                running = false;
+                interrupted = e;
+            }
+
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+
+        if (interrupted != null)
+            throw interrupted;
+    }
+
+    /**
+     * Marks the writer as failed with the given {@code cause} and fails every entry still queued.
+     */
+    private void stop(Throwable cause) {
+        synchronized (this) {
+            failure = cause;
+            closed = true;
+        }
+
+        // submit can no longer add entries, so the queue only shrinks
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            if (pending != SHUTDOWN)
+                pending.done.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Hands the {@code batch} to the sink and completes each entry's future. An {@code Error} from the sink fails the
+     * batch and is then thrown on, which stops the flusher thread.
+     */
+    private void flush(List<Pending> batch) {
+        List<String> entries = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            entries.add(pending.entry);
+        }
+
+        try {
+            sink.write(entries);
+        } catch (Throwable e) {
+            for (Pending pending : batch) {
+                pending.done.completeExceptionally(e);
+            }
+            if (e instanceof Error)
+                throw (Error) e;
+            return;
+        }
+
+        for (Pending pending : batch) {
+            pending.done.complete(null);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package db;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An {@link Index} backed by a {@code HashMap}, answering equality lookups in constant time.
+ */
+class HashIndex extends Index {
+
+    /**
+     * Ids of the items holding each normalized value.
+     */
+    private final Map<Object, Set<Integer>> entries = new HashMap<>();
+
+    HashIndex(String field) {
+        super(field);
+    }
+
+    @Override
+    void add(int id, Object value) {
+        Object key = normalize(value);
+
+        Set<Integer> ids = entries.get(key);
+        if (ids == null) {
+            ids = new HashSet<>();
+            entries.put(key, ids);
+        }
+
+        ids.add(id);
+    }
+
+    @Override
+    void remove(int id, Object value) {
+        Object key = normalize(value);
+
+        Set<Integer> ids = entries.get(key);
+        if (ids == null)
+            return;
+
+        ids.remove(id);
+        if (ids.isEmpty())
+            entries.remove(key);
+    }
+
+    @Override
+    Set<Integer> find(Object value) {
+        Set<Integer> ids = entries.get(normalize(value));
+        if (ids == null)
+            return Collections.emptySet();
+
+        return Collections.unmodifiableSet(ids);
+    }
+}
@@ -0,0 +1,223 @@
+package db;
+
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Holds items on the heap, in a dense array indexed by id. Looking one up costs an array read, with no boxing, no
+ * {@code String} and no hashing, and each item costs a single array slot rather than a hash map entry and a key.
+ * <p>
+ * Ids are normally allocated in sequence, so the array is mostly full. An id far beyond the end of the array, which can
+ * only come from a hand-edited file, is held in a small overflow map instead so it cannot make the array huge.
+ * <p>
+ * Items are encoded by a {@link RowDictionary} as they are saved, so the keys and common string values of a table are
+ * only held once. The item saved is therefore a copy of the one passed to {@link #put(int, JSONObject)}.
+ */
+final class HeapRowStore extends RowStore {
+
+    /**
+     * Largest array the items are held in.
+     */
+    static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    /**
+     * Items keyed by id. Replaced by a larger copy when it fills, so it must be read once per operation.
+     */
+    private volatile AtomicReferenceArray<JSONObject> dense;
+
+    /**
+     * Items whose id was too far beyond the end of the {@code dense} array when they were added. An item can stay here
+     * after the array has grown past its id, in which case the array holds its current version.
+     */
+    private final ConcurrentMap<Integer, JSONObject> sparse = new ConcurrentHashMap<>();
+
+    /**
+     * Number of items.
+     */
+    private volatile int rows = 0;
+
+    /**
+     * Shares the keys and common values of the items.
+     */
+    private final RowDictionary dictionary = new RowDictionary();
+
+    HeapRowStore(int highestId, int expectedRows) {
+        int capacity = highestId < MAX_CAPACITY && isDenseEnough(highestId, expectedRows) ? highestId + 1 : 16;
+        this.dense = new AtomicReferenceArray<>(Math.max(16, capacity));
+    }
+
+    @Override
+    JSONObject get(int id) {
+        AtomicReferenceArray<JSONObject> array = dense;
+        if (id >= 0 && id < array.length()) {
+            JSONObject item = array.get(id);
+            if (item != null)
+                return item;
+        }
+        return sparse.isEmpty() ? null : sparse.get(id);
+    }
+
+    @Override
+    JSONObject peek(int id) {
+        return get(id);
+    }
+
+    @Override
+    boolean contains(int id) {
+        return get(id) != null;
+    }
+
+    @Override
+    boolean put(int id, JSONObject item) {
+        item = dictionary.encode(item);
+        boolean replaced = get(id) != null;
+
+        AtomicReferenceArray<JSONObject> array = dense;
+        if (id >= array.length() && isDenseEnough(id, rows + 1))
+            array = grow(id);
+
+        if (id < array.length()) {
+            array.set(id, item);
+            if (!sparse.isEmpty())
+                sparse.remove(id);
+        } else {
+            sparse.put(id, item);
+        }
+
+        if (!replaced)
+            rows++;
+        return replaced;
+    }
+
+    @Override
+    boolean remove(int id) {
+        if (get(id) == null)
+            return false;
+
+        AtomicReferenceArray<JSONObject> array = dense;
+        if (id < array.length())
+            array.set(id, null);
+        if (!sparse.isEmpty())
+            sparse.remove(id);
+
+        rows--;
+        return true;
+    }
+
+    @Override
+    int size() {
+        return rows;
+    }
+
+    @Override
+    void forEach(Table.ItemVisitor visitor) {
+        AtomicReferenceArray<JSONObject> array = dense;
+        for (int id = 0; id < array.length(); id++) {
+            JSONObject item = array.get(id);
+            if (item != null && !visitor.visit(id, item))
+                return;
+        }
+
+        for (Map.Entry<Integer, JSONObject> entry : sparse.entrySet()) {
+            // the array holds the current version of any id it covers
+            if (entry.getKey() < array.length())
+                continue;
+            if (!visitor.visit(entry.getKey(), entry.getValue()))
+                return;
+        }
+    }
+
+    @Override
+    PrimitiveIterator.OfInt ids() {
+        return new Ids(dense, sparse.keySet().iterator());
+    }
+
+    @Override
+    long offHeapBytes() {
+        return 0;
+    }
+
+    @Override
+    boolean isOffHeap() {
+        return false;
+    }
+
+    /**
+     * Replaces the array with a larger copy which reaches {@code id}, and moves the overflow items it now covers into
+     * it. The moved items are left in the overflow map as well, since a reader may still be using the old array.
+     */
+    private AtomicReferenceArray<JSONObject> grow(int id) {
+        AtomicReferenceArray<JSONObject> old = dense;
+        int capacity = (int) Math.min(MAX_CAPACITY, Math.max(id + 1L, old.length() * 2L));
+
+        AtomicReferenceArray<JSONObject> array = new AtomicReferenceArray<>(capacity);
+        for (int i = 0; i < old.length(); i++) {
+            array.lazySet(i, old.get(i));
+        }
+        for (Map.Entry<Integer, JSONObject> entry : sparse.entrySet()) {
+            // entries the old array already covered are out of date
+            if (entry.getKey() >= old.length() && entry.getKey() < capacity)
+                array.lazySet(entry.getKey(), entry.getValue());
+        }
+
+        dense = array;
+        return array;
+    }
+
+    /**
+     * Iterates over the ids in the array it was created with, then the overflow ids beyond its end.
+     */
+    private static final class Ids implements PrimitiveIterator.OfInt {
+
+        private final AtomicReferenceArray<JSONObject> array;
+
+        private final Iterator<Integer> sparseIds;
+
+        private int index = 0;
+
+        private int next;
+
+        Ids(AtomicReferenceArray<JSONObject> array, Iterator<Integer> sparseIds) {
+            this.array = array;
+            this.sparseIds = sparseIds;
+            this.next = advance();
+        }
+
+        private int advance() {
+            while (index < array.length()) {
+                int id = index++;
+                if (array.get(id) != null)
+                    return id;
+            }
+
+            while (sparseIds.hasNext()) {
+                int id = sparseIds.next();
+                if (id >= array.length())
+                    return id;
+            }
+            return -1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != -1;
+        }
+
+        @Override
+        public int nextInt() {
+            if (next == -1)
+                throw new NoSuchElementException();
+
+            int current = next;
+            next = advance();
+            return current;
+        }
+    }
+}
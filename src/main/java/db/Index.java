@@ -0,0 +1,70 @@
+package db;
+
+import org.json.JSONObject;
+
+import java.util.Set;
+
+/**
+ * A secondary index over a single field of the items in a {@link Table}, mapping field values to the ids of the items
+ * holding them.
+ * <p>
+ * Indexes are owned by their {@code Table}, which keeps them up to date as items are appended, changed and deleted. Items
+ * which do not have the indexed field are not indexed.
+ * <p>
+ * Values are normalized with {@link #normalize(Object)} before they are indexed or looked up, so for example the
+ * {@code Integer} 5 and the {@code Long} 5 refer to the same entry.
+ */
+abstract class Index {
+
+    /**
+     * Name of the field this index covers.
+     */
+    private final String field;
+
+    Index(String field) {
+        this.field = field;
+    }
+
+    /**
+     * Returns the name of the field this index covers.
+     */
+    String getField() {
+        return field;
+    }
+
+    /**
+     * Adds the item with the given {@code id} and field {@code value} to the index.
+     */
+    abstract void add(int id, Object value);
+
+    /**
+     * Removes the item with the given {@code id} and field {@code value} from the index.
+     */
+    abstract void remove(int id, Object value);
+
+    /**
+     * Returns the ids of every item whose field is equal to {@code value}, or an empty set if there are none.
+     */
+    abstract Set<Integer> find(Object value);
+
+    /**
+     * Converts a field value into the form used as an index key. Whole numbers become a {@code Long}, other numbers a
+     * {@code Double} and {@code null} becomes {@link JSONObject#NULL}. Every other value is returned unchanged.
+     */
+    static Object normalize(Object value) {
+        if (value == null)
+            return JSONObject.NULL;
+
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+            return ((Number) value).longValue();
+
+        if (value instanceof Number) {
+            double d = ((Number) value).doubleValue();
+            if (d == Math.rint(d) && Math.abs(d) < Long.MAX_VALUE)
+                return (long) d;
+            return d;
+        }
+
+        return value;
+    }
+}
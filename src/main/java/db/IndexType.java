@@ -0,0 +1,18 @@
+package db;
+
+/**
+ * The kinds of secondary index that can be created with {@link JsonDatabase#createIndex(String, String, IndexType)}.
+ */
+public enum IndexType {
+
+    /**
+     * Answers equality lookups in constant time, but cannot be used for range queries or ordering.
+     */
+    HASH,
+
+    /**
+     * Keeps values sorted, answering equality lookups in logarithmic time as well as range scans, min/max and ordered
+     * iteration without touching unrelated items.
+     */
+    ORDERED
+}
@@ -0,0 +1,30 @@
+package db;
+
+import org.json.JSONObject;
+
+/**
+ * The items of a table as seen by a {@link Query}. This is either a {@link Table}, which sees the latest version of
+ * every item, or a table held by a {@link Snapshot}, which sees the items as they were when the snapshot was opened.
+ */
+interface ItemSource {
+
+    /**
+     * Returns the item with the given id, or {@code null} if there is no such item.
+     */
+    JSONObject getItem(int id);
+
+    /**
+     * Calls the {@code visitor} for every item, stopping early if the visitor returns {@code false}.
+     */
+    void forEachItem(Table.ItemVisitor visitor);
+
+    /**
+     * Returns the index on the given field, or {@code null} if the field is not indexed or the index cannot be used.
+     */
+    Index getIndex(String field);
+
+    /**
+     * Returns the index on the given field if it is an {@link OrderedIndex} which can be used, otherwise {@code null}.
+     */
+    OrderedIndex getOrderedIndex(String field);
+}
@@ -1,253 +1,1520 @@
 package db;
 
-import com.sun.istack.internal.Nullable;
 import exceptions.ParsingException;
+import exceptions.SerializerException;
+import json.ObjectSerializer;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import javax.annotation.Nullable;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * This class acts as a wrapper around a .json file and provides methods typical of a relational database, such as appending
  * to a table, querying the table, adding entries, etc.
  * <p>
- * Please note, this will load the entire file into memory as a {@code JSONObject}.
+ * Please note, this will load the entire file into memory as a {@code JSONObject}. With
+ * {@link DatabaseOptions#lazyLoading(boolean)} enabled each table is instead only loaded the first time it is used, see
+ * {@link TableDirectory}. With {@link DatabaseOptions#rowStorage(RowStorage)} set the items of each table are held
+ * outside the heap, so tables can be larger than the heap. The file is stored as JSON unless another {@link StorageEngine} is chosen with
+ * {@link DatabaseOptions#storageEngine(StorageEngine)}.
+ * <p>
+ * By default every mutation rewrites the entire file. When the database is opened with
+ * {@link DatabaseOptions#writeAheadLog(boolean)} enabled, mutations are instead appended to a {@link WriteAheadLog} next
+ * to the file, and the file itself is only rewritten by {@link #checkpoint()}. Whichever mode is used, any log left behind
+ * by a previous run is replayed when the database is opened.
+ * <p>
+ * The database is safe to use from several threads. Each {@link Table} has its own read/write lock, which is held for
+ * reading while the table is queried and for writing while it is changed, so readers of a table never block each other
+ * and operations on different tables never block each other. Creating, dropping and loading tables takes the
+ * {@code catalogLock} for writing, which waits for every table operation to finish. Writing a snapshot of the whole
+ * database holds every table for reading, so it blocks writers but not readers.
+ * <p>
+ * A mutation is applied and its log record is queued while the table is locked, so records reach the log in the order
+ * the mutations were applied. Rewriting the file, and waiting for the write, happen after the table has been unlocked.
+ * With {@link DatabaseOptions#groupCommit(boolean)} enabled a {@link GroupCommitWriter} persists the mutations of every
+ * waiting thread with a single write. Each mutating method still only returns once its own change is durable.
+ * <p>
+ * Long running reads can use a {@link #snapshot()} instead, which sees every table as it was when the snapshot was
+ * opened and reads them without taking any locks, so it never blocks writers.
  */
-public class JsonDatabase {
+public class JsonDatabase implements Closeable {
+
+    /**
+     * Returned by {@link #persist(JSONObject)} when the mutation has already been written.
+     */
+    private static final Future<Void> WRITTEN = CompletableFuture.completedFuture(null);
+
+
+    /**
+     * The entire contents of the JSON file. We should update this whenever we want to append data to the file, and query
+     * this rather than {@link FileHelper#read()}
+     * <p>
+     * Note, during instantiation if the contents of the file are empty this will be null.
+     */
+    private JSONObject rootObject = null;
+
+    /**
+     * Each {@link Table} that has been accessed, keyed by name. Tables are cached so their id sequence is only loaded
+     * once.
+     */
+    private final Map<String, Table> tables = new HashMap<>();
+
+    /**
+     * Guards which tables exist, that is the members of the {@code rootObject}, the {@code tables} cache and the
+     * {@code directory}. Every operation on a table holds this for reading, while tables are created, dropped and loaded
+     * with it held for writing.
+     */
+    private final ReentrantReadWriteLock catalogLock = new ReentrantReadWriteLock();
+
+    /**
+     * Held while a snapshot is written, so only one snapshot is written at a time.
+     */
+    private final Object snapshotLock = new Object();
+
+    /**
+     * Numbers changes made while a {@link Snapshot} is open.
+     */
+    private final VersionClock clock = new VersionClock();
+
+    /**
+     * Wrapper around a {@code File} instance. Synchronizes writing.
+     */
+    private FileHelper fileHelper;
+
+    /**
+     * Log that mutations are appended to, or {@code null} if the database is not in write-ahead log mode.
+     */
+    private WriteAheadLog log = null;
+
+    /**
+     * Options the database was opened with.
+     */
+    private final DatabaseOptions options;
+
+    /**
+     * Batches mutations from concurrent callers, or {@code null} if group commit is disabled.
+     */
+    private GroupCommitWriter groupCommitWriter = null;
+
+    /**
+     * Locations of the tables which have not been loaded into the {@code rootObject} yet, or {@code null} if lazy loading
+     * is disabled.
+     */
+    private TableDirectory directory = null;
+
+    /**
+     * Latency, throughput and contention metrics, see {@link #getMetrics()}.
+     */
+    private final DatabaseMetrics metrics = new DatabaseMetrics();
+
+    /**
+     * Creates a new JsonDatabase connection to the JSON file at the given path.
+     *
+     * @param path path to the .json file.
+     * @throws IllegalArgumentException if the file does not exist
+     * @throws ParsingException if the file could be opened but not parsed.
+     */
+    public JsonDatabase(String path) throws ParsingException, IllegalArgumentException {
+        this(new File(path));
+    }
+
+    /**
+     * Creates a new JsonDatabase connection to the JSON file at the given path, using the given {@code options}.
+     *
+     * @param path path to the .json file.
+     * @throws IllegalArgumentException if the file does not exist
+     * @throws ParsingException if the file could be opened but not parsed.
+     */
+    public JsonDatabase(String path, DatabaseOptions options) throws ParsingException, IllegalArgumentException {
+        this(new File(path), options);
+    }
+
+    /**
+     * Creates a new {@code JsonDatabase} instance for the given {@code file}.
+     *
+     * @param file .json file
+     * @throws ParsingException if the file could not be opened, or if a JSONObject could not be constructed from the
+     *                          contents.
+     */
+    public JsonDatabase(File file) throws ParsingException {
+        this(file, new DatabaseOptions());
+    }
+
+    /**
+     * Creates a new {@code JsonDatabase} instance for the given {@code file}, using the given {@code options}.
+     *
+     * @param file .json file
+     * @throws ParsingException if the file could not be opened, if a JSONObject could not be constructed from the
+     *                          contents, or if the write-ahead log could not be replayed.
+     */
+    public JsonDatabase(File file, DatabaseOptions options) throws ParsingException {
+        this(new FileHelper(file), file, options);
+    }
+
+    /**
+     * Private constructor used by the public constructors and the {@link #create(String, DatabaseOptions)} factory
+     * method.
+     */
+    private JsonDatabase(FileHelper helper, File file, DatabaseOptions options) {
+       long start = System.nanoTime();
+       helper.setMetrics(metrics);
+
+       if (options.isLazyLoading() && !(options.getStorageEngine() instanceof JsonStorageEngine))
+           throw new IllegalArgumentException("Lazy loading can only be used with a JsonStorageEngine");
+       if (options.isLazyLoading() && options.getCompression() != Compression.NONE)
+           throw new IllegalArgumentException("Lazy loading cannot be used with compression");
+
+       TableDirectory existing = options.isLazyLoading() ? openDirectory(helper) : null;
+       JSONObject jsonObject;
+
+       if (existing != null) {
+           // only members which are not tables are read up front
+           jsonObject = new JSONObject(new HashMap<>(existing.getValues()));
+       } else {
+           jsonObject = readContentsAsJson(helper, options.getStorageEngine(), options.isMemoryMapped());
+           if (jsonObject != null)
+               jsonObject.remove(TableDirectory.KEY);
+       }
+
+       if (options.isLazyLoading())
+           this.directory = existing != null ? existing : new TableDirectory(helper);
+
+       if (jsonObject != null)
+           this.rootObject = jsonObject;
+
+       this.fileHelper = helper;
+       this.options = options;
+       helper.setFsyncPolicy(options.getFsyncPolicy(), options.getFsyncIntervalMillis());
+
+       try {
+           recover(file);
+       } catch (IOException e) {
+           throw new ParsingException("Could not replay the write-ahead log: ", e);
+       }
+
+       if (options.isGroupCommit()) {
+           GroupCommitWriter.Sink sink = new GroupCommitWriter.Sink() {
+               @Override
+               public void write(List<String> records) throws IOException {
+                   writeBatch(records);
+               }
+           };
+           this.groupCommitWriter = new GroupCommitWriter(sink, options.getGroupCommitWindowMillis(),
+                   options.getGroupCommitMaxBytes());
+       }
+
+       metrics.record(DatabaseMetrics.Operation.LOAD, start);
+    }
+
 
+    /**
+     * Creates a new .json file at the given path. This will also create all of the directories given in the path if they
+     * don't already exist.
+     * <p>
+     * Please note, {@link FileHelper#createFile} uses the {@link File#mkdirs()} method, which could create some of
+     * the directories specified in the path even if the file creation fails.
+     *
+     * @param path path to save the new file.
+     * @return a new JsonDatabase instance.
+     *
+     * @throws IOException if the file already exists, could not be created, or if the default contents could not be written
+     *                      to the newly created file.
+     */
+    public static JsonDatabase create(String path) throws IOException {
+        return create(path, new DatabaseOptions());
+    }
+
+    /**
+     * Creates a new .json file at the given path, using the given {@code options}. See {@link #create(String)} for
+     * details.
+     *
+     * @param path path to save the new file.
+     * @return a new JsonDatabase instance.
+     *
+     * @throws IOException if the file already exists, could not be created, or if the default contents could not be written
+     *                      to the newly created file.
+     */
+    public static JsonDatabase create(String path, DatabaseOptions options) throws IOException {
+
+        FileHelper helper;
+        // create the file
+        try {
+            helper = FileHelper.createFile(path);
+        } catch (IOException e) {
+            throw new IOException("Could not create new file.", e);
+        }
+
+        // write the default contents to the file.
+        helper.setFsyncPolicy(options.getFsyncPolicy(), options.getFsyncIntervalMillis());
+        JSONObject defaultContents = new JSONObject();
+        try {
+            defaultContents.put("default", new JSONObject());
+            write(helper, options, defaultContents, null, null);
+        } catch (JSONException e) {
+            throw new ParsingException("Could not create default contents", e);
+        } catch (IOException e) {
+            throw new IOException("Could not write initial contents to file.", e);
+        }
+
+        return new JsonDatabase(helper, new File(path), options);
+    }
+
+    /**
+     * Replays any write-ahead log left next to the {@code file} on top of the {@code rootObject}.
+     * <p>
+     * If the database is in write-ahead log mode the log is kept open for further mutations. Otherwise the replayed
+     * contents are written back to the file and the log is deleted, so every later mutation can rewrite the file as
+     * normal.
+     *
+     * @throws IOException if the log could not be read, or the replayed contents could not be written.
+     */
+    private void recover(File file) throws IOException {
+        File logFile = WriteAheadLog.logFileFor(file);
+        if (!options.isWriteAheadLog() && !logFile.exists())
+            return;
+
+        WriteAheadLog wal = new WriteAheadLog(file, options);
+        wal.setMetrics(metrics);
+
+        List<JSONObject> records = wal.readRecords();
+        if (!records.isEmpty() && rootObject == null)
+            rootObject = new JSONObject();
+
+        for (JSONObject record : records) {
+            replay(record);
+        }
+
+        if (options.isWriteAheadLog()) {
+            this.log = wal;
+        } else {
+            if (!records.isEmpty())
+                writeSnapshot();
+            wal.delete();
+        }
+    }
+
+    /**
+     * Applies a single {@link WriteAheadLog} record to the {@code rootObject}.
+     * <p>
+     * Records are applied leniently, for example deleting an item that no longer exists is ignored, since records can be
+     * replayed over a snapshot that already contains them. This happens after a crash between writing a snapshot and
+     * clearing the log, or when a group commit writes records that were already included in a checkpoint.
+     *
+     * @throws ParsingException if the record is malformed.
+     */
+    private void replay(JSONObject record) throws ParsingException {
+        try {
+            String op = record.getString("op");
+            if (op.equals(WriteAheadLog.OP_BATCH)) {
+                JSONArray records = record.getJSONArray("records");
+                for (int i = 0; i < records.length(); i++) {
+                    replay(records.getJSONObject(i));
+                }
+                return;
+            }
+
+            String tableName = record.getString("table");
+            Table table;
+
+            switch (op) {
+                case WriteAheadLog.OP_APPEND:
+                    table = findTable(tableName);
+                    if (table != null)
+                        table.put(record.getInt("id"), record.getJSONObject("value"));
+                    break;
+                case WriteAheadLog.OP_APPEND_VALUE:
+                    table = findTable(tableName);
+                    if (table != null && table.getItem(record.getInt("id")) != null)
+                        table.putValue(record.getInt("id"), record.getString("key"), record.get("value"));
+                    break;
+                case WriteAheadLog.OP_NEW_TABLE:
+                    rootObject.put(tableName, record.getJSONObject("value"));
+                    tables.remove(tableName);
+                    if (directory != null)
+                        directory.remove(tableName);
+                    break;
+                case WriteAheadLog.OP_DROP_TABLE:
+                    rootObject.remove(tableName);
+                    tables.remove(tableName);
+                    if (directory != null)
+                        directory.remove(tableName);
+                    break;
+                case WriteAheadLog.OP_DELETE:
+                    table = findTable(tableName);
+                    if (table != null)
+                        table.remove(record.getString("key"));
+                    break;
+                default:
+                    throw new ParsingException("Unknown log operation " + op);
+            }
+        } catch (JSONException e) {
+            throw new ParsingException("Could not replay log record " + record, e);
+        }
+    }
+
+    /**
+     * Starts persisting a single mutation. In write-ahead log mode the {@code record} is appended to the log, and if
+     * group commit is enabled it is queued. Otherwise nothing is written yet, since the file is rewritten by
+     * {@link #finishWrite(Future)}.
+     * <p>
+     * This must be called while the changed table is still locked, immediately after the mutation was applied, so
+     * records reach the log in the same order the mutations were applied. The caller should then unlock the table and
+     * call {@link #finishWrite(Future)} with the returned future.
+     *
+     * @return a future which completes once the record has been written.
+     * @throws IOException if the record could not be written.
+     */
+    private Future<Void> persist(JSONObject record) throws IOException {
+        if (groupCommitWriter != null)
+            return groupCommitWriter.submit(record.toString());
+
+        if (log != null)
+            log.append(record);
+
+        return WRITTEN;
+    }
+
+    /**
+     * Finishes persisting a mutation started by {@link #persist(JSONObject)}, blocking until it is durable. Without the
+     * write-ahead log the entire file is rewritten, otherwise a checkpoint is taken once the log grows past
+     * {@link DatabaseOptions#checkpointThreshold(long)}.
+     * <p>
+     * This must be called after unlocking the changed table, since writing a snapshot locks every table.
+     *
+     * @throws IOException if the mutation could not be written.
+     */
+    private void finishWrite(Future<Void> write) throws IOException {
+        awaitWrite(write);
+
+        // batches are finished by the group commit writer
+        if (groupCommitWriter != null)
+            return;
+
+        if (log == null)
+            writeSnapshot();
+        else
+            checkpointIfLogFull();
+    }
+
+    /**
+     * Writes a batch of records collected by the {@code groupCommitWriter}. In write-ahead log mode the records are
+     * appended to the log with a single write, otherwise one snapshot of the entire database covers the whole batch.
+     *
+     * @throws IOException if the batch could not be written.
+     */
+    private void writeBatch(List<String> records) throws IOException {
+        if (log == null) {
+            writeSnapshot();
+        } else {
+            log.appendAll(records);
+            checkpointIfLogFull();
+        }
+    }
+
+    /**
+     * Takes a checkpoint if the write-ahead log has grown past {@link DatabaseOptions#checkpointThreshold(long)}.
+     */
+    private void checkpointIfLogFull() throws IOException {
+        if (log.size() >= options.getCheckpointThreshold())
+            checkpoint();
+    }
+
+    /**
+     * Blocks until the write returned by {@link #persist(JSONObject)} has completed.
+     *
+     * @throws IOException if the write failed, or the thread was interrupted while waiting.
+     */
+    private static void awaitWrite(Future<Void> write) throws IOException {
+        try {
+            write.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the write to complete");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException("Could not write the batch", cause);
+        }
+    }
+
+    /**
+     * Writes the entire database to the file and clears the write-ahead log, if there is one. In write-ahead log mode
+     * this is called automatically once the log grows too large, but can be called at any time, for example before the
+     * program exits, so the next open does not have to replay the log.
+     *
+     * @throws IOException if the contents could not be written to the file, or the log could not be cleared.
+     */
+    public void checkpoint() throws IOException {
+        writeSnapshot();
+    }
+
+    /**
+     * Writes the entire database to the file, and clears the write-ahead log if there is one. With lazy loading the file
+     * is written with a table directory, and tables which have not been loaded are copied across from the current file
+     * without being parsed.
+     * <p>
+     * Every table is held for reading while the snapshot is written, so it contains every mutation that has been applied
+     * and no mutation can be logged between writing the snapshot and clearing the log. This must not be called while
+     * holding a table lock.
+     *
+     * @throws IOException if the contents could not be written to the file, or the log could not be cleared.
+     */
+    private void writeSnapshot() throws IOException {
+        synchronized (snapshotLock) {
+            boolean splice = options.getStorageEngine() instanceof JsonStorageEngine;
+            if (splice)
+                wrapAllTables();
+
+            List<Lock> locks = lockAllTables();
+            try {
+                Map<String, ByteBuffer> fragments = splice ? serializedTables() : null;
+                if (directory == null)
+                    write(fileHelper, options, rootObject, fragments, metrics);
+                else
+                    directory.write(rootObject, fragments);
+
+                if (log != null)
+                    log.reset();
+            } finally {
+                unlock(locks);
+            }
+        }
+    }
+
+    /**
+     * Takes the {@code catalogLock} and every table's lock for reading. Tables are locked in order of name, so two
+     * threads locking every table cannot deadlock.
+     *
+     * @return the locks that were taken, in the order they should be released.
+     */
+    private List<Lock> lockAllTables() {
+        List<Lock> locks = new ArrayList<>();
+        acquire(catalogLock.readLock());
+        locks.add(catalogLock.readLock());
+
+        List<Map.Entry<String, Table>> entries = new ArrayList<>(tables.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Table>>() {
+            @Override
+            public int compare(Map.Entry<String, Table> a, Map.Entry<String, Table> b) {
+                return a.getKey().compareTo(b.getKey());
+            }
+        });
+
+        for (Map.Entry<String, Table> entry : entries) {
+            Lock lock = entry.getValue().getLock().readLock();
+            acquire(lock);
+            locks.add(0, lock);
+        }
+
+        return locks;
+    }
+
+    /**
+     * Makes sure every loaded table has a {@link Table}, so it can cache its serialized text. A table which has never
+     * been read or changed since the database was opened does not have one yet. Must not be called while holding a
+     * table lock.
+     */
+    private void wrapAllTables() {
+        acquire(catalogLock.readLock());
+        try {
+            if (allTablesWrapped())
+                return;
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+
+        acquire(catalogLock.writeLock());
+        try {
+            wrapTables();
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Creates a {@link Table} for every loaded table which does not have one yet. Must be called while holding the
+     * {@code catalogLock} for writing.
+     */
+    private void wrapTables() {
+        if (rootObject == null)
+            return;
+
+        List<String> names = new ArrayList<>();
+        Iterator<?> keys = rootObject.keys();
+        while (keys.hasNext()) {
+            names.add((String) keys.next());
+        }
+
+        for (String name : names) {
+            findTable(name);
+        }
+    }
+
+    /**
+     * Returns {@code true} if every table in the {@code rootObject} has a {@link Table}. Must be called while holding
+     * the {@code catalogLock}.
+     */
+    private boolean allTablesWrapped() {
+        if (rootObject == null)
+            return true;
+
+        Iterator<?> keys = rootObject.keys();
+        while (keys.hasNext()) {
+            String name = (String) keys.next();
+            Object value = rootObject.opt(name);
+            Table table = tables.get(name);
+
+            if (value instanceof JSONObject && (table == null || !table.wraps((JSONObject) value)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the JSON text of every table in the {@code rootObject}, keyed by name. Only the tables which have changed
+     * since they were last written are serialized, the others return their cached text. Must be called while holding the
+     * {@code catalogLock} and every table's lock for reading.
+     */
+    private Map<String, ByteBuffer> serializedTables() {
+        Map<String, ByteBuffer> fragments = new HashMap<>();
+        if (rootObject == null)
+            return fragments;
+
+        for (Map.Entry<String, Table> entry : tables.entrySet()) {
+            Object value = rootObject.opt(entry.getKey());
+            if (!(value instanceof JSONObject) || !entry.getValue().wraps((JSONObject) value))
+                continue;
+
+            ByteBuffer text = entry.getValue().serialized();
+            if (text != null)
+                fragments.put(entry.getKey(), text);
+        }
+        return fragments;
+    }
+
+    private static void unlock(List<Lock> locks) {
+        for (Lock lock : locks) {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the table directory at the start of the file held by the {@code fileHelper}.
+     *
+     * @return the directory, or {@code null} if the file does not have one.
+     * @throws ParsingException if the file could not be read, or the directory could not be parsed.
+     */
+    private static TableDirectory openDirectory(FileHelper fileHelper) throws ParsingException {
+        try {
+            // a compressed file has no directory, it is loaded in full and rewritten with one
+            if (BlockCodec.isCompressed(fileHelper))
+                return null;
+
+            return TableDirectory.open(fileHelper);
+        } catch (IOException e) {
+            throw new ParsingException("Could not read table directory: ", e);
+        }
+    }
+
+    /**
+     * Reads the contents of the File held by the {@code fileHelper} and converts it into a {@code JSONObject} with the
+     * {@code engine}. The file is read as a stream, so it is never held in memory as a single String. Compressed files
+     * are recognised by their header and decompressed block by block while they are read.
+     *
+     * @param fileHelper FileHelper containing the file
+     * @param engine format the file is stored in.
+     * @param memoryMapped {@code true} to read a memory-mapped view of the file rather than reading it through a
+     *                     buffer. Files too large to map are always read through a buffer.
+     * @return the contents as a JSONObject or {@code null} if the contents are empty.
+     *
+     * @throws ParsingException if the file could not be read, or the JSONObject could not be created.
+     */
+    private static JSONObject readContentsAsJson(FileHelper fileHelper, StorageEngine engine, boolean memoryMapped)
+            throws ParsingException {
+
+        try {
+            if (memoryMapped && fileHelper.length() <= Integer.MAX_VALUE) {
+                ByteBuffer mapped = fileHelper.map();
+                if (!BlockCodec.isCompressed(mapped))
+                    return engine.read(mapped);
+
+                return readCompressed(engine, BlockCodec.decompress(mapped));
+            }
+
+            FileChannel channel = fileHelper.openChannel();
+            try {
+                if (!BlockCodec.isCompressed(fileHelper))
+                    return engine.read(channel);
+
+                return readCompressed(engine, BlockCodec.decompress(channel, false));
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            throw new ParsingException("Could not read file: ", e);
+        } catch (ParsingException e) {
+            throw new ParsingException("Could not create JSONObject: ", e);
+        }
+    }
+
+    private static JSONObject readCompressed(StorageEngine engine, ReadableByteChannel channel) throws IOException {
+        try {
+            return engine.read(channel);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Replaces the contents of the file held by the {@code fileHelper} with the {@code contents}, written by the
+     * storage engine and compressed as set by the {@code options}.
+     *
+     * @param fragments cached JSON text of unchanged tables, keyed by name, which the {@link JsonStorageEngine} copies
+     *                  into the file rather than serializing the tables again, or {@code null}.
+     * @param metrics counts the serialized bytes, or {@code null}.
+     * @throws IOException if the file could not be written.
+     */
+    private static void write(FileHelper fileHelper, final DatabaseOptions options, final JSONObject contents,
+                              @Nullable final Map<String, ByteBuffer> fragments,
+                              @Nullable final DatabaseMetrics metrics) throws IOException {
+        fileHelper.write(new FileHelper.Contents() {
+            @Override
+            public void writeTo(WritableByteChannel channel) throws IOException {
+                if (options.getCompression() == Compression.NONE) {
+                    writeContents(countSerialized(channel));
+                    return;
+                }
+
+                BlockCodec.Output output = new BlockCodec.Output(channel);
+                try {
+                    writeContents(countSerialized(output));
+                } finally {
+                    output.close();
+                }
+            }
+
+            private void writeContents(WritableByteChannel channel) throws IOException {
+                StorageEngine engine = options.getStorageEngine();
+                if (fragments != null && engine instanceof JsonStorageEngine)
+                    ((JsonStorageEngine) engine).write(contents, fragments, channel);
+                else
+                    engine.write(contents, channel);
+            }
+
+            private WritableByteChannel countSerialized(WritableByteChannel channel) {
+                return metrics == null ? channel : metrics.countSerialized(channel);
+            }
+        });
+    }
+
+    /**
+     * Appends the given {@code values} to the {@code table}.
+     *
+     * @param tableName table to append to.
+     * @param values content to append.
+     *
+     * @throws ParsingException if the {@code values} could not converted to a {@code JSONObject}
+     * @throws IOException if the {@code JSONObject} could not be written to the file.
+     * @throws IllegalArgumentException if there is no table with that name.
+     */
+    public void append(String tableName, Map<String, Object> values) throws ParsingException, IOException {
+        long start = System.nanoTime();
+        try {
+            // create a new JSONObject from values
+            JSONObject content = new JSONObject();
+            try {
+                for (String key : values.keySet()) {
+                    content.put(key, values.get(key));
+                }
+            } catch (JSONException e) {
+                throw new ParsingException("Could not add the values to the table.", e);
+            }
+
+            appendItem(tableName, content);
+        } finally {
+            metrics.record(DatabaseMetrics.Operation.APPEND, start);
+        }
+    }
+
+    /**
+     * Appends the fields of the given {@code object} to the {@code table} as a new item, as converted by {@link
+     * ObjectSerializer#toJsonObject(Object)}. The item is built straight from the fields, without an intermediate
+     * {@code Map}.
+     *
+     * @param tableName table to append to.
+     * @param object object to append.
+     *
+     * @return the id of the new item.
+     *
+     * @throws SerializerException if the fields of the {@code object} could not be read.
+     * @throws IOException if the item could not be written to the file.
+     * @throws IllegalArgumentException if there is no table with that name.
+     */
+    public int insert(String tableName, Object object) throws SerializerException, IOException {
+        long start = System.nanoTime();
+        try {
+            return appendItem(tableName, ObjectSerializer.toJsonObject(object));
+        } finally {
+            metrics.record(DatabaseMetrics.Operation.APPEND, start);
+        }
+    }
+
+    /**
+     * Appends the {@code content} to the table as a new item and writes it.
+     *
+     * @return the id of the new item.
+     */
+    private int appendItem(String tableName, JSONObject content) throws IOException {
+        try {
+            int id;
+            Future<Void> write;
+            Table table = lockExistingTable(tableName, true); // throws IllegalArgumentException on fail
+            try {
+                id = table.append(content);
+                write = persist(WriteAheadLog.appendRecord(tableName, id, content));
+            } finally {
+                unlockTable(table, true);
+            }
+            finishWrite(write);
+            return id;
+        } catch (IOException e) {
+            throw new IOException("Could not write to the file:", e);
+        }
+    }
+
+    /**
+     * Appends the {@code value} to the table matching the given tableName.
+     *
+     * @param tableName name of table to append to.
+     * @param valueKey key to save value under
+     * @param value value to save
+     *
+     * @throws IllegalArgumentException if the table doesn't exist, or the value is already saved.
+     */
+    public void appendValueToTable(String tableName, int id, String valueKey, Object value) throws IOException,
+            IllegalArgumentException {
+        long start = System.nanoTime();
+        try {
+            Table table = lockTable(tableName, true);
+            if (table == null) {
+                throw new IllegalArgumentException("Could not find table matching the name " + tableName);
+            }
+
+            Future<Void> write;
+            try {
+                write = applyValueToTable(table, tableName, id, valueKey, value);
+            } finally {
+                unlockTable(table, true);
+            }
+
+            // save to file
+            try {
+                finishWrite(write);
+            } catch (IOException e) {
+                throw new IOException("Could not write contents to file", e);
+            }
+        } finally {
+            metrics.record(DatabaseMetrics.Operation.APPEND_VALUE, start);
+        }
+    }
+
+    /**
+     * Applies {@link #appendValueToTable} to the {@code table} and starts persisting it. Must be called while holding
+     * the table's write lock.
+     */
+    private Future<Void> applyValueToTable(Table table, String tableName, int id, String valueKey, Object value)
+            throws IOException {
+        JSONObject entry = table.getItem(id);
+        if (entry == null) {
+            throw new IllegalArgumentException("No entry found matching the id " + String.valueOf(id));
+        }
+
+        if (entry.has(valueKey)) {
+            throw new IllegalArgumentException("A key with the name " + valueKey + " already exists");
+        } else {
+            try {
+                table.putValue(id, valueKey, value);
+            } catch (JSONException e) {
+                throw new ParsingException("Could not append the value to the jsonobject");
+            }
+        }
+
+        return persist(WriteAheadLog.appendValueRecord(tableName, id, valueKey, value));
+    }
+
+    /**
+     * Creates a new table with the given {@code name} and the {@code initialValues}, if any were given.
+     *
+     * @throws IOException if it could not write to the file.
+     * @throws IllegalArgumentException if table already exists.
+     */
+    public void newTable(String name, @Nullable Map<String, ?> initialValues) throws IOException, IllegalArgumentException {
+        Future<Void> write;
+        acquire(catalogLock.writeLock());
+        try {
+            if (tableExists(name))
+                throw new IllegalArgumentException("Table named " + name + " already exists.");
+
+            JSONObject table = new JSONObject(initialValues);
+            try {
+                rootObject.put(name, table);
+            } catch (JSONException e) {
+                throw new ParsingException("Could not append table to rootObject");
+            }
+            tables.remove(name);
+
+            write = persist(WriteAheadLog.newTableRecord(name, table));
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+
+        finishWrite(write);
+    }
+
+    /**
+     * Starts a {@link Batch} of mutations which are applied together, and persisted with a single write, when the batch
+     * is committed.
+     */
+    public Batch batch() {
+        return new Batch(this);
+    }
+
+    /**
+     * Applies every operation of a batch and persists them with a single write. If any operation fails, every
+     * operation already applied is undone before the exception is thrown.
+     * <p>
+     * The {@code catalogLock} is held for writing while the operations are applied, so no other thread sees part of the
+     * batch.
+     *
+     * @return the ids allocated to appended items, in order.
+     * @throws IOException if the batch could not be written.
+     */
+    List<Integer> commit(List<Batch.Operation> operations) throws IOException {
+        long start = System.nanoTime();
+        try {
+            List<Integer> ids = new ArrayList<>();
+            if (operations.isEmpty())
+                return ids;
+
+            List<JSONObject> records = new ArrayList<>(operations.size());
+            List<Runnable> undo = new ArrayList<>(operations.size());
+            Future<Void> write;
+
+            acquire(catalogLock.writeLock());
+            try {
+                if (rootObject == null)
+                    throw new NullPointerException("rootObject is null");
+
+                try {
+                    for (Batch.Operation operation : operations) {
+                        records.add(apply(operation, ids, undo));
+                    }
+                    write = persist(WriteAheadLog.batchRecord(records));
+                } catch (IOException | RuntimeException e) {
+                    for (int i = undo.size() - 1; i >= 0; i--) {
+                        undo.get(i).run();
+                    }
+                    throw e;
+                }
+            } finally {
+                catalogLock.writeLock().unlock();
+            }
+
+            finishWrite(write);
+            return ids;
+        } finally {
+            metrics.record(DatabaseMetrics.Operation.BATCH, start);
+        }
+    }
+
+    /**
+     * Applies a single operation of a batch. Must be called while holding the {@code catalogLock} for writing.
+     *
+     * @param ids the id of an appended item is added to this list.
+     * @param undo an action which reverses the operation is added to this list.
+     * @return the log record for the operation.
+     */
+    private JSONObject apply(Batch.Operation operation, List<Integer> ids, List<Runnable> undo) {
+        final String tableName = operation.table;
+        final Table table = operation.kind == Batch.Operation.Kind.NEW_TABLE ? null : findTable(tableName);
+
+        switch (operation.kind) {
+            case APPEND: {
+                if (table == null)
+                    throw new IllegalArgumentException("Could not get table " + tableName);
+
+                JSONObject content = (JSONObject) operation.value;
+                final int id = table.append(content);
+                undo.add(() -> table.remove(id));
+                ids.add(id);
+                return WriteAheadLog.appendRecord(tableName, id, content);
+            }
+            case APPEND_VALUE: {
+                if (table == null)
+                    throw new IllegalArgumentException("Could not find table matching the name " + tableName);
+
+                JSONObject entry = table.getItem(operation.id);
+                if (entry == null)
+                    throw new IllegalArgumentException("No entry found matching the id " + operation.id);
+                if (entry.has(operation.key))
+                    throw new IllegalArgumentException("A key with the name " + operation.key + " already exists");
+
+                final int id = operation.id;
+                final JSONObject before = copy(entry);
+                try {
+                    table.putValue(id, operation.key, operation.value);
+                } catch (JSONException e) {
+                    throw new ParsingException("Could not append the value to the jsonobject");
+                }
+                undo.add(() -> table.put(id, before));
+                return WriteAheadLog.appendValueRecord(tableName, id, operation.key, operation.value);
+            }
+            case DELETE: {
+                if (table == null)
+                    throw new ParsingException("Could not parse JSONObject: no table named " + tableName);
+                if (!table.has(operation.key))
+                    throw new IllegalArgumentException("No item found with the gen key");
+
+                final String key = operation.key;
+                final Object removed = table.remove(key);
+                undo.add(() -> table.restore(key, removed));
+                return WriteAheadLog.deleteRecord(tableName, key);
+            }
+            default: {
+                if (tableExists(tableName))
+                    throw new IllegalArgumentException("Table named " + tableName + " already exists.");
+
+                JSONObject created = (JSONObject) operation.value;
+                try {
+                    rootObject.put(tableName, created);
+                } catch (JSONException e) {
+                    throw new ParsingException("Could not append table to rootObject");
+                }
+                tables.remove(tableName);
+
+                undo.add(() -> {
+                    rootObject.remove(tableName);
+                    tables.remove(tableName);
+                });
+                return WriteAheadLog.newTableRecord(tableName, created);
+            }
+        }
+    }
 
     /**
-     * The entire contents of the JSON file. We should update this whenever we want to append data to the file, and query
-     * this rather than {@link FileHelper#read()}
-     * <p>
-     * Note, during instantiation if the contents of the file are empty this will be null.
+     * Returns the {@link Table} matching the given name. The table is not locked, so it should only be used by a single
+     * thread.
+     *
+     * @throws IllegalArgumentException if there is no such table.
+     * @throws NullPointerException if rootObject is null. This can happen if the .json file passed to the constructor
+     *      is empty.
      */
-    private JSONObject rootObject = null;
+    Table getTable(String name) {
+        Table table = lockExistingTable(name, false);
+        unlockTable(table, false);
+        return table;
+    }
 
     /**
-     * Wrapper around a {@code File} instance. Synchronizes writing.
+     * Finds the {@link Table} matching the given name and locks it, along with the {@code catalogLock} for reading so the
+     * table cannot be dropped while it is in use. The table must be released with {@link #unlockTable(Table, boolean)}.
+     *
+     * @param exclusive {@code true} to lock the table for writing, {@code false} to lock it for reading.
+     * @return the locked table, or {@code null}, with nothing locked, if there is no such table.
+     * @throws NullPointerException if rootObject is null.
      */
-    private FileHelper fileHelper;
+    private Table lockTable(String name, boolean exclusive) {
+        acquire(catalogLock.readLock());
+
+        Table table = rootObject == null ? null : tables.get(name);
+        if (table != null && !table.wraps(rootObject.optJSONObject(name)))
+            table = null;
+
+        if (table == null) {
+            // the first use of a table caches it, and may load it, which needs the write lock
+            catalogLock.readLock().unlock();
+            acquire(catalogLock.writeLock());
+            try {
+                if (rootObject == null)
+                    throw new NullPointerException("rootObject is null");
+
+                table = findTable(name);
+                if (table == null)
+                    return null;
+
+                acquire(catalogLock.readLock());
+            } finally {
+                catalogLock.writeLock().unlock();
+            }
+        }
+
+        if (exclusive)
+            acquire(table.getLock().writeLock());
+        else
+            acquire(table.getLock().readLock());
+
+        return table;
+    }
 
     /**
-     * Creates a new JsonDatabase connection to the JSON file at the given path.
+     * Same as {@link #lockTable(String, boolean)}, but throws an exception rather than returning {@code null}.
      *
-     * @param path path to the .json file.
-     * @throws IllegalArgumentException if the file does not exist
-     * @throws ParsingException if the file could be opened but not parsed.
+     * @throws IllegalArgumentException if there is no such table.
+     * @throws NullPointerException if rootObject is null.
      */
-    public JsonDatabase(String path) throws ParsingException, IllegalArgumentException {
-        this(new File(path));
+    private Table lockExistingTable(String name, boolean exclusive) {
+        Table table = lockTable(name, exclusive);
+        if (table == null)
+            throw new IllegalArgumentException("Could not get table " + name);
+
+        return table;
     }
 
     /**
-     * Creates a new {@code JsonDatabase} instance for the given {@code file}.
-     *
-     * @param file .json file
-     * @throws ParsingException if the file could not be opened, or if a JSONObject could not be constructed from the
-     *                          contents.
+     * Acquires the {@code lock}, recording how long the thread waited if another thread was holding it. The untimed
+     * {@code tryLock()} is not used since it lets readers jump ahead of a waiting writer.
      */
-    public JsonDatabase(File file) throws ParsingException {
-        FileHelper helper = new FileHelper(file);
+    private void acquire(Lock lock) {
+        try {
+            if (lock.tryLock(0, TimeUnit.NANOSECONDS))
+                return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
 
-        JSONObject jsonObject = readContentsAsJson(helper);
+        long start = System.nanoTime();
+        lock.lock();
+        metrics.addLockWait(System.nanoTime() - start);
+    }
 
-        if (jsonObject != null)
-            this.rootObject = jsonObject;
+    /**
+     * Releases a table locked by {@link #lockTable(String, boolean)}.
+     */
+    private void unlockTable(Table table, boolean exclusive) {
+        if (exclusive)
+            table.getLock().writeLock().unlock();
+        else
+            table.getLock().readLock().unlock();
 
-        this.fileHelper = helper;
+        catalogLock.readLock().unlock();
     }
 
     /**
-     * Private constructor used by the {@link #create(String)} factory method.
+     * Returns the {@link Table} matching the given name, or {@code null} if there is no such table. Must be called while
+     * holding the {@code catalogLock} for writing, or while the database is being opened.
      */
-    private JsonDatabase(FileHelper helper) {
-       JSONObject jsonObject = readContentsAsJson(helper);
+    private Table findTable(String name) {
+        JSONObject jObj = rootObject.optJSONObject(name);
+        if (jObj == null && directory != null && directory.contains(name))
+            jObj = loadTable(name);
+        if (jObj == null)
+            return null;
 
-       if (jsonObject != null)
-           this.rootObject = jsonObject;
+        Table table = tables.get(name);
+        if (table == null || !table.wraps(jObj)) {
+            table = new Table(jObj, clock, options.getRowStorage(), newRowCache());
+            try {
+                rootObject.put(name, table.getJsonRoot());
+            } catch (JSONException e) {
+                throw new ParsingException("Could not replace table " + name, e);
+            }
 
-       this.fileHelper = helper;
-    }
+            tables.put(name, table);
+        }
 
+        return table;
+    }
 
     /**
-     * Creates a new .json file at the given path. This will also create all of the directories given in the path if they
-     * don't already exist.
-     * <p>
-     * Please note, {@link FileHelper#createFile} uses the {@link File#mkdirs()} method, which could create some of
-     * the directories specified in the path even if the file creation fails.
-     *
-     * @param path path to save the new file.
-     * @return a new JsonDatabase instance.
+     * Parses a table which has not been loaded yet and adds it to the {@code rootObject}. Must be called while holding
+     * the {@code catalogLock} for writing.
      *
-     * @throws IOException if the file already exists, could not be created, or if the default contents could not be written
-     *                      to the newly created file.
+     * @throws ParsingException if the table could not be read or parsed.
      */
-    public static JsonDatabase create(String path) throws IOException {
-
-        FileHelper helper;
-        // create the file
+    private JSONObject loadTable(String name) throws ParsingException {
+        long start = System.nanoTime();
         try {
-            helper = FileHelper.createFile(path);
-        } catch (IOException e) {
-            throw new IOException("Could not create new file.", e);
-        }
+            if (options.getRowStorage() != RowStorage.HEAP) {
+                // parse the items straight into their storage, so the table is never held on the heap
+                RowMap rows = new RowMap(options.getRowStorage(), newRowCache(), 0, 0);
+                if (!directory.load(name, rows))
+                    return null;
 
-        // write the default contents to the file.
-        try {
-            helper.write("{ \"default\": {} }");
+                Table table = new Table(rows, clock);
+                rootObject.put(name, table.getJsonRoot());
+                tables.put(name, table);
+                return table.getJsonRoot();
+            }
+
+            JSONObject table = directory.load(name);
+            rootObject.put(name, table);
+            return table;
         } catch (IOException e) {
-            throw new IOException("Could not write initial contents to file.", e);
+            throw new ParsingException("Could not load table " + name + ": ", e);
+        } catch (JSONException e) {
+            throw new ParsingException("Could not load table " + name + ": ", e);
+        } finally {
+            metrics.record(DatabaseMetrics.Operation.LOAD, start);
         }
+    }
+
+    /**
+     * Returns a new cache for a table held off the heap, or {@code null} if the items of tables are not cached.
+     */
+    private RowCache newRowCache() {
+        if (options.getRowStorage() == RowStorage.HEAP || options.getRowCacheBytes() == 0)
+            return null;
+
+        return new RowCache(options.getRowCacheBytes(), metrics);
+    }
 
-        return new JsonDatabase(helper);
+    /**
+     * Parses every table which has not been loaded yet. Must be called while holding the {@code catalogLock} for
+     * writing.
+     */
+    private void loadAllTables() throws ParsingException {
+        if (directory == null)
+            return;
+
+        for (String name : new ArrayList<>(directory.names())) {
+            loadTable(name);
+        }
     }
 
     /**
-     * Reads the contents of the File held by the {@code fileHelper} and converts it into a {@code JSONObject}.
+     * Creates a hash index on the given {@code field} of every item in the table. Once created, the index is kept up to
+     * date by every mutation and is used by {@link #findBy(String, String, Object)} to find matching items without
+     * scanning the table.
+     * <p>
+     * Indexes are held in memory only and are not saved to the file, so they need to be created again each time the
+     * database is opened.
      *
-     * @param fileHelper FileHelper containing the file
-     * @return the contents as a JSONObject or {@code null} if the contents are empty.
+     * @param tableName table to index.
+     * @param field name of the field to index.
      *
-     * @throws ParsingException if the file could not be read, or the JSONObject could not be created.
+     * @throws IllegalArgumentException if there is no table with that name, or the field is already indexed.
      */
-    private static JSONObject readContentsAsJson(FileHelper fileHelper) throws ParsingException {
+    public void createIndex(String tableName, String field) throws IllegalArgumentException {
+        createIndex(tableName, field, IndexType.HASH);
+    }
 
+    /**
+     * Creates an index of the given {@code type} on the {@code field} of every item in the table. An
+     * {@link IndexType#ORDERED} index is also used by {@link #findRange}, {@link #findOrdered}, {@link #min} and
+     * {@link #max}. See {@link #createIndex(String, String)} for details.
+     *
+     * @throws IllegalArgumentException if there is no table with that name, or the field is already indexed.
+     */
+    public void createIndex(String tableName, String field, IndexType type) throws IllegalArgumentException {
+        Table table = lockExistingTable(tableName, true);
         try {
-            String contents = fileHelper.read();
-
-            if (contents != null) {
-                return new JSONObject(contents);
-            } else {
-                System.out.println("Contents: " + contents);
-                return null;
+            switch (type) {
+                case ORDERED:
+                    table.addIndex(new OrderedIndex(field));
+                    break;
+                default:
+                    table.addIndex(new HashIndex(field));
+                    break;
             }
-
-        } catch (IOException e) {
-            throw new ParsingException("Could not read file: ", e);
-        } catch (JSONException e) {
-            throw new ParsingException("Could not create JSONObject: ", e);
+        } finally {
+            unlockTable(table, true);
         }
     }
 
     /**
-     * Appends the given {@code values} to the {@code table}.
+     * Removes the index on the given {@code field} of the table.
      *
-     * @param tableName table to append to.
-     * @param values content to append.
+     * @throws IllegalArgumentException if there is no table with that name, or the field is not indexed.
+     */
+    public void dropIndex(String tableName, String field) throws IllegalArgumentException {
+        Table table = lockExistingTable(tableName, true);
+        try {
+            if (!table.removeIndex(field))
+                throw new IllegalArgumentException("No index found on " + field + " in table " + tableName);
+        } finally {
+            unlockTable(table, true);
+        }
+    }
+
+    /**
+     * Returns every item in the table whose {@code field} is equal to {@code value}, keyed and ordered by id. Numbers are
+     * compared by value, so searching for the {@code int} 5 will match an item holding the {@code long} 5.
+     * <p>
+     * If the field has been indexed with {@link #createIndex(String, String)} the items are found in constant time,
+     * otherwise every item in the table is scanned.
+     * <p>
+     * The returned items are copies, changing them will not change the database.
      *
-     * @throws ParsingException if the {@code values} could not converted to a {@code JSONObject}
-     * @throws IOException if the {@code JSONObject} could not be written to the file.
      * @throws IllegalArgumentException if there is no table with that name.
      */
-    public void append(String tableName, Map<String, Object> values) throws ParsingException, IOException {
-        Table table = getTable(tableName); // throws IllegalArgumentException on fail
+    public Map<Integer, JSONObject> findBy(String tableName, String field, Object value)
+            throws IllegalArgumentException {
+        long start = System.nanoTime();
+        Table table = lockExistingTable(tableName, false);
+        try {
+            return recordFind(table, table.getIndex(field) != null, copyAll(table.findBy(field, value)));
+        } finally {
+            unlockTable(table, false);
+            metrics.record(DatabaseMetrics.Operation.QUERY, start);
+        }
+    }
 
+    /**
+     * Returns every item in the table whose {@code field} lies between {@code from} and {@code to}, inclusive, keyed by
+     * id and ordered by the field value. Either bound can be {@code null} to leave that end of the range open. Numbers
+     * are ordered by value and strings lexicographically; when the field holds values of several types they are ordered
+     * booleans, numbers, strings, then anything else.
+     * <p>
+     * If the field has an {@link IndexType#ORDERED} index only the matching items are touched, otherwise every item in
+     * the table is scanned.
+     * <p>
+     * The returned items are copies, changing them will not change the database.
+     *
+     * @throws IllegalArgumentException if there is no table with that name.
+     */
+    public Map<Integer, JSONObject> findRange(String tableName, String field, @Nullable Object from,
+                                              @Nullable Object to) throws IllegalArgumentException {
+        long start = System.nanoTime();
+        Table table = lockExistingTable(tableName, false);
         try {
-            // create a new JSONObject from values
-            JSONObject content = new JSONObject();
-            for (String key : values.keySet()) {
-                content.put(key, values.get(key));
-            }
+            return recordFind(table, table.getOrderedIndex(field) != null, copyAll(table.findRange(field, from, to)));
+        } finally {
+            unlockTable(table, false);
+            metrics.record(DatabaseMetrics.Operation.QUERY, start);
+        }
+    }
 
-            table.append(content);
-        } catch (JSONException e) {
-            throw new ParsingException("Could not add the values to the table.", e);
+    /**
+     * Returns up to {@code limit} items in the table ordered by their {@code field}, keyed by id, for example the ten
+     * most recent items by date. Items without the field, or whose field is null, are skipped.
+     * <p>
+     * If the field has an {@link IndexType#ORDERED} index only the returned items are touched, otherwise every item in
+     * the table is scanned.
+     * <p>
+     * The returned items are copies, changing them will not change the database.
+     *
+     * @param ascending {@code true} to start from the smallest value, {@code false} to start from the largest.
+     * @throws IllegalArgumentException if there is no table with that name, or {@code limit} is negative.
+     */
+    public Map<Integer, JSONObject> findOrdered(String tableName, String field, boolean ascending, int limit)
+            throws IllegalArgumentException {
+        if (limit < 0)
+            throw new IllegalArgumentException("limit cannot be negative");
+
+        long start = System.nanoTime();
+        Table table = lockExistingTable(tableName, false);
+        try {
+            return recordFind(table, table.getOrderedIndex(field) != null, copyAll(table.findOrdered(field, ascending, limit)));
+        } finally {
+            unlockTable(table, false);
+            metrics.record(DatabaseMetrics.Operation.QUERY, start);
         }
+    }
 
+    /**
+     * Returns the smallest non-null value of the {@code field} in the table, or {@code null} if no item has one. Whole
+     * numbers are returned as a {@code Long}.
+     *
+     * @throws IllegalArgumentException if there is no table with that name.
+     */
+    public Object min(String tableName, String field) throws IllegalArgumentException {
+        Table table = lockExistingTable(tableName, false);
         try {
-            fileHelper.write(rootObject.toString());
-        } catch (IOException e) {
-            throw new IOException("Could not write to the file:", e);
+            return table.min(field);
+        } finally {
+            unlockTable(table, false);
         }
     }
 
     /**
-     * Appends the {@code value} to the table matching the given tableName.
+     * Returns the largest non-null value of the {@code field} in the table, or {@code null} if no item has one. Whole
+     * numbers are returned as a {@code Long}.
      *
-     * @param tableName name of table to append to.
-     * @param valueKey key to save value under
-     * @param value value to save
+     * @throws IllegalArgumentException if there is no table with that name.
+     */
+    public Object max(String tableName, String field) throws IllegalArgumentException {
+        Table table = lockExistingTable(tableName, false);
+        try {
+            return table.max(field);
+        } finally {
+            unlockTable(table, false);
+        }
+    }
+
+    /**
+     * Opens a snapshot of the database. The snapshot sees every table as it is now, and can be read from any thread
+     * without locking, while writers keep changing the database. Any table which has not been loaded is loaded first.
+     * <p>
+     * While a snapshot is open each change keeps the version of the item it replaces, so the snapshot should be closed
+     * as soon as it is no longer needed to let those versions be discarded.
      *
-     * @throws IllegalArgumentException if the table doesn't exist, or the value is already saved.
+     * @throws NullPointerException if rootObject is null. This can happen if the .json file passed to the constructor
+     *      is empty.
      */
-    public void appendValueToTable(String tableName, int id, String valueKey, Object value) throws IOException,
-            IllegalArgumentException {
+    public Snapshot snapshot() {
+        // no change can be in progress while the catalog is held for writing
+        acquire(catalogLock.writeLock());
+        try {
+            if (rootObject == null)
+                throw new NullPointerException("rootObject is null");
 
-        JSONObject table = rootObject.optJSONObject(tableName);
-        if (table == null) {
-            throw new IllegalArgumentException("Could not find table matching the name " + tableName);
+            loadAllTables();
+
+            List<String> names = new ArrayList<>();
+            Iterator<?> keys = rootObject.keys();
+            while (keys.hasNext()) {
+                names.add((String) keys.next());
+            }
+
+            Map<String, Table> current = new LinkedHashMap<>();
+            for (String name : names) {
+                Table table = findTable(name);
+                if (table != null)
+                    current.put(name, table);
+            }
+
+            return new Snapshot(this, clock.open(), current);
+        } finally {
+            catalogLock.writeLock().unlock();
         }
+    }
 
-        JSONObject entry = table.optJSONObject(String.valueOf(id));
-        if (entry == null) {
-            throw new IllegalArgumentException("No entry found matching the id " + String.valueOf(id));
+    /**
+     * Called by {@link Snapshot#close()}. Discards every item version which is no longer needed by an open snapshot.
+     */
+    void closeSnapshot(Snapshot snapshot) {
+        clock.close(snapshot.getVersion());
+        long oldest = clock.oldestOpen();
+
+        Set<Table> held = new HashSet<>(snapshot.getTables());
+        acquire(catalogLock.readLock());
+        try {
+            held.addAll(tables.values());
+        } finally {
+            catalogLock.readLock().unlock();
         }
 
-        if (entry.has(valueKey)) {
-            throw new IllegalArgumentException("A key with the name " + valueKey + " already exists");
-        } else {
+        for (Table table : held) {
+            acquire(table.getLock().writeLock());
             try {
-                entry.put(valueKey, value);
-            } catch (JSONException e) {
-                throw new ParsingException("Could not append the value to the jsonobject");
+                table.discardVersions(oldest);
+            } finally {
+                table.getLock().writeLock().unlock();
             }
         }
+    }
+
+    /**
+     * Starts building a {@link Query} against the given table. The query picks an index to use when one is available,
+     * otherwise it scans the table. The table is not checked until the query is executed.
+     */
+    public Query query(String tableName) {
+        return new Query(this, tableName);
+    }
 
-        // save to file
+    /**
+     * Runs the given query while holding its table's read lock, creating the result for each match with the {@code
+     * projection}.
+     *
+     * @throws IllegalArgumentException if there is no table with the query's table name.
+     */
+    <T> Map<Integer, T> execute(Query query, Query.Projection<T> projection) throws IllegalArgumentException {
+        long start = System.nanoTime();
+        Table table = lockExistingTable(query.getTableName(), false);
         try {
-            fileHelper.write(rootObject.toString());
-        } catch (IOException e) {
-            throw new IOException("Could not write contents to file", e);
+            Map<Integer, T> result = query.run(table, projection);
+            metrics.addRows(query.getRowsScanned(), result.size());
+            return result;
+        } finally {
+            unlockTable(table, false);
+            metrics.record(DatabaseMetrics.Operation.QUERY, start);
         }
+    }
 
+    /**
+     * Reads the item with the given {@code id} into a new object of the given {@code type}, using {@link
+     * ObjectSerializer#fromJsonObject(JSONObject, Class)}. The object is read straight from the table, without copying
+     * the item first.
+     *
+     * @return the object, or {@code null} if the table has no item with that id.
+     *
+     * @throws IllegalArgumentException if there is no table with that name.
+     * @throws SerializerException if the item could not be read into the {@code type}.
+     */
+    public <T> T get(String tableName, int id, Class<T> type) throws IllegalArgumentException, SerializerException {
+        long start = System.nanoTime();
+        Table table = lockExistingTable(tableName, false);
+        try {
+            JSONObject item = table.getItem(id);
+            metrics.addRows(1, item == null ? 0 : 1);
+            return item == null ? null : ObjectSerializer.fromJsonObject(item, type);
+        } finally {
+            unlockTable(table, false);
+            metrics.record(DatabaseMetrics.Operation.QUERY, start);
+        }
     }
 
     /**
-     * Creates a new table with the given {@code name} and the {@code initialValues}, if any were given.
+     * Records the rows scanned and returned by one of the {@code find} methods. Without an index every item in the
+     * {@code table} was scanned, otherwise only the returned items were touched.
      *
-     * @throws IOException if it could not write to the file.
-     * @throws IllegalArgumentException if table already exists.
+     * @return the {@code found} items.
      */
-    public void newTable(String name, @Nullable Map<String, ?> initialValues) throws IOException, IllegalArgumentException {
-        if (tableExists(name))
-            throw new IllegalArgumentException("Table named " + name + " already exists.");
+    private Map<Integer, JSONObject> recordFind(Table table, boolean indexed, Map<Integer, JSONObject> found) {
+        metrics.addRows(indexed ? found.size() : table.size(), found.size());
+        return found;
+    }
 
-        JSONObject table = new JSONObject(initialValues);
-        try {
-            rootObject.put(name, table);
-        } catch (JSONException e) {
-            throw new ParsingException("Could not append table to rootObject");
+    /**
+     * Replaces every item in the map with a copy, keeping the order of the map.
+     */
+    private static Map<Integer, JSONObject> copyAll(Map<Integer, JSONObject> items) {
+        for (Map.Entry<Integer, JSONObject> entry : items.entrySet()) {
+            entry.setValue(copy(entry.getValue()));
         }
 
-        fileHelper.write(rootObject.toString());
+        return items;
     }
 
     /**
-     * Returns the {@link Table} matching the given name.
-     *
-     * @throws IllegalArgumentException if there is no such table.
-     * @throws NullPointerException if rootObject is null. This can happen if the .json file passed to the constructor
-     *      is empty.
+     * Returns a shallow copy of the given item.
      */
-    Table getTable(String name) {
-        if (rootObject == null)
-            throw new NullPointerException("rootObject is null");
+    static JSONObject copy(JSONObject item) {
+        String[] names = JSONObject.getNames(item);
+        if (names == null)
+            return new JSONObject();
 
-        JSONObject jObj;
         try {
-            jObj = rootObject.getJSONObject(name);
+            return new JSONObject(item, names);
         } catch (JSONException e) {
-            throw new IllegalArgumentException("Could not get table " + name, e);
+            throw new ParsingException("Could not copy item", e);
         }
-
-        return new Table(jObj);
     }
 
     /**
@@ -261,12 +1528,23 @@ public class JsonDatabase {
     public void dropTable(String tableName) throws IOException {
         assert rootObject != null;
 
-        if (!tableExists(tableName)) {
-            throw new IllegalArgumentException("No table found with name " + tableName);
+        Future<Void> write;
+        acquire(catalogLock.writeLock());
+        try {
+            if (!tableExists(tableName)) {
+                throw new IllegalArgumentException("No table found with name " + tableName);
+            }
+
+            rootObject.remove(tableName);
+            tables.remove(tableName);
+            if (directory != null)
+                directory.remove(tableName);
+            write = persist(WriteAheadLog.dropTableRecord(tableName));
+        } finally {
+            catalogLock.writeLock().unlock();
         }
 
-        rootObject.remove(tableName);
-        fileHelper.write(rootObject.toString());
+        finishWrite(write);
     }
 
     /**
@@ -293,70 +1571,139 @@ public class JsonDatabase {
      * @throws IllegalArgumentException if there's no item with the given key
      */
     public void delete(String key, String table) throws IOException {
-        assert rootObject != null;
-
-        // get the table
-        JSONObject tableObj;
+        long start = System.nanoTime();
         try {
-            tableObj = rootObject.getJSONObject(table);
-        } catch (JSONException e) {
-            throw new ParsingException("Could not parse JSONObject", e);
+            assert rootObject != null;
+
+            Table tableObj = lockTable(table, true);
+            if (tableObj == null) {
+                throw new ParsingException("Could not parse JSONObject: no table named " + table);
+            }
+
+            Future<Void> write;
+            try {
+                write = applyDelete(tableObj, key, table);
+            } finally {
+                unlockTable(tableObj, true);
+            }
+
+            finishWrite(write);
+        } finally {
+            metrics.record(DatabaseMetrics.Operation.DELETE, start);
         }
+    }
 
-        // remove from jsonRoot
+    /**
+     * Applies {@link #delete(String, String)} to the {@code tableObj} and starts persisting it. Must be called while
+     * holding the table's write lock.
+     */
+    private Future<Void> applyDelete(Table tableObj, String key, String table) throws IOException {
+        // remove from the table
         if (tableObj.has(key)) {
-            rootObject.remove(key);
+            tableObj.remove(key);
         } else {
             throw new IllegalArgumentException("No item found with the gen key");
         }
 
         // delete from database
-        fileHelper.write(rootObject.toString());
+        return persist(WriteAheadLog.deleteRecord(table, key));
     }
 
     /**
-     * Returns {@code true} if a table with the given name exists.
+     * Returns {@code true} if a table with the given name exists. This does not load the table.
      *
      * @throws NullPointerException if rootObject is null. This can happen if the .json file passed to the constructor
      *      is empty.
      */
     public boolean tableExists(String name) {
-        if (rootObject == null)
-            throw new NullPointerException("rootObject is null");
+        acquire(catalogLock.readLock());
+        try {
+            if (rootObject == null)
+                throw new NullPointerException("rootObject is null");
 
-        JSONObject array = rootObject.optJSONObject(name);
+            JSONObject array = rootObject.optJSONObject(name);
 
-        return array != null;
+            return array != null || (directory != null && directory.contains(name));
+        } finally {
+            catalogLock.readLock().unlock();
+        }
     }
 
     /**
-     * Returns an array of table names.
+     * Returns an array of table names. This does not load any tables.
      *
      * @throws NullPointerException if rootObject is null. This can happen if the .json file passed to the constructor
      *      is empty.
      */
     public String[] tableNames() {
-        if (rootObject == null)
-            throw new NullPointerException("rootObject is null");
+        acquire(catalogLock.readLock());
+        try {
+            if (rootObject == null)
+                throw new NullPointerException("rootObject is null");
 
-        List<String> names = new ArrayList<>();
-        Iterator iter = rootObject.keys();
+            List<String> names = new ArrayList<>();
+            Iterator iter = rootObject.keys();
 
-        while(iter.hasNext()) {
-            String s = (String)iter.next();
-            names.add(s);
+            while(iter.hasNext()) {
+                String s = (String)iter.next();
+                names.add(s);
 
-        }
+            }
+
+            if (directory != null)
+                names.addAll(directory.names());
 
-        return names.toArray(new String[names.size()]);
+            return names.toArray(new String[names.size()]);
+        } finally {
+            catalogLock.readLock().unlock();
+        }
     }
 
     /**
-     * Returns the {@code JSONObject} toString method.
+     * Returns the {@code JSONObject} toString method. With lazy loading this loads every table first.
      */
     @Override
     public String toString() {
-        return rootObject.toString();
+        // no table can be in use while the catalog is held for writing
+        acquire(catalogLock.writeLock());
+        try {
+            loadAllTables();
+            // items are listed in order of id once their table is in a row map
+            wrapTables();
+            return rootObject.toString();
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Waits for any mutations queued for a group commit to be written and stops the writer thread, then forces any
+     * writes left to the operating system by {@link FsyncPolicy#PERIODIC}. This does not take a {@link #checkpoint()},
+     * so a write-ahead log will still be replayed the next time the database is opened.
+     * <p>
+     * The database should not be mutated after it has been closed.
+     *
+     * @throws IOException if the writes could not be forced.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (groupCommitWriter != null)
+                groupCommitWriter.close();
+            if (log != null)
+                log.close();
+            fileHelper.close();
+        } finally {
+            metrics.unregisterMBean();
+        }
+    }
+
+    /**
+     * Returns the metrics recorded by this database since it was opened. They can be published through JMX with
+     * {@link DatabaseMetrics#registerMBean(String)}.
+     */
+    public DatabaseMetrics getMetrics() {
+        return metrics;
     }
 
 }
@@ -0,0 +1,78 @@
+package db;
+
+import json.JsonSerializer;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Stores the database as a single JSON object, the original format of a {@link JsonDatabase} file. The file is parsed
+ * as a stream by a {@link JsonStreamParser}. This is the default engine, and the only one which supports
+ * {@link DatabaseOptions#lazyLoading(boolean) lazy loading}.
+ * <p>
+ * The database is written by a {@link JsonSerializer}, which streams it to the file without building the whole text
+ * in memory first. {@link JsonDatabase} also passes the cached JSON text of each table which has not changed since the
+ * last write, which is copied into the file as it is.
+ */
+public class JsonStorageEngine implements StorageEngine {
+
+    @Override
+    public JSONObject read(ReadableByteChannel channel) throws IOException {
+        return read(new JsonStreamParser(channel));
+    }
+
+    @Override
+    public JSONObject read(ByteBuffer buffer) throws IOException {
+        return read(new JsonStreamParser(buffer));
+    }
+
+    private static JSONObject read(JsonStreamParser parser) throws IOException {
+        if (parser.atEnd())
+            return null;
+
+        return parser.parseObject();
+    }
+
+    @Override
+    public void write(JSONObject rootObject, WritableByteChannel channel) throws IOException {
+        JsonSerializer.write(rootObject, channel);
+    }
+
+    /**
+     * Writes the {@code rootObject} in the same way as {@link #write(JSONObject, WritableByteChannel)}, but copies the
+     * JSON text of each table in {@code fragments} as it is rather than serializing the table again. Members without a
+     * fragment are serialized as usual.
+     *
+     * @param fragments JSON text of tables which have not changed since it was serialized, keyed by table name.
+     * @throws IOException if the channel could not be written.
+     */
+    void write(JSONObject rootObject, Map<String, ByteBuffer> fragments, WritableByteChannel channel)
+            throws IOException {
+        FileHelper.writeFully(channel, encode("{"));
+
+        boolean first = true;
+        Iterator<?> keys = rootObject.keys();
+        while (keys.hasNext()) {
+            String name = (String) keys.next();
+            FileHelper.writeFully(channel, encode((first ? "" : ",") + JSONObject.quote(name) + ":"));
+            first = false;
+
+            ByteBuffer fragment = fragments.get(name);
+            if (fragment != null)
+                FileHelper.writeFully(channel, fragment.duplicate());
+            else
+                JsonSerializer.write(rootObject.opt(name), channel);
+        }
+
+        FileHelper.writeFully(channel, encode("}"));
+    }
+
+    private static ByteBuffer encode(String s) {
+        return ByteBuffer.wrap(s.getBytes(FileHelper.UTF_8));
+    }
+}
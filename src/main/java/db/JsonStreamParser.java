@@ -0,0 +1,532 @@
+package db;
+
+import exceptions.ParsingException;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parses UTF-8 encoded JSON from a channel or a {@code ByteBuffer} straight into {@code JSONObjects}, without first
+ * reading the whole input into a {@code String}.
+ * <p>
+ * A channel is read through a fixed size buffer, so opening a database only needs memory for the parsed tables plus the
+ * buffer, rather than several copies of the file. A memory-mapped buffer is parsed in place, without copying the file
+ * onto the heap at all. Object keys are shared between items, so the field names repeated in
+ * every item of a table are only held in memory once.
+ * <p>
+ * Values are converted to the same types as {@link JSONObject#JSONObject(String)}: whole numbers become an
+ * {@code Integer}, or a {@code Long} if they do not fit, other numbers become a {@code Double}, and {@code null} becomes
+ * {@link JSONObject#NULL}.
+ * <p>
+ * The same relaxed syntax as {@code JSONObject} is accepted, so any file it could read can still be opened. Strings
+ * and keys may be in single quotes, or without quotes where they contain none of <code>,:]}/\"[{;=#</code>. A key
+ * may be followed by {@code =} or {@code =>} instead of {@code :}. Members and elements may be separated by {@code ;}
+ * and followed by a trailing separator. An array may leave out elements, which are read as {@code null}. Unquoted
+ * values are converted by {@link JSONObject#stringToValue(String)}.
+ */
+class JsonStreamParser {
+
+    /**
+     * Size of the buffer used when reading from a channel.
+     */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Characters which end a value that is not in quotes.
+     */
+    private static final String WORD_DELIMITERS = ",:]}/\\\"[{;=#";
+
+    /**
+     * Maximum number of distinct object keys which are shared between items.
+     */
+    private static final int MAX_SHARED_KEYS = 4096;
+
+    private final ReadableByteChannel channel;
+
+    private final ByteBuffer buffer;
+
+    /**
+     * Number of bytes consumed before the current contents of the {@code buffer}, used in error messages.
+     */
+    private long consumed = 0;
+
+    /**
+     * Reused to build each string.
+     */
+    private final StringBuilder chars = new StringBuilder();
+
+    /**
+     * Object keys seen so far, so equal keys share a single {@code String}.
+     */
+    private final Map<String, String> keys = new HashMap<>();
+
+    /**
+     * Creates a parser which reads from the given channel. The channel is not closed by the parser.
+     */
+    JsonStreamParser(ReadableByteChannel channel) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.buffer.flip();
+    }
+
+    /**
+     * Creates a parser which reads the remaining bytes of the given buffer, for example a file mapped with
+     * {@link FileHelper#map()}. The position of the given buffer is not changed.
+     */
+    JsonStreamParser(ByteBuffer buffer) {
+        this.channel = null;
+        this.buffer = buffer.duplicate();
+        this.consumed = -buffer.position();
+    }
+
+    /**
+     * Returns {@code true} if there is nothing but whitespace left in the input.
+     *
+     * @throws IOException if the channel could not be read.
+     */
+    boolean atEnd() throws IOException {
+        return peekToken() == -1;
+    }
+
+    /**
+     * Returns the number of bytes consumed from the input so far. For a {@code ByteBuffer} this is relative to the
+     * buffer's position when the parser was created.
+     */
+    long position() {
+        return consumed + buffer.position();
+    }
+
+    /**
+     * Consumes the opening brace of an object, so its members can be read one at a time with {@link #nextKey()} and
+     * {@link #parseValue()}.
+     *
+     * @throws ParsingException if the next value in the input is not an object.
+     */
+    void beginObject() throws IOException, ParsingException {
+        if (peekToken() != '{')
+            throw error("Expected '{'");
+        read();
+    }
+
+    /**
+     * Reads the key of the next member of an object opened with {@link #beginObject()}, leaving the parser ready to
+     * read its value. Returns {@code null}, and consumes the closing brace, once there are no more members.
+     *
+     * @throws ParsingException if the input is not a valid object member.
+     */
+    String nextKey() throws IOException, ParsingException {
+        int c = peekToken();
+        if (c == ',' || c == ';') {
+            read();
+            c = peekToken();
+        }
+
+        if (c == '}') {
+            read();
+            return null;
+        }
+
+        String key = readKey();
+        readKeySeparator();
+        return key;
+    }
+
+    /**
+     * Parses a JSON object.
+     *
+     * @throws IOException if the channel could not be read.
+     * @throws ParsingException if the next value in the input is not a valid JSON object.
+     */
+    JSONObject parseObject() throws IOException, ParsingException {
+        if (peekToken() != '{')
+            throw error("Expected '{'");
+
+        return (JSONObject) parseValue();
+    }
+
+    /**
+     * Parses the next JSON value.
+     *
+     * @throws IOException if the channel could not be read.
+     * @throws ParsingException if the input is not valid JSON.
+     */
+    Object parseValue() throws IOException, ParsingException {
+        int c = peekToken();
+
+        switch (c) {
+            case '{':
+                read();
+                return readObject();
+            case '[':
+                read();
+                return readArray();
+            case '"':
+            case '\'':
+                read();
+                return readString(c);
+            case -1:
+                throw error("Unexpected end of input");
+            default:
+                return readWord();
+        }
+    }
+
+    /**
+     * Reads the members of an object whose opening brace has already been consumed.
+     */
+    private JSONObject readObject() throws IOException {
+        JSONObject object = new JSONObject();
+
+        while (true) {
+            // an empty object, or a trailing separator
+            if (peekToken() == '}') {
+                read();
+                return object;
+            }
+
+            String key = readKey();
+            readKeySeparator();
+
+            Object value = parseValue();
+            try {
+                object.put(key, value);
+            } catch (JSONException e) {
+                throw new ParsingException("Invalid value for key " + key, e);
+            }
+
+            int c = peekToken();
+            read();
+            if (c == '}')
+                return object;
+            if (c != ',' && c != ';')
+                throw error("Expected ',' or '}'");
+        }
+    }
+
+    /**
+     * Reads the key of an object member, which may be any value, as {@code JSONObject} allows.
+     */
+    private String readKey() throws IOException {
+        int c = peekToken();
+        if (c == '"' || c == '\'') {
+            read();
+            return shareKey(readString(c));
+        }
+        return shareKey(parseValue().toString());
+    }
+
+    /**
+     * Consumes the {@code :}, {@code =} or {@code =>} after a key.
+     */
+    private void readKeySeparator() throws IOException {
+        int c = peekToken();
+        if (c == ':') {
+            read();
+        } else if (c == '=') {
+            read();
+            if (peek() == '>')
+                read();
+        } else {
+            throw error("Expected ':'");
+        }
+    }
+
+    /**
+     * Reads the elements of an array whose opening bracket has already been consumed.
+     */
+    private JSONArray readArray() throws IOException {
+        JSONArray array = new JSONArray();
+
+        if (peekToken() == ']') {
+            read();
+            return array;
+        }
+
+        while (true) {
+            // a missing element is null
+            if (peekToken() == ',')
+                array.put((Object) null);
+            else
+                array.put(parseValue());
+
+            int c = peekToken();
+            read();
+            if (c == ',' || c == ';') {
+                if (peekToken() == ']') {
+                    read();
+                    return array;
+                }
+            } else if (c == ']') {
+                return array;
+            } else {
+                throw error("Expected ',' or ']'");
+            }
+        }
+    }
+
+    /**
+     * Reads a string whose opening quote has already been consumed, decoding escapes and UTF-8 sequences.
+     *
+     * @param quote the quote which ends the string.
+     */
+    private String readString(int quote) throws IOException {
+        chars.setLength(0);
+
+        while (true) {
+            int b = read();
+
+            if (b == quote)
+                return chars.toString();
+            if (b == -1)
+                throw error("Unterminated string");
+
+            if (b == '\\') {
+                readEscape();
+            } else if (b < 0x80) {
+                chars.append((char) b);
+            } else {
+                readMultiByte(b);
+            }
+        }
+    }
+
+    private void readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case -1:
+                throw error("Unterminated string");
+            case 'b':
+                chars.append('\b');
+                break;
+            case 'f':
+                chars.append('\f');
+                break;
+            case 'n':
+                chars.append('\n');
+                break;
+            case 'r':
+                chars.append('\r');
+                break;
+            case 't':
+                chars.append('\t');
+                break;
+            case 'u':
+                int code = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit == -1)
+                        throw error("Invalid unicode escape");
+                    code = (code << 4) | digit;
+                }
+                chars.append((char) code);
+                break;
+            case 'x':
+                int hex = 0;
+                for (int i = 0; i < 2; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit == -1)
+                        throw error("Invalid hex escape");
+                    hex = (hex << 4) | digit;
+                }
+                chars.append((char) hex);
+                break;
+            default:
+                // any other character stands for itself, as in JSONObject
+                if (c < 0x80)
+                    chars.append((char) c);
+                else
+                    readMultiByte(c);
+        }
+    }
+
+    /**
+     * Decodes a UTF-8 sequence starting with the given lead byte. Malformed sequences are replaced with U+FFFD.
+     */
+    private void readMultiByte(int lead) throws IOException {
+        int extra;
+        int codePoint;
+
+        if ((lead & 0xE0) == 0xC0) {
+            extra = 1;
+            codePoint = lead & 0x1F;
+        } else if ((lead & 0xF0) == 0xE0) {
+            extra = 2;
+            codePoint = lead & 0x0F;
+        } else if ((lead & 0xF8) == 0xF0) {
+            extra = 3;
+            codePoint = lead & 0x07;
+        } else {
+            chars.append('\uFFFD');
+            return;
+        }
+
+        for (int i = 0; i < extra; i++) {
+            int b = peek();
+            if ((b & 0xC0) != 0x80) {
+                chars.append('\uFFFD');
+                return;
+            }
+            read();
+            codePoint = (codePoint << 6) | (b & 0x3F);
+        }
+
+        if (Character.isValidCodePoint(codePoint))
+            chars.appendCodePoint(codePoint);
+        else
+            chars.append('\uFFFD');
+    }
+
+    /**
+     * Reads a value which is not in quotes, such as a number, {@code true} or {@code null}, converting it to the same
+     * type {@link JSONObject#stringToValue(String)} would.
+     */
+    private Object readWord() throws IOException {
+        chars.setLength(0);
+
+        int c = peek();
+        while (c >= ' ' && (c >= 0x80 || WORD_DELIMITERS.indexOf(c) == -1)) {
+            read();
+            if (c < 0x80)
+                chars.append((char) c);
+            else
+                readMultiByte(c);
+            c = peek();
+        }
+
+        String word = chars.toString().trim();
+        switch (word) {
+            case "":
+                throw error(c == -1 ? "Unexpected end of input" : "Unexpected character '" + (char) c + "'");
+            case "true":
+                return Boolean.TRUE;
+            case "false":
+                return Boolean.FALSE;
+            case "null":
+                return JSONObject.NULL;
+            default:
+                return isNumber(word) ? toNumber(word) : JSONObject.stringToValue(word);
+        }
+    }
+
+    /**
+     * Returns {@code true} if the word is a number as standard JSON writes it, which can be converted without the
+     * exceptions {@link JSONObject#stringToValue(String)} uses to try each type in turn.
+     */
+    private static boolean isNumber(String word) {
+        int i = word.charAt(0) == '-' ? 1 : 0;
+        int length = word.length();
+        if (i == length || word.charAt(i) < '0' || word.charAt(i) > '9')
+            return false;
+        // a leading zero means an octal number to stringToValue
+        if (word.charAt(i) == '0' && i + 1 < length && word.charAt(i + 1) >= '0' && word.charAt(i + 1) <= '9')
+            return false;
+
+        for (; i < length; i++) {
+            char c = word.charAt(i);
+            if ((c < '0' || c > '9') && c != '.' && c != 'e' && c != 'E' && c != '-' && c != '+')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Converts a word accepted by {@link #isNumber(String)}.
+     */
+    private static Object toNumber(String number) {
+        boolean decimal = number.indexOf('.') != -1 || number.indexOf('e') != -1 || number.indexOf('E') != -1;
+        try {
+            if (!decimal) {
+                try {
+                    long value = Long.parseLong(number);
+                    if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE)
+                        return (int) value;
+                    return value;
+                } catch (NumberFormatException e) {
+                    // too large for a long
+                }
+            }
+
+            return Double.valueOf(number);
+        } catch (NumberFormatException e) {
+            // not a number after all, such as 1-2
+            return JSONObject.stringToValue(number);
+        }
+    }
+
+    /**
+     * Returns a shared instance of the given key.
+     */
+    private String shareKey(String key) {
+        String shared = keys.get(key);
+        if (shared != null)
+            return shared;
+
+        if (keys.size() < MAX_SHARED_KEYS)
+            keys.put(key, key);
+        return key;
+    }
+
+    /**
+     * Skips whitespace and returns the next byte without consuming it, or -1 at the end of the input.
+     */
+    private int peekToken() throws IOException {
+        int c = peek();
+        // like JSONObject, any control character counts as whitespace
+        while (c > 0 && c <= ' ') {
+            read();
+            c = peek();
+        }
+        return c;
+    }
+
+    /**
+     * Returns the next byte without consuming it, or -1 at the end of the input.
+     */
+    private int peek() throws IOException {
+        if (!buffer.hasRemaining() && !fill())
+            return -1;
+
+        return buffer.get(buffer.position()) & 0xFF;
+    }
+
+    /**
+     * Consumes and returns the next byte, or -1 at the end of the input.
+     */
+    private int read() throws IOException {
+        if (!buffer.hasRemaining() && !fill())
+            return -1;
+
+        return buffer.get() & 0xFF;
+    }
+
+    /**
+     * Refills the empty buffer from the channel.
+     *
+     * @return {@code false} if the end of the input has been reached.
+     */
+    private boolean fill() throws IOException {
+        if (channel == null)
+            return false;
+
+        consumed += buffer.limit();
+        buffer.clear();
+
+        int read;
+        do {
+            read = channel.read(buffer);
+        } while (read == 0);
+
+        buffer.flip();
+        return read != -1;
+    }
+
+    private ParsingException error(String message) {
+        return new ParsingException(message + " at byte " + (consumed + buffer.position()));
+    }
+}
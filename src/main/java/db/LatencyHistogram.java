@@ -0,0 +1,161 @@
+package db;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records how long an operation takes, in nanoseconds, so the mean, maximum and percentiles can be read at any time.
+ * <p>
+ * Durations are counted in buckets rather than stored, so recording takes constant time and memory however many
+ * operations are recorded. Each power of two is split into 8 buckets, so a percentile is reported to within 12.5% of the
+ * true value. Recording never blocks, so the histogram can be updated by many threads at once. The values read while
+ * other threads are recording may be slightly out of step with each other.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Number of buckets each power of two is split into, as a number of bits.
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Enough buckets for every positive {@code long}.
+     */
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder total = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records an operation which took {@code nanos} nanoseconds. Negative durations are recorded as 0.
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+
+        buckets.incrementAndGet(bucketFor(nanos));
+        count.increment();
+        total.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    /**
+     * Returns the number of operations recorded.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the total time taken by every operation recorded.
+     */
+    public long getTotalNanos() {
+        return total.sum();
+    }
+
+    /**
+     * Returns the mean time taken by an operation, or 0 if none have been recorded.
+     */
+    public long getMeanNanos() {
+        long count = getCount();
+        return count == 0 ? 0 : getTotalNanos() / count;
+    }
+
+    /**
+     * Returns the longest time taken by an operation, or 0 if none have been recorded.
+     */
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    /**
+     * Returns the median time taken by an operation. See {@link #getPercentileNanos(double)}.
+     */
+    public long getP50Nanos() {
+        return getPercentileNanos(50);
+    }
+
+    /**
+     * Returns the time within which 99% of operations completed. See {@link #getPercentileNanos(double)}.
+     */
+    public long getP99Nanos() {
+        return getPercentileNanos(99);
+    }
+
+    /**
+     * Returns the time within which the given {@code percentile} of operations completed, rounded up to the end of its
+     * bucket, or 0 if no operations have been recorded.
+     *
+     * @throws IllegalArgumentException if {@code percentile} is not between 0 and 100.
+     */
+    public long getPercentileNanos(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+
+        long[] counts = new long[BUCKETS];
+        long recorded = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            recorded += counts[i];
+        }
+        if (recorded == 0)
+            return 0;
+
+        long target = Math.max(1, (long) Math.ceil(recorded * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target)
+                return Math.min(upperBound(i), getMaxNanos());
+        }
+
+        return getMaxNanos();
+    }
+
+    /**
+     * Clears every recorded operation.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+
+    /**
+     * Returns the bucket a duration is counted in. Durations below {@code SUB_BUCKETS} have a bucket each, larger ones
+     * share a bucket with the other durations that have the same highest bits.
+     */
+    static int bucketFor(long nanos) {
+        if (nanos < SUB_BUCKETS)
+            return (int) nanos;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Returns the largest duration counted in the given bucket.
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        long lower = (long) (SUB_BUCKETS + sub) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
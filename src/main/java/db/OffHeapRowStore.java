@@ -0,0 +1,528 @@
+package db;
+
+import exceptions.ParsingException;
+import json.JsonSerializer;
+import org.json.JSONObject;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Holds items outside the heap as UTF-8 JSON text, so a table can be much larger than the heap and its items add nothing
+ * to the work of the garbage collector.
+ * <p>
+ * The text of each item is appended to an {@link Arena}, a list of direct or memory-mapped buffers, and the only thing on
+ * the heap is an array of {@code long} addresses indexed by id, 8 bytes per item. As in a {@link HeapRowStore}, ids far
+ * beyond the end of the array are held in a small overflow map. Reading an item parses its text into a new
+ * {@code JSONObject}, so items read from this store can be changed freely without changing the store.
+ * <p>
+ * Changing or removing an item leaves its old text in the arena. Once more of the arena is taken up by old text than by
+ * current text, the current text is copied into a new arena, so the space used stays within about twice the size of the
+ * items. A reader which started before the copy keeps using the old arena, which is released once the garbage collector
+ * finds nothing refers to it.
+ */
+final class OffHeapRowStore extends RowStore {
+
+    /**
+     * Size of the first buffer of an arena.
+     */
+    static final int MIN_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Size buffers stop growing at. An item larger than this is given a buffer of its own.
+     */
+    static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Address held for an id without an item.
+     */
+    private static final long NONE = 0;
+
+    /**
+     * Index and arena of the items. The two are replaced together when the arena is compacted, so a reader must read
+     * this once per operation.
+     */
+    private volatile Layout layout;
+
+    /**
+     * Number of items.
+     */
+    private volatile int rows = 0;
+
+    /**
+     * Items which have been parsed recently, or {@code null} if they are not cached.
+     */
+    @Nullable
+    private final RowCache cache;
+
+    /**
+     * Bytes of the arena holding current items, only used by the thread changing the store.
+     */
+    private long liveBytes = 0;
+
+    /**
+     * Bytes of the arena holding items which have since been changed or removed.
+     */
+    private long deadBytes = 0;
+
+    /**
+     * @param cache where items are cached once they have been parsed, or {@code null} to parse them on every read.
+     */
+    OffHeapRowStore(RowStorage storage, @Nullable RowCache cache, int highestId, int expectedRows) {
+        int capacity = highestId < HeapRowStore.MAX_CAPACITY && isDenseEnough(highestId, expectedRows)
+                ? highestId + 1 : 16;
+        this.layout = new Layout(new AtomicLongArray(Math.max(16, capacity)), new ConcurrentHashMap<Integer, Long>(),
+                new Arena(storage, 1));
+        this.cache = cache;
+    }
+
+    /**
+     * Returns the item with the given id, from the cache if it is there, otherwise parsing it and adding it to the
+     * cache. An item from the cache is shared with other readers, so it must not be changed unless it is saved again
+     * with {@link #put(int, JSONObject)}, which replaces it.
+     */
+    @Override
+    JSONObject get(int id) {
+        Layout current = layout;
+        long address = current.addressOf(id);
+        if (address == NONE)
+            return null;
+        if (cache == null)
+            return current.arena.read(address);
+
+        JSONObject item = cache.get(address);
+        if (item == null) {
+            item = current.arena.read(address);
+            cache.put(address, item, current.arena.sizeOf(address));
+        }
+        return item;
+    }
+
+    @Override
+    JSONObject peek(int id) {
+        Layout current = layout;
+        long address = current.addressOf(id);
+        return address == NONE ? null : scan(current, address);
+    }
+
+    @Override
+    boolean contains(int id) {
+        return layout.addressOf(id) != NONE;
+    }
+
+    @Override
+    boolean put(int id, JSONObject item) {
+        Layout current = layout;
+        long previous = current.addressOf(id);
+
+        long address = current.arena.append(JsonSerializer.toUtf8(item));
+        liveBytes += current.arena.sizeOf(address);
+        setAddress(current, id, address);
+
+        if (previous != NONE) {
+            release(current, previous);
+        } else {
+            rows++;
+        }
+        return previous != NONE;
+    }
+
+    @Override
+    boolean remove(int id) {
+        Layout current = layout;
+        long previous = current.addressOf(id);
+        if (previous == NONE)
+            return false;
+
+        if (id < current.dense.length())
+            current.dense.set(id, NONE);
+        if (!current.sparse.isEmpty())
+            current.sparse.remove(id);
+
+        rows--;
+        release(current, previous);
+        return true;
+    }
+
+    @Override
+    int size() {
+        return rows;
+    }
+
+    /**
+     * Visits every item as described by {@link RowStore#forEach(Table.ItemVisitor)}. Items in the cache are read from
+     * it, but items parsed by the scan are not added, so a scan does not push the items which are read often out of the
+     * cache.
+     */
+    @Override
+    void forEach(Table.ItemVisitor visitor) {
+        Layout current = layout;
+        for (int id = 0; id < current.dense.length(); id++) {
+            long address = current.dense.get(id);
+            if (address != NONE && !visitor.visit(id, scan(current, address)))
+                return;
+        }
+
+        for (Map.Entry<Integer, Long> entry : current.sparse.entrySet()) {
+            // the array holds the current version of any id it covers
+            if (entry.getKey() < current.dense.length())
+                continue;
+            if (!visitor.visit(entry.getKey(), scan(current, entry.getValue())))
+                return;
+        }
+    }
+
+    /**
+     * Returns the item at the given address for {@link #forEach(Table.ItemVisitor)} and {@link #peek(int)}.
+     */
+    private JSONObject scan(Layout current, long address) {
+        JSONObject item = cache == null ? null : cache.peek(address);
+        return item != null ? item : current.arena.read(address);
+    }
+
+    @Override
+    PrimitiveIterator.OfInt ids() {
+        Layout current = layout;
+        return new Ids(current.dense, current.sparse.keySet().iterator());
+    }
+
+    @Override
+    boolean isOffHeap() {
+        return true;
+    }
+
+    @Override
+    long offHeapBytes() {
+        return layout.arena.allocated;
+    }
+
+    /**
+     * Points the given id at the text at {@code address}, growing the index if the id is just beyond its end.
+     */
+    private void setAddress(Layout current, int id, long address) {
+        AtomicLongArray dense = current.dense;
+        if (id >= dense.length() && isDenseEnough(id, rows + 1))
+            dense = grow(current, id).dense;
+
+        if (id < dense.length()) {
+            dense.set(id, address);
+            if (!current.sparse.isEmpty())
+                current.sparse.remove(id);
+        } else {
+            current.sparse.put(id, address);
+        }
+    }
+
+    /**
+     * Replaces the index with a larger copy which reaches {@code id}, and moves the overflow addresses it now covers into
+     * it. The moved addresses are left in the overflow map as well, since a reader may still be using the old index.
+     */
+    private Layout grow(Layout current, int id) {
+        AtomicLongArray old = current.dense;
+        int capacity = (int) Math.min(HeapRowStore.MAX_CAPACITY, Math.max(id + 1L, old.length() * 2L));
+
+        AtomicLongArray dense = new AtomicLongArray(capacity);
+        for (int i = 0; i < old.length(); i++) {
+            dense.lazySet(i, old.get(i));
+        }
+        for (Map.Entry<Integer, Long> entry : current.sparse.entrySet()) {
+            // entries the old index already covered are out of date
+            if (entry.getKey() >= old.length() && entry.getKey() < capacity)
+                dense.lazySet(entry.getKey(), entry.getValue());
+        }
+
+        Layout grown = new Layout(dense, current.sparse, current.arena);
+        layout = grown;
+        return grown;
+    }
+
+    /**
+     * Counts the text at {@code address} as no longer used, and compacts the arena if it is now mostly unused.
+     */
+    private void release(Layout current, long address) {
+        if (cache != null)
+            cache.remove(address);
+
+        long size = current.arena.sizeOf(address);
+        liveBytes -= size;
+        deadBytes += size;
+
+        if (deadBytes > liveBytes && deadBytes > MIN_CHUNK_SIZE)
+            compact();
+    }
+
+    /**
+     * Copies the text of every current item into a new arena, and publishes it with a new index. The new arena numbers
+     * its buffers after the old one's, so no address is ever used for two different texts, and cached items are moved
+     * to their new address.
+     */
+    private void compact() {
+        Layout current = layout;
+        Arena arena = new Arena(current.arena.storage, current.arena.nextChunk());
+        AtomicLongArray dense = new AtomicLongArray(current.dense.length());
+        ConcurrentMap<Integer, Long> sparse = new ConcurrentHashMap<>();
+
+        long live = 0;
+        for (int id = 0; id < current.dense.length(); id++) {
+            long address = current.dense.get(id);
+            if (address != NONE) {
+                long copy = arena.append(current.arena.text(address));
+                dense.lazySet(id, copy);
+                live += arena.sizeOf(copy);
+                if (cache != null)
+                    cache.move(address, copy);
+            }
+        }
+        for (Map.Entry<Integer, Long> entry : current.sparse.entrySet()) {
+            if (entry.getKey() >= current.dense.length()) {
+                long copy = arena.append(current.arena.text(entry.getValue()));
+                sparse.put(entry.getKey(), copy);
+                live += arena.sizeOf(copy);
+                if (cache != null)
+                    cache.move(entry.getValue(), copy);
+            }
+        }
+
+        layout = new Layout(dense, sparse, arena);
+        liveBytes = live;
+        deadBytes = 0;
+    }
+
+    /**
+     * An index from id to address, and the arena the addresses point into.
+     */
+    private static final class Layout {
+
+        final AtomicLongArray dense;
+
+        final ConcurrentMap<Integer, Long> sparse;
+
+        final Arena arena;
+
+        Layout(AtomicLongArray dense, ConcurrentMap<Integer, Long> sparse, Arena arena) {
+            this.dense = dense;
+            this.sparse = sparse;
+            this.arena = arena;
+        }
+
+        /**
+         * Returns the address of the item with the given id, or {@link #NONE} if there is no such item.
+         */
+        long addressOf(int id) {
+            if (id >= 0 && id < dense.length()) {
+                long address = dense.get(id);
+                if (address != NONE)
+                    return address;
+            }
+            if (sparse.isEmpty())
+                return NONE;
+
+            Long address = sparse.get(id);
+            return address == null ? NONE : address;
+        }
+    }
+
+    /**
+     * Buffers the text of items is appended to. Each item is stored as its length, as 4 bytes, followed by its text. Its
+     * address holds the number of the buffer in the upper 32 bits and its position within the buffer in the lower 32
+     * bits. Buffers are numbered from 1, so no address is {@link #NONE}, and an arena which replaces another carries on
+     * from the last number of the old one.
+     * <p>
+     * Only one thread may append, but any number of threads can read text which has already been appended. A buffer is
+     * never written after its text has been published through an index, and the writer only moves its own duplicate of
+     * the buffer, so readers never see a buffer's position change.
+     */
+    private static final class Arena {
+
+        final RowStorage storage;
+
+        /**
+         * Replaced by a longer copy before an address in a new buffer is published.
+         */
+        private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+
+        /**
+         * Position of the next free byte in the last buffer.
+         */
+        private int free = 0;
+
+        /**
+         * Number of the first buffer.
+         */
+        private final int firstChunk;
+
+        /**
+         * Total size of the buffers.
+         */
+        private volatile long allocated = 0;
+
+        Arena(RowStorage storage, int firstChunk) {
+            this.storage = storage;
+            this.firstChunk = firstChunk;
+        }
+
+        /**
+         * Returns the number the next buffer added to this arena would have.
+         */
+        int nextChunk() {
+            return firstChunk + chunks.length;
+        }
+
+        /**
+         * Appends the remaining bytes of {@code text}, and returns their address.
+         */
+        long append(ByteBuffer text) {
+            int length = text.remaining();
+            ByteBuffer[] current = chunks;
+            if (current.length == 0 || current[current.length - 1].capacity() - free < length + 4)
+                current = addChunk(length + 4);
+
+            ByteBuffer target = current[current.length - 1].duplicate();
+            target.position(free);
+            target.putInt(length);
+            target.put(text);
+
+            long address = (long) (firstChunk + current.length - 1) << 32 | free;
+            free = target.position();
+            return address;
+        }
+
+        /**
+         * Returns the text at the given address, without copying it.
+         */
+        ByteBuffer text(long address) {
+            ByteBuffer text = chunkAt(address).duplicate();
+            int position = (int) address;
+            int length = text.getInt(position);
+
+            text.limit(position + 4 + length);
+            text.position(position + 4);
+            return text;
+        }
+
+        /**
+         * Parses the item at the given address.
+         *
+         * @throws ParsingException if the text could not be parsed.
+         */
+        JSONObject read(long address) throws ParsingException {
+            try {
+                return new JsonStreamParser(text(address)).parseObject();
+            } catch (IOException e) {
+                throw new ParsingException("Could not read item: ", e);
+            }
+        }
+
+        /**
+         * Returns the number of bytes the item at the given address takes up in the arena.
+         */
+        long sizeOf(long address) {
+            return 4 + chunkAt(address).getInt((int) address);
+        }
+
+        private ByteBuffer chunkAt(long address) {
+            return chunks[(int) (address >>> 32) - firstChunk];
+        }
+
+        /**
+         * Adds a buffer with room for at least {@code needed} bytes. Each buffer is as large as all of the previous
+         * buffers together, between {@link #MIN_CHUNK_SIZE} and {@link #MAX_CHUNK_SIZE}.
+         */
+        private ByteBuffer[] addChunk(int needed) {
+            int size = (int) Math.max(needed, Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, allocated)));
+
+            ByteBuffer[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+            grown[grown.length - 1] = storage == RowStorage.MAPPED ? map(size) : ByteBuffer.allocateDirect(size);
+            allocated += size;
+            free = 0;
+
+            chunks = grown;
+            return grown;
+        }
+
+        /**
+         * Maps a new temporary file of the given size into memory. The file is deleted straight away, which leaves the
+         * mapping usable on most platforms, and its space is freed once the mapping is released.
+         *
+         * @throws ParsingException if the file could not be created or mapped.
+         */
+        private static ByteBuffer map(int size) throws ParsingException {
+            File file = null;
+            try {
+                file = File.createTempFile("minidb-rows", ".tmp");
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(size);
+                    return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                }
+            } catch (IOException e) {
+                throw new ParsingException("Could not map a file to hold table items: ", e);
+            } finally {
+                // a file which is still mapped cannot be deleted on Windows
+                if (file != null && !file.delete())
+                    file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Iterates over the ids in the index it was created with, then the overflow ids beyond its end.
+     */
+    private static final class Ids implements PrimitiveIterator.OfInt {
+
+        private final AtomicLongArray dense;
+
+        private final Iterator<Integer> sparseIds;
+
+        private int index = 0;
+
+        private int next;
+
+        Ids(AtomicLongArray dense, Iterator<Integer> sparseIds) {
+            this.dense = dense;
+            this.sparseIds = sparseIds;
+            this.next = advance();
+        }
+
+        private int advance() {
+            while (index < dense.length()) {
+                int id = index++;
+                if (dense.get(id) != NONE)
+                    return id;
+            }
+
+            while (sparseIds.hasNext()) {
+                int id = sparseIds.next();
+                if (id >= dense.length())
+                    return id;
+            }
+            return -1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != -1;
+        }
+
+        @Override
+        public int nextInt() {
+            if (next == -1)
+                throw new NoSuchElementException();
+
+            int current = next;
+            next = advance();
+            return current;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package db;
+
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * An {@link Index} which keeps its values sorted in a {@code TreeMap}, so it can answer range scans, min/max and ordered
+ * iteration as well as equality lookups.
+ * <p>
+ * Values of different types are ordered null first, then booleans, numbers, strings and finally anything else, such as
+ * nested objects, which are ordered by their string form. Numbers are compared by value whatever their type. Items with
+ * the same value are ordered by id.
+ */
+class OrderedIndex extends Index {
+
+    /**
+     * Orders {@link Index#normalize(Object) normalized} values as described in the class documentation.
+     */
+    static final Comparator<Object> VALUE_ORDER = new Comparator<Object>() {
+        @Override
+        public int compare(Object a, Object b) {
+            int rankA = rank(a);
+            int rankB = rank(b);
+            if (rankA != rankB)
+                return Integer.compare(rankA, rankB);
+
+            switch (rankA) {
+                case 0:
+                    return 0;
+                case 1:
+                    return Boolean.compare((Boolean) a, (Boolean) b);
+                case 2:
+                    if (a instanceof Long && b instanceof Long)
+                        return Long.compare((Long) a, (Long) b);
+                    return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+                case 3:
+                    return ((String) a).compareTo((String) b);
+                default:
+                    return a.toString().compareTo(b.toString());
+            }
+        }
+
+        private int rank(Object value) {
+            if (value == JSONObject.NULL)
+                return 0;
+            if (value instanceof Boolean)
+                return 1;
+            if (value instanceof Number)
+                return 2;
+            if (value instanceof String)
+                return 3;
+            return 4;
+        }
+    };
+
+    /**
+     * Ids of the items holding each normalized value, sorted by value.
+     */
+    private final TreeMap<Object, Set<Integer>> entries = new TreeMap<>(VALUE_ORDER);
+
+    OrderedIndex(String field) {
+        super(field);
+    }
+
+    @Override
+    void add(int id, Object value) {
+        Object key = normalize(value);
+
+        Set<Integer> ids = entries.get(key);
+        if (ids == null) {
+            ids = new TreeSet<>();
+            entries.put(key, ids);
+        }
+
+        ids.add(id);
+    }
+
+    @Override
+    void remove(int id, Object value) {
+        Object key = normalize(value);
+
+        Set<Integer> ids = entries.get(key);
+        if (ids == null)
+            return;
+
+        ids.remove(id);
+        if (ids.isEmpty())
+            entries.remove(key);
+    }
+
+    @Override
+    Set<Integer> find(Object value) {
+        Set<Integer> ids = entries.get(normalize(value));
+        if (ids == null)
+            return Collections.emptySet();
+
+        return Collections.unmodifiableSet(ids);
+    }
+
+    /**
+     * Returns a view of the entries whose value lies between {@code from} and {@code to}, inclusive, in ascending order.
+     * A {@code null} bound leaves that end of the range open. Null values are only included if {@code from} is
+     * {@link JSONObject#NULL}.
+     */
+    NavigableMap<Object, Set<Integer>> range(Object from, Object to) {
+        NavigableMap<Object, Set<Integer>> view = entries;
+
+        if (from != null)
+            view = view.tailMap(normalize(from), true);
+        else
+            view = view.tailMap(JSONObject.NULL, false);
+
+        if (to != null)
+            view = view.headMap(normalize(to), true);
+
+        return Collections.unmodifiableNavigableMap(view);
+    }
+
+    /**
+     * Returns the smallest value in the index, ignoring nulls, or {@code null} if there is none.
+     */
+    Object min() {
+        Map.Entry<Object, Set<Integer>> first = entries.higherEntry(JSONObject.NULL);
+        return first == null ? null : first.getKey();
+    }
+
+    /**
+     * Returns the largest value in the index, ignoring nulls, or {@code null} if there is none.
+     */
+    Object max() {
+        if (entries.isEmpty() || entries.lastKey() == JSONObject.NULL)
+            return null;
+
+        return entries.lastKey();
+    }
+}
@@ -0,0 +1,485 @@
+package db;
+
+import exceptions.ParsingException;
+import exceptions.SerializerException;
+import json.ObjectSerializer;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Builds and runs a query against a single table of a {@link JsonDatabase}. A query is created with
+ * {@link JsonDatabase#query(String)} and configured by chaining calls before calling {@link #execute()}:
+ * <pre>
+ *     Map&lt;Integer, JSONObject&gt; items = db.query("expenses")
+ *             .whereBetween("cost", 10, 100)
+ *             .select("name", "cost")
+ *             .orderBy("cost", false)
+ *             .limit(10)
+ *             .execute();
+ * </pre>
+ * {@link #execute(Class)} returns the matching items read into objects instead, such as
+ * {@code db.query("expenses").where("paid", false).execute(Expense.class)}.
+ * When the query runs it picks the cheapest way to find candidate items:
+ * <ul>
+ *     <li>an equality condition on an indexed field reads the matching ids straight from the index;</li>
+ *     <li>otherwise a range condition on a field with an {@link IndexType#ORDERED} index scans only that range;</li>
+ *     <li>otherwise, if the order-by field has an ordered index, the index is walked in order and the query stops as
+ *     soon as it has {@code limit} matches;</li>
+ *     <li>otherwise every item in the table is scanned.</li>
+ * </ul>
+ * Every candidate is checked against all of the conditions. Unless the items already arrive in order, they are ordered
+ * with a heap which never holds more than {@code limit} items. Only the selected fields of the returned items are
+ * copied.
+ * <p>
+ * Items are ordered by the order-by field as described by {@link OrderedIndex}, with items where the field is missing
+ * or null placed last. Items with the same value, or every item when there is no order-by field, are ordered by id.
+ * <p>
+ * A query created with {@link Snapshot#query(String)} reads the table as it was when the snapshot was opened. Indexes
+ * only describe the latest version of a table, so such a query always scans the table.
+ */
+public class Query {
+
+    /**
+     * A single condition added by one of the {@code where} methods.
+     */
+    private static final class Condition {
+
+        enum Kind { EQUALS, RANGE, PREDICATE }
+
+        final String field;
+        final Kind kind;
+        final Object value;
+        final Object from;
+        final Object to;
+        final Predicate<Object> predicate;
+
+        private Condition(String field, Kind kind, Object value, Object from, Object to, Predicate<Object> predicate) {
+            this.field = field;
+            this.kind = kind;
+            this.value = value;
+            this.from = from;
+            this.to = to;
+            this.predicate = predicate;
+        }
+
+        /**
+         * Returns {@code true} if the item satisfies this condition.
+         */
+        boolean matches(JSONObject item) {
+            if (kind == Kind.PREDICATE)
+                return predicate.test(item.opt(field));
+
+            if (!item.has(field))
+                return false;
+
+            Object actual = Index.normalize(item.opt(field));
+            if (kind == Kind.EQUALS)
+                return value.equals(actual);
+
+            if (from == null ? actual == JSONObject.NULL : OrderedIndex.VALUE_ORDER.compare(actual, from) < 0)
+                return false;
+            return to == null || OrderedIndex.VALUE_ORDER.compare(actual, to) <= 0;
+        }
+    }
+
+    /**
+     * An item which matched every condition, along with the value it is ordered by.
+     */
+    private static final class Match {
+        final int id;
+        final JSONObject item;
+        final Object sortValue;
+
+        Match(int id, JSONObject item, Object sortValue) {
+            this.id = id;
+            this.item = item;
+            this.sortValue = sortValue;
+        }
+    }
+
+    /**
+     * Creates the result returned for an item which matched the query. It is called while the table is still locked, so
+     * it can read the item without copying it first.
+     */
+    interface Projection<T> {
+        T project(int id, JSONObject item);
+    }
+
+    private final JsonDatabase database;
+
+    /**
+     * Snapshot the query reads from, or {@code null} to read the latest version of the table.
+     */
+    private final Snapshot snapshot;
+
+    private final String tableName;
+
+    private final List<Condition> conditions = new ArrayList<>();
+
+    private String[] fields = null;
+
+    private String orderBy = null;
+
+    private boolean ascending = true;
+
+    private int limit = Integer.MAX_VALUE;
+
+    /**
+     * Number of items checked against the conditions by the last run, recorded in the {@link DatabaseMetrics}.
+     */
+    private int rowsScanned = 0;
+
+    /**
+     * Package-private constructor used by {@link JsonDatabase#query(String)}.
+     */
+    Query(JsonDatabase database, String tableName) {
+        this.database = database;
+        this.snapshot = null;
+        this.tableName = tableName;
+    }
+
+    /**
+     * Package-private constructor used by {@link Snapshot#query(String)}.
+     */
+    Query(Snapshot snapshot, String tableName) {
+        this.database = null;
+        this.snapshot = snapshot;
+        this.tableName = tableName;
+    }
+
+    /**
+     * Only returns items whose {@code field} is equal to {@code value}. Numbers are compared by value, so the
+     * {@code int} 5 matches a stored {@code long} 5.
+     */
+    public Query where(String field, @Nullable Object value) {
+        conditions.add(new Condition(field, Condition.Kind.EQUALS, Index.normalize(value), null, null, null));
+        return this;
+    }
+
+    /**
+     * Only returns items whose {@code field} lies between {@code from} and {@code to}, inclusive. Either bound can be
+     * {@code null} to leave that end of the range open. Items where the field is null are not returned.
+     */
+    public Query whereBetween(String field, @Nullable Object from, @Nullable Object to) {
+        Object low = from == null ? null : Index.normalize(from);
+        Object high = to == null ? null : Index.normalize(to);
+
+        conditions.add(new Condition(field, Condition.Kind.RANGE, null, low, high, null));
+        return this;
+    }
+
+    /**
+     * Only returns items where the {@code predicate} accepts the value of {@code field}. The predicate is given
+     * {@code null} if the item has no such field. Indexes cannot be used for this kind of condition.
+     */
+    public Query where(String field, Predicate<Object> predicate) {
+        if (predicate == null)
+            throw new NullPointerException("predicate is null");
+
+        conditions.add(new Condition(field, Condition.Kind.PREDICATE, null, null, null, predicate));
+        return this;
+    }
+
+    /**
+     * Only includes the given fields in the returned items. By default every field is returned.
+     */
+    public Query select(String... fields) {
+        this.fields = fields.clone();
+        return this;
+    }
+
+    /**
+     * Orders the returned items by the given {@code field}, smallest first.
+     */
+    public Query orderBy(String field) {
+        return orderBy(field, true);
+    }
+
+    /**
+     * Orders the returned items by the given {@code field}.
+     *
+     * @param ascending {@code true} to return the smallest value first, {@code false} to return the largest first.
+     */
+    public Query orderBy(String field, boolean ascending) {
+        this.orderBy = field;
+        this.ascending = ascending;
+        return this;
+    }
+
+    /**
+     * Returns at most {@code limit} items.
+     *
+     * @throws IllegalArgumentException if {@code limit} is negative.
+     */
+    public Query limit(int limit) {
+        if (limit < 0)
+            throw new IllegalArgumentException("limit cannot be negative");
+
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Runs the query and returns the matching items keyed by id, in order. The returned items are copies, changing them
+     * will not change the database.
+     *
+     * @throws IllegalArgumentException if there is no table with the name given to {@link JsonDatabase#query(String)}.
+     * @throws IllegalStateException if the query reads from a snapshot which has been closed.
+     */
+    public Map<Integer, JSONObject> execute() throws IllegalArgumentException {
+        return execute(copySelected);
+    }
+
+    /**
+     * Runs the query and returns the matching items keyed by id, in order, each read into a new object of the given
+     * {@code type} by {@link ObjectSerializer#fromJsonObject(JSONObject, Class, String[])}. Only the selected fields
+     * are set. The objects are read straight from the table, without copying the items first.
+     *
+     * @throws IllegalArgumentException if there is no table with the name given to {@link JsonDatabase#query(String)}.
+     * @throws IllegalStateException if the query reads from a snapshot which has been closed.
+     * @throws SerializerException if an item could not be read into the {@code type}.
+     */
+    public <T> Map<Integer, T> execute(final Class<T> type) throws IllegalArgumentException, SerializerException {
+        return execute((id, item) -> ObjectSerializer.fromJsonObject(item, type, fields));
+    }
+
+    private <T> Map<Integer, T> execute(Projection<T> projection) {
+        return snapshot != null ? snapshot.execute(this, projection) : database.execute(this, projection);
+    }
+
+    String getTableName() {
+        return tableName;
+    }
+
+    int getRowsScanned() {
+        return rowsScanned;
+    }
+
+    /**
+     * Runs the query against the {@code table}, creating the result for each match with the {@code projection}. Must be
+     * called while holding the table's read lock, unless the table belongs to a snapshot.
+     */
+    <T> Map<Integer, T> run(ItemSource table, Projection<T> projection) {
+        Map<Integer, T> result = new LinkedHashMap<>();
+        for (Match match : match(table)) {
+            result.put(match.id, projection.project(match.id, match.item));
+        }
+
+        return result;
+    }
+
+    /**
+     * Finds the items in the {@code table} which match the query, in order.
+     */
+    private List<Match> match(ItemSource table) {
+        rowsScanned = 0;
+        if (limit == 0)
+            return Collections.emptyList();
+
+        Condition equality = null;
+        Set<Integer> equalityIds = null;
+        Condition range = null;
+
+        for (Condition condition : conditions) {
+            Index index = table.getIndex(condition.field);
+            if (index == null)
+                continue;
+
+            if (condition.kind == Condition.Kind.EQUALS) {
+                Set<Integer> ids = index.find(condition.value);
+                if (equalityIds == null || ids.size() < equalityIds.size()) {
+                    equality = condition;
+                    equalityIds = ids;
+                }
+            } else if (condition.kind == Condition.Kind.RANGE && range == null && index instanceof OrderedIndex) {
+                range = condition;
+            }
+        }
+
+        if (equality != null)
+            return sortCandidates(table, equalityIds);
+
+        OrderedIndex orderIndex = orderBy == null ? null : table.getOrderedIndex(orderBy);
+
+        if (range != null) {
+            NavigableMap<Object, Set<Integer>> entries = table.getOrderedIndex(range.field).range(range.from, range.to);
+
+            // the range already arrives in order when it covers the order-by field and excludes nulls
+            if (range.field.equals(orderBy) && range.from != null && range.from != JSONObject.NULL)
+                return walkInOrder(table, entries, false);
+
+            List<Integer> ids = new ArrayList<>();
+            for (Set<Integer> valueIds : entries.values()) {
+                ids.addAll(valueIds);
+            }
+            return sortCandidates(table, ids);
+        }
+
+        if (orderIndex != null)
+            return walkInOrder(table, orderIndex.range(null, null), true);
+
+        return scan(table);
+    }
+
+    /**
+     * Checks each of the candidate {@code ids} against the conditions and orders the matches.
+     */
+    private List<Match> sortCandidates(ItemSource table, Iterable<Integer> ids) {
+        TopK topK = new TopK();
+
+        for (int id : ids) {
+            JSONObject item = table.getItem(id);
+            if (item != null && matchesAll(item))
+                topK.offer(id, item);
+        }
+
+        return topK.sorted();
+    }
+
+    /**
+     * Checks every item in the table against the conditions and orders the matches.
+     */
+    private List<Match> scan(ItemSource table) {
+        final TopK topK = new TopK();
+
+        table.forEachItem((id, item) -> {
+            if (matchesAll(item))
+                topK.offer(id, item);
+            return true;
+        });
+
+        return topK.sorted();
+    }
+
+    /**
+     * Walks ordered index {@code entries} for the order-by field, stopping as soon as {@code limit} items match.
+     *
+     * @param includeMissing {@code true} if items where the order-by field is missing or null could also match, in
+     *                       which case they are added after the indexed items if the limit has not been reached.
+     */
+    private List<Match> walkInOrder(ItemSource table, NavigableMap<Object, Set<Integer>> entries, boolean includeMissing) {
+        final List<Match> matches = new ArrayList<>();
+
+        NavigableMap<Object, Set<Integer>> ordered = ascending ? entries : entries.descendingMap();
+        for (Map.Entry<Object, Set<Integer>> entry : ordered.entrySet()) {
+            for (int id : entry.getValue()) {
+                JSONObject item = table.getItem(id);
+                if (item != null && matchesAll(item))
+                    matches.add(new Match(id, item, entry.getKey()));
+
+                if (matches.size() >= limit)
+                    return matches;
+            }
+        }
+
+        if (!includeMissing)
+            return matches;
+
+        // items without a value for the order-by field are not in the index, and are ordered last
+        final TopK missing = new TopK(limit - matches.size());
+        table.forEachItem((id, item) -> {
+            if (item.opt(orderBy) == null || item.opt(orderBy) == JSONObject.NULL) {
+                if (matchesAll(item))
+                    missing.offer(id, item);
+            }
+            return true;
+        });
+
+        matches.addAll(missing.sorted());
+        return matches;
+    }
+
+    private boolean matchesAll(JSONObject item) {
+        rowsScanned++;
+        for (Condition condition : conditions) {
+            if (!condition.matches(item))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Copies the selected fields of each match into a new item.
+     */
+    private final Projection<JSONObject> copySelected = (id, item) -> {
+        String[] names = fields != null ? fields : JSONObject.getNames(item);
+
+        try {
+            return names == null ? new JSONObject() : new JSONObject(item, names);
+        } catch (JSONException e) {
+            throw new ParsingException("Could not copy item " + id, e);
+        }
+    };
+
+    /**
+     * Orders matches as described in the class documentation.
+     */
+    private final Comparator<Match> order = (a, b) -> {
+        if (orderBy != null) {
+            boolean aMissing = a.sortValue == JSONObject.NULL;
+            boolean bMissing = b.sortValue == JSONObject.NULL;
+
+            if (aMissing != bMissing)
+                return aMissing ? 1 : -1;
+
+            if (!aMissing) {
+                int result = OrderedIndex.VALUE_ORDER.compare(a.sortValue, b.sortValue);
+                if (result != 0)
+                    return ascending ? result : -result;
+            }
+        }
+
+        return Integer.compare(a.id, b.id);
+    };
+
+    /**
+     * Keeps the first {@code capacity} matches according to {@link #order}, using a heap whose head is the worst match
+     * kept so far. Each offer costs O(log capacity), and memory never grows past {@code capacity} matches.
+     */
+    private final class TopK {
+        private final int capacity;
+        private final PriorityQueue<Match> heap;
+
+        TopK() {
+            this(limit);
+        }
+
+        TopK(int capacity) {
+            this.capacity = capacity;
+            this.heap = new PriorityQueue<>(Math.max(1, Math.min(capacity, 1024)), Collections.reverseOrder(order));
+        }
+
+        void offer(int id, JSONObject item) {
+            if (capacity <= 0)
+                return;
+
+            Object sortValue = orderBy == null ? JSONObject.NULL : Index.normalize(item.opt(orderBy));
+            Match match = new Match(id, item, sortValue);
+
+            if (heap.size() < capacity) {
+                heap.add(match);
+            } else if (order.compare(match, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(match);
+            }
+        }
+
+        List<Match> sorted() {
+            List<Match> matches = new ArrayList<>(heap);
+            Collections.sort(matches, order);
+            return matches;
+        }
+    }
+}
@@ -0,0 +1,479 @@
+package db;
+
+import org.json.JSONObject;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded cache of the parsed items of an {@link OffHeapRowStore}, so the items a table reads most often are not
+ * parsed again on every read. Items are keyed by the address of their text, which is never reused for other text, so a
+ * cached item can never be out of date. Each item is weighed by the length of its text, and the total weight is kept
+ * within the size set by {@link DatabaseOptions#rowCacheBytes(long)}.
+ * <p>
+ * Items are evicted with the W-TinyLFU policy. A new item enters a small window which is kept in order of use. An item
+ * pushed out of the window enters the main area only if it has been read more often than the item the main area would
+ * evict to make room for it, estimated by a {@link FrequencySketch}. The main area is split into a probation segment
+ * for items read once since they entered it, and a protected segment for items read again. This keeps the items which
+ * are read often over time, while a large scan over the table only passes through the window.
+ * <p>
+ * Looking up an item never blocks. The order of use is updated under a lock, which a reader skips if another thread
+ * holds it, so under heavy contention some reads are not counted, as in most concurrent caches.
+ */
+final class RowCache {
+
+    /**
+     * Share of the weight given to the window, as a percentage.
+     */
+    private static final int WINDOW_PERCENT = 1;
+
+    /**
+     * Share of the main area given to the protected segment, as a percentage.
+     */
+    private static final int PROTECTED_PERCENT = 80;
+
+    private static final int WINDOW = 0;
+
+    private static final int PROBATION = 1;
+
+    private static final int PROTECTED = 2;
+
+    /**
+     * Segment of a node which has been removed from the cache.
+     */
+    private static final int REMOVED = -1;
+
+    private final long maximumWeight;
+
+    private final long windowMaximum;
+
+    private final long protectedMaximum;
+
+    private final ConcurrentMap<Long, Node> nodes = new ConcurrentHashMap<>();
+
+    /**
+     * Guards the segments, their weights and the sketch.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Segment window = new Segment();
+
+    private final Segment probation = new Segment();
+
+    private final Segment protectedSegment = new Segment();
+
+    private long windowWeight = 0;
+
+    private long mainWeight = 0;
+
+    private long protectedWeight = 0;
+
+    private final FrequencySketch sketch;
+
+    @Nullable
+    private final DatabaseMetrics metrics;
+
+    /**
+     * Creates a cache holding up to {@code maximumWeight} bytes of item text.
+     *
+     * @param metrics where hits, misses and evictions are recorded, or {@code null} if they are not recorded.
+     */
+    RowCache(long maximumWeight, @Nullable DatabaseMetrics metrics) {
+        if (maximumWeight <= 0)
+            throw new IllegalArgumentException("Cache size must be positive");
+
+        this.maximumWeight = maximumWeight;
+        this.windowMaximum = Math.max(1, maximumWeight * WINDOW_PERCENT / 100);
+        this.protectedMaximum = (maximumWeight - windowMaximum) * PROTECTED_PERCENT / 100;
+        // size the sketch for small items, so it does not forget the frequent items before the cache has filled
+        this.sketch = new FrequencySketch((int) Math.min(1 << 20, Math.max(16, maximumWeight / 32)));
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the item with the given address, or {@code null} if it is not cached.
+     */
+    JSONObject get(long address) {
+        Node node = nodes.get(address);
+        if (node == null) {
+            if (metrics != null)
+                metrics.addRowCacheMiss();
+            return null;
+        }
+
+        if (metrics != null)
+            metrics.addRowCacheHit();
+        if (lock.tryLock()) {
+            try {
+                if (node.segment != REMOVED)
+                    onHit(node);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return node.item;
+    }
+
+    /**
+     * Returns the item with the given address, or {@code null} if it is not cached, without counting it as a read.
+     */
+    JSONObject peek(long address) {
+        Node node = nodes.get(address);
+        return node == null ? null : node.item;
+    }
+
+    /**
+     * Adds an item which has just been read, evicting other items if the cache is full. Items heavier than the whole
+     * cache are not added.
+     */
+    void put(long address, JSONObject item, long weight) {
+        if (weight > maximumWeight)
+            return;
+
+        lock.lock();
+        try {
+            sketch.increment(address);
+            if (nodes.containsKey(address))
+                return;
+
+            Node node = new Node(address, item, weight);
+            nodes.put(address, node);
+            window.addLast(node);
+            windowWeight += weight;
+
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the item with the given address, because its text is no longer used.
+     */
+    void remove(long address) {
+        lock.lock();
+        try {
+            Node node = nodes.remove(address);
+            if (node != null)
+                unlink(node);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves the item at {@code from} to the address {@code to}, because its text has been copied there.
+     */
+    void move(long from, long to) {
+        lock.lock();
+        try {
+            Node node = nodes.remove(from);
+            if (node == null)
+                return;
+
+            Node moved = new Node(to, node.item, node.weight);
+            nodes.put(to, moved);
+            segmentOf(node).replace(node, moved);
+            moved.segment = node.segment;
+            node.segment = REMOVED;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of items cached.
+     */
+    int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Returns the total weight of the items cached.
+     */
+    long weight() {
+        lock.lock();
+        try {
+            return windowWeight + mainWeight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves a node which has been read towards the protected end of the cache.
+     */
+    private void onHit(Node node) {
+        sketch.increment(node.address);
+
+        switch (node.segment) {
+            case WINDOW:
+                window.moveToLast(node);
+                break;
+            case PROBATION:
+                probation.remove(node);
+                node.segment = PROTECTED;
+                protectedSegment.addLast(node);
+                protectedWeight += node.weight;
+
+                // the least recently used protected items go back on probation
+                while (protectedWeight > protectedMaximum && protectedSegment.first() != node) {
+                    Node demoted = protectedSegment.removeFirst();
+                    protectedWeight -= demoted.weight;
+                    demoted.segment = PROBATION;
+                    probation.addLast(demoted);
+                }
+                break;
+            case PROTECTED:
+                protectedSegment.moveToLast(node);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Moves the items which no longer fit in the window into the main area, and evicts the less frequently read of each
+     * such candidate and the main area's victim while the main area is too heavy. The victim is the least recently used
+     * item on probation, or the least recently used protected item if the candidate is the only item on probation.
+     */
+    private void evict() {
+        while (windowWeight > windowMaximum) {
+            Node candidate = window.removeFirst();
+            windowWeight -= candidate.weight;
+            candidate.segment = PROBATION;
+            probation.addLast(candidate);
+            mainWeight += candidate.weight;
+
+            while (mainWeight > maximumWeight - windowMaximum) {
+                // the candidate was added last, so it is only first on probation if it is alone there
+                Node victim = probation.first() != candidate ? probation.first() : protectedSegment.first();
+                if (victim == null) {
+                    evict(candidate);
+                    break;
+                }
+
+                if (sketch.frequency(candidate.address) > sketch.frequency(victim.address)) {
+                    evict(victim);
+                } else {
+                    evict(candidate);
+                    break;
+                }
+            }
+        }
+    }
+
+    private void evict(Node node) {
+        nodes.remove(node.address);
+        unlink(node);
+        if (metrics != null)
+            metrics.addRowCacheEviction();
+    }
+
+    /**
+     * Removes the node from its segment and takes its weight off the segment's total.
+     */
+    private void unlink(Node node) {
+        if (node.segment == REMOVED)
+            return;
+
+        segmentOf(node).remove(node);
+        if (node.segment == WINDOW) {
+            windowWeight -= node.weight;
+        } else {
+            mainWeight -= node.weight;
+            if (node.segment == PROTECTED)
+                protectedWeight -= node.weight;
+        }
+        node.segment = REMOVED;
+    }
+
+    private Segment segmentOf(Node node) {
+        switch (node.segment) {
+            case WINDOW:
+                return window;
+            case PROBATION:
+                return probation;
+            default:
+                return protectedSegment;
+        }
+    }
+
+    /**
+     * A cached item, linked into the segment it is in.
+     */
+    private static final class Node {
+
+        final long address;
+
+        final JSONObject item;
+
+        final long weight;
+
+        int segment = WINDOW;
+
+        Node previous;
+
+        Node next;
+
+        Node(long address, JSONObject item, long weight) {
+            this.address = address;
+            this.item = item;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * A doubly linked list of nodes, from the least to the most recently used.
+     */
+    private static final class Segment {
+
+        private Node head;
+
+        private Node tail;
+
+        Node first() {
+            return head;
+        }
+
+        void addLast(Node node) {
+            node.previous = tail;
+            node.next = null;
+            if (tail == null)
+                head = node;
+            else
+                tail.next = node;
+            tail = node;
+        }
+
+        Node removeFirst() {
+            Node node = head;
+            remove(node);
+            return node;
+        }
+
+        void remove(Node node) {
+            if (node.previous == null)
+                head = node.next;
+            else
+                node.previous.next = node.next;
+
+            if (node.next == null)
+                tail = node.previous;
+            else
+                node.next.previous = node.previous;
+
+            node.previous = null;
+            node.next = null;
+        }
+
+        void moveToLast(Node node) {
+            if (node != tail) {
+                remove(node);
+                addLast(node);
+            }
+        }
+
+        /**
+         * Puts {@code replacement} in the place of {@code node}.
+         */
+        void replace(Node node, Node replacement) {
+            replacement.previous = node.previous;
+            replacement.next = node.next;
+
+            if (node.previous == null)
+                head = replacement;
+            else
+                node.previous.next = replacement;
+
+            if (node.next == null)
+                tail = replacement;
+            else
+                node.next.previous = replacement;
+
+            node.previous = null;
+            node.next = null;
+        }
+    }
+
+    /**
+     * Estimates how often each address has been read recently, in a fixed amount of memory. Each address has four 4-bit
+     * counters, chosen by different hashes, and its frequency is the smallest of the four. Once ten reads have been
+     * counted for each item the sketch was sized for, every counter is halved, so reads from long ago count for less.
+     */
+    static final class FrequencySketch {
+
+        private static final long[] SEEDS = {
+                0x97CB3127A5B8D13DL, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0x9E3779B97F4A7C15L};
+
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        /**
+         * Counters, 16 to a {@code long}.
+         */
+        private final long[] table;
+
+        private final int sampleSize;
+
+        private int additions = 0;
+
+        /**
+         * Creates a sketch with at least four counters for each of {@code expectedItems} items.
+         */
+        FrequencySketch(int expectedItems) {
+            // 16 counters to a long, rounded up to a power of two
+            int longs = Math.max(1, Integer.highestOneBit(expectedItems * 4 / 16 - 1) << 1);
+            this.table = new long[longs];
+            this.sampleSize = 10 * expectedItems;
+        }
+
+        /**
+         * Returns the estimated number of recent reads of the given key, up to 15.
+         */
+        int frequency(long key) {
+            int frequency = Integer.MAX_VALUE;
+            for (int row = 0; row < 4; row++) {
+                int counter = counterOf(key, row);
+                frequency = Math.min(frequency, (int) (table[counter >>> 4] >>> ((counter & 15) << 2)) & 0xF);
+            }
+            return frequency;
+        }
+
+        /**
+         * Counts a read of the given key.
+         */
+        void increment(long key) {
+            boolean added = false;
+            for (int row = 0; row < 4; row++) {
+                int counter = counterOf(key, row);
+                int index = counter >>> 4;
+                int shift = (counter & 15) << 2;
+                if (((table[index] >>> shift) & 0xF) < 15) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+
+            if (added && ++additions >= sampleSize)
+                halve();
+        }
+
+        private void halve() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            additions /= 2;
+        }
+
+        /**
+         * Returns the counter of the given key in the given row, as an index into all of the counters.
+         */
+        private int counterOf(long key, int row) {
+            long hash = (key + SEEDS[row]) * SEEDS[row];
+            hash ^= hash >>> 32;
+            return (int) hash & (table.length * 16 - 1);
+        }
+    }
+}
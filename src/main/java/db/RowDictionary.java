@@ -0,0 +1,420 @@
+package db;
+
+import org.json.JSONObject;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Encodes the items of a table held on the heap so the parts they have in common are only held once. A
+ * {@code JSONObject} normally keeps its own {@code HashMap}, with an entry object for every field, even though every
+ * item of a table usually has the same fields. An encoded item instead keeps a {@link Shape}, shared by every item
+ * with the same keys in the same order, and an array of its values.
+ * <p>
+ * String values are also shared through a dictionary kept for each field, so a field which only takes a few values,
+ * such as a category, holds each of them once rather than once per item. A field is only interned until it has been
+ * seen with {@link #MAX_FIELD_VALUES} different strings, after which it is treated as free text and its dictionary is
+ * dropped.
+ * <p>
+ * An encoded item is still a {@code JSONObject}, wrapping a {@link Fields} map, so it can be read and changed like any
+ * other. Its keys keep the order they were added in, so a new key is written after the existing ones. Changing which
+ * keys it has moves it to another shape. Items whose keys would need more than {@link #MAX_SHAPES} shapes, such as
+ * items used as maps, are kept as they are, and an encoded item changed in that way keeps its fields in a plain map.
+ * <p>
+ * Items can be encoded by any number of threads at once. An encoded item, like any {@code JSONObject}, must only be
+ * changed by one thread at a time.
+ */
+final class RowDictionary {
+
+    /**
+     * Maximum number of shapes created, whether for new items or for changes to encoded items.
+     */
+    static final int MAX_SHAPES = 4096;
+
+    /**
+     * Maximum number of different strings interned for a single field.
+     */
+    static final int MAX_FIELD_VALUES = 1024;
+
+    /**
+     * Shapes with more keys than this look keys up in a map rather than comparing them in turn.
+     */
+    private static final int LINEAR_SEARCH_KEYS = 8;
+
+    /**
+     * The shape of an item with no keys, from which every other shape is reached.
+     */
+    private final Shape empty = new Shape(this, new String[0], new FieldValues[0]);
+
+    private final AtomicInteger shapes = new AtomicInteger(1);
+
+    /**
+     * Value dictionary of each field, keyed by field name.
+     */
+    private final ConcurrentMap<String, FieldValues> fields = new ConcurrentHashMap<>();
+
+    /**
+     * Returns an encoded copy of the given item, or the item itself if it cannot be encoded.
+     */
+    JSONObject encode(JSONObject item) {
+        int length = item.length();
+        String[] keys = new String[length];
+        Iterator<?> iterator = item.keys();
+        for (int i = 0; i < length && iterator.hasNext(); i++) {
+            keys[i] = (String) iterator.next();
+        }
+
+        Shape shape = empty;
+        for (String key : keys) {
+            shape = shape.with(key, canCreateShape());
+            if (shape == null)
+                return item;
+        }
+
+        Object[] values = new Object[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = shape.fieldValues[i].intern(item.opt(keys[i]));
+        }
+
+        return new JSONObject(new Fields(shape, values));
+    }
+
+    /**
+     * Returns {@code true} if another shape may be created.
+     */
+    private boolean canCreateShape() {
+        return shapes.get() < MAX_SHAPES;
+    }
+
+    /**
+     * Returns the number of shapes created.
+     */
+    int shapeCount() {
+        return shapes.get();
+    }
+
+    /**
+     * Returns the number of strings held by the field dictionaries.
+     */
+    int valueCount() {
+        int count = 0;
+        for (FieldValues values : fields.values()) {
+            count += values.size();
+        }
+        return count;
+    }
+
+    private FieldValues fieldValues(String field) {
+        FieldValues values = fields.get(field);
+        if (values == null) {
+            FieldValues created = new FieldValues(field);
+            values = fields.putIfAbsent(field, created);
+            if (values == null)
+                values = created;
+        }
+        return values;
+    }
+
+    /**
+     * The keys of an item, in order, and the position of each key's value.
+     */
+    static final class Shape {
+
+        private final RowDictionary dictionary;
+
+        final String[] keys;
+
+        /**
+         * The value dictionary of each key.
+         */
+        private final FieldValues[] fieldValues;
+
+        /**
+         * Position of each key, or {@code null} if the shape has few enough keys to search them in turn.
+         */
+        private final Map<String, Integer> positions;
+
+        /**
+         * Shapes reached by adding a key to this one, keyed by the key added.
+         */
+        private final ConcurrentMap<String, Shape> transitions = new ConcurrentHashMap<>();
+
+        private Shape(RowDictionary dictionary, String[] keys, FieldValues[] fieldValues) {
+            this.dictionary = dictionary;
+            this.keys = keys;
+            this.fieldValues = fieldValues;
+
+            if (keys.length > LINEAR_SEARCH_KEYS) {
+                positions = new HashMap<>();
+                for (int i = 0; i < keys.length; i++) {
+                    positions.put(keys[i], i);
+                }
+            } else {
+                positions = null;
+            }
+        }
+
+        /**
+         * Returns the position of the given key, or -1 if the shape does not have it.
+         */
+        int indexOf(Object key) {
+            if (positions != null) {
+                Integer position = positions.get(key);
+                return position == null ? -1 : position;
+            }
+
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i].equals(key))
+                    return i;
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the shape with the given key added after this one's keys.
+         *
+         * @param create {@code false} to return {@code null} rather than create a new shape.
+         */
+        Shape with(String key, boolean create) {
+            Shape next = transitions.get(key);
+            if (next != null || !create)
+                return next;
+
+            String[] nextKeys = Arrays.copyOf(keys, keys.length + 1);
+            FieldValues[] nextValues = Arrays.copyOf(fieldValues, keys.length + 1);
+            // share the key with every other shape which has it
+            FieldValues values = dictionary.fieldValues(key);
+            nextKeys[keys.length] = values.key;
+            nextValues[keys.length] = values;
+
+            next = new Shape(dictionary, nextKeys, nextValues);
+            Shape existing = transitions.putIfAbsent(key, next);
+            if (existing != null)
+                return existing;
+
+            dictionary.shapes.incrementAndGet();
+            return next;
+        }
+
+        /**
+         * Returns the shape with this one's keys apart from the key at the given position, or {@code null} if it does
+         * not exist and no more shapes may be created.
+         */
+        Shape without(int position) {
+            Shape shape = dictionary.empty;
+            for (int i = 0; i < keys.length && shape != null; i++) {
+                if (i != position)
+                    shape = shape.with(keys[i], dictionary.canCreateShape());
+            }
+            return shape;
+        }
+    }
+
+    /**
+     * The strings a single field has been seen with.
+     */
+    private static final class FieldValues {
+
+        /**
+         * Name of the field, shared by every shape which has it.
+         */
+        final String key;
+
+        /**
+         * The strings seen so far, or {@code null} once there have been too many.
+         */
+        private volatile ConcurrentMap<String, String> strings = new ConcurrentHashMap<>();
+
+        FieldValues(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Returns the value to keep for the field, which is the string already held if the value is an equal string.
+         */
+        Object intern(Object value) {
+            ConcurrentMap<String, String> current = strings;
+            if (current == null || !(value instanceof String))
+                return value;
+
+            String string = (String) value;
+            String existing = current.get(string);
+            if (existing != null)
+                return existing;
+
+            if (current.size() >= MAX_FIELD_VALUES) {
+                // too many values to be worth sharing
+                strings = null;
+                return value;
+            }
+
+            existing = current.putIfAbsent(string, string);
+            return existing != null ? existing : string;
+        }
+
+        int size() {
+            ConcurrentMap<String, String> current = strings;
+            return current == null ? 0 : current.size();
+        }
+    }
+
+    /**
+     * The fields of an encoded item, held as its shape and an array of values in the order of the shape's keys. If a
+     * change would need a new shape once no more may be created, the fields are moved into a plain map instead.
+     */
+    static final class Fields extends AbstractMap<String, Object> {
+
+        private Shape shape;
+
+        private Object[] values;
+
+        /**
+         * The fields once they no longer have a shape, otherwise {@code null}.
+         */
+        private Map<String, Object> plain = null;
+
+        Fields(Shape shape, Object[] values) {
+            this.shape = shape;
+            this.values = values;
+        }
+
+        @Override
+        public int size() {
+            return plain != null ? plain.size() : shape.keys.length;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return plain != null ? plain.containsKey(key) : shape.indexOf(key) != -1;
+        }
+
+        @Override
+        public Object get(Object key) {
+            if (plain != null)
+                return plain.get(key);
+
+            int position = shape.indexOf(key);
+            return position == -1 ? null : values[position];
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            if (plain != null)
+                return plain.put(key, value);
+
+            int position = shape.indexOf(key);
+            if (position != -1) {
+                Object previous = values[position];
+                values[position] = shape.fieldValues[position].intern(value);
+                return previous;
+            }
+
+            Shape next = shape.with(key, shape.dictionary.canCreateShape());
+            if (next == null)
+                return toPlain().put(key, value);
+
+            Object[] nextValues = Arrays.copyOf(values, values.length + 1);
+            nextValues[values.length] = next.fieldValues[values.length].intern(value);
+            values = nextValues;
+            shape = next;
+            return null;
+        }
+
+        @Override
+        public Object remove(Object key) {
+            if (plain != null)
+                return plain.remove(key);
+
+            int position = shape.indexOf(key);
+            if (position == -1)
+                return null;
+
+            Shape next = shape.without(position);
+            if (next == null)
+                return toPlain().remove(key);
+
+            Object previous = values[position];
+            Object[] nextValues = new Object[values.length - 1];
+            System.arraycopy(values, 0, nextValues, 0, position);
+            System.arraycopy(values, position + 1, nextValues, position, values.length - position - 1);
+
+            shape = next;
+            values = nextValues;
+            return previous;
+        }
+
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet() {
+            return new AbstractSet<Map.Entry<String, Object>>() {
+                @Override
+                public Iterator<Map.Entry<String, Object>> iterator() {
+                    if (plain != null)
+                        return plain.entrySet().iterator();
+                    return new Entries(shape.keys, values);
+                }
+
+                @Override
+                public int size() {
+                    return Fields.this.size();
+                }
+            };
+        }
+
+        /**
+         * Moves the fields into a plain map, keeping their order, and returns it.
+         */
+        private Map<String, Object> toPlain() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (int i = 0; i < values.length; i++) {
+                map.put(shape.keys[i], values[i]);
+            }
+
+            plain = map;
+            shape = null;
+            values = null;
+            return map;
+        }
+    }
+
+    /**
+     * Iterates over the keys and values of a {@link Fields} map as they were when the iterator was created.
+     */
+    private static final class Entries implements Iterator<Map.Entry<String, Object>> {
+
+        private final String[] keys;
+
+        private final Object[] values;
+
+        private int index = 0;
+
+        Entries(String[] keys, Object[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < keys.length;
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (index >= keys.length)
+                throw new NoSuchElementException();
+
+            Map.Entry<String, Object> entry = new AbstractMap.SimpleImmutableEntry<>(keys[index], values[index]);
+            index++;
+            return entry;
+        }
+    }
+}
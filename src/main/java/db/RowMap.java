@@ -0,0 +1,310 @@
+package db;
+
+import org.json.JSONObject;
+
+import javax.annotation.Nullable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The entries of a {@link Table}, with items held by their primitive {@code int} id rather than under a {@code String}
+ * key. The items are held by a {@link RowStore}, on the heap or off it depending on the database's {@link RowStorage}.
+ * Entries which are not items, such as values passed to {@link JsonDatabase#newTable}, are held by key in a separate
+ * map.
+ * <p>
+ * The class is also a {@code Map<String, Object>} holding every entry under its JSON key, so the table can be wrapped
+ * in a {@code JSONObject} which sits in the database's root object and is written like any other. The map view creates
+ * the {@code String} keys as it is iterated, and only reads an item when the value of its entry is asked for.
+ * {@link Table} itself only uses the {@code int} methods.
+ * <p>
+ * Only one thread may change the map at a time, but it can be read by any number of threads while it is being changed.
+ * A reader may miss a change that is in progress, which a {@link Snapshot} allows for by also reading the versions the
+ * table keeps.
+ */
+final class RowMap extends AbstractMap<String, Object> {
+
+    private final RowStore store;
+
+    /**
+     * Entries which are not items, keyed by their JSON key.
+     */
+    private final ConcurrentMap<String, Object> others = new ConcurrentHashMap<>();
+
+    /**
+     * Highest id an item has been saved under.
+     */
+    private int highestId = 0;
+
+    private final Set<Map.Entry<String, Object>> entrySet = new EntrySet();
+
+    /**
+     * Creates a map holding its items on the heap, with room for items with ids up to {@code highestId} if that is not
+     * far more than the number of items expected.
+     */
+    RowMap(int highestId, int expectedRows) {
+        this(RowStorage.HEAP, null, highestId, expectedRows);
+    }
+
+    /**
+     * Creates a map holding its items in the given kind of storage, with room for items with ids up to
+     * {@code highestId} if that is not far more than the number of items expected.
+     *
+     * @param cache where items held off the heap are cached once they have been parsed, or {@code null} if they are not
+     *              cached.
+     */
+    RowMap(RowStorage storage, @Nullable RowCache cache, int highestId, int expectedRows) {
+        this.store = RowStore.create(storage, cache, highestId, expectedRows);
+    }
+
+    /**
+     * Returns the id held in the given key, or -1 if the key is not an id. Only a key which is exactly the decimal form
+     * of a non-negative {@code int}, as written by {@link String#valueOf(int)}, is an id.
+     */
+    static int parseId(Object key) {
+        if (!(key instanceof String))
+            return -1;
+
+        String s = (String) key;
+        int length = s.length();
+        if (length == 0 || length > 10 || (length > 1 && s.charAt(0) == '0'))
+            return -1;
+
+        long id = 0;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            id = id * 10 + (c - '0');
+        }
+        return id > Integer.MAX_VALUE ? -1 : (int) id;
+    }
+
+    /**
+     * Returns the item with the given id, or {@code null} if there is no such item. An item held off the heap is parsed
+     * from its text, or shared from the cache, so changes to it are only kept once it is saved with
+     * {@link #putRow(int, JSONObject)}.
+     */
+    JSONObject getRow(int id) {
+        return store.get(id);
+    }
+
+    /**
+     * Returns {@code true} if there is an item with the given id, without reading it.
+     */
+    boolean containsRow(int id) {
+        return store.contains(id);
+    }
+
+    /**
+     * Saves the {@code item} under the given id, replacing any existing item with that id.
+     */
+    void putRow(int id, JSONObject item) {
+        if (id < 0)
+            throw new IllegalArgumentException("Invalid id " + id);
+
+        if (!others.isEmpty())
+            others.remove(String.valueOf(id));
+
+        store.put(id, item);
+        if (id > highestId)
+            highestId = id;
+    }
+
+    /**
+     * Removes the item with the given id.
+     *
+     * @return {@code true} if there was such an item.
+     */
+    boolean removeRow(int id) {
+        return store.remove(id);
+    }
+
+    /**
+     * Returns the number of items, not counting entries which are not items.
+     */
+    int rowCount() {
+        return store.size();
+    }
+
+    /**
+     * Returns the highest id an item has been saved under, or 0 if there have been none.
+     */
+    int highestId() {
+        return highestId;
+    }
+
+    /**
+     * Returns the number of bytes of memory outside the heap allocated to hold the items.
+     */
+    long offHeapBytes() {
+        return store.offHeapBytes();
+    }
+
+    /**
+     * Returns {@code true} if the items are held outside the heap.
+     */
+    boolean isOffHeap() {
+        return store.isOffHeap();
+    }
+
+    /**
+     * Calls the {@code visitor} for every item, in order of id apart from any items held outside the store's array,
+     * which come last. Stops early if the visitor returns {@code false}.
+     */
+    void forEachRow(Table.ItemVisitor visitor) {
+        store.forEach(visitor);
+    }
+
+    @Override
+    public Object get(Object key) {
+        int id = parseId(key);
+        if (id != -1) {
+            // read through the map when the table is written out, which should not fill the row cache
+            JSONObject item = store.peek(id);
+            if (item != null)
+                return item;
+        }
+        return key == null ? null : others.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int id = parseId(key);
+        if (id != -1 && store.contains(id))
+            return true;
+        return key != null && others.containsKey(key);
+    }
+
+    /**
+     * Saves the {@code value} under the given JSON key. A {@code JSONObject} under an id is saved as an item, anything
+     * else as an entry which is not an item.
+     */
+    @Override
+    public Object put(String key, Object value) {
+        int id = parseId(key);
+        Object previous = get(key);
+        if (id != -1 && value instanceof JSONObject) {
+            putRow(id, (JSONObject) value);
+            return previous;
+        }
+
+        if (id != -1)
+            removeRow(id);
+        others.put(key, value);
+        return previous;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int id = parseId(key);
+        if (id != -1) {
+            JSONObject item = getRow(id);
+            if (item != null) {
+                removeRow(id);
+                return item;
+            }
+        }
+        return key == null ? null : others.remove(key);
+    }
+
+    @Override
+    public int size() {
+        return store.size() + others.size();
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return entrySet;
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<String, Object>> {
+
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return RowMap.this.size();
+        }
+    }
+
+    /**
+     * Iterates over the items in the same order as {@link #forEachRow(Table.ItemVisitor)}, then the other entries.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+
+        private final PrimitiveIterator.OfInt ids = store.ids();
+
+        private final Iterator<Map.Entry<String, Object>> otherEntries = others.entrySet().iterator();
+
+        @Override
+        public boolean hasNext() {
+            return ids.hasNext() || otherEntries.hasNext();
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (ids.hasNext())
+                return new RowEntry(ids.nextInt());
+
+            Map.Entry<String, Object> entry = otherEntries.next();
+            return new SimpleImmutableEntry<>(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Entry for an item, which only reads the item when its value is asked for, so iterating over the keys of the map
+     * does not read every item.
+     */
+    private final class RowEntry implements Map.Entry<String, Object> {
+
+        private final int id;
+
+        RowEntry(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getKey() {
+            return String.valueOf(id);
+        }
+
+        @Override
+        public Object getValue() {
+            return store.peek(id);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+
+            Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+            return getKey().equals(other.getKey()) && Objects.equals(getValue(), other.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return getKey().hashCode() ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
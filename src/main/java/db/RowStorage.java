@@ -0,0 +1,31 @@
+package db;
+
+/**
+ * Controls where the items of each table are held in memory while the database is open.
+ * <p>
+ * Items held off the heap are stored as their JSON text, and only an index from id to the position of the text stays on
+ * the heap, so a table can be much larger than the heap without adding to the work of the garbage collector. Each item is
+ * parsed again every time it is read, and written again every time it is changed, so this suits large tables which are
+ * mostly read a few items at a time. See {@link OffHeapRowStore}.
+ */
+public enum RowStorage {
+
+    /**
+     * Hold items on the heap as {@code JSONObjects}. This is the default and matches the original behaviour of the
+     * database.
+     */
+    HEAP,
+
+    /**
+     * Hold items in direct buffers allocated outside the heap. The total size is limited by the JVM's
+     * {@code -XX:MaxDirectMemorySize}, which defaults to the maximum heap size.
+     */
+    DIRECT,
+
+    /**
+     * Hold items in temporary files mapped into memory, which are deleted once they are no longer needed. The operating
+     * system pages the files in and out as they are used, so the tables are not limited by the memory available to the
+     * JVM.
+     */
+    MAPPED
+}
@@ -0,0 +1,94 @@
+package db;
+
+import org.json.JSONObject;
+
+import javax.annotation.Nullable;
+import java.util.PrimitiveIterator;
+
+/**
+ * Holds the items of a {@link RowMap} by their {@code int} id. {@link HeapRowStore} holds the {@code JSONObjects}
+ * themselves, {@link OffHeapRowStore} holds their JSON text outside the heap.
+ * <p>
+ * Only one thread may change a store at a time, but it can be read by any number of threads while it is being changed.
+ * A reader may miss a change that is in progress.
+ */
+abstract class RowStore {
+
+    /**
+     * Returns a new, empty store of the given kind, with room for items with ids up to {@code highestId} if that is not
+     * far more than the number of items expected.
+     *
+     * @param cache where a store held off the heap caches the items it parses, or {@code null} if they are not cached.
+     *              Items held on the heap are never cached.
+     */
+    static RowStore create(RowStorage storage, @Nullable RowCache cache, int highestId, int expectedRows) {
+        if (storage == RowStorage.HEAP)
+            return new HeapRowStore(highestId, expectedRows);
+
+        return new OffHeapRowStore(storage, cache, highestId, expectedRows);
+    }
+
+    /**
+     * Returns {@code true} if an array reaching {@code id} would be at least a quarter full with {@code rows} items.
+     */
+    static boolean isDenseEnough(long id, int rows) {
+        return id < 4L * rows + 64;
+    }
+
+    /**
+     * Returns the item with the given id, or {@code null} if there is no such item.
+     */
+    abstract JSONObject get(int id);
+
+    /**
+     * Returns the item with the given id as {@link #get(int)} does, but without adding it to any cache, for reads
+     * which visit every item, such as writing the table out.
+     */
+    abstract JSONObject peek(int id);
+
+    /**
+     * Returns {@code true} if there is an item with the given id.
+     */
+    abstract boolean contains(int id);
+
+    /**
+     * Saves the {@code item} under the given id, replacing any existing item with that id.
+     *
+     * @return {@code true} if an item was replaced.
+     */
+    abstract boolean put(int id, JSONObject item);
+
+    /**
+     * Removes the item with the given id.
+     *
+     * @return {@code true} if there was such an item.
+     */
+    abstract boolean remove(int id);
+
+    /**
+     * Returns the number of items.
+     */
+    abstract int size();
+
+    /**
+     * Calls the {@code visitor} for every item, in the same order as {@link #ids()}. Stops early if the visitor returns
+     * {@code false}.
+     */
+    abstract void forEach(Table.ItemVisitor visitor);
+
+    /**
+     * Returns the id of every item, in order of id apart from any items held outside the store's array, which come last.
+     */
+    abstract PrimitiveIterator.OfInt ids();
+
+    /**
+     * Returns the number of bytes of memory outside the heap the store has allocated.
+     */
+    abstract long offHeapBytes();
+
+    /**
+     * Returns {@code true} if the items are held outside the heap, in which case changes to an item returned by
+     * {@link #get(int)} are only kept once it is saved again.
+     */
+    abstract boolean isOffHeap();
+}
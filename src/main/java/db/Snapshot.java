@@ -0,0 +1,190 @@
+package db;
+
+import exceptions.SerializerException;
+import json.ObjectSerializer;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A consistent, read-only view of a {@link JsonDatabase} as it was when {@link JsonDatabase#snapshot()} was called.
+ * <pre>
+ *     try (Snapshot snapshot = db.snapshot()) {
+ *         Map&lt;Integer, JSONObject&gt; report = snapshot.query("expenses").orderBy("cost").execute();
+ *         ...
+ *     }
+ * </pre>
+ * A snapshot never takes a table's lock, so reading it does not block writers and writers do not block it. Changes made
+ * after the snapshot was opened, including new and dropped tables, are not visible through it.
+ * <p>
+ * While a snapshot is open the database keeps the versions of items it replaces, so a snapshot should be closed once it
+ * is no longer needed. A snapshot can be shared between threads.
+ */
+public class Snapshot implements Closeable {
+
+    /**
+     * A table as seen by this snapshot.
+     */
+    private final class TableAtVersion implements ItemSource {
+        private final Table table;
+
+        TableAtVersion(Table table) {
+            this.table = table;
+        }
+
+        @Override
+        public JSONObject getItem(int id) {
+            return table.getItem(id, version);
+        }
+
+        @Override
+        public void forEachItem(Table.ItemVisitor visitor) {
+            table.forEachItem(visitor, version);
+        }
+
+        @Override
+        public Index getIndex(String field) {
+            // indexes only describe the latest version
+            return null;
+        }
+
+        @Override
+        public OrderedIndex getOrderedIndex(String field) {
+            return null;
+        }
+    }
+
+    private final JsonDatabase database;
+
+    private final long version;
+
+    /**
+     * Every table in the database when the snapshot was opened, keyed by name.
+     */
+    private final Map<String, Table> tables;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Package-private constructor used by {@link JsonDatabase#snapshot()}.
+     */
+    Snapshot(JsonDatabase database, long version, Map<String, Table> tables) {
+        this.database = database;
+        this.version = version;
+        this.tables = tables;
+    }
+
+    /**
+     * Returns the version of the database this snapshot sees. A later snapshot has the same or a higher version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the names of the tables in this snapshot.
+     *
+     * @throws IllegalStateException if the snapshot has been closed.
+     */
+    public String[] tableNames() {
+        checkOpen();
+        return tables.keySet().toArray(new String[tables.size()]);
+    }
+
+    /**
+     * Returns {@code true} if the snapshot has a table with the given name.
+     *
+     * @throws IllegalStateException if the snapshot has been closed.
+     */
+    public boolean tableExists(String name) {
+        checkOpen();
+        return tables.containsKey(name);
+    }
+
+    /**
+     * Returns a copy of the item with the given id, or {@code null} if the table had no such item when the snapshot was
+     * opened.
+     *
+     * @throws IllegalArgumentException if there is no table with that name.
+     * @throws IllegalStateException if the snapshot has been closed.
+     */
+    public JSONObject getItem(String tableName, int id) throws IllegalArgumentException {
+        JSONObject item = getTable(tableName).getItem(id);
+        return item == null ? null : JsonDatabase.copy(item);
+    }
+
+    /**
+     * Reads the item with the given id into a new object of the given {@code type}, as {@link JsonDatabase#get(String,
+     * int, Class)} does, as it was when the snapshot was opened.
+     *
+     * @return the object, or {@code null} if the table had no such item when the snapshot was opened.
+     *
+     * @throws IllegalArgumentException if there is no table with that name.
+     * @throws IllegalStateException if the snapshot has been closed.
+     * @throws SerializerException if the item could not be read into the {@code type}.
+     */
+    public <T> T get(String tableName, int id, Class<T> type) throws IllegalArgumentException, SerializerException {
+        JSONObject item = getTable(tableName).getItem(id);
+        return item == null ? null : ObjectSerializer.fromJsonObject(item, type);
+    }
+
+    /**
+     * Starts building a {@link Query} against the given table, as it was when the snapshot was opened. The table is not
+     * checked until the query is executed.
+     */
+    public Query query(String tableName) {
+        return new Query(this, tableName);
+    }
+
+    /**
+     * Runs the given query against this snapshot, creating the result for each match with the {@code projection}.
+     *
+     * @throws IllegalArgumentException if there is no table with the query's table name.
+     * @throws IllegalStateException if the snapshot has been closed.
+     */
+    <T> Map<Integer, T> execute(Query query, Query.Projection<T> projection) throws IllegalArgumentException {
+        DatabaseMetrics metrics = database.getMetrics();
+        long start = System.nanoTime();
+        try {
+            Map<Integer, T> result = query.run(getTable(query.getTableName()), projection);
+            metrics.addRows(query.getRowsScanned(), result.size());
+            return result;
+        } finally {
+            metrics.record(DatabaseMetrics.Operation.QUERY, start);
+        }
+    }
+
+    Collection<Table> getTables() {
+        return tables.values();
+    }
+
+    /**
+     * Closes the snapshot, letting the database discard the item versions it was keeping for it. Closing a snapshot more
+     * than once has no effect.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed)
+            return;
+
+        closed = true;
+        database.closeSnapshot(this);
+    }
+
+    private ItemSource getTable(String name) {
+        checkOpen();
+
+        Table table = tables.get(name);
+        if (table == null)
+            throw new IllegalArgumentException("Could not get table " + name);
+
+        return new TableAtVersion(table);
+    }
+
+    private void checkOpen() {
+        if (closed)
+            throw new IllegalStateException("Snapshot has been closed");
+    }
+}
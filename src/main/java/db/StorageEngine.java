@@ -0,0 +1,48 @@
+package db;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Converts the contents of a {@link JsonDatabase} to and from the bytes stored in its file. The engine used by a
+ * database is chosen with {@link DatabaseOptions#storageEngine(StorageEngine)}, and must be the same one the file was
+ * written with.
+ * <p>
+ * The engine only decides the format of the file. {@code JsonDatabase} still decides when the file is written, and
+ * writes it atomically as described by {@link FileHelper}. The write-ahead log is always stored as JSON.
+ *
+ * @see JsonStorageEngine
+ * @see BinaryStorageEngine
+ */
+public interface StorageEngine {
+
+    /**
+     * Reads the entire database from the {@code channel}.
+     *
+     * @return the contents of the database, or {@code null} if the channel is empty.
+     * @throws IOException if the channel could not be read.
+     * @throws exceptions.ParsingException if the contents are not valid for this engine.
+     */
+    JSONObject read(ReadableByteChannel channel) throws IOException;
+
+    /**
+     * Reads the entire database from the remaining bytes of the {@code buffer}, for example a memory-mapped file. The
+     * position of the buffer is not changed.
+     *
+     * @return the contents of the database, or {@code null} if the buffer is empty.
+     * @throws IOException if the buffer could not be read.
+     * @throws exceptions.ParsingException if the contents are not valid for this engine.
+     */
+    JSONObject read(ByteBuffer buffer) throws IOException;
+
+    /**
+     * Writes the entire database to the {@code channel}.
+     *
+     * @throws IOException if the channel could not be written.
+     */
+    void write(JSONObject rootObject, WritableByteChannel channel) throws IOException;
+}
@@ -1,9 +1,31 @@
 package db;
 
+import exceptions.ParsingException;
+import json.JsonSerializer;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Represents a single table in a {@link JsonDatabase}. In practice this class acts as a simple wrapper around a
@@ -26,22 +48,235 @@ import java.util.Iterator;
  *     }
  * </pre>
  * Each table will have a sequential list of numbers (in string format) as keys which are mapped to {@code JSONObjects}
- * which contain the actual item data.
+ * which contain the actual item data. In memory the items are held in a {@link RowMap} by their {@code int} id, and the
+ * table's {@code JSONObject} is a view of it, so looking up an item by id does not create a {@code String} key.
+ * <p>
+ * Ids are allocated from a sequence held by the table. The sequence is loaded once, when the {@code Table} is created,
+ * from the highest numeric key in the table, and then advanced atomically by every append. {@link JsonDatabase} keeps a
+ * single {@code Table} per table name so the sequence is only loaded once. Deleting the item with the highest id would
+ * lower the highest key, so the table then keeps the sequence under {@link #SEQUENCE_KEY} until a later item takes its
+ * place, and an id is never allocated twice, even after the database is reopened.
+ * <p>
+ * A table can also hold secondary {@link Index indexes} on item fields. Every method which changes an item keeps the
+ * indexes up to date, so items should only be changed through this class.
+ * <p>
+ * A table is not thread-safe by itself. {@code JsonDatabase} holds the table's {@link #getLock() lock} for reading
+ * while it queries the table and for writing while it changes it, so operations on different tables never block each
+ * other.
+ * <p>
+ * While a {@link Snapshot} is open every change keeps the version of the item it replaces, numbered by the database's
+ * {@link VersionClock}, and items are copied rather than changed in place. Together with the row map being safe to
+ * read while it is changed, this lets a snapshot read the table with {@link #getItem(int, long)} and
+ * {@link #forEachItem(ItemVisitor, long)} without taking the lock.
+ * <p>
+ * The table keeps the JSON text it was last written as. Every change marks the table dirty by discarding the text, so
+ * saving a database only serializes the tables which have changed and copies the cached text of the rest.
  */
-class Table {
+class Table implements ItemSource {
 
     /**
-     * Root node of the specified {@code Table}.
+     * Key of the entry holding the table's sequence while it is higher than the id of every item.
      */
-    private JSONObject jsonRoot;
+    static final String SEQUENCE_KEY = "__sequence__";
+
+    /**
+     * Callback for {@link #forEachItem(ItemVisitor)}.
+     */
+    interface ItemVisitor {
+
+        /**
+         * Called once for each item in the table.
+         *
+         * @return {@code false} to stop visiting items.
+         */
+        boolean visit(int id, JSONObject item);
+    }
 
     /**
-     * Package-private constructor used by {@link JsonDatabase#getTable}.
+     * A previous version of an item, kept while a snapshot which may need it is open. Versions form a chain from the
+     * newest to the oldest, and are never changed once created.
+     */
+    private static final class ItemVersion {
+
+        /**
+         * The item as it was before the change, or {@code null} if it did not exist.
+         */
+        final JSONObject item;
+
+        /**
+         * Number of the change which replaced this version.
+         */
+        final long replacedAt;
+
+        final ItemVersion older;
+
+        ItemVersion(JSONObject item, long replacedAt, ItemVersion older) {
+            this.item = item;
+            this.replacedAt = replacedAt;
+            this.older = older;
+        }
+
+        /**
+         * Returns this chain without the versions replaced at or before {@code version}, or {@code null} if none are
+         * left.
+         */
+        ItemVersion newerThan(long version) {
+            if (replacedAt <= version)
+                return null;
+
+            ItemVersion trimmedOlder = older == null ? null : older.newerThan(version);
+            return trimmedOlder == older ? this : new ItemVersion(item, replacedAt, trimmedOlder);
+        }
+    }
+
+    /**
+     * Entries of the table, keyed by id.
+     */
+    private final RowMap rows;
+
+    /**
+     * Root node of the specified {@code Table}, a view of the {@code rows}.
+     */
+    private final JSONObject jsonRoot;
+
+    /**
+     * Numbers changes made while a snapshot is open, or {@code null} if the table is not part of a database.
+     */
+    private final VersionClock clock;
+
+    /**
+     * Versions replaced while a snapshot was open, keyed by item id.
+     */
+    private final ConcurrentMap<Integer, ItemVersion> history = new ConcurrentHashMap<>();
+
+    /**
+     * Highest id allocated in this table.
+     */
+    private final AtomicInteger sequence;
+
+    /**
+     * Secondary indexes on this table, keyed by the field they cover.
+     */
+    private final Map<String, Index> indexes = new HashMap<>();
+
+    /**
+     * JSON text of the table, cached by {@link #serialized()} until the table next changes, or {@code null} if the table
+     * has changed since it was last serialized.
+     */
+    private ByteBuffer serialized = null;
+
+    /**
+     * Guards the items and indexes of this table.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Creates a table which is not part of a database, so it cannot be read by a snapshot.
      *
-     * @param jsonObject the root object of the table.
+     * @param jsonObject the contents of the table, which are copied.
      */
     Table(JSONObject jsonObject) {
-        this.jsonRoot = jsonObject;
+        this(jsonObject, null);
+    }
+
+    /**
+     * Creates a table which holds its items on the heap. See
+     * {@link #Table(JSONObject, VersionClock, RowStorage, RowCache)}.
+     */
+    Table(JSONObject jsonObject, VersionClock clock) {
+        this(jsonObject, clock, RowStorage.HEAP, null);
+    }
+
+    /**
+     * Package-private constructor used by {@link JsonDatabase#getTable}. The contents of the table are copied into a
+     * {@link RowMap}, so the database should replace the given object with {@link #getJsonRoot()}.
+     *
+     * @param jsonObject the contents of the table, which are copied.
+     * @param clock the database's clock.
+     * @param storage where the items of the table are held.
+     * @param cache where items held off the heap are cached once they have been parsed, or {@code null} if they are not
+     *              cached.
+     */
+    Table(JSONObject jsonObject, VersionClock clock, RowStorage storage, @Nullable RowCache cache) {
+        this(copyOf(jsonObject, storage, cache), clock);
+    }
+
+    /**
+     * Creates a table holding the entries of the given {@code rows}, which are not copied.
+     *
+     * @param rows the contents of the table.
+     * @param clock the database's clock.
+     */
+    Table(RowMap rows, VersionClock clock) {
+        this.rows = rows;
+        this.clock = clock;
+        this.jsonRoot = new JSONObject(rows);
+        this.sequence = new AtomicInteger(Math.max(rows.highestId(), storedSequence(rows)));
+    }
+
+    /**
+     * Returns the sequence kept under {@link #SEQUENCE_KEY} in the given rows, or 0 if there is none.
+     */
+    private static int storedSequence(RowMap rows) {
+        Object stored = rows.get(SEQUENCE_KEY);
+        return stored instanceof Number ? ((Number) stored).intValue() : 0;
+    }
+
+    /**
+     * Returns a {@link RowMap} holding the entries of the given table.
+     */
+    private static RowMap copyOf(JSONObject jsonObject, RowStorage storage, @Nullable RowCache cache) {
+        int highest = 0;
+        Iterator<?> keys = jsonObject.keys();
+        while (keys.hasNext()) {
+            int id = parseId((String) keys.next());
+            if (id > highest)
+                highest = id;
+        }
+
+        RowMap rows = new RowMap(storage, cache, highest, jsonObject.length());
+        keys = jsonObject.keys();
+        while (keys.hasNext()) {
+            String key = (String) keys.next();
+            rows.put(key, jsonObject.opt(key));
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the {@code JSONObject} holding the entries of this table, which belongs in the database's root object.
+     */
+    JSONObject getJsonRoot() {
+        return jsonRoot;
+    }
+
+    /**
+     * Returns the id held in the given key, or -1 if the key is not an id, e.g. a value passed to
+     * {@link JsonDatabase#newTable}.
+     */
+    private static int parseId(String key) {
+        return RowMap.parseId(key);
+    }
+
+    /**
+     * Returns {@code true} if this {@code Table} wraps the given {@code JSONObject}.
+     */
+    boolean wraps(JSONObject jsonObject) {
+        return jsonRoot == jsonObject;
+    }
+
+    /**
+     * Returns the number of entries in the table.
+     */
+    int size() {
+        return jsonRoot.length();
+    }
+
+    /**
+     * Returns the lock guarding this table.
+     */
+    ReadWriteLock getLock() {
+        return lock;
     }
 
     /**
@@ -65,31 +300,527 @@ class Table {
 
     /**
      * Appends the given {@code JSONObject} to the {@code jsonRoot}.
+     *
+     * @return the id the object was saved under.
+     */
+    int append(JSONObject jObj) {
+        int id = sequence.incrementAndGet();
+        put(id, jObj);
+        return id;
+    }
+
+    /**
+     * Saves the given {@code JSONObject} under the specified id, replacing any existing item with that id. This is used
+     * when replaying a {@link WriteAheadLog}, where the id has already been allocated.
+     */
+    void put(int id, JSONObject jObj) {
+        advanceSequence(id);
+
+        JSONObject previous = getItem(id);
+        if (previous != null)
+            unindex(id, previous);
+
+        keepVersion(id, previous);
+        markDirty();
+        rows.putRow(id, jObj);
+        // the highest key holds the sequence again
+        if (id == sequence.get() && rows.containsKey(SEQUENCE_KEY))
+            rows.remove(SEQUENCE_KEY);
+
+        index(id, jObj);
+    }
+
+    /**
+     * Returns the item with the given id, or {@code null} if there is no such item.
+     */
+    @Override
+    public JSONObject getItem(int id) {
+        return rows.getRow(id);
+    }
+
+    /**
+     * Returns the item with the given id as it was at the given version, or {@code null} if it did not exist. This can
+     * be called without holding the lock, as long as a snapshot at that version is open.
+     */
+    JSONObject getItem(int id, long version) {
+        // read the latest version first, a change keeps the old version before replacing it
+        return versionOf(id, getItem(id), version);
+    }
+
+    /**
+     * Returns the item with the given id as it was at the given version, given its {@code latest} version.
+     */
+    private JSONObject versionOf(int id, JSONObject latest, long version) {
+        JSONObject item = latest;
+        for (ItemVersion older = history.get(id); older != null && older.replacedAt > version; older = older.older) {
+            item = older.item;
+        }
+
+        return item;
+    }
+
+    /**
+     * Sets a single field of the item with the given id, keeping any index on the field up to date.
+     *
+     * @throws IllegalArgumentException if there is no item with that id.
+     * @throws JSONException if the value is not a valid JSON value.
+     */
+    void putValue(int id, String key, Object value) throws JSONException {
+        JSONObject item = getItem(id);
+        if (item == null)
+            throw new IllegalArgumentException("No entry found matching the id " + id);
+
+        Index index = indexes.get(key);
+        Object previous = item.opt(key);
+        markDirty();
+
+        if (clock != null && clock.hasOpenSnapshots()) {
+            // an open snapshot may be reading the item, so change a copy
+            JSONObject copy = JsonDatabase.copy(item);
+            copy.put(key, value);
+            keepVersion(id, item);
+            rows.putRow(id, copy);
+            item = copy;
+        } else {
+            item.put(key, value);
+            // an item held off the heap is a copy, so it has to be saved again
+            if (rows.isOffHeap())
+                rows.putRow(id, item);
+        }
+
+        if (index != null) {
+            if (previous != null)
+                index.remove(id, previous);
+            if (item.has(key))
+                index.add(id, item.opt(key));
+        }
+    }
+
+    /**
+     * Removes the entry with the given key from the table.
+     *
+     * @return the removed value, or {@code null} if there was no such key.
+     */
+    Object remove(String key) {
+        int id = parseId(key);
+        if (id != -1 && rows.containsRow(id))
+            return remove(id);
+
+        markDirty();
+        return jsonRoot.remove(key);
+    }
+
+    /**
+     * Removes the item with the given id from the table.
+     *
+     * @return the removed item, or {@code null} if there was no such item.
+     */
+    JSONObject remove(int id) {
+        JSONObject item = rows.getRow(id);
+        if (item == null)
+            return null;
+
+        keepVersion(id, item);
+        markDirty();
+        rows.removeRow(id);
+        // keep the sequence so the id is not allocated again once the table is reloaded
+        if (id == sequence.get())
+            rows.put(SEQUENCE_KEY, id);
+        unindex(id, item);
+
+        return item;
+    }
+
+    /**
+     * Puts back an entry removed by {@link #remove(String)}, for example when a {@link Batch} is rolled back.
      */
-    void append(JSONObject jObj) {
+    void restore(String key, Object value) {
+        int id = parseId(key);
+        if (id != -1 && value instanceof JSONObject) {
+            put(id, (JSONObject) value);
+            return;
+        }
+
+        markDirty();
         try {
-            jsonRoot.put(String.valueOf(getNextId()), jObj);
+            jsonRoot.put(key, value);
         } catch (JSONException e) {
-            e.printStackTrace();
+            throw new ParsingException("Could not restore " + key, e);
         }
     }
 
     /**
-     * Gets the next id for this table.
+     * Keeps the current version of an item which is about to change, if a snapshot is open. Must be called before the
+     * change is made.
+     *
+     * @param item the item before the change, or {@code null} if it does not exist yet.
      */
-    int getNextId() {
-        int highest = 0;
+    private void keepVersion(int id, JSONObject item) {
+        if (clock == null || !clock.hasOpenSnapshots())
+            return;
 
-        Iterator<?> iterator = jsonRoot.keys();
+        history.put(id, new ItemVersion(item, clock.advance(), history.get(id)));
+    }
 
-        while( iterator.hasNext() ) {
-            int id = Integer.valueOf((String)iterator.next());
-            if (id > highest)
-                highest = id;
+    /**
+     * Returns the JSON text of the table, serializing it only if it has changed since this was last called. Must be
+     * called while holding the lock for reading, and by one thread at a time.
+     *
+     * @return the text, or {@code null} if the table's items are held off the heap, since keeping their text on the heap
+     *         would defeat the purpose.
+     */
+    ByteBuffer serialized() {
+        if (rows.isOffHeap())
+            return null;
+
+        if (serialized == null) {
+            ByteBuffer bytes = JsonSerializer.toUtf8(jsonRoot);
+            // the buffer can be up to twice the size of the text, so trim it before it is kept
+            if (bytes.remaining() < bytes.capacity())
+                bytes = ByteBuffer.wrap(Arrays.copyOfRange(bytes.array(), bytes.position(), bytes.limit()));
+            serialized = bytes;
+        }
+
+        return serialized.duplicate();
+    }
+
+    /**
+     * Returns {@code true} if the table has changed since {@link #serialized()} was last called.
+     */
+    boolean isDirty() {
+        return serialized == null;
+    }
+
+    /**
+     * Discards the cached JSON text, since the table is about to change. Must be called while holding the lock for
+     * writing.
+     */
+    private void markDirty() {
+        serialized = null;
+    }
+
+    /**
+     * Returns the number of items which have previous versions kept for a snapshot.
+     */
+    int keptVersions() {
+        return history.size();
+    }
+
+    /**
+     * Discards the versions which are not needed by any snapshot opened at or after {@code oldestSnapshot}. Must be
+     * called while holding the write lock.
+     */
+    void discardVersions(long oldestSnapshot) {
+        Iterator<Map.Entry<Integer, ItemVersion>> iterator = history.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, ItemVersion> entry = iterator.next();
+            ItemVersion trimmed = entry.getValue().newerThan(oldestSnapshot);
+
+            if (trimmed == null)
+                iterator.remove();
+            else if (trimmed != entry.getValue())
+                entry.setValue(trimmed);
+        }
+    }
+
+    /**
+     * Returns {@code true} if the table has an entry with the given key.
+     */
+    boolean has(String key) {
+        return jsonRoot.has(key);
+    }
+
+    /**
+     * Adds the {@code index} to this table and fills it with every existing item.
+     *
+     * @throws IllegalArgumentException if the table already has an index on the same field.
+     */
+    void addIndex(Index index) {
+        if (indexes.containsKey(index.getField()))
+            throw new IllegalArgumentException("An index on " + index.getField() + " already exists");
+
+        final String field = index.getField();
+        forEachItem((id, item) -> {
+            if (item.has(field))
+                index.add(id, item.opt(field));
+            return true;
+        });
+
+        indexes.put(field, index);
+    }
+
+    /**
+     * Removes the index on the given field.
+     *
+     * @return {@code false} if there was no index on the field.
+     */
+    boolean removeIndex(String field) {
+        return indexes.remove(field) != null;
+    }
+
+    /**
+     * Returns the index on the given field, or {@code null} if the field is not indexed.
+     */
+    @Override
+    public Index getIndex(String field) {
+        return indexes.get(field);
+    }
+
+    /**
+     * Returns every item whose {@code field} is equal to {@code value}, keyed and ordered by id. If the field is indexed
+     * the index is used, otherwise every item in the table is scanned.
+     * <p>
+     * Values are compared after {@link Index#normalize(Object) normalizing} them, so the result is the same whether or
+     * not there is an index.
+     */
+    Map<Integer, JSONObject> findBy(String field, Object value) {
+        final Map<Integer, JSONObject> found = new TreeMap<>();
+
+        Index index = indexes.get(field);
+        if (index != null) {
+            for (int id : index.find(value)) {
+                found.put(id, getItem(id));
+            }
+            return found;
+        }
+
+        final Object key = Index.normalize(value);
+        forEachItem((id, item) -> {
+            if (item.has(field) && key.equals(Index.normalize(item.opt(field))))
+                found.put(id, item);
+            return true;
+        });
+
+        return found;
+    }
+
+    /**
+     * Returns every item whose {@code field} lies between {@code from} and {@code to}, inclusive, keyed by id and
+     * ordered by the field value as described by {@link OrderedIndex}. A {@code null} bound leaves that end of the
+     * range open, and items whose field is null are only included if {@code from} is {@link JSONObject#NULL}.
+     * <p>
+     * If the field has an {@link OrderedIndex} only the matching items are touched, otherwise every item in the table is
+     * scanned and the matches sorted.
+     */
+    Map<Integer, JSONObject> findRange(String field, Object from, Object to) {
+        OrderedIndex index = getOrderedIndex(field);
+        if (index != null)
+            return collect(index.range(from, to), Integer.MAX_VALUE);
+
+        final Object low = from == null ? null : Index.normalize(from);
+        final Object high = to == null ? null : Index.normalize(to);
+
+        List<Map.Entry<Object, Integer>> matches = scanField(field);
+        Map<Integer, JSONObject> found = new LinkedHashMap<>();
+        for (Map.Entry<Object, Integer> match : matches) {
+            Object value = match.getKey();
+            boolean aboveLow = low == null ? value != JSONObject.NULL : OrderedIndex.VALUE_ORDER.compare(value, low) >= 0;
+            boolean belowHigh = high == null || OrderedIndex.VALUE_ORDER.compare(value, high) <= 0;
+
+            if (aboveLow && belowHigh)
+                found.put(match.getValue(), getItem(match.getValue()));
+        }
+
+        return found;
+    }
+
+    /**
+     * Returns up to {@code limit} items which have a non-null value for the given {@code field}, keyed by id and ordered
+     * by the field value. Items with the same value are ordered by id. This is used for "top N" style queries.
+     * <p>
+     * If the field has an {@link OrderedIndex} only the returned items are touched, otherwise every item in the table is
+     * scanned and sorted.
+     *
+     * @param ascending {@code true} to start from the smallest value, {@code false} to start from the largest.
+     */
+    Map<Integer, JSONObject> findOrdered(String field, boolean ascending, int limit) {
+        OrderedIndex index = getOrderedIndex(field);
+        if (index != null) {
+            NavigableMap<Object, Set<Integer>> entries = index.range(null, null);
+            if (!ascending)
+                entries = entries.descendingMap();
+            return collect(entries, limit);
+        }
+
+        List<Map.Entry<Object, Integer>> matches = scanField(field);
+        if (!ascending)
+            Collections.sort(matches, BY_VALUE_DESCENDING_THEN_ID);
+
+        Map<Integer, JSONObject> found = new LinkedHashMap<>();
+        for (Map.Entry<Object, Integer> match : matches) {
+            if (found.size() >= limit)
+                break;
+            if (match.getKey() != JSONObject.NULL)
+                found.put(match.getValue(), getItem(match.getValue()));
+        }
+
+        return found;
+    }
+
+    /**
+     * Returns the smallest non-null value of the {@code field}, or {@code null} if no item has one.
+     */
+    Object min(String field) {
+        OrderedIndex index = getOrderedIndex(field);
+        if (index != null)
+            return index.min();
+
+        for (Map.Entry<Object, Integer> match : scanField(field)) {
+            if (match.getKey() != JSONObject.NULL)
+                return match.getKey();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the largest non-null value of the {@code field}, or {@code null} if no item has one.
+     */
+    Object max(String field) {
+        OrderedIndex index = getOrderedIndex(field);
+        if (index != null)
+            return index.max();
+
+        List<Map.Entry<Object, Integer>> matches = scanField(field);
+        if (matches.isEmpty() || matches.get(matches.size() - 1).getKey() == JSONObject.NULL)
+            return null;
+        return matches.get(matches.size() - 1).getKey();
+    }
+
+    /**
+     * Calls the {@code visitor} for every item in the table, skipping entries which are not items. Stops early if the
+     * visitor returns {@code false}.
+     */
+    @Override
+    public void forEachItem(ItemVisitor visitor) {
+        rows.forEachRow(visitor);
+    }
+
+    /**
+     * Calls the {@code visitor} for every item as it was at the given version. This can be called without holding the
+     * lock, as long as a snapshot at that version is open.
+     */
+    void forEachItem(ItemVisitor visitor, long version) {
+        final BitSet visited = new BitSet();
+        final boolean[] stopped = {false};
+
+        rows.forEachRow((id, latest) -> {
+            visited.set(id);
+            JSONObject item = versionOf(id, latest, version);
+            if (item != null && !visitor.visit(id, item)) {
+                stopped[0] = true;
+                return false;
+            }
+            return true;
+        });
+        if (stopped[0])
+            return;
+
+        // items removed since the version are only in the history
+        for (int id : history.keySet()) {
+            if (visited.get(id))
+                continue;
+
+            JSONObject item = getItem(id, version);
+            if (item != null && !visitor.visit(id, item))
+                return;
+        }
+    }
+
+    /**
+     * Returns the index on the given field if it is an {@link OrderedIndex}, otherwise {@code null}.
+     */
+    @Override
+    public OrderedIndex getOrderedIndex(String field) {
+        Index index = indexes.get(field);
+        return index instanceof OrderedIndex ? (OrderedIndex) index : null;
+    }
+
+    /**
+     * Returns the normalized {@code field} value and id of every item which has the field, sorted by value and then id.
+     */
+    private List<Map.Entry<Object, Integer>> scanField(final String field) {
+        final List<Map.Entry<Object, Integer>> matches = new ArrayList<>();
+        forEachItem((id, item) -> {
+            if (item.has(field))
+                matches.add(new AbstractMap.SimpleImmutableEntry<>(Index.normalize(item.opt(field)), id));
+            return true;
+        });
+
+        Collections.sort(matches, BY_VALUE_THEN_ID);
+        return matches;
+    }
+
+    /**
+     * Orders the entries returned by {@link #scanField(String)}.
+     */
+    private static final Comparator<Map.Entry<Object, Integer>> BY_VALUE_THEN_ID = (a, b) -> {
+        int result = OrderedIndex.VALUE_ORDER.compare(a.getKey(), b.getKey());
+        return result != 0 ? result : Integer.compare(a.getValue(), b.getValue());
+    };
+
+    /**
+     * Orders the entries returned by {@link #scanField(String)} by descending value, keeping ids ascending.
+     */
+    private static final Comparator<Map.Entry<Object, Integer>> BY_VALUE_DESCENDING_THEN_ID = (a, b) -> {
+        int result = OrderedIndex.VALUE_ORDER.compare(b.getKey(), a.getKey());
+        return result != 0 ? result : Integer.compare(a.getValue(), b.getValue());
+    };
+
+    /**
+     * Collects the items referenced by the index {@code entries}, in order, stopping once {@code limit} items have been
+     * collected.
+     */
+    private Map<Integer, JSONObject> collect(NavigableMap<Object, Set<Integer>> entries, int limit) {
+        Map<Integer, JSONObject> found = new LinkedHashMap<>();
+
+        for (Set<Integer> ids : entries.values()) {
+            for (int id : ids) {
+                if (found.size() >= limit)
+                    return found;
+                found.put(id, getItem(id));
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Adds the given item to every index.
+     */
+    private void index(int id, JSONObject item) {
+        for (Index index : indexes.values()) {
+            if (item.has(index.getField()))
+                index.add(id, item.opt(index.getField()));
+        }
+    }
+
+    /**
+     * Removes the given item from every index.
+     */
+    private void unindex(int id, JSONObject item) {
+        for (Index index : indexes.values()) {
+            if (item.has(index.getField()))
+                index.remove(id, item.opt(index.getField()));
         }
+    }
 
-        return ++highest;
+    /**
+     * Gets the next id for this table. This does not allocate the id, it will be allocated by the next call to
+     * {@link #append(JSONObject)}.
+     */
+    int getNextId() {
+        return sequence.get() + 1;
+    }
 
+    /**
+     * Makes sure the sequence is at least {@code id}, so the id is never allocated again.
+     */
+    private void advanceSequence(int id) {
+        int current;
+        while ((current = sequence.get()) < id) {
+            if (sequence.compareAndSet(current, id))
+                return;
+        }
     }
 
     /**
@@ -0,0 +1,292 @@
+package db;
+
+import exceptions.ParsingException;
+import json.JsonSerializer;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lets a {@link JsonDatabase} open a file without parsing its tables, by keeping a directory of where each table is
+ * stored at the start of the file. Tables are then only parsed the first time they are used.
+ * <p>
+ * A file written by this class is still a valid JSON object, whose first member is the directory:
+ * <pre>
+ *     {"__directory__":{"default":[1,120],"events":[132,410]},"default":{...},"events":{...}}
+ * </pre>
+ * Each table in the directory maps to the offset and length, in bytes, of its value. Offsets are relative to the end of
+ * the directory value, so they do not depend on the size of the directory itself. Members of the root object which are
+ * not tables are written straight after the directory and are always read when the file is opened.
+ * <p>
+ * {@code JsonDatabase} hides the directory member, so files written with a directory can still be opened without lazy
+ * loading, and files without a directory are simply loaded in full.
+ */
+class TableDirectory {
+
+    /**
+     * Key of the directory member in the root object.
+     */
+    static final String KEY = "__directory__";
+
+    /**
+     * Location of a table's value within the file, relative to {@code bodyOffset}.
+     */
+    private static final class Span {
+        final long start;
+        final long length;
+
+        Span(long start, long length) {
+            this.start = start;
+            this.length = length;
+        }
+    }
+
+    private final FileHelper fileHelper;
+
+    /**
+     * Tables which have not been parsed yet, in the order they appear in the file.
+     */
+    private final Map<String, Span> unloaded = new LinkedHashMap<>();
+
+    /**
+     * Offset in the file of the end of the directory value, which table offsets are relative to.
+     */
+    private long bodyOffset = 0;
+
+    /**
+     * Members of the root object which are not tables, read when the directory was opened.
+     */
+    private final Map<String, Object> values = new LinkedHashMap<>();
+
+    /**
+     * Creates an empty directory for the file held by the {@code fileHelper}.
+     */
+    TableDirectory(FileHelper fileHelper) {
+        this.fileHelper = fileHelper;
+    }
+
+    /**
+     * Reads the directory at the start of the file held by the {@code fileHelper}.
+     *
+     * @return the directory, or {@code null} if the file is empty or does not start with a directory.
+     * @throws IOException if the file could not be read.
+     * @throws ParsingException if the directory could not be parsed.
+     */
+    static TableDirectory open(FileHelper fileHelper) throws IOException, ParsingException {
+        FileChannel channel = fileHelper.openChannel();
+        try {
+            JsonStreamParser parser = new JsonStreamParser(channel);
+            if (parser.atEnd())
+                return null;
+
+            parser.beginObject();
+            if (!KEY.equals(parser.nextKey()))
+                return null;
+
+            TableDirectory directory = new TableDirectory(fileHelper);
+
+            Object value = parser.parseValue();
+            if (!(value instanceof JSONObject))
+                throw new ParsingException("Invalid table directory");
+
+            JSONObject spans = (JSONObject) value;
+            directory.bodyOffset = parser.position();
+
+            Iterator<?> names = spans.keys();
+            while (names.hasNext()) {
+                String name = (String) names.next();
+                JSONArray span = spans.getJSONArray(name);
+                directory.unloaded.put(name, new Span(span.getLong(0), span.getLong(1)));
+            }
+
+            // members which are not tables are written first, stop at the first table
+            String key;
+            while ((key = parser.nextKey()) != null && !directory.unloaded.containsKey(key)) {
+                directory.values.put(key, parser.parseValue());
+            }
+
+            return directory;
+        } catch (JSONException e) {
+            throw new ParsingException("Invalid table directory", e);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Returns the members of the root object which are not tables. These are read when the directory is opened.
+     */
+    Map<String, Object> getValues() {
+        return values;
+    }
+
+    /**
+     * Returns {@code true} if the table has not been loaded yet.
+     */
+    boolean contains(String name) {
+        return unloaded.containsKey(name);
+    }
+
+    /**
+     * Returns the names of the tables which have not been loaded yet.
+     */
+    Set<String> names() {
+        return unloaded.keySet();
+    }
+
+    /**
+     * Parses the table with the given name and removes it from the directory, since the caller now owns it.
+     *
+     * @return the table, or {@code null} if it is not in the directory.
+     * @throws IOException if the table could not be read.
+     * @throws ParsingException if the table could not be parsed.
+     */
+    JSONObject load(String name) throws IOException, ParsingException {
+        Map<String, Object> entries = new HashMap<>();
+        return load(name, entries) ? new JSONObject(entries) : null;
+    }
+
+    /**
+     * Parses the table with the given name one entry at a time into the given map, and removes it from the directory,
+     * since the caller now owns it.
+     *
+     * @return {@code true} if the table was in the directory.
+     * @throws IOException if the table could not be read.
+     * @throws ParsingException if the table could not be parsed.
+     */
+    boolean load(String name, Map<String, Object> into) throws IOException, ParsingException {
+        Span span = unloaded.get(name);
+        if (span == null)
+            return false;
+
+        JsonStreamParser parser = new JsonStreamParser(fileHelper.map(bodyOffset + span.start, span.length));
+        parser.beginObject();
+        for (String key = parser.nextKey(); key != null; key = parser.nextKey()) {
+            into.put(key, parser.parseValue());
+        }
+
+        unloaded.remove(name);
+        return true;
+    }
+
+    /**
+     * Removes a table from the directory without loading it, for example because it has been dropped or replaced.
+     */
+    void remove(String name) {
+        unloaded.remove(name);
+    }
+
+    /**
+     * Writes the database to the file as {@link #write(JSONObject, Map)} does, serializing every loaded table.
+     *
+     * @throws IOException if the file could not be written.
+     */
+    void write(JSONObject rootObject) throws IOException {
+        write(rootObject, Collections.<String, ByteBuffer>emptyMap());
+    }
+
+    /**
+     * Writes the database to the file, with a directory covering both the loaded tables in {@code rootObject} and the
+     * tables which have not been loaded. Unloaded tables are copied byte for byte from the current file rather than being
+     * parsed and serialized again, as are loaded tables which have a cached fragment.
+     *
+     * @param fragments JSON text of loaded tables which have not changed since it was serialized, keyed by table name.
+     * @throws IOException if the file could not be written.
+     */
+    void write(JSONObject rootObject, Map<String, ByteBuffer> fragments) throws IOException {
+        List<String> names = new ArrayList<>();
+        List<ByteBuffer> tables = new ArrayList<>();
+        List<ByteBuffer> others = new ArrayList<>();
+
+        Iterator<?> keys = rootObject.keys();
+        while (keys.hasNext()) {
+            String name = (String) keys.next();
+            Object value = rootObject.opt(name);
+
+            if (value instanceof JSONObject) {
+                names.add(name);
+                ByteBuffer fragment = fragments.get(name);
+                tables.add(fragment != null ? fragment.duplicate() : JsonSerializer.toUtf8(value));
+            } else if (!KEY.equals(name)) {
+                others.add(encode("," + JSONObject.quote(name) + ":" + valueToString(value)));
+            }
+        }
+
+        for (Map.Entry<String, Span> entry : unloaded.entrySet()) {
+            names.add(entry.getKey());
+            tables.add(fileHelper.map(bodyOffset + entry.getValue().start, entry.getValue().length));
+        }
+
+        // lay out the body: non-table members, then each table
+        List<ByteBuffer> body = new ArrayList<>(others);
+        long position = 0;
+        for (ByteBuffer other : others) {
+            position += other.remaining();
+        }
+
+        JSONObject spans = new JSONObject();
+        Map<String, Span> newSpans = new LinkedHashMap<>();
+        try {
+            for (int i = 0; i < names.size(); i++) {
+                ByteBuffer prefix = encode("," + JSONObject.quote(names.get(i)) + ":");
+                position += prefix.remaining();
+
+                Span span = new Span(position, tables.get(i).remaining());
+                newSpans.put(names.get(i), span);
+                spans.put(names.get(i), new JSONArray().put(span.start).put(span.length));
+
+                body.add(prefix);
+                body.add(tables.get(i));
+                position += span.length;
+            }
+        } catch (JSONException e) {
+            throw new ParsingException("Could not create table directory", e);
+        }
+        body.add(encode("}"));
+
+        ByteBuffer header = encode("{" + JSONObject.quote(KEY) + ":" + spans.toString());
+        long newBodyOffset = header.remaining();
+        body.add(0, header);
+
+        fileHelper.write(body.toArray(new ByteBuffer[body.size()]));
+
+        // unloaded tables now live at their new positions
+        for (Map.Entry<String, Span> entry : unloaded.entrySet()) {
+            entry.setValue(newSpans.get(entry.getKey()));
+        }
+        bodyOffset = newBodyOffset;
+    }
+
+    private static ByteBuffer encode(String s) {
+        return ByteBuffer.wrap(s.getBytes(FileHelper.UTF_8));
+    }
+
+    /**
+     * Returns the JSON text of a value which is not a table.
+     */
+    private static String valueToString(Object value) throws IOException {
+        if (value instanceof String)
+            return JSONObject.quote((String) value);
+
+        try {
+            if (value instanceof Number)
+                return JSONObject.numberToString((Number) value);
+        } catch (JSONException e) {
+            throw new ParsingException("Could not write value " + value, e);
+        }
+
+        return String.valueOf(value);
+    }
+}
@@ -0,0 +1,80 @@
+package db;
+
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Numbers the changes made to the items of a {@link JsonDatabase} while {@link Snapshot snapshots} are open, and keeps
+ * track of the versions open snapshots were taken at.
+ * <p>
+ * A snapshot taken at version {@code v} sees every change numbered {@code v} or lower and none of the changes after
+ * it. Once no snapshot is open at a version, the old item versions kept for it can be discarded.
+ */
+class VersionClock {
+
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * Number of open snapshots at each version.
+     */
+    private final TreeMap<Long, Integer> open = new TreeMap<>();
+
+    private volatile boolean anyOpen = false;
+
+    /**
+     * Returns the number of the latest change.
+     */
+    long current() {
+        return version.get();
+    }
+
+    /**
+     * Allocates the number of a new change.
+     */
+    long advance() {
+        return version.incrementAndGet();
+    }
+
+    /**
+     * Returns {@code true} if any snapshot is open, in which case changes need to keep the versions they replace.
+     */
+    boolean hasOpenSnapshots() {
+        return anyOpen;
+    }
+
+    /**
+     * Records a snapshot opened at the current version. No change may be in progress while this is called.
+     *
+     * @return the version of the snapshot.
+     */
+    synchronized long open() {
+        long current = version.get();
+        Integer count = open.get(current);
+        open.put(current, count == null ? 1 : count + 1);
+        anyOpen = true;
+        return current;
+    }
+
+    /**
+     * Records that a snapshot opened at the given version has been closed.
+     */
+    synchronized void close(long snapshotVersion) {
+        Integer count = open.get(snapshotVersion);
+        if (count == null)
+            return;
+
+        if (count == 1)
+            open.remove(snapshotVersion);
+        else
+            open.put(snapshotVersion, count - 1);
+
+        anyOpen = !open.isEmpty();
+    }
+
+    /**
+     * Returns the version of the oldest open snapshot, or {@link Long#MAX_VALUE} if there is none.
+     */
+    synchronized long oldestOpen() {
+        return open.isEmpty() ? Long.MAX_VALUE : open.firstKey();
+    }
+}
@@ -0,0 +1,336 @@
+package db;
+
+import exceptions.ParsingException;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append-only log of the mutations made to a {@link JsonDatabase}, stored in a sidecar file next to the database file.
+ * <p>
+ * Rather than rewriting the entire database on every mutation, a database running in write-ahead log mode appends a
+ * small record describing the change to this log. When the database is next opened the base JSON snapshot is loaded and
+ * the records are replayed on top of it. Once the log grows past the configured threshold the database writes a new
+ * snapshot and calls {@link #reset()}.
+ * <p>
+ * Each record is a single line containing a {@code JSONObject} in the format:
+ * <pre>
+ *     {"op": "append", "table": "expenses", "id": 3, "value": { ... }}
+ * </pre>
+ * A {@link Batch} is written as a single {@code batch} record holding the records of each of its operations, so either
+ * the whole batch is replayed or none of it is.
+ * <p>
+ * If the program crashed part way through writing a record the final line will be incomplete. {@link #readRecords()}
+ * ignores such a line, since the mutation it describes was never acknowledged to the caller.
+ * <p>
+ * With {@link Compression#DEFLATE} each append is written as a compressed block, see {@link BlockCodec}. The blocks
+ * continue a single deflate stream, so the field names repeated in every record compress against earlier records. A log
+ * keeps the format it was started with until it is next {@link #reset()}, so it can be opened with any compression.
+ */
+class WriteAheadLog {
+
+    /**
+     * Extension added to the database file name to get the name of its log file.
+     */
+    static final String EXTENSION = ".wal";
+
+    static final String OP_APPEND = "append";
+    static final String OP_APPEND_VALUE = "appendValue";
+    static final String OP_NEW_TABLE = "newTable";
+    static final String OP_DROP_TABLE = "dropTable";
+    static final String OP_DELETE = "delete";
+    static final String OP_BATCH = "batch";
+
+    /**
+     * Wrapper around the log file.
+     */
+    private final FileHelper fileHelper;
+
+    /**
+     * Compression used when the log is empty.
+     */
+    private Compression compression = Compression.NONE;
+
+    /**
+     * Compresses appended records, or {@code null} if the log is not compressed.
+     */
+    private BlockCodec.Encoder encoder = null;
+
+    /**
+     * Records the bytes serialized for each record, or {@code null} if they are not recorded.
+     */
+    private DatabaseMetrics metrics = null;
+
+    /**
+     * Opens the log belonging to the given database file, creating an empty log if one does not exist.
+     *
+     * @throws IOException if the log file could not be created.
+     */
+    WriteAheadLog(File databaseFile) throws IOException {
+        this.fileHelper = FileHelper.getOrCreate(logFileFor(databaseFile));
+    }
+
+    /**
+     * Opens the log belonging to the given database file, forcing appended records to the disk according to the
+     * {@code options}.
+     *
+     * @throws IOException if the log file could not be created.
+     */
+    WriteAheadLog(File databaseFile, DatabaseOptions options) throws IOException {
+        this(databaseFile);
+        fileHelper.setFsyncPolicy(options.getFsyncPolicy(), options.getFsyncIntervalMillis());
+        this.compression = options.getCompression();
+        chooseFormat();
+    }
+
+    /**
+     * Sets the metrics that appended records are recorded in.
+     */
+    synchronized void setMetrics(DatabaseMetrics metrics) {
+        this.metrics = metrics;
+        fileHelper.setMetrics(metrics);
+    }
+
+    /**
+     * Decides whether appended records are compressed. An empty log uses the {@code compression}, otherwise the
+     * existing records are kept in the same format.
+     *
+     * @throws IOException if the log could not be read.
+     */
+    private void chooseFormat() throws IOException {
+        boolean compressed = fileHelper.length() == 0
+                ? compression != Compression.NONE
+                : BlockCodec.isCompressed(fileHelper);
+
+        if (encoder != null)
+            encoder.end();
+        encoder = compressed ? new BlockCodec.Encoder(false) : null;
+    }
+
+    /**
+     * Returns the log file used by the given database file. The file may not exist.
+     */
+    static File logFileFor(File databaseFile) {
+        return new File(databaseFile.getPath() + EXTENSION);
+    }
+
+    /**
+     * Appends a single record to the end of the log.
+     *
+     * @throws IOException if the record could not be written.
+     */
+    void append(JSONObject record) throws IOException {
+        write(record.toString() + "\n");
+    }
+
+    /**
+     * Appends several serialized records to the end of the log with a single write.
+     *
+     * @throws IOException if the records could not be written.
+     */
+    void appendAll(List<String> records) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (String record : records) {
+            builder.append(record).append('\n');
+        }
+
+        write(builder.toString());
+    }
+
+    /**
+     * Appends the {@code records} to the file, compressing them if the log is compressed. Compressing and appending
+     * happen together, so blocks reach the file in the same order as they were added to the stream.
+     */
+    private synchronized void write(String records) throws IOException {
+        byte[] bytes = records.getBytes(FileHelper.UTF_8);
+        if (metrics != null)
+            metrics.addBytesSerialized(bytes.length);
+
+        if (encoder == null) {
+            fileHelper.append(ByteBuffer.wrap(bytes));
+            return;
+        }
+
+        byte[] block = encoder.encode(bytes, fileHelper.length() == 0);
+        try {
+            fileHelper.append(ByteBuffer.wrap(block));
+        } catch (IOException e) {
+            // the block may not have reached the file, so later blocks cannot refer back to it
+            encoder.restart();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads every complete record in the log, in the order they were written.
+     *
+     * @throws IOException if the log could not be read.
+     * @throws ParsingException if a record other than the last one could not be parsed.
+     */
+    List<JSONObject> readRecords() throws IOException {
+        List<String> lines = BlockCodec.isCompressed(fileHelper) ? readCompressedLines() : fileHelper.readLines();
+        List<JSONObject> records = new ArrayList<>(lines.size());
+
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.isEmpty())
+                continue;
+
+            try {
+                records.add(new JSONObject(line));
+            } catch (JSONException e) {
+                // a torn final record was never acknowledged, anything earlier means the log is corrupt
+                if (i != lines.size() - 1)
+                    throw new ParsingException("Could not parse log record " + (i + 1), e);
+            }
+        }
+
+        return records;
+    }
+
+    /**
+     * Reads each line of a compressed log. A final block torn by a crash is ignored, like a torn final line.
+     */
+    private List<String> readCompressedLines() throws IOException {
+        List<String> lines = new ArrayList<>();
+
+        FileChannel channel = fileHelper.openChannel();
+        try {
+            BufferedReader reader = new BufferedReader(
+                    Channels.newReader(BlockCodec.decompress(channel, true), FileHelper.UTF_8.newDecoder(), -1));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                }
+            } finally {
+                reader.close();
+            }
+        } finally {
+            channel.close();
+        }
+
+        return lines;
+    }
+
+    /**
+     * Returns the size of the log in bytes.
+     */
+    long size() {
+        return fileHelper.length();
+    }
+
+    /**
+     * Removes every record from the log. This should only be called once the changes have been written to a snapshot.
+     *
+     * @throws IOException if the log could not be truncated.
+     */
+    synchronized void reset() throws IOException {
+        fileHelper.write("");
+        chooseFormat();
+    }
+
+    /**
+     * Forces any appended records which have not been forced yet and releases the resources used to compress the log.
+     * The log should not be appended to afterwards.
+     *
+     * @throws IOException if the log could not be forced.
+     */
+    synchronized void close() throws IOException {
+        try {
+            fileHelper.close();
+        } finally {
+            if (encoder != null)
+                encoder.end();
+        }
+    }
+
+    /**
+     * Deletes the log file.
+     *
+     * @throws IOException if the log could not be deleted.
+     */
+    void delete() throws IOException {
+        fileHelper.delete();
+    }
+
+    /**
+     * Creates a record for a row appended to a table by {@link JsonDatabase#append}.
+     */
+    static JSONObject appendRecord(String table, int id, JSONObject row) {
+        JSONObject record = newRecord(OP_APPEND, table);
+        put(record, "id", id);
+        put(record, "value", row);
+        return record;
+    }
+
+    /**
+     * Creates a record for a value added to an existing row by {@link JsonDatabase#appendValueToTable}.
+     */
+    static JSONObject appendValueRecord(String table, int id, String valueKey, Object value) {
+        JSONObject record = newRecord(OP_APPEND_VALUE, table);
+        put(record, "id", id);
+        put(record, "key", valueKey);
+        put(record, "value", value);
+        return record;
+    }
+
+    /**
+     * Creates a record for a table created by {@link JsonDatabase#newTable}.
+     */
+    static JSONObject newTableRecord(String table, JSONObject initialValues) {
+        JSONObject record = newRecord(OP_NEW_TABLE, table);
+        put(record, "value", initialValues);
+        return record;
+    }
+
+    /**
+     * Creates a record for a table removed by {@link JsonDatabase#dropTable}.
+     */
+    static JSONObject dropTableRecord(String table) {
+        return newRecord(OP_DROP_TABLE, table);
+    }
+
+    /**
+     * Creates a record for an item removed by {@link JsonDatabase#delete(String, String)}.
+     */
+    static JSONObject deleteRecord(String table, String key) {
+        JSONObject record = newRecord(OP_DELETE, table);
+        put(record, "key", key);
+        return record;
+    }
+
+    /**
+     * Creates a record for every operation of a {@link Batch}, which are replayed in order.
+     */
+    static JSONObject batchRecord(List<JSONObject> records) {
+        JSONObject record = new JSONObject();
+        put(record, "op", OP_BATCH);
+        put(record, "records", new JSONArray(records));
+        return record;
+    }
+
+    private static JSONObject newRecord(String op, String table) {
+        JSONObject record = new JSONObject();
+        put(record, "op", op);
+        put(record, "table", table);
+        return record;
+    }
+
+    private static void put(JSONObject record, String key, Object value) {
+        try {
+            record.put(key, value);
+        } catch (JSONException e) {
+            throw new ParsingException("Could not create log record", e);
+        }
+    }
+}
@@ -1,14 +1,45 @@
 package json;
 
+import exceptions.SerializerException;
+import org.json.JSONArray;
 import org.json.JSONObject;
+import org.json.JSONString;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.Map;
 
 /**
  * Serializes an Object or {@code Map} into JSON.
+ * <p>
+ * The {@code write} methods stream the JSON text straight to a {@code Writer}, {@code OutputStream} or channel as they
+ * walk the value, so a large value is never held in memory as a single {@code String} or byte array. Bytes are encoded
+ * as UTF-8 into one buffer which is flushed and reused whenever it fills. The text is the same as {@code toString()}
+ * gives for the equivalent {@code JSONObject}, and can be read back by any JSON parser.
+ * <p>
+ * {@code JSONObject}s, {@code JSONArray}s, maps, collections, arrays and {@link JSONString}s are written as JSON. Enums
+ * are written as their name, and any other object as its quoted {@code toString()}, as {@code JSONObject} does, so a
+ * value such as a {@code Date} or {@code UUID} is kept as text. Use {@link ObjectSerializer} to write an object by its
+ * fields.
  */
 public class JsonSerializer {
 
+    /**
+     * Size of the buffer bytes are encoded into before being written.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
     /**
      * Converts a {@code Map<String,?>} into a JSON string in the format:
      * <pre>
@@ -19,8 +50,14 @@ public class JsonSerializer {
      * </pre>
      */
     public static String toJsonString(Map<String, ?> map) {
-        JSONObject obj = new JSONObject(map);
-        return obj.toString();
+        StringWriter writer = new StringWriter();
+        try {
+            write(map, writer);
+        } catch (IOException e) {
+            // a StringWriter never throws
+            throw new AssertionError(e);
+        }
+        return writer.toString();
     }
 
     /**
@@ -30,4 +67,433 @@ public class JsonSerializer {
         JSONObject obj = new JSONObject(map);
         return obj;
     }
+
+    /**
+     * Writes the {@code value} as JSON to the {@code writer}. The writer is not flushed or closed.
+     *
+     * @throws IOException if the writer threw an exception.
+     * @throws SerializerException if the value holds a number which is not finite, or an object whose fields could not
+     *      be read.
+     */
+    public static void write(Object value, Writer writer) throws IOException, SerializerException {
+        new Generator(new CharOutput(writer)).writeValue(value);
+    }
+
+    /**
+     * Writes the {@code value} as UTF-8 encoded JSON to the {@code out} stream. The stream is not flushed or closed.
+     *
+     * @throws IOException if the stream threw an exception.
+     * @throws SerializerException if the value holds a number which is not finite, or an object whose fields could not
+     *      be read.
+     */
+    public static void write(Object value, OutputStream out) throws IOException, SerializerException {
+        write(value, Channels.newChannel(out));
+    }
+
+    /**
+     * Writes the {@code value} as UTF-8 encoded JSON to the {@code channel}. The channel is not closed.
+     *
+     * @throws IOException if the channel threw an exception.
+     * @throws SerializerException if the value holds a number which is not finite, or an object whose fields could not
+     *      be read.
+     */
+    public static void write(Object value, WritableByteChannel channel) throws IOException, SerializerException {
+        Utf8Output output = new Utf8Output(channel, BUFFER_SIZE);
+        new Generator(output).writeValue(value);
+        output.flush();
+    }
+
+    /**
+     * Returns the {@code value} as UTF-8 encoded JSON. This is for callers which need to know the length of the JSON
+     * before writing it, and avoids creating the intermediate {@code String} that {@code toString()} would.
+     *
+     * @throws SerializerException if the value holds a number which is not finite, or an object whose fields could not
+     *      be read.
+     */
+    public static ByteBuffer toUtf8(Object value) throws SerializerException {
+        Utf8Output output = new Utf8Output(null, 256);
+        try {
+            new Generator(output).writeValue(value);
+        } catch (IOException e) {
+            // an output without a channel never throws
+            throw new AssertionError(e);
+        }
+        return output.toByteBuffer();
+    }
+
+    /**
+     * Walks a value and writes its JSON text to an {@link Output}.
+     */
+    private static final class Generator {
+
+        private final Output out;
+
+        /**
+         * Scratch space for the digits of an integer.
+         */
+        private final char[] digits = new char[20];
+
+        Generator(Output out) {
+            this.out = out;
+        }
+
+        void writeValue(Object value) throws IOException {
+            if (value == null || value.equals(null)) {
+                out.writeAscii("null");
+            } else if (value instanceof String) {
+                writeString((String) value);
+            } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                    || value instanceof Byte) {
+                writeLong(((Number) value).longValue());
+            } else if (value instanceof Number) {
+                writeNumber((Number) value);
+            } else if (value instanceof Boolean) {
+                out.writeAscii(value.toString());
+            } else if (value instanceof JSONObject) {
+                writeObject((JSONObject) value);
+            } else if (value instanceof JSONArray) {
+                writeArray((JSONArray) value);
+            } else if (value instanceof JSONString) {
+                writeRaw(((JSONString) value).toJSONString());
+            } else if (value instanceof Map) {
+                writeMap((Map<?, ?>) value);
+            } else if (value instanceof Collection) {
+                writeCollection((Collection<?>) value);
+            } else if (value.getClass().isArray()) {
+                writeArray(value);
+            } else if (value instanceof Enum) {
+                writeString(((Enum<?>) value).name());
+            } else if (value instanceof Character) {
+                writeString(value.toString());
+            } else {
+                writeString(value.toString());
+            }
+        }
+
+        private void writeObject(JSONObject object) throws IOException {
+            out.write('{');
+            boolean first = true;
+            Iterator<?> keys = object.keys();
+            while (keys.hasNext()) {
+                String key = keys.next().toString();
+                first = writeMember(key, object.opt(key), first);
+            }
+            out.write('}');
+        }
+
+        private void writeMap(Map<?, ?> map) throws IOException {
+            out.write('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                first = writeMember(String.valueOf(entry.getKey()), entry.getValue(), first);
+            }
+            out.write('}');
+        }
+
+        /**
+         * Writes a single member of an object.
+         *
+         * @return {@code false}, to pass as {@code first} for the next member.
+         */
+        private boolean writeMember(String key, Object value, boolean first) throws IOException {
+            if (!first)
+                out.write(',');
+            writeString(key);
+            out.write(':');
+            writeValue(value);
+            return false;
+        }
+
+        private void writeArray(JSONArray array) throws IOException {
+            out.write('[');
+            for (int i = 0; i < array.length(); i++) {
+                if (i > 0)
+                    out.write(',');
+                writeValue(array.opt(i));
+            }
+            out.write(']');
+        }
+
+        private void writeCollection(Collection<?> collection) throws IOException {
+            out.write('[');
+            boolean first = true;
+            for (Object element : collection) {
+                if (!first)
+                    out.write(',');
+                writeValue(element);
+                first = false;
+            }
+            out.write(']');
+        }
+
+        private void writeArray(Object array) throws IOException {
+            out.write('[');
+            int length = Array.getLength(array);
+            for (int i = 0; i < length; i++) {
+                if (i > 0)
+                    out.write(',');
+                writeValue(Array.get(array, i));
+            }
+            out.write(']');
+        }
+
+        /**
+         * Writes a quoted string, escaped in the same way as {@link JSONObject#quote(String)}.
+         */
+        private void writeString(String s) throws IOException {
+            out.write('"');
+            char previous = 0;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '\\':
+                    case '"':
+                        out.write('\\');
+                        out.write(c);
+                        break;
+                    case '/':
+                        if (previous == '<')
+                            out.write('\\');
+                        out.write(c);
+                        break;
+                    case '\b':
+                        out.writeAscii("\\b");
+                        break;
+                    case '\t':
+                        out.writeAscii("\\t");
+                        break;
+                    case '\n':
+                        out.writeAscii("\\n");
+                        break;
+                    case '\f':
+                        out.writeAscii("\\f");
+                        break;
+                    case '\r':
+                        out.writeAscii("\\r");
+                        break;
+                    default:
+                        if (c < ' ' || (c >= 0x80 && c < 0xA0) || (c >= 0x2000 && c < 0x2100)) {
+                            out.writeAscii("\\u");
+                            out.write(HEX[(c >> 12) & 0xF]);
+                            out.write(HEX[(c >> 8) & 0xF]);
+                            out.write(HEX[(c >> 4) & 0xF]);
+                            out.write(HEX[c & 0xF]);
+                        } else {
+                            out.write(c);
+                        }
+                }
+                previous = c;
+            }
+            out.write('"');
+        }
+
+        private void writeLong(long value) throws IOException {
+            if (value == Long.MIN_VALUE) {
+                out.writeAscii(Long.toString(value));
+                return;
+            }
+
+            int position = digits.length;
+            boolean negative = value < 0;
+            long remaining = negative ? -value : value;
+            do {
+                digits[--position] = (char) ('0' + remaining % 10);
+                remaining /= 10;
+            } while (remaining != 0);
+            if (negative)
+                digits[--position] = '-';
+
+            for (int i = position; i < digits.length; i++) {
+                out.write(digits[i]);
+            }
+        }
+
+        /**
+         * Writes a number in the same way as {@link JSONObject#numberToString(Number)}, dropping trailing zeros after
+         * the decimal point.
+         */
+        private void writeNumber(Number number) throws IOException {
+            if ((number instanceof Double && (((Double) number).isInfinite() || ((Double) number).isNaN()))
+                    || (number instanceof Float && (((Float) number).isInfinite() || ((Float) number).isNaN())))
+                throw new SerializerException("JSON does not allow non-finite numbers: " + number);
+
+            String s = number.toString();
+            int end = s.length();
+            if (s.indexOf('.') > 0 && s.indexOf('e') < 0 && s.indexOf('E') < 0) {
+                while (s.charAt(end - 1) == '0') {
+                    end--;
+                }
+                if (s.charAt(end - 1) == '.')
+                    end--;
+            }
+            out.writeAscii(s, end);
+        }
+
+        /**
+         * Writes text which is already JSON.
+         */
+        private void writeRaw(String json) throws IOException {
+            for (int i = 0; i < json.length(); i++) {
+                out.write(json.charAt(i));
+            }
+        }
+    }
+
+    /**
+     * Destination of the characters written by a {@link Generator}.
+     */
+    private static abstract class Output {
+
+        abstract void write(char c) throws IOException;
+
+        void writeAscii(String s) throws IOException {
+            writeAscii(s, s.length());
+        }
+
+        /**
+         * Writes the first {@code length} characters of {@code s}, which are all ASCII.
+         */
+        void writeAscii(String s, int length) throws IOException {
+            for (int i = 0; i < length; i++) {
+                write(s.charAt(i));
+            }
+        }
+    }
+
+    /**
+     * Writes characters to a {@code Writer}.
+     */
+    private static final class CharOutput extends Output {
+
+        private final Writer writer;
+
+        CharOutput(Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        void write(char c) throws IOException {
+            writer.write(c);
+        }
+
+        @Override
+        void writeAscii(String s, int length) throws IOException {
+            writer.write(s, 0, length);
+        }
+    }
+
+    /**
+     * Encodes characters as UTF-8 into a byte array. When the array fills it is written to the channel and reused, or
+     * grown if there is no channel.
+     */
+    private static final class Utf8Output extends Output {
+
+        private final WritableByteChannel channel;
+
+        private byte[] buffer;
+
+        private int position = 0;
+
+        /**
+         * High surrogate waiting for the low surrogate that completes its code point, or 0.
+         */
+        private char highSurrogate = 0;
+
+        Utf8Output(WritableByteChannel channel, int size) {
+            this.channel = channel;
+            this.buffer = new byte[size];
+        }
+
+        @Override
+        void write(char c) throws IOException {
+            if (position + 4 > buffer.length)
+                drain();
+
+            if (c < 0x80 && highSurrogate == 0) {
+                buffer[position++] = (byte) c;
+            } else if (Character.isHighSurrogate(c)) {
+                if (highSurrogate != 0)
+                    buffer[position++] = '?';
+                highSurrogate = c;
+            } else if (Character.isLowSurrogate(c) && highSurrogate != 0) {
+                int codePoint = Character.toCodePoint(highSurrogate, c);
+                highSurrogate = 0;
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                if (highSurrogate != 0) {
+                    // an unpaired surrogate is replaced, as String.getBytes does
+                    buffer[position++] = '?';
+                    highSurrogate = 0;
+                    write(c);
+                } else if (Character.isLowSurrogate(c)) {
+                    buffer[position++] = '?';
+                } else if (c < 0x800) {
+                    buffer[position++] = (byte) (0xC0 | (c >> 6));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                } else {
+                    buffer[position++] = (byte) (0xE0 | (c >> 12));
+                    buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        @Override
+        void writeAscii(String s, int length) throws IOException {
+            if (highSurrogate != 0) {
+                super.writeAscii(s, length);
+                return;
+            }
+
+            int written = 0;
+            while (written < length) {
+                if (position == buffer.length)
+                    drain();
+
+                int count = Math.min(length - written, buffer.length - position);
+                for (int i = 0; i < count; i++) {
+                    buffer[position++] = (byte) s.charAt(written + i);
+                }
+                written += count;
+            }
+        }
+
+        /**
+         * Makes room in the buffer, by writing it to the channel or by growing it.
+         */
+        private void drain() throws IOException {
+            if (channel == null) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                return;
+            }
+
+            ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, position);
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            position = 0;
+        }
+
+        /**
+         * Writes any buffered bytes to the channel.
+         */
+        void flush() throws IOException {
+            if (highSurrogate != 0) {
+                buffer[position++] = '?';
+                highSurrogate = 0;
+            }
+            drain();
+        }
+
+        ByteBuffer toByteBuffer() {
+            if (highSurrogate != 0) {
+                buffer[position++] = '?';
+                highSurrogate = 0;
+            }
+            return ByteBuffer.wrap(buffer, 0, position);
+        }
+    }
 }
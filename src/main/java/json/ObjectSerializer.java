@@ -1,19 +1,82 @@
 package json;
 
 import exceptions.SerializerException;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.*;
 
 /**
  * Serializes an Object into a JSON string or {@code JSONObject} so it can be stored in the database. Note, the default
- * behavior will include ALL the objects fields, and all its superclass fields, including private ones.
+ * behavior will include ALL the objects fields, and all its superclass fields, including private ones. Static, transient
+ * and compiler generated fields are not included.
+ * <p>
+ * The fields of a class are only looked up once. The first object of each class builds a {@link ClassMetadata} holding
+ * a {@code MethodHandle} getter and setter for every field, which is cached and reused for every later object of that
+ * class, so serializing an object costs about the same as copying a {@code Map}. {@link #fromJsonObject(JSONObject,
+ * Class)} uses the same setters to read an object back from the database.
  * <p>
  * Note, I've written this class rather than used the {@link JSONObject#JSONObject(Object)} constructor since that only
  * gets the fields exposed by getters.
  */
-class ObjectSerializer {
+public class ObjectSerializer {
+
+    /**
+     * Wrapper class of each primitive type.
+     */
+    private static final Map<Class<?>, Class<?>> BOXED = new HashMap<>();
+
+    static {
+        BOXED.put(boolean.class, Boolean.class);
+        BOXED.put(byte.class, Byte.class);
+        BOXED.put(char.class, Character.class);
+        BOXED.put(short.class, Short.class);
+        BOXED.put(int.class, Integer.class);
+        BOXED.put(long.class, Long.class);
+        BOXED.put(float.class, Float.class);
+        BOXED.put(double.class, Double.class);
+    }
+
+    /**
+     * Packages of JDK classes which may not be loaded by the bootstrap class loader, such as {@code java.sql}.
+     */
+    private static final String[] JDK_PACKAGES = {"java.", "javax.", "jdk.", "sun.", "com.sun."};
+
+    /**
+     * Fields of each class that has been serialized, built the first time an object of the class is serialized.
+     */
+    private static final ClassValue<ClassMetadata> METADATA = new ClassValue<ClassMetadata>() {
+        @Override
+        protected ClassMetadata computeValue(Class<?> type) {
+            return new ClassMetadata(type);
+        }
+    };
+
+    private static final MethodType PARSER_TYPE = MethodType.methodType(Object.class, String.class);
+
+    /**
+     * Handle which reads each JDK class from its {@code toString()}, or {@code null} if it cannot be read, found the
+     * first time a value of the class is read.
+     */
+    private static final ClassValue<MethodHandle> PARSERS = new ClassValue<MethodHandle>() {
+        @Override
+        protected MethodHandle computeValue(Class<?> type) {
+            return findParser(type);
+        }
+    };
 
     /**
      * Object we are operating on.
@@ -31,63 +94,554 @@ class ObjectSerializer {
      * Converts the object passed to the constructor to a JSON string.
      * <p>
      * It will be in the format "{"[field_name]" : [field_value], "[field_name]": [field_value]}".
+     *
+     * @throws SerializerException if the field values could not be accessed.
+     */
+    public String toJson() throws SerializerException {
+        return toJsonObject().toString();
+    }
+
+    /**
+     * Converts the object passed to the constructor to a {@code JSONObject}. Field values that are not themselves JSON
+     * values are converted too: maps become objects, collections and arrays become arrays, enums become their name, a
+     * {@code Date} becomes its time in milliseconds, any other class of the JDK, such as a {@code UUID}, becomes its
+     * {@code toString()} and any other object is serialized by its fields.
+     *
+     * @throws SerializerException if the field values could not be accessed.
+     */
+    public JSONObject toJsonObject() throws SerializerException {
+        return fieldsToJsonObject(obj);
+    }
+
+    /**
+     * Converts the objects fields to a Map.
+     *
+     * @throws SerializerException if the field values could not be accessed.
+     */
+    Map<String, Object> toMap() throws SerializerException {
+        return METADATA.get(obj.getClass()).toMap(obj);
+    }
+
+    /**
+     * Returns the cached fields of the given class.
+     *
+     * @throws SerializerException if the fields of the class could not be made accessible.
+     */
+    static ClassMetadata metadataFor(Class<?> type) throws SerializerException {
+        return METADATA.get(type);
+    }
+
+    /**
+     * Converts the given object to a {@code JSONObject}, as described by {@link #toJsonObject()}. A {@code Map} is
+     * converted entry by entry rather than by its fields.
+     *
+     * @throws SerializerException if the object is a JSON value which is not an object, such as a {@code String}, or its
+     *      field values could not be accessed.
      */
-    public String toJson() {
-        throw new UnsupportedOperationException("toJsonString has not yet been implemented");
+    public static JSONObject toJsonObject(Object obj) throws SerializerException {
+        Object value = toJsonValue(obj);
+        if (!(value instanceof JSONObject))
+            throw new SerializerException("Cannot convert a " + obj.getClass().getName() + " to a JSON object");
+
+        return (JSONObject) value;
     }
 
     /**
-     * Converts the object passed to the constructor to a {@code JSONObject}.
+     * Creates an object of the given {@code type} from the values in {@code item}, the reverse of
+     * {@link #toJsonObject(Object)}. The object is created with its no-argument constructor and then each field is set
+     * from the item value with the same name, converted to the type of the field. Fields without a value in the item are
+     * left as the constructor set them.
+     *
+     * @throws SerializerException if the type has no no-argument constructor, or a value cannot be converted to the type
+     *      of its field.
      */
-    public JSONObject toJsonObject() {
-        throw new UnsupportedOperationException("toJsonObject has not yet been implemented");
+    public static <T> T fromJsonObject(JSONObject item, Class<T> type) throws SerializerException {
+        return fromJsonObject(item, type, null);
     }
 
     /**
-     * Gets an array of {@code Fields} from {@code obj} and all its superclasses (except Object).
+     * Creates an object of the given {@code type} from the values in {@code item}, as {@link #fromJsonObject(JSONObject,
+     * Class)} does, but only sets the fields named in {@code fields}. If {@code fields} is {@code null} every field is
+     * set.
+     *
+     * @throws SerializerException if the type has no no-argument constructor, has no fields to set, such as a class of
+     *      the JDK, or a value cannot be converted to the type of its field.
      */
-    private Field[] getFields() {
-        Class<?> current = obj.getClass();
-        List<Field> fieldsList = new ArrayList<>();
+    public static <T> T fromJsonObject(JSONObject item, Class<T> type, @Nullable String[] fields)
+            throws SerializerException {
+        if (isValueType(type))
+            throw new SerializerException("Cannot read a " + type.getName() + " from a JSON object");
+
+        ClassMetadata metadata = METADATA.get(type);
+        if (metadata.size() == 0)
+            throw new SerializerException(type.getName() + " has no fields to read from a JSON object");
+        Object obj = metadata.newInstance();
 
-        // get current classes fields
-        Field[] fields = current.getDeclaredFields();
-        fieldsList.addAll(Arrays.asList(fields));
-        // get superclasses fields
-        while ((current = current.getSuperclass()) != null) {
-            Field[] f = current.getDeclaredFields();
-            fieldsList.addAll(Arrays.asList(f));
+        if (fields == null) {
+            for (int i = 0; i < metadata.size(); i++) {
+                Object value = item.opt(metadata.name(i));
+                if (value != null)
+                    metadata.set(obj, i, value);
+            }
+        } else {
+            for (String field : fields) {
+                int index = metadata.indexOf(field);
+                Object value = item.opt(field);
+                if (index >= 0 && value != null)
+                    metadata.set(obj, index, value);
+            }
         }
 
-        return fieldsList.toArray(new Field[fieldsList.size()]);
+        return type.cast(obj);
+    }
+
+    private static JSONObject fieldsToJsonObject(Object obj) {
+        ClassMetadata metadata = METADATA.get(obj.getClass());
+        Map<String, Object> values = new HashMap<>(capacityFor(metadata.size()));
+        for (int i = 0; i < metadata.size(); i++) {
+            values.put(metadata.name(i), toJsonValue(metadata.get(obj, i)));
+        }
+        return new JSONObject(values);
     }
 
     /**
-     * Converts the objects {@code Fields} to a Map.
-     * <p>
-     * Note, this changes the accessibility level of the {@code obj} fields so their value can be read.
+     * Converts a field value into a value that {@code JSONObject} will write as JSON.
+     */
+    private static Object toJsonValue(Object value) {
+        if (value == null)
+            return JSONObject.NULL;
+        if (value instanceof String || value instanceof Number || value instanceof Boolean
+                || value instanceof Character || value instanceof JSONObject || value instanceof JSONArray
+                || value == JSONObject.NULL)
+            return value;
+        if (value instanceof Enum)
+            return ((Enum<?>) value).name();
+
+        if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            Map<String, Object> converted = new HashMap<>(capacityFor(map.size()));
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                converted.put(String.valueOf(entry.getKey()), toJsonValue(entry.getValue()));
+            }
+            return new JSONObject(converted);
+        }
+        if (value instanceof Collection) {
+            JSONArray array = new JSONArray();
+            for (Object element : (Collection<?>) value) {
+                array.put(toJsonValue(element));
+            }
+            return array;
+        }
+        if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            JSONArray array = new JSONArray();
+            for (int i = 0; i < length; i++) {
+                array.put(toJsonValue(Array.get(value, i)));
+            }
+            return array;
+        }
+
+        if (value instanceof Date)
+            return ((Date) value).getTime();
+        if (isValueType(value.getClass()))
+            return value.toString();
+
+        return fieldsToJsonObject(value);
+    }
+
+    /**
+     * Returns {@code true} if the given class belongs to the JDK, so is written as a single value rather than by its
+     * fields. The fields of JDK classes are implementation details, and most of them cannot be made accessible.
+     */
+    private static boolean isValueType(Class<?> type) {
+        if (type.getClassLoader() == null)
+            return true;
+
+        String name = type.getName();
+        for (String prefix : JDK_PACKAGES) {
+            if (name.startsWith(prefix))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Converts a value read from a {@code JSONObject} to the given type of field, the reverse of {@link
+     * #toJsonValue(Object)}.
      *
-     * @throws SerializerException if the field values could not be accessed.
+     * @param type class of the field.
+     * @param genericType declared type of the field, which gives the element types of collections and maps.
+     *
+     * @throws SerializerException if the value cannot be converted.
      */
-    Map<String, Object> toMap() throws SerializerException {
-        Map<String, Object> objectMap = new HashMap<>();
+    private static Object fromJsonValue(Object value, Class<?> type, Type genericType) throws SerializerException {
+        if (value == null || value == JSONObject.NULL)
+            return null;
+        if (type.isPrimitive())
+            type = BOXED.get(type);
+
+        // objects and arrays in an Object field are read as maps and lists
+        boolean container = value instanceof JSONObject || value instanceof JSONArray;
+        if (type.isInstance(value) && !(container && type == Object.class))
+            return value;
+
+        if (value instanceof Number) {
+            Number number = (Number) value;
+            if (type == Integer.class)
+                return number.intValue();
+            if (type == Long.class)
+                return number.longValue();
+            if (type == Double.class)
+                return number.doubleValue();
+            if (type == Float.class)
+                return number.floatValue();
+            if (type == Short.class)
+                return number.shortValue();
+            if (type == Byte.class)
+                return number.byteValue();
+            if (type == BigDecimal.class)
+                return new BigDecimal(number.toString());
+            if (type == BigInteger.class)
+                return new BigDecimal(number.toString()).toBigInteger();
+        }
+        if (type == String.class)
+            return value.toString();
+        if (type == Character.class && value instanceof String && ((String) value).length() == 1)
+            return ((String) value).charAt(0);
+        if (type.isEnum() && value instanceof String)
+            return enumValue(type, (String) value);
+        if (value instanceof Number && Date.class.isAssignableFrom(type))
+            return dateValue(type, ((Number) value).longValue());
+        if (value instanceof String && isValueType(type))
+            return parseValue(type, (String) value);
+
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            if (type == Object.class || Map.class.isAssignableFrom(type))
+                return toMap(object, typeArgument(genericType, 1));
+            return fromJsonObject(object, type);
+        }
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            if (type.isArray()) {
+                Class<?> component = type.getComponentType();
+                Object result = Array.newInstance(component, array.length());
+                for (int i = 0; i < array.length(); i++) {
+                    Object element = fromJsonValue(array.opt(i), component, component);
+                    if (element != null || !component.isPrimitive())
+                        Array.set(result, i, element);
+                }
+                return result;
+            }
+            if (type == Object.class || Collection.class.isAssignableFrom(type)) {
+                Collection<Object> result = Set.class.isAssignableFrom(type) ? new LinkedHashSet<>()
+                        : new ArrayList<>(array.length());
+                Type elementType = typeArgument(genericType, 0);
+                for (int i = 0; i < array.length(); i++) {
+                    result.add(fromJsonValue(array.opt(i), rawType(elementType), elementType));
+                }
+                return result;
+            }
+        }
 
-        Field[] fields = getFields();
-        for (Field field : fields) {
+        throw new SerializerException("Cannot convert the value " + value + " to a " + type.getName());
+    }
 
+    private static Map<String, Object> toMap(JSONObject object, Type valueType) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        Iterator<?> keys = object.keys();
+        while (keys.hasNext()) {
+            String key = (String) keys.next();
+            map.put(key, fromJsonValue(object.opt(key), rawType(valueType), valueType));
+        }
+        return map;
+    }
+
+    /**
+     * Returns the constant of the enum {@code type} with the given name. The type is only known as a {@code Class<?>},
+     * so it has to be cast to a raw enum type to call {@link Enum#valueOf(Class, String)}.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object enumValue(Class<?> type, String name) {
+        try {
+            return Enum.valueOf((Class<? extends Enum>) type, name);
+        } catch (IllegalArgumentException e) {
+            throw new SerializerException("No constant " + name + " in " + type.getName(), e);
+        }
+    }
+
+    /**
+     * Returns a {@code Date}, or a subclass of it such as {@code java.sql.Timestamp}, for the given time in milliseconds.
+     */
+    private static Object dateValue(Class<?> type, long time) {
+        if (type == Date.class)
+            return new Date(time);
+
+        try {
+            return type.getConstructor(long.class).newInstance(time);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new SerializerException("Cannot convert the value " + time + " to a " + type.getName(), e);
+        }
+    }
+
+    /**
+     * Reads a JDK class written as its {@code toString()}, using the first of its {@code valueOf(String)}, {@code
+     * fromString(String)} and {@code parse(CharSequence)} methods, or its {@code String} constructor.
+     */
+    private static Object parseValue(Class<?> type, String value) {
+        MethodHandle parser = PARSERS.get(type);
+        if (parser == null)
+            throw new SerializerException("Cannot convert the value " + value + " to a " + type.getName());
+
+        try {
+            return (Object) parser.invokeExact(value);
+        } catch (Throwable e) {
+            throw new SerializerException("Cannot convert the value " + value + " to a " + type.getName(), e);
+        }
+    }
+
+    /**
+     * Returns a handle which reads the given class from a {@code String}, adapted to take a {@code String} and return
+     * an {@code Object}, or {@code null} if the class has no suitable method or constructor.
+     */
+    private static MethodHandle findParser(Class<?> type) {
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        String[] factories = {"valueOf", "fromString", "parse"};
+        Class<?>[] parameters = {String.class, String.class, CharSequence.class};
+
+        for (int i = 0; i < factories.length; i++) {
             try {
-                field.setAccessible(true);
-                Object val = field.get(obj);
+                MethodType factoryType = MethodType.methodType(type, parameters[i]);
+                return lookup.findStatic(type, factories[i], factoryType).asType(PARSER_TYPE);
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                // try the next one
+            }
+        }
+        try {
+            return lookup.findConstructor(type, MethodType.methodType(void.class, String.class)).asType(PARSER_TYPE);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the type argument at {@code index} of a parameterized type, or {@code Object} if the type has none.
+     */
+    private static Type typeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (index < arguments.length)
+                return arguments[index];
+        }
+        return Object.class;
+    }
+
+    private static Class<?> rawType(Type type) {
+        if (type instanceof Class)
+            return (Class<?>) type;
+        if (type instanceof ParameterizedType)
+            return rawType(((ParameterizedType) type).getRawType());
+        if (type instanceof GenericArrayType)
+            return Array.newInstance(rawType(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+        return Object.class;
+    }
+
+    /**
+     * Returns the initial capacity of a {@code HashMap} that can hold {@code size} entries without resizing.
+     */
+    private static int capacityFor(int size) {
+        return size * 4 / 3 + 1;
+    }
+
+    /**
+     * The serializable fields of a class, with a getter and setter for each of them, and the class's no-argument
+     * constructor if it has one. Fields declared by the class come before the
+     * fields of its superclasses, and a field hidden by a subclass field of the same name is left out.
+     */
+    static class ClassMetadata {
+
+        private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
 
-                objectMap.put(field.getName(), val);
+        private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
 
-            } catch (SecurityException e) {
-                throw new SerializerException("Could not access the field " + field.toString(), e);
-            } catch (IllegalAccessException e) {
-                throw new SerializerException("Could not access the field " + field.toString(), e);
+        private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+
+        private final Class<?> type;
+
+        private final String[] names;
+
+        private final Field[] fields;
+
+        /**
+         * Getter for each field, adapted to take and return an {@code Object} so they can all be invoked the same way.
+         */
+        private final MethodHandle[] getters;
+
+        /**
+         * Setter for each field, adapted to take an {@code Object} value. A setter is {@code null} if the field cannot be
+         * written.
+         */
+        private final MethodHandle[] setters;
+
+        /**
+         * No-argument constructor, or {@code null} if the class cannot be created without arguments.
+         */
+        private final MethodHandle constructor;
+
+        /**
+         * Index of each field, keyed by name.
+         */
+        private final Map<String, Integer> indexes;
+
+        /**
+         * @throws SerializerException if a field could not be made accessible, or a getter could not be created for it.
+         */
+        private ClassMetadata(Class<?> type) throws SerializerException {
+            this.type = type;
+            List<Field> fieldsList = new ArrayList<>();
+            Set<String> seen = new HashSet<>();
+
+            // get the classes fields, then each superclasses fields
+            for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic())
+                        continue;
+                    if (seen.add(field.getName()))
+                        fieldsList.add(field);
+                }
+            }
+
+            names = new String[fieldsList.size()];
+            fields = fieldsList.toArray(new Field[fieldsList.size()]);
+            getters = new MethodHandle[fields.length];
+            setters = new MethodHandle[fields.length];
+            indexes = new HashMap<>(capacityFor(fields.length));
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            for (int i = 0; i < fields.length; i++) {
+                Field field = fields[i];
+                names[i] = field.getName();
+                indexes.put(names[i], i);
+                try {
+                    field.setAccessible(true);
+                    getters[i] = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+                } catch (RuntimeException | IllegalAccessException e) {
+                    // includes the InaccessibleObjectException thrown for fields of a module which isn't open
+                    throw new SerializerException("Could not access the field " + field.toString(), e);
+                }
+                try {
+                    setters[i] = lookup.unreflectSetter(field).asType(SETTER_TYPE);
+                } catch (RuntimeException | IllegalAccessException e) {
+                    // final fields can't be set in every Java version
+                    setters[i] = null;
+                }
+            }
+
+            constructor = findConstructor(type, lookup);
+        }
+
+        private static MethodHandle findConstructor(Class<?> type, MethodHandles.Lookup lookup) {
+            if (type.isInterface() || Modifier.isAbstract(type.getModifiers()) || type.isArray() || type.isPrimitive())
+                return null;
+
+            try {
+                Constructor<?> constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+                return lookup.unreflectConstructor(constructor).asType(CONSTRUCTOR_TYPE);
+            } catch (NoSuchMethodException | RuntimeException | IllegalAccessException e) {
+                return null;
             }
         }
 
-        return objectMap;
+        /**
+         * Returns the number of fields.
+         */
+        int size() {
+            return names.length;
+        }
+
+        /**
+         * Returns the name of the field at {@code index}.
+         */
+        String name(int index) {
+            return names[index];
+        }
+
+        /**
+         * Returns the value of the field at {@code index} in {@code obj}, boxing primitive values.
+         *
+         * @throws SerializerException if the value could not be read.
+         */
+        Object get(Object obj, int index) throws SerializerException {
+            try {
+                return (Object) getters[index].invokeExact(obj);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new SerializerException("Could not access the field " + fields[index].toString(), e);
+            }
+        }
+
+        /**
+         * Returns the index of the field with the given name, or -1 if there is no such field.
+         */
+        int indexOf(String name) {
+            Integer index = indexes.get(name);
+            return index == null ? -1 : index;
+        }
+
+        /**
+         * Sets the field at {@code index} in {@code obj} to the JSON {@code value}, converted to the type of the field.
+         * A {@code null} value leaves a primitive field unchanged.
+         *
+         * @throws SerializerException if the field cannot be written or the value cannot be converted.
+         */
+        void set(Object obj, int index, Object value) throws SerializerException {
+            Field field = fields[index];
+            if (setters[index] == null)
+                throw new SerializerException("Could not set the field " + field.toString());
+
+            Object converted = fromJsonValue(value, field.getType(), field.getGenericType());
+            if (converted == null && field.getType().isPrimitive())
+                return;
+
+            try {
+                setters[index].invokeExact(obj, converted);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new SerializerException("Could not set the field " + field.toString(), e);
+            }
+        }
+
+        /**
+         * Creates an object of the class with its no-argument constructor.
+         *
+         * @throws SerializerException if the class has no no-argument constructor, or it threw an exception.
+         */
+        Object newInstance() throws SerializerException {
+            if (constructor == null)
+                throw new SerializerException(type.getName() + " has no no-argument constructor");
+
+            try {
+                return (Object) constructor.invokeExact();
+            } catch (Throwable e) {
+                throw new SerializerException("Could not create an instance of " + type.getName(), e);
+            }
+        }
+
+        /**
+         * Returns the values of every field in {@code obj}, keyed by field name.
+         *
+         * @throws SerializerException if a value could not be read.
+         */
+        Map<String, Object> toMap(Object obj) throws SerializerException {
+            Map<String, Object> objectMap = new HashMap<>(capacityFor(names.length));
+            for (int i = 0; i < names.length; i++) {
+                objectMap.put(names[i], get(obj, i));
+            }
+            return objectMap;
+        }
     }
 }
@@ -0,0 +1,129 @@
+package db;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static db.Utils.createItem;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link Batch} class.
+ * <p>
+ * Warning, these tests create a temporary file in the 'test/data' directory which is deleted after each test.
+ */
+public class BatchTest {
+
+    private static final String TEST_FILE_PATH = "src/test/data/batch_test.json";
+
+    @After
+    public void deleteFile() throws Exception {
+        File file = new File(TEST_FILE_PATH);
+        if (file.exists()) {
+            Utils.deleteFile(file, "BatchTest");
+        }
+
+        File log = WriteAheadLog.logFileFor(file);
+        if (log.exists()) {
+            Utils.deleteFile(log, "BatchTest");
+        }
+    }
+
+    /**
+     * Tests that every operation in a batch is applied and written to the file.
+     */
+    @Test
+    public void testCommit() throws Exception {
+        JsonDatabase db = JsonDatabase.create(TEST_FILE_PATH);
+        db.append("default", createItem("rent", 100));
+
+        List<Integer> ids = db.batch()
+                .newTable("expenses", null)
+                .append("expenses", createItem("food", 20))
+                .append("expenses", createItem("car", 250))
+                .appendValueToTable("default", 1, "paid", true)
+                .delete(1, "expenses")
+                .commit();
+
+        assertEquals(Arrays.asList(1, 2), ids);
+        assertNull(db.getTable("expenses").getItem(1));
+        assertEquals("car", db.getTable("expenses").getItem(2).getString("name"));
+        assertTrue(db.getTable("default").getItem(1).getBoolean("paid"));
+
+        assertEquals(db.toString(), new JsonDatabase(TEST_FILE_PATH).toString());
+    }
+
+    /**
+     * Tests that a batch is written to the write-ahead log as a single record, which is replayed when the database is
+     * opened again.
+     */
+    @Test
+    public void testCommitWritesOneLogRecord() throws Exception {
+        DatabaseOptions options = new DatabaseOptions().writeAheadLog(true);
+        JsonDatabase db = JsonDatabase.create(TEST_FILE_PATH, options);
+
+        Batch batch = db.batch();
+        for (int i = 0; i < 100; i++) {
+            batch.append("default", createItem("item " + i, i));
+        }
+        batch.commit();
+
+        File logFile = WriteAheadLog.logFileFor(new File(TEST_FILE_PATH));
+        assertEquals(1, new FileHelper(logFile).readLines().size());
+
+        JsonDatabase reopened = new JsonDatabase(TEST_FILE_PATH, options);
+        assertEquals(100, reopened.query("default").execute().size());
+        assertEquals(db.toString(), reopened.toString());
+    }
+
+    /**
+     * Tests that a failing operation undoes every operation before it, and nothing is written.
+     */
+    @Test
+    public void testRollback() throws Exception {
+        JsonDatabase db = JsonDatabase.create(TEST_FILE_PATH, new DatabaseOptions().writeAheadLog(true));
+        db.append("default", createItem("rent", 100));
+        db.append("default", createItem("food", 20));
+        db.createIndex("default", "cost", IndexType.ORDERED);
+        String before = db.toString();
+        FileHelper log = new FileHelper(WriteAheadLog.logFileFor(new File(TEST_FILE_PATH)));
+        long logLength = log.length();
+
+        Batch batch = db.batch()
+                .newTable("expenses", null)
+                .append("expenses", createItem("car", 250))
+                .appendValueToTable("default", 1, "paid", true)
+                .delete(2, "default")
+                .append("default", createItem("phone", 30))
+                .delete(7, "default");
+
+        try {
+            batch.commit();
+            fail("Expected the missing item to fail the batch");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        // the items are as they were, and the table keeps the id allocated to the undone append
+        assertEquals(before, db.toString().replace(",\"" + Table.SEQUENCE_KEY + "\":3", ""));
+        assertFalse(db.tableExists("expenses"));
+        assertEquals(Arrays.asList(2, 1), Arrays.asList(db.findOrdered("default", "cost", true, 10).keySet()
+                .toArray(new Integer[0])));
+        assertEquals(logLength, log.length());
+    }
+
+    /**
+     * Tests that a batch can only be committed once.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testCommitTwice() throws Exception {
+        JsonDatabase db = JsonDatabase.create(TEST_FILE_PATH);
+        Batch batch = db.batch().append("default", createItem("rent", 100));
+        batch.commit();
+
+        batch.commit();
+    }
+}
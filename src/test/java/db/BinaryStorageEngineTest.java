@@ -0,0 +1,153 @@
+package db;
+
+import exceptions.ParsingException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link BinaryStorageEngine} class.
+ * <p>
+ * Warning, these tests create a temporary file in the 'test/data' directory which is deleted after each test.
+ */
+public class BinaryStorageEngineTest {
+
+    private static final String TEST_FILE_PATH = "src/test/data/binary_test.db";
+
+    private final StorageEngine engine = new BinaryStorageEngine();
+
+    @After
+    public void deleteFile() throws Exception {
+        File file = new File(TEST_FILE_PATH);
+        if (file.exists()) {
+            Utils.deleteFile(file, "BinaryStorageEngineTest");
+        }
+    }
+
+    private byte[] write(JSONObject root) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        engine.write(root, Channels.newChannel(out));
+        return out.toByteArray();
+    }
+
+    /**
+     * Tests that every kind of value is read back as the same type as the JSON engine would return.
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        JSONObject root = new JSONObject("{\"expenses\": {\"1\": {\"name\": \"été\", \"cost\": -12, \"paid\": true," +
+                " \"rate\": 0.5, \"tags\": [\"a\", null, 3]}, \"20\": {\"name\": \"car\", \"cost\": 9999999999}}," +
+                " \"settings\": {\"owner\": null, \"nested\": {\"deep\": false}}, \"version\": 2}");
+        root.getJSONObject("settings").put("exact", new BigDecimal("1.10"));
+        root.getJSONObject("settings").put("ratio", Float.valueOf(1.1f));
+
+        byte[] bytes = write(root);
+
+        JSONObject read = engine.read(ByteBuffer.wrap(bytes));
+        assertEquals(root.toString(), read.toString());
+
+        JSONObject item = read.getJSONObject("expenses").getJSONObject("1");
+        assertEquals(Integer.valueOf(-12), item.get("cost"));
+        assertEquals(Double.valueOf(0.5), item.get("rate"));
+        assertEquals(JSONObject.NULL, item.getJSONArray("tags").get(1));
+        assertEquals(Long.valueOf(9999999999L), read.getJSONObject("expenses").getJSONObject("20").get("cost"));
+        assertEquals(new BigDecimal("1.10"), read.getJSONObject("settings").get("exact"));
+        // a float reads back as the double JSON would, not its exact binary value
+        assertEquals(Double.valueOf(1.1), read.getJSONObject("settings").get("ratio"));
+
+        // reading through a channel gives the same result
+        JSONObject fromChannel = engine.read(Channels.newChannel(new ByteArrayInputStream(bytes)));
+        assertEquals(root.toString(), fromChannel.toString());
+    }
+
+    /**
+     * Tests that a table with repeated keys is stored in fewer bytes than the same table as JSON.
+     */
+    @Test
+    public void testSmallerThanJson() throws Exception {
+        JSONObject table = new JSONObject();
+        for (int i = 1; i <= 500; i++) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("name", "item" + i);
+            item.put("amount", i * 3);
+            item.put("paid", i % 2 == 0);
+            table.put(Integer.toString(i), new JSONObject(item));
+        }
+        JSONObject root = new JSONObject();
+        root.put("items", table);
+
+        byte[] bytes = write(root);
+
+        assertTrue(bytes.length * 2 < root.toString().getBytes(FileHelper.UTF_8).length);
+        assertEquals(root.toString(), engine.read(ByteBuffer.wrap(bytes)).toString());
+    }
+
+    /**
+     * Tests that empty input is read as {@code null} and other input without the header is rejected.
+     */
+    @Test
+    public void testReadInvalid() throws Exception {
+        assertNull(engine.read(ByteBuffer.allocate(0)));
+
+        try {
+            engine.read(ByteBuffer.wrap("{\"default\": {}}".getBytes(FileHelper.UTF_8)));
+            fail("Expected a ParsingException");
+        } catch (ParsingException e) {
+            // expected
+        }
+
+        byte[] truncated = write(new JSONObject("{\"default\": {\"1\": {\"name\": \"a\"}}}"));
+        try {
+            engine.read(ByteBuffer.wrap(truncated, 0, truncated.length - 2));
+            fail("Expected a ParsingException");
+        } catch (ParsingException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that a database created with the binary engine can be changed, reopened and opened memory-mapped.
+     */
+    @Test
+    public void testDatabase() throws Exception {
+        DatabaseOptions options = new DatabaseOptions().storageEngine(engine);
+        JsonDatabase db = JsonDatabase.create(TEST_FILE_PATH, options);
+
+        Map<String, Object> values = new HashMap<>();
+        values.put("name", "rent");
+        values.put("cost", 100);
+        db.append("default", values);
+        db.newTable("other", null);
+        db.close();
+
+        JsonDatabase reopened = new JsonDatabase(TEST_FILE_PATH, options);
+        assertEquals("rent", reopened.findBy("default", "cost", 100).get(1).getString("name"));
+        assertTrue(reopened.tableExists("other"));
+        reopened.close();
+
+        JsonDatabase mapped = new JsonDatabase(TEST_FILE_PATH, new DatabaseOptions().storageEngine(engine)
+                .memoryMapped(true));
+        assertEquals(100, mapped.findBy("default", "name", "rent").get(1).getInt("cost"));
+        mapped.close();
+    }
+
+    /**
+     * Tests that lazy loading cannot be combined with a binary engine.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testLazyLoadingRejected() throws Exception {
+        Utils.createFile(TEST_FILE_PATH, "");
+        new JsonDatabase(TEST_FILE_PATH, new DatabaseOptions().storageEngine(engine).lazyLoading(true));
+    }
+}
@@ -0,0 +1,87 @@
+package db;
+
+import exceptions.ParsingException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link BlockCodec} class.
+ */
+public class BlockCodecTest {
+
+    private static byte[] readAll(ReadableByteChannel channel) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(1000);
+        while (channel.read(buffer) != -1) {
+            out.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+        channel.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] compress(byte[] data) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BlockCodec.Output output = new BlockCodec.Output(Channels.newChannel(out));
+        output.write(ByteBuffer.wrap(data));
+        output.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * Tests that contents spanning several blocks, including incompressible ones, are read back unchanged.
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        byte[] data = new byte[BlockCodec.BLOCK_SIZE * 3 + 17];
+        new Random(1).nextBytes(data);
+        Arrays.fill(data, 0, BlockCodec.BLOCK_SIZE, (byte) 'a');
+
+        byte[] compressed = compress(data);
+        assertTrue(BlockCodec.isCompressed(ByteBuffer.wrap(compressed)));
+
+        assertArrayEquals(data, readAll(BlockCodec.decompress(ByteBuffer.wrap(compressed))));
+        assertArrayEquals(data, readAll(BlockCodec.decompress(Channels.newChannel(
+                new ByteArrayInputStream(compressed)), false)));
+    }
+
+    /**
+     * Tests that blocks continuing a stream are decoded together, and that a torn final block is only ignored when
+     * reading leniently.
+     */
+    @Test
+    public void testContinuedStream() throws Exception {
+        BlockCodec.Encoder encoder = new BlockCodec.Encoder(false);
+        byte[] first = encoder.encode("{\"name\":\"rent\"}\n".getBytes(FileHelper.UTF_8), true);
+        byte[] second = encoder.encode("{\"name\":\"rent\"}\n".getBytes(FileHelper.UTF_8), false);
+        encoder.end();
+
+        // the second block refers back to the first, so it is smaller
+        assertTrue(second.length < first.length - BlockCodec.MAGIC.length);
+
+        ByteBuffer both = ByteBuffer.allocate(first.length + second.length);
+        both.put(first).put(second).flip();
+        assertEquals("{\"name\":\"rent\"}\n{\"name\":\"rent\"}\n",
+                new String(readAll(BlockCodec.decompress(both)), FileHelper.UTF_8));
+
+        byte[] torn = Arrays.copyOf(both.array(), both.limit() - 1);
+        assertEquals("{\"name\":\"rent\"}\n", new String(readAll(BlockCodec.decompress(
+                Channels.newChannel(new ByteArrayInputStream(torn)), true)), FileHelper.UTF_8));
+
+        try {
+            readAll(BlockCodec.decompress(ByteBuffer.wrap(torn)));
+            fail("Expected a ParsingException");
+        } catch (ParsingException e) {
+            // expected
+        }
+    }
+}
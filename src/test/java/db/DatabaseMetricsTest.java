@@ -0,0 +1,105 @@
+package db;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+import static db.Utils.createItem;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link DatabaseMetrics} recorded by a {@link JsonDatabase}.
+ * <p>
+ * Warning, these tests create a temporary file in the 'test/data' directory which is deleted after each test.
+ */
+public class DatabaseMetricsTest {
+
+    private static final String TEST_FILE_PATH = "src/test/data/metrics_test.json";
+
+    @After
+    public void deleteFile() throws Exception {
+        File file = new File(TEST_FILE_PATH);
+        if (file.exists()) {
+            Utils.deleteFile(file, "DatabaseMetricsTest");
+        }
+    }
+
+    /**
+     * Tests that mutations record their latency and the bytes written to the file.
+     */
+    @Test
+    public void testMutationsAreRecorded() throws Exception {
+        JsonDatabase db = JsonDatabase.create(TEST_FILE_PATH);
+        DatabaseMetrics metrics = db.getMetrics();
+
+        assertEquals(1, metrics.getLatency(DatabaseMetrics.Operation.LOAD).getCount());
+
+        db.append("default", createItem("rent", 100));
+        db.append("default", createItem("food", 20));
+        db.appendValueToTable("default", 1, "paid", true);
+        db.delete(2, "default");
+
+        assertEquals(2, metrics.getLatency(DatabaseMetrics.Operation.APPEND).getCount());
+        assertEquals(1, metrics.getLatency(DatabaseMetrics.Operation.APPEND_VALUE).getCount());
+        assertEquals(1, metrics.getLatency(DatabaseMetrics.Operation.DELETE).getCount());
+        assertEquals(4, metrics.getLatency(DatabaseMetrics.Operation.FLUSH).getCount());
+
+        // every mutation rewrote the whole file
+        long fileLength = new File(TEST_FILE_PATH).length();
+        assertTrue(metrics.getBytesWritten() > 3 * fileLength);
+        assertEquals(metrics.getBytesWritten(), metrics.getBytesSerialized());
+
+        metrics.reset();
+        assertEquals(0, metrics.getBytesWritten());
+        assertEquals(0, metrics.getLatency(DatabaseMetrics.Operation.APPEND).getCount());
+    }
+
+    /**
+     * Tests that queries record the rows they scanned and returned, and that an index avoids scanning.
+     */
+    @Test
+    public void testRowsScanned() throws Exception {
+        JsonDatabase db = JsonDatabase.create(TEST_FILE_PATH, new DatabaseOptions().writeAheadLog(true));
+        for (int i = 0; i < 10; i++) {
+            db.append("default", createItem("item" + i, i % 2));
+        }
+        DatabaseMetrics metrics = db.getMetrics();
+
+        assertEquals(5, db.query("default").where("cost", 1).execute().size());
+        assertEquals(10, metrics.getRowsScanned());
+        assertEquals(5, metrics.getRowsReturned());
+
+        db.createIndex("default", "name");
+        metrics.reset();
+        assertEquals(1, db.findBy("default", "name", "item3").size());
+        assertEquals(1, metrics.getRowsScanned());
+        assertEquals(1, metrics.getLatency(DatabaseMetrics.Operation.QUERY).getCount());
+
+        db.close();
+        Utils.deleteFile(WriteAheadLog.logFileFor(new File(TEST_FILE_PATH)), "DatabaseMetricsTest");
+    }
+
+    /**
+     * Tests that registered metrics can be read through the platform MBean server until the database is closed.
+     */
+    @Test
+    public void testMBean() throws Exception {
+        JsonDatabase db = JsonDatabase.create(TEST_FILE_PATH);
+        db.append("default", createItem("rent", 100));
+
+        ObjectName name = db.getMetrics().registerMBean("metrics-test");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        assertEquals(db.getMetrics().getBytesWritten(), server.getAttribute(name, "BytesWritten"));
+        TabularData latencies = (TabularData) server.getAttribute(name, "Latencies");
+        assertEquals(DatabaseMetrics.Operation.values().length, latencies.size());
+
+        db.close();
+        assertFalse(server.isRegistered(name));
+    }
+}
@@ -7,6 +7,7 @@ import org.junit.rules.ExpectedException;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.nio.ByteBuffer;
 
 import static db.Utils.deleteFile;
 import static org.junit.Assert.*;
@@ -68,6 +69,96 @@ public class FileHelperTest {
         Utils.deleteFile(file, "writeTest");
     }
 
+    /**
+     * Tests that {@link FileHelper#write(String)} replaces the existing contents and does not leave its temporary file
+     * behind.
+     * <p>
+     * Warning, this will create a new file at the test path which will then be deleted.
+     */
+    @Test
+    public void writeReplacesContentsTest() throws Exception {
+        File file = Utils.createFile("src/test/data/temp.json", "a much longer original contents");
+        FileHelper helper = new FileHelper(file);
+
+        try {
+            helper.write("new contents");
+
+            assertEquals("new contents", helper.read());
+            assertFalse(new File(file.getPath() + FileHelper.TEMP_EXTENSION).exists());
+        } finally {
+            Utils.deleteFile(file, "writeReplacesContentsTest");
+        }
+    }
+
+    /**
+     * Tests that {@link FileHelper#write(String)} and {@link FileHelper#append(String)} work when every write is forced.
+     * <p>
+     * Warning, this will create a new file at the test path which will then be deleted.
+     */
+    @Test
+    public void forcedWriteTest() throws Exception {
+        File file = Utils.createFile("src/test/data/temp.json", "");
+        FileHelper helper = new FileHelper(file);
+        helper.setFsyncPolicy(FsyncPolicy.ALWAYS, 0);
+
+        try {
+            helper.write("first");
+            helper.append(" second");
+
+            assertEquals("first second", helper.read());
+        } finally {
+            Utils.deleteFile(file, "forcedWriteTest");
+        }
+    }
+
+    /**
+     * Tests that a write left to the operating system by {@link FsyncPolicy#PERIODIC} is forced by the timer once the
+     * interval has passed, and that {@link FileHelper#close()} forces it straight away.
+     * <p>
+     * Warning, this will create a new file at the test path which will then be deleted.
+     */
+    @Test
+    public void periodicWriteIsForcedLaterTest() throws Exception {
+        File file = Utils.createFile("src/test/data/temp.json", "");
+        FileHelper helper = new FileHelper(file);
+
+        try {
+            helper.setFsyncPolicy(FsyncPolicy.PERIODIC, 1000);
+            helper.write("first");
+            assertTrue(helper.isForcePending());
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (helper.isForcePending() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertFalse(helper.isForcePending());
+
+            helper.setFsyncPolicy(FsyncPolicy.PERIODIC, 60000);
+            helper.append(" second");
+            assertTrue(helper.isForcePending());
+
+            helper.close();
+            assertFalse(helper.isForcePending());
+            assertEquals("first second", helper.read());
+        } finally {
+            Utils.deleteFile(file, "periodicWriteIsForcedLaterTest");
+        }
+    }
+
+    /**
+     * Tests the {@link FileHelper#map(long, long)} method.
+     */
+    @Test
+    public void mapTest() throws Exception {
+        FileHelper helper = new FileHelper(new File("src/test/data/read_test.txt"));
+
+        ByteBuffer buffer = helper.map(5, 7);
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+
+        assertEquals("of the ", new String(bytes, FileHelper.UTF_8));
+    }
+
     /**
      * Tests the {@link FileHelper#read()} method.
      */
@@ -0,0 +1,155 @@
+package db;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link GroupCommitWriter} class.
+ */
+public class GroupCommitWriterTest {
+
+    /**
+     * Sink which records each batch it is given.
+     */
+    private static class RecordingSink implements GroupCommitWriter.Sink {
+        final List<List<String>> batches = Collections.synchronizedList(new ArrayList<List<String>>());
+
+        @Override
+        public void write(List<String> entries) throws IOException {
+            batches.add(new ArrayList<>(entries));
+        }
+    }
+
+    /**
+     * Tests that entries submitted within the commit window are written with a single call to the sink.
+     */
+    @Test
+    public void testEntriesAreBatched() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        GroupCommitWriter writer = new GroupCommitWriter(sink, 200, 1024 * 1024);
+
+        List<Future<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            writes.add(writer.submit("entry " + i));
+        }
+
+        for (Future<Void> write : writes) {
+            write.get();
+        }
+        writer.close();
+
+        assertEquals(1, sink.batches.size());
+        assertEquals(10, sink.batches.get(0).size());
+        assertEquals("entry 0", sink.batches.get(0).get(0));
+        assertEquals("entry 9", sink.batches.get(0).get(9));
+    }
+
+    /**
+     * Tests that a batch is written as soon as it reaches the byte budget.
+     */
+    @Test
+    public void testBatchIsWrittenWhenByteBudgetIsReached() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        GroupCommitWriter writer = new GroupCommitWriter(sink, 10000, 10);
+
+        Future<Void> first = writer.submit("0123456789");
+        first.get();
+        writer.close();
+
+        assertEquals(1, sink.batches.size());
+    }
+
+    /**
+     * Tests that a failed write fails the future of every entry in the batch.
+     */
+    @Test
+    public void testFailedWriteFailsEveryEntry() throws Exception {
+        GroupCommitWriter writer = new GroupCommitWriter(new GroupCommitWriter.Sink() {
+            @Override
+            public void write(List<String> entries) throws IOException {
+                throw new IOException("disk full");
+            }
+        }, 0, 1024);
+
+        Future<Void> write = writer.submit("entry");
+
+        try {
+            write.get();
+            fail("Expected the write to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Tests that an {@code Error} from the sink fails the entries still queued and stops the writer accepting more.
+     */
+    @Test
+    public void testErrorStopsWriter() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        GroupCommitWriter writer = new GroupCommitWriter(new GroupCommitWriter.Sink() {
+            @Override
+            public void write(List<String> entries) throws IOException {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new OutOfMemoryError("test");
+            }
+        }, 0, 1024);
+
+        Future<Void> first = writer.submit("first");
+        writing.await();
+        Future<Void> second = writer.submit("second");
+        release.countDown();
+
+        for (Future<Void> write : Arrays.asList(first, second)) {
+            try {
+                write.get(10, TimeUnit.SECONDS);
+                fail("Expected the write to fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof OutOfMemoryError);
+            }
+        }
+
+        try {
+            writer.submit("third");
+            fail("Expected the writer to have stopped");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof OutOfMemoryError);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Tests that {@link GroupCommitWriter#close()} writes entries that were already submitted.
+     */
+    @Test
+    public void testCloseWritesPendingEntries() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        GroupCommitWriter writer = new GroupCommitWriter(sink, 10000, 1024 * 1024);
+
+        Future<Void> write = writer.submit("entry");
+        writer.close();
+
+        assertTrue(write.isDone());
+        assertEquals(1, sink.batches.size());
+    }
+}
@@ -0,0 +1,56 @@
+package db;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link HashIndex} class.
+ */
+public class HashIndexTest {
+
+    /**
+     * Tests that {@link HashIndex#find(Object)} returns every id added with the value.
+     */
+    @Test
+    public void testFind() throws Exception {
+        HashIndex index = new HashIndex("name");
+        index.add(1, "rent");
+        index.add(2, "food");
+        index.add(3, "rent");
+
+        assertEquals(new HashSet<>(Arrays.asList(1, 3)), index.find("rent"));
+        assertTrue(index.find("car").isEmpty());
+    }
+
+    /**
+     * Tests that {@link HashIndex#remove(int, Object)} removes only the given id.
+     */
+    @Test
+    public void testRemove() throws Exception {
+        HashIndex index = new HashIndex("name");
+        index.add(1, "rent");
+        index.add(3, "rent");
+
+        index.remove(1, "rent");
+
+        assertEquals(new HashSet<>(Arrays.asList(3)), index.find("rent"));
+    }
+
+    /**
+     * Tests that numbers of different types with the same value share an entry.
+     */
+    @Test
+    public void testNumbersAreNormalized() throws Exception {
+        HashIndex index = new HashIndex("cost");
+        index.add(1, 100);
+        index.add(2, 100L);
+        index.add(3, 100.5);
+
+        assertEquals(new HashSet<>(Arrays.asList(1, 2)), index.find(100.0));
+        assertEquals(new HashSet<>(Arrays.asList(3)), index.find(100.5));
+    }
+}
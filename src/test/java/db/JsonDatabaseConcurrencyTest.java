@@ -0,0 +1,224 @@
+package db;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stress tests {@link JsonDatabase} from several threads at once.
+ * <p>
+ * Warning, these tests create a temporary file in the 'test/data' directory which is deleted after each test.
+ */
+public class JsonDatabaseConcurrencyTest {
+
+    private static final String TEST_FILE_PATH = "src/test/data/concurrency_test.json";
+
+    private static final String[] TABLES = {"first", "second"};
+
+    private static final int WRITERS_PER_TABLE = 4;
+
+    private static final int READERS = 4;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void deleteFile() throws Exception {
+        executor.shutdownNow();
+
+        File file = new File(TEST_FILE_PATH);
+        if (file.exists()) {
+            Utils.deleteFile(file, "JsonDatabaseConcurrencyTest");
+        }
+
+        File log = WriteAheadLog.logFileFor(file);
+        if (log.exists()) {
+            Utils.deleteFile(log, "JsonDatabaseConcurrencyTest");
+        }
+    }
+
+    /**
+     * Tests that concurrent appends to several tables, while other threads query them, never lose or duplicate a row.
+     */
+    @Test
+    public void testConcurrentAppendsWithWriteAheadLog() throws Exception {
+        DatabaseOptions options = new DatabaseOptions().writeAheadLog(true).checkpointThreshold(16 * 1024);
+        stress(options, 250);
+    }
+
+    /**
+     * Same as {@link #testConcurrentAppendsWithWriteAheadLog()}, but every append rewrites the entire file.
+     */
+    @Test
+    public void testConcurrentAppendsWithSnapshots() throws Exception {
+        stress(new DatabaseOptions(), 15);
+    }
+
+    /**
+     * Same as {@link #testConcurrentAppendsWithWriteAheadLog()}, but appends are written by a group commit.
+     */
+    @Test
+    public void testConcurrentAppendsWithGroupCommit() throws Exception {
+        stress(new DatabaseOptions().writeAheadLog(true).groupCommit(true).checkpointThreshold(16 * 1024), 100);
+    }
+
+    /**
+     * Tests that a reader holding one table does not block a writer on another table, but does block a writer on the
+     * same table.
+     */
+    @Test
+    public void testReaderOnlyBlocksItsOwnTable() throws Exception {
+        final JsonDatabase db = createDatabase(new DatabaseOptions().writeAheadLog(true));
+        Table first = db.getTable("first");
+
+        first.getLock().readLock().lock();
+        Future<Void> sameTable;
+        try {
+            Future<Void> otherTable = executor.submit(appendTask(db, "second", 0, 1));
+            otherTable.get(5, TimeUnit.SECONDS);
+
+            sameTable = executor.submit(appendTask(db, "first", 0, 1));
+            try {
+                sameTable.get(100, TimeUnit.MILLISECONDS);
+                fail("Append should wait for the reader");
+            } catch (TimeoutException e) {
+                // expected
+            }
+        } finally {
+            first.getLock().readLock().unlock();
+        }
+
+        sameTable.get(5, TimeUnit.SECONDS);
+        assertNotNull(db.getTable("first").getItem(1));
+    }
+
+    /**
+     * Runs {@link #WRITERS_PER_TABLE} writers on every table, each appending {@code appendsPerWriter} rows, alongside
+     * {@link #READERS} threads querying the tables. Then checks every row was written exactly once, both in memory and
+     * after reopening the database.
+     */
+    private void stress(DatabaseOptions options, int appendsPerWriter) throws Exception {
+        final JsonDatabase db = createDatabase(options);
+        for (String table : TABLES) {
+            db.createIndex(table, "writer");
+        }
+
+        final CountDownLatch writersDone = new CountDownLatch(TABLES.length * WRITERS_PER_TABLE);
+        List<Future<Void>> tasks = new ArrayList<>();
+
+        for (String table : TABLES) {
+            for (int writer = 0; writer < WRITERS_PER_TABLE; writer++) {
+                final Callable<Void> append = appendTask(db, table, writer, appendsPerWriter);
+                tasks.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        try {
+                            return append.call();
+                        } finally {
+                            writersDone.countDown();
+                        }
+                    }
+                }));
+            }
+        }
+
+        for (int reader = 0; reader < READERS; reader++) {
+            final String table = TABLES[reader % TABLES.length];
+            tasks.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    int seen = 0;
+                    while (writersDone.getCount() > 0) {
+                        // the index and the rows must always agree, and rows are never lost
+                        int indexed = db.findBy(table, "writer", 0).size();
+                        int scanned = db.query(table).where("writer", value -> Integer.valueOf(0).equals(value))
+                                .execute().size();
+                        assertTrue(scanned >= indexed);
+
+                        int count = db.query(table).execute().size();
+                        assertTrue(count >= seen);
+                        seen = count;
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        for (Future<Void> task : tasks) {
+            task.get(60, TimeUnit.SECONDS);
+        }
+        db.close();
+
+        int expected = WRITERS_PER_TABLE * appendsPerWriter;
+        for (String table : TABLES) {
+            assertRows(db.getTable(table), expected, appendsPerWriter);
+        }
+
+        JsonDatabase reopened = new JsonDatabase(TEST_FILE_PATH, options);
+        for (String table : TABLES) {
+            assertRows(reopened.getTable(table), expected, appendsPerWriter);
+        }
+        reopened.close();
+    }
+
+    /**
+     * Checks the table has ids 1 to {@code expected}, with {@code perWriter} rows from each writer, each appearing once.
+     */
+    private void assertRows(Table table, int expected, int perWriter) throws Exception {
+        int[] counts = new int[WRITERS_PER_TABLE];
+        boolean[][] seen = new boolean[WRITERS_PER_TABLE][perWriter];
+
+        for (int id = 1; id <= expected; id++) {
+            JSONObject item = table.getItem(id);
+            assertNotNull("Missing id " + id, item);
+
+            int writer = item.getInt("writer");
+            int n = item.getInt("n");
+            assertFalse("Duplicate row", seen[writer][n]);
+            seen[writer][n] = true;
+            counts[writer]++;
+        }
+
+        assertNull(table.getItem(expected + 1));
+        for (int count : counts) {
+            assertEquals(perWriter, count);
+        }
+    }
+
+    private Callable<Void> appendTask(final JsonDatabase db, final String table, final int writer, final int count) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                for (int n = 0; n < count; n++) {
+                    Map<String, Object> values = new HashMap<>();
+                    values.put("writer", writer);
+                    values.put("n", n);
+                    db.append(table, values);
+                }
+                return null;
+            }
+        };
+    }
+
+    private JsonDatabase createDatabase(DatabaseOptions options) throws Exception {
+        JsonDatabase db = JsonDatabase.create(TEST_FILE_PATH, options);
+        for (String table : TABLES) {
+            db.newTable(table, null);
+        }
+        return db;
+    }
+}
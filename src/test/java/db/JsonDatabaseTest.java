@@ -1,5 +1,6 @@
 package db;
 
+import org.json.JSONObject;
 import org.junit.After;
 import org.junit.Rule;
 import org.junit.Test;
@@ -7,9 +8,16 @@ import org.junit.rules.ExpectedException;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
+import static db.Utils.createItem;
 import static org.junit.Assert.*;
 
 /**
@@ -33,6 +41,11 @@ public class JsonDatabaseTest {
         if (file.exists()) {
             Utils.deleteFile(file, "JsonDatabaseTest");
         }
+
+        File log = WriteAheadLog.logFileFor(file);
+        if (log.exists()) {
+            Utils.deleteFile(log, "JsonDatabaseTest");
+        }
     }
 
     @Test
@@ -43,6 +56,13 @@ public class JsonDatabaseTest {
         assertArrayEquals(expected, tables);
     }
 
+    @Test
+    public void memoryMapped_database_matches_buffered_database() throws Exception {
+        JsonDatabase mapped = new JsonDatabase("src/test/data/test_data.json", new DatabaseOptions().memoryMapped(true));
+
+        assertEquals(db.toString(), mapped.toString());
+    }
+
     @Test
     public void tableExists_returns_true_when_table_exists() throws Exception {
         assertTrue(db.tableExists("default"));
@@ -108,6 +128,11 @@ public class JsonDatabaseTest {
         assertEquals(expected, table.toString());
     }
 
+    @Test
+    public void getTable_returns_same_table_each_time() throws Exception {
+        assertSame(db.getTable("default"), db.getTable("default"));
+    }
+
     @Test
     public void getTable_throws_exception_when_table_does_not_exist() throws Exception {
         expected.expect(IllegalArgumentException.class);
@@ -163,7 +188,7 @@ public class JsonDatabaseTest {
         File file = Utils.createFile(TEST_FILE_PATH, "{\"default\":{\"1\": {\"hello\":\"world\"}}}");
         JsonDatabase db = new JsonDatabase(file);
 
-        String expected = "{\"default\":{\"1\":{\"test\":\"new value\",\"hello\":\"world\"}}}";
+        String expected = "{\"default\":{\"1\":{\"hello\":\"world\",\"test\":\"new value\"}}}";
         db.appendValueToTable("default", 1, "test", "new value");
 
         assertEquals(expected, db.toString());
@@ -179,6 +204,452 @@ public class JsonDatabaseTest {
         db.appendValueToTable("invalid", 1, "test", "testing");
     }
 
+    @Test
+    public void open_accepts_relaxed_json_syntax() throws Exception {
+        File file = Utils.createFile(TEST_FILE_PATH, "{default: {'1': {name: 'rent'; cost = 100,},}}");
+        JsonDatabase db = new JsonDatabase(file);
+
+        Expense expense = db.get("default", 1, Expense.class);
+        assertEquals("rent", expense.name);
+        assertEquals(100, expense.cost);
+    }
+
+    @Test
+    public void insert_and_get_keep_date_and_uuid_fields() throws Exception {
+        JsonDatabase db = createNewDbFile(TEST_FILE_PATH);
+        Event event = new Event(new Date(1234567890L), UUID.randomUUID());
+
+        int id = db.insert("default", event);
+
+        Event actual = new JsonDatabase(TEST_FILE_PATH).get("default", id, Event.class);
+        assertEquals(event.when, actual.when);
+        assertEquals(event.uuid, actual.uuid);
+    }
+
+    @Test
+    public void append_saves_other_objects_as_their_string() throws Exception {
+        JsonDatabase db = createNewDbFile(TEST_FILE_PATH);
+        Date date = new Date(0);
+        UUID uuid = UUID.randomUUID();
+        Map<String, Object> values = new HashMap<>();
+        values.put("when", date);
+        values.put("uuid", uuid);
+
+        db.append("default", values);
+        db.append("default", createItem("rent", 100));
+
+        Table table = new JsonDatabase(TEST_FILE_PATH).getTable("default");
+        assertEquals(date.toString(), table.getItem(1).getString("when"));
+        assertEquals(uuid.toString(), table.getItem(1).getString("uuid"));
+        assertEquals("rent", table.getItem(2).getString("name"));
+    }
+
+    @Test
+    public void delete_removes_item_from_table() throws Exception {
+        File file = Utils.createFile(TEST_FILE_PATH, "{\"default\": {\"2\": {\"name\":\"test\"} } }");
+        JsonDatabase db = new JsonDatabase(file);
+
+        db.delete(2, "default");
+
+        assertEquals("{\"default\":{\"__sequence__\":2}}", db.toString());
+    }
+
+    @Test
+    public void append_does_not_reuse_deleted_ids_after_reopening() throws Exception {
+        JsonDatabase db = createNewDbFile(TEST_FILE_PATH);
+        for (int i = 0; i < 3; i++) {
+            db.append("default", createItem("rent", i));
+        }
+        db.delete(3, "default");
+
+        new JsonDatabase(TEST_FILE_PATH).append("default", createItem("food", 20));
+
+        Table table = new JsonDatabase(TEST_FILE_PATH).getTable("default");
+        assertNull(table.getItem(3));
+        assertEquals("food", table.getItem(4).getString("name"));
+    }
+
+    @Test
+    public void writeAheadLog_append_does_not_rewrite_file() throws Exception {
+        File file = Utils.createFile(TEST_FILE_PATH, "{\"default\":{}}");
+        JsonDatabase db = new JsonDatabase(file, new DatabaseOptions().writeAheadLog(true));
+
+        db.append("default", createValuesMap());
+
+        assertEquals("{\"default\":{}}", new FileHelper(file).read());
+        assertTrue(WriteAheadLog.logFileFor(file).length() > 0);
+    }
+
+    @Test
+    public void writeAheadLog_is_replayed_when_database_is_reopened() throws Exception {
+        File file = Utils.createFile(TEST_FILE_PATH, "{\"default\":{}}");
+        JsonDatabase db = new JsonDatabase(file, new DatabaseOptions().writeAheadLog(true));
+
+        db.newTable("test", null);
+        db.append("test", createValuesMap());
+        db.append("test", createValuesMap());
+        db.appendValueToTable("test", 1, "third key", "third value");
+        db.delete(2, "test");
+        db.dropTable("default");
+
+        JsonDatabase reopened = new JsonDatabase(file, new DatabaseOptions().writeAheadLog(true));
+
+        assertEquals(db.toString(), reopened.toString());
+    }
+
+    @Test
+    public void writeAheadLog_is_folded_into_file_when_opened_without_log() throws Exception {
+        File file = Utils.createFile(TEST_FILE_PATH, "{\"default\":{}}");
+        JsonDatabase db = new JsonDatabase(file, new DatabaseOptions().writeAheadLog(true));
+        db.append("default", createValuesMap());
+
+        JsonDatabase reopened = new JsonDatabase(file);
+
+        assertEquals(db.toString(), new FileHelper(file).read());
+        assertEquals(db.toString(), reopened.toString());
+        assertFalse(WriteAheadLog.logFileFor(file).exists());
+    }
+
+    @Test
+    public void checkpoint_writes_file_and_clears_log() throws Exception {
+        File file = Utils.createFile(TEST_FILE_PATH, "{\"default\":{}}");
+        JsonDatabase db = new JsonDatabase(file, new DatabaseOptions().writeAheadLog(true));
+        db.append("default", createValuesMap());
+
+        db.checkpoint();
+
+        assertEquals(db.toString(), new FileHelper(file).read());
+        assertEquals(0, WriteAheadLog.logFileFor(file).length());
+    }
+
+    @Test
+    public void groupCommit_persists_appends_from_concurrent_threads() throws Exception {
+        File file = Utils.createFile(TEST_FILE_PATH, "{\"default\":{}}");
+        DatabaseOptions options = new DatabaseOptions().writeAheadLog(true).groupCommit(true);
+        final JsonDatabase db = new JsonDatabase(file, options);
+
+        Thread[] threads = new Thread[4];
+        final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 25; j++) {
+                            db.append("default", createValuesMap());
+                        }
+                    } catch (Exception e) {
+                        failures.add(e);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        db.close();
+
+        assertTrue(failures.isEmpty());
+        assertEquals(100, new FileHelper(WriteAheadLog.logFileFor(file)).readLines().size());
+
+        JsonDatabase reopened = new JsonDatabase(file, options);
+        reopened.close();
+
+        assertEquals(db.toString(), reopened.toString());
+        assertEquals(100, db.getTable("default").getNextId() - 1);
+    }
+
+    @Test
+    public void findBy_returns_matching_items_from_index() throws Exception {
+        JsonDatabase db = createNewDbFile(TEST_FILE_PATH);
+        db.createIndex("default", "name");
+
+        db.append("default", createItem("rent", 100));
+        db.append("default", createItem("food", 20));
+        db.append("default", createItem("rent", 110));
+
+        Map<Integer, JSONObject> found = db.findBy("default", "name", "rent");
+
+        assertEquals(Arrays.asList(1, 3), new ArrayList<>(found.keySet()));
+        assertEquals(110, found.get(3).getInt("cost"));
+    }
+
+    @Test
+    public void findBy_index_is_updated_by_mutations() throws Exception {
+        JsonDatabase db = createNewDbFile(TEST_FILE_PATH);
+        db.append("default", createItem("rent", 100));
+        db.append("default", createItem("food", 20));
+        db.createIndex("default", "name");
+
+        db.delete(1, "default");
+        db.appendValueToTable("default", 2, "category", "bills");
+        db.createIndex("default", "category");
+
+        assertTrue(db.findBy("default", "name", "rent").isEmpty());
+        assertEquals(1, db.findBy("default", "name", "food").size());
+        assertEquals(1, db.findBy("default", "category", "bills").size());
+    }
+
+    @Test
+    public void findBy_without_index_scans_table() throws Exception {
+        Map<Integer, JSONObject> found = db.findBy("events", "id", 1899);
+
+        assertEquals(1, found.size());
+        assertEquals("second event", found.get(2).getString("name"));
+    }
+
+    @Test
+    public void createIndex_throws_exception_if_field_already_indexed() throws Exception {
+        db.createIndex("events", "id");
+
+        expected.expect(IllegalArgumentException.class);
+
+        db.createIndex("events", "id");
+    }
+
+    @Test
+    public void findRange_returns_items_ordered_by_value() throws Exception {
+        JsonDatabase db = createCostsDb();
+        db.createIndex("default", "cost", IndexType.ORDERED);
+
+        Map<Integer, JSONObject> found = db.findRange("default", "cost", 20, 150);
+
+        assertEquals(Arrays.asList(2, 4, 1), new ArrayList<>(found.keySet()));
+    }
+
+    @Test
+    public void findRange_without_index_matches_indexed_result() throws Exception {
+        JsonDatabase db = createCostsDb();
+        Map<Integer, JSONObject> scanned = db.findRange("default", "cost", 20, null);
+
+        db.createIndex("default", "cost", IndexType.ORDERED);
+        Map<Integer, JSONObject> indexed = db.findRange("default", "cost", 20, null);
+
+        assertEquals(new ArrayList<>(indexed.keySet()), new ArrayList<>(scanned.keySet()));
+    }
+
+    @Test
+    public void findOrdered_returns_top_items() throws Exception {
+        JsonDatabase db = createCostsDb();
+        db.createIndex("default", "cost", IndexType.ORDERED);
+
+        Map<Integer, JSONObject> top = db.findOrdered("default", "cost", false, 2);
+
+        assertEquals(Arrays.asList(3, 1), new ArrayList<>(top.keySet()));
+    }
+
+    @Test
+    public void min_and_max_follow_mutations() throws Exception {
+        JsonDatabase db = createCostsDb();
+        db.createIndex("default", "cost", IndexType.ORDERED);
+
+        db.delete(3, "default");
+        db.append("default", createItem("coffee", 2));
+
+        assertEquals(2L, db.min("default", "cost"));
+        assertEquals(100L, db.max("default", "cost"));
+    }
+
+    @Test
+    public void lazyLoading_writes_table_directory_and_reopens() throws Exception {
+        DatabaseOptions options = new DatabaseOptions().lazyLoading(true);
+        JsonDatabase db = JsonDatabase.create(TEST_FILE_PATH, options);
+        db.newTable("expenses", null);
+        db.append("expenses", createItem("rent", 100));
+
+        assertTrue(new FileHelper(new File(TEST_FILE_PATH)).read().startsWith("{\"" + TableDirectory.KEY + "\":"));
+
+        JsonDatabase reopened = new JsonDatabase(TEST_FILE_PATH, options);
+        List<String> names = Arrays.asList(reopened.tableNames());
+
+        assertEquals(2, names.size());
+        assertTrue(names.containsAll(Arrays.asList("default", "expenses")));
+        assertTrue(reopened.tableExists("expenses"));
+        assertEquals("rent", reopened.getTable("expenses").getItem(1).getString("name"));
+    }
+
+    @Test
+    public void lazyLoading_keeps_unloaded_tables_when_writing() throws Exception {
+        DatabaseOptions options = new DatabaseOptions().lazyLoading(true);
+        JsonDatabase db = JsonDatabase.create(TEST_FILE_PATH, options);
+        db.newTable("expenses", null);
+        db.append("expenses", createItem("rent", 100));
+        db.append("default", createItem("food", 20));
+
+        // only touches the default table
+        JsonDatabase reopened = new JsonDatabase(TEST_FILE_PATH, options);
+        reopened.append("default", createItem("car", 250));
+
+        JsonDatabase eager = new JsonDatabase(TEST_FILE_PATH);
+        assertFalse(eager.tableExists(TableDirectory.KEY));
+        assertEquals("rent", eager.getTable("expenses").getItem(1).getString("name"));
+        assertEquals("car", eager.getTable("default").getItem(2).getString("name"));
+        assertEquals(eager.toString(), reopened.toString());
+    }
+
+    @Test
+    public void lazyLoading_replays_log_into_unloaded_tables() throws Exception {
+        DatabaseOptions options = new DatabaseOptions().lazyLoading(true);
+        JsonDatabase db = JsonDatabase.create(TEST_FILE_PATH, options);
+        db.newTable("expenses", null);
+        db.close();
+
+        JsonDatabase logged = new JsonDatabase(TEST_FILE_PATH, new DatabaseOptions().lazyLoading(true)
+                .writeAheadLog(true));
+        logged.append("expenses", createItem("rent", 100));
+        logged.dropTable("default");
+
+        JsonDatabase reopened = new JsonDatabase(TEST_FILE_PATH, options);
+
+        assertArrayEquals(new String[] {"expenses"}, reopened.tableNames());
+        assertEquals("rent", reopened.getTable("expenses").getItem(1).getString("name"));
+    }
+
+    @Test
+    public void compression_writes_compressed_file_readable_by_any_options() throws Exception {
+        DatabaseOptions options = new DatabaseOptions().compression(Compression.DEFLATE);
+        JsonDatabase db = JsonDatabase.create(TEST_FILE_PATH, options);
+        for (int i = 0; i < 50; i++) {
+            db.append("default", createItem("rent", i));
+        }
+
+        assertTrue(BlockCodec.isCompressed(new FileHelper(new File(TEST_FILE_PATH))));
+        assertTrue(new File(TEST_FILE_PATH).length() * 2 < db.toString().length());
+
+        assertEquals(db.toString(), new JsonDatabase(TEST_FILE_PATH).toString());
+        assertEquals(db.toString(), new JsonDatabase(TEST_FILE_PATH, new DatabaseOptions().memoryMapped(true))
+                .toString());
+
+        // writing without compression turns it back into plain JSON
+        JsonDatabase plain = new JsonDatabase(TEST_FILE_PATH);
+        plain.append("default", createItem("food", 20));
+        assertEquals(new JSONObject(plain.toString()).toString(),
+                new JSONObject(new FileHelper(new File(TEST_FILE_PATH)).read()).toString());
+    }
+
+    @Test
+    public void compression_replays_compressed_log() throws Exception {
+        DatabaseOptions options = new DatabaseOptions().compression(Compression.DEFLATE).writeAheadLog(true);
+        JsonDatabase db = JsonDatabase.create(TEST_FILE_PATH, options);
+        db.append("default", createItem("rent", 100));
+        db.append("default", createItem("food", 20));
+        db.close();
+
+        JsonDatabase reopened = new JsonDatabase(TEST_FILE_PATH, new DatabaseOptions().writeAheadLog(true));
+        assertEquals(db.toString(), reopened.toString());
+        reopened.close();
+    }
+
+    @Test
+    public void insert_and_get_round_trip_an_object() throws Exception {
+        JsonDatabase db = createNewDbFile(TEST_FILE_PATH);
+        Expense rent = new Expense("rent", 100, Arrays.asList("home", "monthly"));
+
+        int id = db.insert("default", rent);
+        Expense actual = db.get("default", id, Expense.class);
+
+        assertEquals(rent, actual);
+        assertNull(db.get("default", id + 1, Expense.class));
+
+        // reading the file back gives the same object
+        assertEquals(rent, new JsonDatabase(TEST_FILE_PATH).get("default", id, Expense.class));
+    }
+
+    @Test
+    public void query_execute_reads_matches_into_objects() throws Exception {
+        JsonDatabase db = createNewDbFile(TEST_FILE_PATH);
+        db.insert("default", new Expense("rent", 100, Collections.<String>emptyList()));
+        db.insert("default", new Expense("food", 20, Collections.singletonList("weekly")));
+        db.insert("default", new Expense("car", 250, Collections.<String>emptyList()));
+
+        Map<Integer, Expense> actual = db.query("default").whereBetween("cost", 50, null).orderBy("cost")
+                .execute(Expense.class);
+
+        assertEquals(Arrays.asList(1, 3), new ArrayList<>(actual.keySet()));
+        assertEquals("car", actual.get(3).name);
+
+        // only the selected fields are set
+        Expense food = db.query("default").where("name", "food").select("cost").execute(Expense.class).get(2);
+        assertNull(food.name);
+        assertEquals(20, food.cost);
+    }
+
+    @Test
+    public void write_only_serializes_changed_tables() throws Exception {
+        JsonDatabase db = createCostsDb();
+        db.newTable("cold", createValuesMap());
+        db.append("default", createItem("gym", 40));
+
+        Table cold = db.getTable("cold");
+        Table hot = db.getTable("default");
+        assertFalse(cold.isDirty());
+        assertFalse(hot.isDirty());
+        byte[] coldText = cold.serialized().array();
+
+        db.appendValueToTable("default", 1, "paid", true);
+
+        // only the changed table was serialized again, and the file matches the database
+        assertSame(coldText, cold.serialized().array());
+        assertFalse(hot.isDirty());
+        assertEquals(new JSONObject(db.toString()).toString(), new JsonDatabase(TEST_FILE_PATH).toString());
+        assertTrue(new JsonDatabase(TEST_FILE_PATH).findBy("default", "paid", true).containsKey(1));
+    }
+
+    @Test
+    public void rowStorage_off_heap_matches_heap() throws Exception {
+        DatabaseOptions options = new DatabaseOptions().lazyLoading(true).rowStorage(RowStorage.MAPPED);
+        JsonDatabase db = JsonDatabase.create(TEST_FILE_PATH, options);
+        db.newTable("expenses", createValuesMap());
+        db.createIndex("default", "name");
+        for (int i = 0; i < 20; i++) {
+            db.append("default", createItem(i % 2 == 0 ? "rent" : "food", i));
+        }
+        db.appendValueToTable("default", 2, "paid", true);
+        db.delete(3, "default");
+
+        try (Snapshot snapshot = db.snapshot()) {
+            db.appendValueToTable("default", 4, "paid", false);
+            assertFalse(snapshot.getItem("default", 4).has("paid"));
+        }
+
+        assertTrue(db.getTable("default").getItem(2).getBoolean("paid"));
+        assertFalse(db.getTable("default").getItem(4).getBoolean("paid"));
+        assertEquals(9, db.findBy("default", "name", "rent").size());
+
+        // the tables are parsed straight off the heap when reopened, and match a database read onto the heap
+        JsonDatabase reopened = new JsonDatabase(TEST_FILE_PATH, options);
+        assertEquals(db.toString(), reopened.toString());
+        assertEquals(db.toString(), new JsonDatabase(TEST_FILE_PATH).toString());
+        assertEquals("first value", reopened.getTable("expenses").getValue("first key"));
+    }
+
+    @Test
+    public void rowCache_keeps_items_read_off_heap() throws Exception {
+        DatabaseOptions options = new DatabaseOptions().rowStorage(RowStorage.DIRECT).rowCacheBytes(64 * 1024);
+        JsonDatabase db = JsonDatabase.create(TEST_FILE_PATH, options);
+        db.append("default", createItem("rent", 100));
+
+        Table table = db.getTable("default");
+        JSONObject first = table.getItem(1);
+        assertSame(first, table.getItem(1));
+        assertEquals(1, db.getMetrics().getRowCacheHits());
+
+        // a change is never hidden by the cached item
+        db.appendValueToTable("default", 1, "paid", true);
+        assertTrue(table.getItem(1).getBoolean("paid"));
+        assertEquals(100, db.get("default", 1, Expense.class).cost);
+    }
+
+    private JsonDatabase createCostsDb() throws IOException {
+        JsonDatabase db = createNewDbFile(TEST_FILE_PATH);
+        db.append("default", createItem("rent", 100));
+        db.append("default", createItem("food", 20));
+        db.append("default", createItem("car", 250));
+        db.append("default", createItem("phone", 30));
+        return db;
+    }
+
     private JsonDatabase createNewDbFile(String path) throws IOException {
         return JsonDatabase.create(path);
     }
@@ -190,6 +661,46 @@ public class JsonDatabaseTest {
         return map;
     }
 
+    private static class Event {
+        private Date when;
+        private UUID uuid;
 
+        private Event() {
+        }
 
-}
\ No newline at end of file
+        Event(Date when, UUID uuid) {
+            this.when = when;
+            this.uuid = uuid;
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private static class Expense {
+        private String name;
+        private int cost;
+        private List<String> tags;
+
+        private Expense() {
+        }
+
+        Expense(String name, int cost, List<String> tags) {
+            this.name = name;
+            this.cost = cost;
+            this.tags = tags;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Expense))
+                return false;
+
+            Expense other = (Expense) o;
+            return name.equals(other.name) && cost == other.cost && tags.equals(other.tags);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode() * 31 + cost;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package db;
+
+import exceptions.ParsingException;
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link JsonStreamParser} class.
+ */
+public class JsonStreamParserTest {
+
+    @Rule
+    public ExpectedException expected = ExpectedException.none();
+
+    /**
+     * Tests that values are parsed into the same types as {@link JSONObject#JSONObject(String)}.
+     */
+    @Test
+    public void testParseMatchesJSONObject() throws Exception {
+        String json = "{\"int\":1,\"long\":12345678901,\"double\":1.5,\"exp\":1e3,\"bool\":true,\"null\":null," +
+                "\"string\":\"a \\\"quoted\\\" \\u00e9\\n\",\"array\":[1,\"two\",{}],\"object\":{\"nested\":false}}";
+
+        JSONObject actual = parse(json);
+        JSONObject expected = new JSONObject(json);
+
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals(Integer.class, actual.get("int").getClass());
+        assertEquals(Long.class, actual.get("long").getClass());
+        assertEquals(Double.class, actual.get("exp").getClass());
+        assertSame(JSONObject.NULL, actual.get("null"));
+    }
+
+    /**
+     * Tests that the relaxed syntax {@link JSONObject#JSONObject(String)} accepts is parsed the same way, so files
+     * written by hand before the parser was added can still be opened.
+     */
+    @Test
+    public void testParseRelaxedSyntax() throws Exception {
+        String json = "{a b : x y, 'c':'d\\'e\\x41', f=>[1,,2;], 3=4; h: 012, i: 0x1F, j: -1.5e2, k: True,}";
+
+        JSONObject actual = parse(json);
+
+        assertEquals(new JSONObject(json).toString(), actual.toString());
+        assertEquals("d'eA", actual.getString("c"));
+        assertTrue(actual.getJSONArray("f").isNull(1));
+    }
+
+    /**
+     * Tests that multi-byte UTF-8 characters are decoded.
+     */
+    @Test
+    public void testParseUtf8() throws Exception {
+        JSONObject actual = parse("{\"name\":\"café € 😀\"}");
+
+        assertEquals("café € 😀", actual.getString("name"));
+    }
+
+    /**
+     * Tests input larger than the parser's buffer, so values are split across reads.
+     */
+    @Test
+    public void testParseAcrossBuffers() throws Exception {
+        StringBuilder builder = new StringBuilder("{");
+        int items = 5000;
+        for (int i = 1; i <= items; i++) {
+            if (i > 1)
+                builder.append(',');
+            builder.append("\"").append(i).append("\":{\"name\":\"item é ").append(i).append("\",\"cost\":")
+                    .append(i * 1.5).append('}');
+        }
+        builder.append('}');
+
+        JSONObject actual = parse(builder.toString());
+
+        assertEquals(items, actual.length());
+        assertEquals("item é 4321", actual.getJSONObject("4321").getString("name"));
+        assertEquals(4321 * 1.5, actual.getJSONObject("4321").getDouble("cost"), 0);
+    }
+
+    /**
+     * Tests parsing the remaining bytes of a {@code ByteBuffer}.
+     */
+    @Test
+    public void testParseByteBuffer() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap("xx{\"name\":\"rent\"}".getBytes("UTF-8"));
+        buffer.position(2);
+
+        JSONObject actual = new JsonStreamParser(buffer).parseObject();
+
+        assertEquals("rent", actual.getString("name"));
+        assertEquals(2, buffer.position());
+    }
+
+    /**
+     * Tests that empty input is reported by {@link JsonStreamParser#atEnd()}.
+     */
+    @Test
+    public void testAtEnd() throws Exception {
+        assertTrue(parser(" \n\t").atEnd());
+        assertFalse(parser(" {}").atEnd());
+    }
+
+    /**
+     * Tests that invalid JSON throws a {@code ParsingException}.
+     */
+    @Test
+    public void testInvalidJson() throws Exception {
+        expected.expect(ParsingException.class);
+
+        parse("{\"name\":\"unterminated}");
+    }
+
+    private static JSONObject parse(String json) throws Exception {
+        return parser(json).parseObject();
+    }
+
+    private static JsonStreamParser parser(String json) throws Exception {
+        byte[] bytes = json.getBytes("UTF-8");
+        return new JsonStreamParser(Channels.newChannel(new ByteArrayInputStream(bytes)));
+    }
+}
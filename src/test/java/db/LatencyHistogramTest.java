@@ -0,0 +1,55 @@
+package db;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link LatencyHistogram} class.
+ */
+public class LatencyHistogramTest {
+
+    /**
+     * Tests that every duration falls inside the bounds of its bucket, and buckets are ordered.
+     */
+    @Test
+    public void testBuckets() {
+        long[] durations = {0, 1, 7, 8, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE};
+        int previous = -1;
+
+        for (long nanos : durations) {
+            int bucket = LatencyHistogram.bucketFor(nanos);
+            assertTrue(bucket >= previous);
+            assertTrue(nanos <= LatencyHistogram.upperBound(bucket));
+            if (bucket > 0)
+                assertTrue(nanos > LatencyHistogram.upperBound(bucket - 1));
+            previous = bucket;
+        }
+    }
+
+    /**
+     * Tests the statistics of a set of recorded durations.
+     */
+    @Test
+    public void testStatistics() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getP99Nanos());
+
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(50500, histogram.getMeanNanos());
+        assertEquals(100000, histogram.getMaxNanos());
+
+        // percentiles are accurate to within an eighth
+        long median = histogram.getP50Nanos();
+        assertTrue(median >= 50000 && median <= 50000 * 9 / 8);
+        assertEquals(100000, histogram.getPercentileNanos(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxNanos());
+    }
+}
@@ -0,0 +1,92 @@
+package db;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link OrderedIndex} class.
+ */
+public class OrderedIndexTest {
+
+    /**
+     * Tests that {@link OrderedIndex#range(Object, Object)} returns only the values inside the bounds, in order.
+     */
+    @Test
+    public void testRange() throws Exception {
+        OrderedIndex index = createIndex();
+
+        List<Object> values = new ArrayList<>(index.range(20, 110).keySet());
+
+        assertEquals(Arrays.<Object>asList(20L, 100L, 110L), values);
+    }
+
+    /**
+     * Tests that an open lower bound skips null values.
+     */
+    @Test
+    public void testOpenRangeSkipsNull() throws Exception {
+        OrderedIndex index = createIndex();
+        index.add(6, null);
+
+        assertFalse(index.range(null, null).containsKey(JSONObject.NULL));
+        assertTrue(index.range(JSONObject.NULL, null).containsKey(JSONObject.NULL));
+    }
+
+    /**
+     * Tests the {@link OrderedIndex#min()} and {@link OrderedIndex#max()} methods.
+     */
+    @Test
+    public void testMinMax() throws Exception {
+        OrderedIndex index = createIndex();
+        index.add(6, null);
+
+        assertEquals(5L, index.min());
+        assertEquals(250L, index.max());
+    }
+
+    /**
+     * Tests that items with the same value are kept in id order.
+     */
+    @Test
+    public void testEqualValuesOrderedById() throws Exception {
+        OrderedIndex index = createIndex();
+        index.add(0, 100);
+
+        Set<Integer> ids = index.find(100.0);
+
+        assertEquals(Arrays.asList(0, 1), new ArrayList<>(ids));
+    }
+
+    /**
+     * Tests that values of different types are ordered booleans, numbers, then strings.
+     */
+    @Test
+    public void testMixedTypeOrder() throws Exception {
+        OrderedIndex index = new OrderedIndex("value");
+        index.add(1, "a");
+        index.add(2, 3.5);
+        index.add(3, true);
+        index.add(4, 2);
+
+        List<Object> values = new ArrayList<>(index.range(null, null).keySet());
+
+        assertEquals(Arrays.<Object>asList(true, 2L, 3.5, "a"), values);
+    }
+
+    private OrderedIndex createIndex() {
+        OrderedIndex index = new OrderedIndex("cost");
+        index.add(1, 100);
+        index.add(2, 20);
+        index.add(3, 250);
+        index.add(4, 5);
+        index.add(5, 110L);
+        return index;
+    }
+}
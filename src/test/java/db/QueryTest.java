@@ -0,0 +1,165 @@
+package db;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link Query} class.
+ * <p>
+ * Warning, running these tests will create a temporary file in the 'test/data' directory, which is deleted after each
+ * test.
+ */
+public class QueryTest {
+
+    private static final String TEST_FILE_PATH = "src/test/data/query_test.json";
+
+    @Rule
+    public ExpectedException expected = ExpectedException.none();
+
+    private JsonDatabase db;
+
+    @Before
+    public void createDatabase() throws Exception {
+        db = JsonDatabase.create(TEST_FILE_PATH);
+        db.newTable("expenses", null);
+
+        append("rent", 500, "bills");
+        append("food", 60, "shopping");
+        append("car", 250, "bills");
+        append("phone", 30, "bills");
+        append("cinema", 15, "fun");
+        append("gift", null, "fun");
+    }
+
+    @After
+    public void deleteFile() throws Exception {
+        Utils.deleteFile(TEST_FILE_PATH, "QueryTest");
+    }
+
+    /**
+     * Tests that equality conditions return the matching items in id order.
+     */
+    @Test
+    public void testWhere() throws Exception {
+        Map<Integer, JSONObject> result = db.query("expenses").where("category", "bills").execute();
+
+        assertEquals(Arrays.asList(1, 3, 4), ids(result));
+    }
+
+    /**
+     * Tests that the same results are returned with and without an index on the condition field.
+     */
+    @Test
+    public void testWhereUsesIndex() throws Exception {
+        Query query = db.query("expenses").where("category", "bills").whereBetween("cost", 100, null);
+        List<Integer> scanned = ids(query.execute());
+
+        db.createIndex("expenses", "category");
+
+        assertEquals(Arrays.asList(1, 3), ids(query.execute()));
+        assertEquals(scanned, ids(query.execute()));
+    }
+
+    /**
+     * Tests order by with a limit, with and without an ordered index on the field.
+     */
+    @Test
+    public void testOrderByWithLimit() throws Exception {
+        Query query = db.query("expenses").orderBy("cost", false).limit(3);
+        assertEquals(Arrays.asList(1, 3, 2), ids(query.execute()));
+
+        db.createIndex("expenses", "cost", IndexType.ORDERED);
+        assertEquals(Arrays.asList(1, 3, 2), ids(query.execute()));
+    }
+
+    /**
+     * Tests that items without a value for the order by field are returned last.
+     */
+    @Test
+    public void testOrderByPlacesMissingValuesLast() throws Exception {
+        List<Integer> expected = Arrays.asList(5, 4, 2, 3, 1, 6);
+
+        assertEquals(expected, ids(db.query("expenses").orderBy("cost").execute()));
+
+        db.createIndex("expenses", "cost", IndexType.ORDERED);
+        assertEquals(expected, ids(db.query("expenses").orderBy("cost").execute()));
+    }
+
+    /**
+     * Tests a range condition on an indexed order by field.
+     */
+    @Test
+    public void testRangeOnOrderedIndex() throws Exception {
+        db.createIndex("expenses", "cost", IndexType.ORDERED);
+
+        Map<Integer, JSONObject> result = db.query("expenses")
+                .whereBetween("cost", 20, 300)
+                .orderBy("cost")
+                .limit(2)
+                .execute();
+
+        assertEquals(Arrays.asList(4, 2), ids(result));
+    }
+
+    /**
+     * Tests that a predicate condition is applied to the field value.
+     */
+    @Test
+    public void testWherePredicate() throws Exception {
+        Map<Integer, JSONObject> result = db.query("expenses")
+                .where("name", value -> value != null && value.toString().startsWith("c"))
+                .execute();
+
+        assertEquals(Arrays.asList(3, 5), ids(result));
+    }
+
+    /**
+     * Tests that only the selected fields are returned, and that they are copies.
+     */
+    @Test
+    public void testSelect() throws Exception {
+        Map<Integer, JSONObject> result = db.query("expenses").where("name", "rent").select("cost").execute();
+
+        JSONObject item = result.get(1);
+        assertEquals(1, item.length());
+        assertEquals(500, item.getInt("cost"));
+
+        item.put("cost", 1);
+        assertEquals(500, db.findBy("expenses", "name", "rent").get(1).getInt("cost"));
+    }
+
+    /**
+     * Tests that executing a query against a missing table throws an exception.
+     */
+    @Test
+    public void testMissingTable() throws Exception {
+        expected.expect(IllegalArgumentException.class);
+
+        db.query("not exist").execute();
+    }
+
+    private void append(String name, Integer cost, String category) throws Exception {
+        Map<String, Object> values = new HashMap<>();
+        values.put("name", name);
+        if (cost != null)
+            values.put("cost", cost);
+        values.put("category", category);
+        db.append("expenses", values);
+    }
+
+    private static List<Integer> ids(Map<Integer, JSONObject> result) {
+        return new ArrayList<>(result.keySet());
+    }
+}
@@ -0,0 +1,103 @@
+package db;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link RowCache} class.
+ */
+public class RowCacheTest {
+
+    private final DatabaseMetrics metrics = new DatabaseMetrics();
+
+    /**
+     * Tests that cached items are returned, and that hits and misses are recorded.
+     */
+    @Test
+    public void testGetAndPut() {
+        RowCache cache = new RowCache(1000, metrics);
+        JSONObject item = new JSONObject();
+
+        assertNull(cache.get(1));
+        cache.put(1, item, 10);
+
+        assertSame(item, cache.get(1));
+        assertSame(item, cache.peek(1));
+        assertEquals(1, metrics.getRowCacheHits());
+        assertEquals(1, metrics.getRowCacheMisses());
+
+        cache.move(1, 2);
+        assertNull(cache.peek(1));
+        assertSame(item, cache.get(2));
+
+        cache.remove(2);
+        assertNull(cache.peek(2));
+        assertEquals(0, cache.weight());
+    }
+
+    /**
+     * Tests that the weight of the cache never exceeds its size, and that items heavier than the cache are not kept.
+     */
+    @Test
+    public void testWeightIsBounded() {
+        RowCache cache = new RowCache(1000, metrics);
+        for (long address = 1; address <= 500; address++) {
+            cache.put(address, new JSONObject(), 30);
+            cache.get(address);
+            assertTrue(cache.weight() <= 1000);
+        }
+        cache.put(501, new JSONObject(), 2000);
+
+        assertNull(cache.peek(501));
+        assertEquals(cache.size() * 30, cache.weight());
+        assertEquals(500 - cache.size(), metrics.getRowCacheEvictions());
+    }
+
+    /**
+     * Tests that a candidate which is alone on probation is compared with the least recently used protected item, rather
+     * than always being evicted.
+     */
+    @Test
+    public void testCandidateCompetesWithProtectedItems() {
+        RowCache cache = new RowCache(1000, metrics);
+        cache.put(1, new JSONObject(), 300);
+        cache.get(1);
+        cache.put(2, new JSONObject(), 300);
+        cache.get(2);
+
+        // each put is read more often, until it is read more often than item 1
+        for (int i = 0; i < 3; i++) {
+            cache.put(3, new JSONObject(), 500);
+        }
+
+        assertNotNull(cache.peek(3));
+        assertNull(cache.peek(1));
+        assertNotNull(cache.peek(2));
+        assertEquals(800, cache.weight());
+    }
+
+    /**
+     * Tests that items read often stay cached while a scan of items read once passes through.
+     */
+    @Test
+    public void testFrequentItemsAreKept() {
+        RowCache cache = new RowCache(100 * 100, metrics);
+        for (int round = 0; round < 5; round++) {
+            for (long address = 1; address <= 50; address++) {
+                if (cache.get(address) == null)
+                    cache.put(address, new JSONObject(), 100);
+            }
+        }
+
+        for (long address = 1000; address < 2000; address++) {
+            if (cache.get(address) == null)
+                cache.put(address, new JSONObject(), 100);
+        }
+
+        for (long address = 1; address <= 50; address++) {
+            assertNotNull("Item " + address + " was evicted", cache.peek(address));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package db;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link RowDictionary} class.
+ */
+public class RowDictionaryTest {
+
+    private final RowDictionary dictionary = new RowDictionary();
+
+    /**
+     * Tests that items with the same keys share a shape, and that equal strings are held once.
+     */
+    @Test
+    public void testItemsShareShapeAndValues() throws Exception {
+        JSONObject first = dictionary.encode(new JSONObject().put("name", new String("rent")).put("cost", 100));
+        JSONObject second = dictionary.encode(new JSONObject().put("name", new String("rent")).put("cost", 200));
+
+        assertEquals("rent", first.getString("name"));
+        assertEquals(200, second.getInt("cost"));
+        assertSame(first.get("name"), second.get("name"));
+        assertEquals(JSONObject.getNames(first)[0], JSONObject.getNames(second)[0]);
+        // the empty shape, and one for each key added
+        assertEquals(3, dictionary.shapeCount());
+    }
+
+    /**
+     * Tests that an encoded item can be changed like any other, keeping its keys in the order they were added.
+     */
+    @Test
+    public void testChangeItem() throws Exception {
+        JSONObject item = dictionary.encode(new JSONObject());
+        item.put("name", "rent");
+        item.put("cost", 100);
+
+        item.put("cost", 150);
+        item.put("paid", true);
+        assertEquals("{\"name\":\"rent\",\"cost\":150,\"paid\":true}", item.toString());
+
+        item.remove("name");
+        assertFalse(item.has("name"));
+        assertEquals(2, item.length());
+        assertEquals("{\"cost\":150,\"paid\":true}", item.toString());
+
+        assertEquals(item.toString(), JsonDatabase.copy(item).toString());
+    }
+
+    /**
+     * Tests that a field with many different strings stops being interned, while other fields still are.
+     */
+    @Test
+    public void testFreeTextIsNotInterned() throws Exception {
+        JSONObject last = null;
+        for (int i = 0; i < RowDictionary.MAX_FIELD_VALUES * 2; i++) {
+            last = dictionary.encode(new JSONObject().put("description", "item " + i).put("category", "bills"));
+        }
+
+        assertEquals(1, dictionary.valueCount());
+        assertEquals("item " + (RowDictionary.MAX_FIELD_VALUES * 2 - 1), last.getString("description"));
+    }
+
+    /**
+     * Tests that items are kept as they are once there are too many shapes.
+     */
+    @Test
+    public void testShapeLimit() throws Exception {
+        for (int i = 0; dictionary.shapeCount() < RowDictionary.MAX_SHAPES; i++) {
+            dictionary.encode(new JSONObject().put("key " + i, i));
+        }
+
+        JSONObject item = new JSONObject().put("another key", 1);
+        assertSame(item, dictionary.encode(item));
+    }
+
+    /**
+     * Tests that changing encoded items never creates more shapes than the limit, and that items changed past it keep
+     * working.
+     */
+    @Test
+    public void testChangesPastShapeLimit() throws Exception {
+        JSONObject[] items = new JSONObject[RowDictionary.MAX_SHAPES * 2];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = dictionary.encode(new JSONObject().put("name", "rent"));
+            items[i].put("key " + i, i);
+        }
+
+        assertTrue(dictionary.shapeCount() <= RowDictionary.MAX_SHAPES);
+
+        JSONObject last = items[items.length - 1];
+        assertEquals(items.length - 1, last.getInt("key " + (items.length - 1)));
+        last.remove("name");
+        assertEquals("{\"key " + (items.length - 1) + "\":" + (items.length - 1) + "}", last.toString());
+        assertTrue(dictionary.shapeCount() <= RowDictionary.MAX_SHAPES);
+    }
+}
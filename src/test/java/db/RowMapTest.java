@@ -0,0 +1,167 @@
+package db;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link RowMap} class.
+ */
+public class RowMapTest {
+
+    /**
+     * Tests that only the canonical form of a non-negative {@code int} is read as an id.
+     */
+    @Test
+    public void testParseId() {
+        assertEquals(0, RowMap.parseId("0"));
+        assertEquals(42, RowMap.parseId("42"));
+        assertEquals(Integer.MAX_VALUE, RowMap.parseId("2147483647"));
+
+        assertEquals(-1, RowMap.parseId("-1"));
+        assertEquals(-1, RowMap.parseId("007"));
+        assertEquals(-1, RowMap.parseId("2147483648"));
+        assertEquals(-1, RowMap.parseId("name"));
+        assertEquals(-1, RowMap.parseId(""));
+        assertEquals(-1, RowMap.parseId(7));
+    }
+
+    /**
+     * Tests that items are held by id, and that the array grows past its initial size.
+     */
+    @Test
+    public void testRows() throws Exception {
+        checkRows(RowStorage.HEAP);
+    }
+
+    /**
+     * Tests {@link #testRows()} with items held in direct and mapped buffers.
+     */
+    @Test
+    public void testRowsOffHeap() throws Exception {
+        checkRows(RowStorage.DIRECT);
+        checkRows(RowStorage.MAPPED);
+    }
+
+    private static void checkRows(RowStorage storage) throws Exception {
+        RowMap rows = new RowMap(storage, null, 0, 0);
+        for (int id = 1; id <= 100; id++) {
+            rows.putRow(id, new JSONObject().put("id", id));
+        }
+
+        assertEquals(100, rows.rowCount());
+        assertEquals(100, rows.highestId());
+        assertEquals(50, rows.getRow(50).getInt("id"));
+        assertNull(rows.getRow(101));
+        assertNull(rows.getRow(-1));
+
+        rows.putRow(50, new JSONObject().put("name", "replaced"));
+        assertEquals("replaced", rows.getRow(50).getString("name"));
+        assertEquals(100, rows.rowCount());
+
+        assertTrue(rows.removeRow(50));
+        assertNull(rows.getRow(50));
+        assertFalse(rows.containsRow(50));
+        assertFalse(rows.removeRow(50));
+        assertEquals(99, rows.rowCount());
+    }
+
+    /**
+     * Tests that an id far beyond the other items is held outside the array, and is found again once the array grows
+     * past it.
+     */
+    @Test
+    public void testSparseRows() throws Exception {
+        checkSparseRows(RowStorage.HEAP);
+        checkSparseRows(RowStorage.DIRECT);
+    }
+
+    private static void checkSparseRows(RowStorage storage) throws Exception {
+        RowMap rows = new RowMap(storage, null, 0, 0);
+        rows.putRow(1000, new JSONObject().put("name", "outlier"));
+        rows.putRow(1, new JSONObject());
+
+        assertEquals("outlier", rows.getRow(1000).getString("name"));
+
+        for (int id = 2; id < 600; id++) {
+            rows.putRow(id, new JSONObject());
+        }
+        assertEquals("outlier", rows.getRow(1000).getString("name"));
+        assertEquals(600, rows.rowCount());
+
+        final List<Integer> visited = new ArrayList<>();
+        rows.forEachRow((id, item) -> {
+            visited.add(id);
+            return true;
+        });
+        assertEquals(600, visited.size());
+        assertEquals(Integer.valueOf(1000), visited.get(visited.size() - 1));
+
+        rows.removeRow(1000);
+        assertNull(rows.getRow(1000));
+    }
+
+    /**
+     * Tests that an item read from off-heap storage is a copy, and that the space taken by items which have been
+     * replaced is reclaimed.
+     */
+    @Test
+    public void testOffHeapCompaction() throws Exception {
+        RowMap rows = new RowMap(RowStorage.DIRECT, null, 0, 0);
+        rows.putRow(1, new JSONObject().put("name", "first"));
+        rows.getRow(1).put("name", "changed");
+        assertEquals("first", rows.getRow(1).getString("name"));
+
+        char[] padding = new char[1000];
+        Arrays.fill(padding, 'x');
+        for (int i = 0; i < 10000; i++) {
+            rows.putRow(i % 10, new JSONObject().put("value", i).put("padding", new String(padding)));
+        }
+
+        assertEquals(10, rows.rowCount());
+        assertEquals(9990, rows.getRow(0).getInt("value"));
+        assertEquals(9999, rows.getRow(9).getInt("value"));
+        // without compaction the arena would hold every version, around 10MB
+        assertTrue(rows.offHeapBytes() < 1024 * 1024);
+    }
+
+    /**
+     * Tests that the map view holds items and other entries under their JSON keys, so the rows can be written as a
+     * {@code JSONObject}.
+     */
+    @Test
+    public void testMapView() throws Exception {
+        RowMap rows = new RowMap(2, 2);
+        rows.put("2", new JSONObject().put("name", "b"));
+        rows.put("1", new JSONObject().put("name", "a"));
+        rows.put("note", "hello");
+        rows.put("3", "not an item");
+
+        assertEquals(2, rows.rowCount());
+        assertEquals(4, rows.size());
+        assertEquals("hello", rows.get("note"));
+        assertEquals("a", ((JSONObject) rows.get("1")).getString("name"));
+        assertTrue(rows.containsKey("3"));
+        assertFalse(rows.containsKey("4"));
+
+        List<String> keys = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : rows.entrySet()) {
+            keys.add(entry.getKey());
+        }
+        assertEquals(Arrays.asList("1", "2"), keys.subList(0, 2));
+        assertTrue(keys.containsAll(Arrays.asList("note", "3")));
+
+        JSONObject json = new JSONObject(new JSONObject(rows).toString());
+        assertEquals("b", json.getJSONObject("2").getString("name"));
+        assertEquals("not an item", json.getString("3"));
+
+        assertEquals("hello", rows.remove("note"));
+        assertEquals(3, rows.size());
+    }
+}
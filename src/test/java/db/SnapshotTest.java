@@ -0,0 +1,183 @@
+package db;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static db.Utils.createItem;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link Snapshot} class.
+ * <p>
+ * Warning, these tests create a temporary file in the 'test/data' directory which is deleted after each test.
+ */
+public class SnapshotTest {
+
+    private static final String TEST_FILE_PATH = "src/test/data/snapshot_test.json";
+
+    private JsonDatabase db;
+
+    @Before
+    public void createDatabase() throws Exception {
+        db = JsonDatabase.create(TEST_FILE_PATH, new DatabaseOptions().writeAheadLog(true));
+        db.append("default", createItem("rent", 100));
+        db.append("default", createItem("food", 20));
+    }
+
+    @After
+    public void deleteFile() throws Exception {
+        File file = new File(TEST_FILE_PATH);
+        if (file.exists()) {
+            Utils.deleteFile(file, "SnapshotTest");
+        }
+
+        File log = WriteAheadLog.logFileFor(file);
+        if (log.exists()) {
+            Utils.deleteFile(log, "SnapshotTest");
+        }
+    }
+
+    /**
+     * Tests that changes made after a snapshot was opened are not visible through it.
+     */
+    @Test
+    public void testChangesAfterSnapshotAreHidden() throws Exception {
+        Snapshot snapshot = db.snapshot();
+
+        db.append("default", createItem("car", 250));
+        db.appendValueToTable("default", 1, "paid", true);
+        db.delete(2, "default");
+        db.newTable("later", null);
+
+        assertNull(snapshot.getItem("default", 3));
+        assertFalse(snapshot.getItem("default", 1).has("paid"));
+        assertEquals("food", snapshot.getItem("default", 2).getString("name"));
+        assertFalse(snapshot.tableExists("later"));
+        assertEquals(2, snapshot.query("default").execute().size());
+
+        // a new snapshot sees every change
+        Snapshot latest = db.snapshot();
+        assertTrue(latest.getItem("default", 1).getBoolean("paid"));
+        assertNull(latest.getItem("default", 2));
+        assertTrue(latest.tableExists("later"));
+
+        snapshot.close();
+        latest.close();
+    }
+
+    /**
+     * Tests that a dropped table can still be read through a snapshot opened before it was dropped.
+     */
+    @Test
+    public void testDroppedTableIsStillVisible() throws Exception {
+        Snapshot snapshot = db.snapshot();
+        db.dropTable("default");
+
+        assertArrayEquals(new String[] {"default"}, snapshot.tableNames());
+        assertEquals("rent", snapshot.getItem("default", 1).getString("name"));
+
+        snapshot.close();
+    }
+
+    /**
+     * Tests that a query against a snapshot ignores indexes, which only describe the latest version.
+     */
+    @Test
+    public void testQueryIgnoresIndexes() throws Exception {
+        db.createIndex("default", "cost", IndexType.ORDERED);
+        Snapshot snapshot = db.snapshot();
+
+        db.append("default", createItem("coffee", 2));
+        db.appendValueToTable("default", 2, "cost_note", "cheap");
+
+        Map<Integer, JSONObject> items = snapshot.query("default").orderBy("cost").execute();
+        assertArrayEquals(new Integer[] {2, 1}, items.keySet().toArray(new Integer[0]));
+        assertEquals(3, db.query("default").orderBy("cost").execute().size());
+
+        snapshot.close();
+    }
+
+    /**
+     * Tests that old versions are discarded once the snapshots needing them are closed.
+     */
+    @Test
+    public void testVersionsDiscardedOnClose() throws Exception {
+        Snapshot first = db.snapshot();
+        db.delete(1, "default");
+        Snapshot second = db.snapshot();
+        db.delete(2, "default");
+
+        Table table = db.getTable("default");
+        assertEquals(2, table.keptVersions());
+
+        first.close();
+        assertEquals(1, table.keptVersions());
+        assertNull(second.getItem("default", 1));
+        assertEquals("food", second.getItem("default", 2).getString("name"));
+
+        second.close();
+        assertEquals(0, table.keptVersions());
+    }
+
+    /**
+     * Tests that a closed snapshot cannot be read.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testClosedSnapshotThrows() throws Exception {
+        Snapshot snapshot = db.snapshot();
+        snapshot.close();
+
+        snapshot.getItem("default", 1);
+    }
+
+    /**
+     * Tests that a snapshot can be read while another thread holds the table for writing, and keeps seeing the same
+     * items while appends continue.
+     */
+    @Test
+    public void testReadsDoNotBlockOnWriters() throws Exception {
+        final Snapshot snapshot = db.snapshot();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final AtomicBoolean writing = new AtomicBoolean(true);
+
+        try {
+            Table table = db.getTable("default");
+            table.getLock().writeLock().lock();
+            try {
+                Future<Integer> read = executor.submit(() -> snapshot.query("default").execute().size());
+                assertEquals(2, (int) read.get(5, TimeUnit.SECONDS));
+            } finally {
+                table.getLock().writeLock().unlock();
+            }
+
+            Future<Void> writer = executor.submit(() -> {
+                for (int i = 0; i < 200; i++) {
+                    db.append("default", createItem("item " + i, i));
+                }
+                writing.set(false);
+                return null;
+            });
+
+            do {
+                assertEquals(2, snapshot.query("default").execute().size());
+            } while (writing.get());
+
+            writer.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+            snapshot.close();
+        }
+
+        assertEquals(202, db.query("default").execute().size());
+    }
+}
@@ -0,0 +1,83 @@
+package db;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link TableDirectory} class.
+ * <p>
+ * Warning, these tests create a temporary file in the 'test/data' directory which is deleted after each test.
+ */
+public class TableDirectoryTest {
+
+    private static final String TEST_FILE_PATH = "src/test/data/directory_test.json";
+
+    @After
+    public void deleteFile() throws Exception {
+        File file = new File(TEST_FILE_PATH);
+        if (file.exists()) {
+            Utils.deleteFile(file, "TableDirectoryTest");
+        }
+    }
+
+    /**
+     * Tests that {@link TableDirectory#open(FileHelper)} returns null for a file written without a directory.
+     */
+    @Test
+    public void testOpenWithoutDirectory() throws Exception {
+        Utils.createFile(TEST_FILE_PATH, "{\"default\": {}}");
+
+        assertNull(TableDirectory.open(new FileHelper(new File(TEST_FILE_PATH))));
+    }
+
+    /**
+     * Tests that tables written by {@link TableDirectory#write(JSONObject)} are listed without being loaded, and can be
+     * loaded one at a time.
+     */
+    @Test
+    public void testWriteAndLoad() throws Exception {
+        FileHelper helper = new FileHelper(Utils.createFile(TEST_FILE_PATH, ""));
+        JSONObject root = new JSONObject("{\"a\": {\"1\": {\"name\": \"été\"}}, \"b\": {}, \"version\": 2}");
+        new TableDirectory(helper).write(root);
+
+        // the file is still plain JSON
+        JSONObject written = new JSONObject(helper.read());
+        written.remove(TableDirectory.KEY);
+        assertEquals(root.toString(), written.toString());
+
+        TableDirectory directory = TableDirectory.open(helper);
+
+        assertEquals(2, directory.names().size());
+        assertEquals(2, directory.getValues().get("version"));
+        assertEquals("été", directory.load("a").getJSONObject("1").getString("name"));
+        assertFalse(directory.contains("a"));
+        assertTrue(directory.contains("b"));
+    }
+
+    /**
+     * Tests that tables which were never loaded are copied across when the file is written again.
+     */
+    @Test
+    public void testWriteKeepsUnloadedTables() throws Exception {
+        FileHelper helper = new FileHelper(Utils.createFile(TEST_FILE_PATH, ""));
+        new TableDirectory(helper).write(new JSONObject("{\"a\": {\"1\": {\"n\": 1}}, \"b\": {\"1\": {\"n\": 2}}}"));
+
+        TableDirectory directory = TableDirectory.open(helper);
+        JSONObject loaded = new JSONObject();
+        loaded.put("a", directory.load("a"));
+        loaded.getJSONObject("a").put("2", new JSONObject("{\"n\": 3}"));
+        directory.write(loaded);
+
+        // the directory's own offsets are updated by the write
+        assertEquals(2, directory.load("b").getJSONObject("1").getInt("n"));
+
+        TableDirectory reopened = TableDirectory.open(helper);
+        assertEquals(3, reopened.load("a").getJSONObject("2").getInt("n"));
+        assertEquals(2, reopened.load("b").getJSONObject("1").getInt("n"));
+    }
+}
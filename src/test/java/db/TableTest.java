@@ -1,10 +1,12 @@
 package db;
 
+import org.json.JSONObject;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 
 import static org.junit.Assert.*;
 
@@ -75,6 +77,62 @@ public class TableTest {
         assertEquals(expected, table.getNextId());
     }
 
+    /**
+     * Tests that {@link Table#append(JSONObject)} allocates ids from the table's sequence.
+     */
+    @Test
+    public void appendAllocatesSequentialIds() throws Exception {
+        Table table = new Table(new JSONObject("{\"1\":{},\"7\":{}}"));
+
+        assertEquals(8, table.append(new JSONObject()));
+        assertEquals(9, table.append(new JSONObject()));
+        assertEquals(10, table.getNextId());
+    }
+
+    /**
+     * Tests that {@link Table#put(int, JSONObject)} advances the sequence past the given id.
+     */
+    @Test
+    public void putAdvancesSequence() throws Exception {
+        Table table = new Table(new JSONObject());
+
+        table.put(5, new JSONObject());
+
+        assertEquals(6, table.getNextId());
+    }
+
+    /**
+     * Tests that keys which are not ids are ignored when loading the sequence.
+     */
+    @Test
+    public void nextIdIgnoresNonNumericKeys() throws Exception {
+        Table table = new Table(new JSONObject("{\"name\":\"hello\",\"2\":{}}"));
+
+        assertEquals(3, table.getNextId());
+    }
+
+    /**
+     * Tests that {@link Table#serialized()} caches the JSON text of the table until the table changes.
+     */
+    @Test
+    public void serializedIsCachedUntilChanged() throws Exception {
+        Table table = new Table(new JSONObject("{\"1\":{\"name\":\"rent\"}}"));
+        assertTrue(table.isDirty());
+
+        ByteBuffer first = table.serialized();
+        assertFalse(table.isDirty());
+        assertEquals(table.toString(), FileHelper.UTF_8.decode(first).toString());
+        assertSame(first.array(), table.serialized().array());
+
+        table.putValue(1, "cost", 100);
+        assertTrue(table.isDirty());
+        assertEquals(table.toString(), FileHelper.UTF_8.decode(table.serialized()).toString());
+
+        table.remove("1");
+        assertTrue(table.isDirty());
+        assertEquals("{\"" + Table.SEQUENCE_KEY + "\":1}", FileHelper.UTF_8.decode(table.serialized()).toString());
+    }
+
     /*
     @Test
     public void appendTest() throws Exception {
@@ -4,9 +4,11 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
- * Contains utility methods for creating and deleting files..
+ * Contains utility methods for creating and deleting files, and for creating items to store in them.
  */
 class Utils {
 
@@ -65,4 +67,14 @@ class Utils {
 
         return file;
     }
+
+    /**
+     * Creates the values of an item with the given name and cost.
+     */
+    static Map<String, Object> createItem(String name, int cost) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("name", name);
+        map.put("cost", cost);
+        return map;
+    }
 }
@@ -0,0 +1,101 @@
+package db;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link WriteAheadLog} class.
+ * <p>
+ * Warning, these tests create a temporary log file in the 'test/data' directory which is deleted after each test.
+ */
+public class WriteAheadLogTest {
+
+    private static final File DB_FILE = new File("src/test/data/wal_test.json");
+
+    @After
+    public void deleteLog() throws Exception {
+        File log = WriteAheadLog.logFileFor(DB_FILE);
+        if (log.exists()) {
+            Utils.deleteFile(log, "WriteAheadLogTest");
+        }
+    }
+
+    /**
+     * Tests that records passed to {@link WriteAheadLog#append(JSONObject)} are read back in order.
+     */
+    @Test
+    public void testReadRecords() throws Exception {
+        WriteAheadLog log = new WriteAheadLog(DB_FILE);
+
+        log.append(WriteAheadLog.newTableRecord("test", new JSONObject()));
+        log.append(WriteAheadLog.appendRecord("test", 1, new JSONObject("{\"name\":\"rent\"}")));
+
+        List<JSONObject> records = new WriteAheadLog(DB_FILE).readRecords();
+
+        assertEquals(2, records.size());
+        assertEquals(WriteAheadLog.OP_NEW_TABLE, records.get(0).getString("op"));
+        assertEquals("rent", records.get(1).getJSONObject("value").getString("name"));
+    }
+
+    /**
+     * Tests that a partially written final record is ignored by {@link WriteAheadLog#readRecords()}.
+     */
+    @Test
+    public void testReadRecordsIgnoresTornRecord() throws Exception {
+        WriteAheadLog log = new WriteAheadLog(DB_FILE);
+        log.append(WriteAheadLog.dropTableRecord("test"));
+
+        new FileHelper(WriteAheadLog.logFileFor(DB_FILE)).append("{\"op\":\"dele");
+
+        assertEquals(1, log.readRecords().size());
+    }
+
+    /**
+     * Tests that {@link WriteAheadLog#reset()} removes every record.
+     */
+    @Test
+    public void testReset() throws Exception {
+        WriteAheadLog log = new WriteAheadLog(DB_FILE);
+        log.append(WriteAheadLog.dropTableRecord("test"));
+
+        log.reset();
+
+        assertEquals(0, log.size());
+        assertTrue(log.readRecords().isEmpty());
+    }
+
+    /**
+     * Tests that a compressed log is read back in order, ignores a torn final block, and keeps its format when opened
+     * without compression.
+     */
+    @Test
+    public void testCompressedRecords() throws Exception {
+        WriteAheadLog log = new WriteAheadLog(DB_FILE, new DatabaseOptions().compression(Compression.DEFLATE));
+
+        int plainSize = 0;
+        for (int i = 1; i <= 20; i++) {
+            JSONObject record = WriteAheadLog.appendRecord("expenses", i,
+                    new JSONObject("{\"name\":\"rent\",\"description\":\"monthly rent\",\"cost\":" + i + "}"));
+            plainSize += record.toString().length() + 1;
+            log.append(record);
+        }
+        assertTrue(log.size() < plainSize / 2);
+
+        new FileHelper(WriteAheadLog.logFileFor(DB_FILE)).append(ByteBuffer.wrap(new byte[]{1, 0, 0, 1}));
+
+        WriteAheadLog reopened = new WriteAheadLog(DB_FILE, new DatabaseOptions());
+        List<JSONObject> records = reopened.readRecords();
+        assertEquals(20, records.size());
+        assertEquals(20, records.get(19).getInt("id"));
+
+        log.close();
+        reopened.close();
+    }
+}
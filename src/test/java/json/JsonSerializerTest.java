@@ -1,9 +1,20 @@
 package json;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -12,6 +23,8 @@ import static org.junit.Assert.*;
  */
 public class JsonSerializerTest {
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
     /**
      * Tests the {@link JsonSerializer#toJsonString(Map)} method.
      */
@@ -25,4 +38,73 @@ public class JsonSerializerTest {
 
         assertEquals(expected, JsonSerializer.toJsonString(map));
     }
-}
\ No newline at end of file
+
+    /**
+     * Tests that {@link JsonSerializer#write(Object, Writer)} writes the same text as {@code JSONObject}, for
+     * strings which need escaping and numbers of every type.
+     */
+    @Test
+    public void testWriteMatchesJSONObject() throws Exception {
+        JSONObject object = new JSONObject();
+        object.put("quote \" and \\ slash", "</script> tab\t line\n control\u0001 \u0085   café");
+        object.put("int", -42);
+        object.put("long", Long.MIN_VALUE);
+        object.put("double", 2.50);
+        object.put("whole", 3.0);
+        object.put("exponent", 1.5e-10);
+        object.put("flag", false);
+        object.put("missing", JSONObject.NULL);
+        object.put("array", new JSONArray().put(1).put("two").put(new JSONObject().put("three", 3)));
+
+        StringWriter writer = new StringWriter();
+        JsonSerializer.write(object, writer);
+
+        assertEquals(object.toString(), writer.toString());
+    }
+
+    /**
+     * Tests that {@link JsonSerializer#write(Object, OutputStream)} encodes UTF-8 correctly, including
+     * characters outside the basic plane and text longer than its buffer.
+     */
+    @Test
+    public void testWriteUtf8() throws Exception {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 30000; i++) {
+            builder.append("é中😀a");
+        }
+        JSONObject object = new JSONObject().put("text", builder.toString());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonSerializer.write(object, out);
+
+        assertEquals(object.toString(), new String(out.toByteArray(), UTF_8));
+        assertArrayEquals(out.toByteArray(), toArray(JsonSerializer.toUtf8(object)));
+    }
+
+    /**
+     * Tests that maps, collections, arrays and enums nested in a value are written as JSON, and any other object as its
+     * {@code toString()}.
+     */
+    @Test
+    public void testWriteNestedValues() throws Exception {
+        Date date = new Date(0);
+        Map<String, Object> map = new HashMap<>();
+        map.put("list", Arrays.asList(1, "a"));
+        map.put("numbers", new int[] {1, 2});
+        map.put("date", date);
+        map.put("unit", TimeUnit.SECONDS);
+
+        JSONObject actual = new JSONObject(JsonSerializer.toJsonString(map));
+
+        assertEquals("a", actual.getJSONArray("list").getString(1));
+        assertEquals(2, actual.getJSONArray("numbers").getInt(1));
+        assertEquals(date.toString(), actual.getString("date"));
+        assertEquals("SECONDS", actual.getString("unit"));
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -1,9 +1,17 @@
 package json;
 
+import exceptions.SerializerException;
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 import static org.junit.Assert.*;
 
@@ -32,4 +40,161 @@ public class ObjectSerializerTest {
         assertEquals(expected, actual);
     }
 
-}
\ No newline at end of file
+    /**
+     * Tests the {@link ObjectSerializer#toJson()} method.
+     */
+    @Test
+    public void testToJson() throws Exception {
+        JSONObject actual = new JSONObject(new ObjectSerializer(testClass).toJson());
+
+        assertEquals(4, actual.length());
+        assertEquals("hello", actual.getString("stringField"));
+        assertEquals(20, actual.getInt("intField"));
+        assertEquals("super", actual.getString("superStringField"));
+        assertTrue(actual.getBoolean("superBooleanField"));
+    }
+
+    /**
+     * Tests that {@link ObjectSerializer#toJsonObject()} converts nested values, and leaves out static and transient
+     * fields.
+     */
+    @Test
+    public void testToJsonObjectNested() throws Exception {
+        Outer outer = new Outer();
+        JSONObject actual = new JSONObject(new ObjectSerializer(outer).toJson());
+
+        assertEquals(5, actual.length());
+        assertEquals("hello", actual.getJSONObject("inner").getString("stringField"));
+        assertEquals("SECOND", actual.getString("choice"));
+        assertTrue(actual.isNull("missing"));
+
+        JSONArray tags = actual.getJSONArray("tags");
+        assertEquals(2, tags.length());
+        assertEquals("b", tags.getString(1));
+        assertEquals(3, actual.getJSONArray("numbers").getInt(2));
+        assertFalse(actual.has("constant"));
+        assertFalse(actual.has("cache"));
+    }
+
+    /**
+     * Tests that the fields of a class are only looked up once.
+     */
+    @Test
+    public void testMetadataIsCached() throws Exception {
+        assertSame(ObjectSerializer.metadataFor(TestClass.class), ObjectSerializer.metadataFor(TestClass.class));
+        assertEquals(4, ObjectSerializer.metadataFor(TestClass.class).size());
+    }
+
+    /**
+     * Tests that {@link ObjectSerializer#fromJsonObject(JSONObject, Class)} reads back what {@link
+     * ObjectSerializer#toJsonObject()} wrote, converting values to the types of the fields.
+     */
+    @Test
+    public void testFromJsonObject() throws Exception {
+        Outer outer = new Outer();
+        outer.missing = "present";
+        JSONObject json = new JSONObject(new ObjectSerializer(outer).toJson());
+
+        Outer actual = ObjectSerializer.fromJsonObject(json, Outer.class);
+
+        assertEquals("hello", new ObjectSerializer(actual.inner).toMap().get("stringField"));
+        assertEquals(Choice.SECOND, actual.choice);
+        assertEquals("present", actual.missing);
+        assertEquals(Arrays.asList("a", "b"), actual.tags);
+        assertArrayEquals(new int[] {1, 2, 3}, actual.numbers);
+        assertTrue(actual.cache.isEmpty());
+    }
+
+    /**
+     * Tests that numbers are converted to the type of their field, and missing values leave the field unchanged.
+     */
+    @Test
+    public void testFromJsonObjectConvertsNumbers() throws Exception {
+        JSONObject json = new JSONObject("{\"stringField\": 12, \"intField\": 3.0, \"superBooleanField\": true}");
+
+        TestClass actual = ObjectSerializer.fromJsonObject(json, TestClass.class);
+
+        Map<String, Object> fields = new ObjectSerializer(actual).toMap();
+        assertEquals("12", fields.get("stringField"));
+        assertEquals(3, fields.get("intField"));
+        assertEquals(true, fields.get("superBooleanField"));
+        assertNull(fields.get("superStringField"));
+    }
+
+    /**
+     * Tests that JDK classes are written as single values rather than by their fields.
+     */
+    @Test
+    public void testToJsonObjectWritesJdkValues() throws Exception {
+        Dated dated = new Dated();
+
+        JSONObject json = new ObjectSerializer(dated).toJsonObject();
+
+        assertEquals(dated.date.getTime(), json.get("date"));
+        assertEquals(dated.id.toString(), json.get("id"));
+    }
+
+    /**
+     * Tests that a JDK class whose fields cannot be made accessible fails with a {@code SerializerException}, and that
+     * one cannot be converted to a JSON object.
+     */
+    @Test
+    public void testJdkClassFields() throws Exception {
+        try {
+            ObjectSerializer.metadataFor(UUID.class);
+        } catch (SerializerException e) {
+            // the fields of java.base can't be made accessible from Java 9
+        }
+
+        try {
+            ObjectSerializer.toJsonObject(UUID.randomUUID());
+            fail("A UUID is not a JSON object");
+        } catch (SerializerException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that JDK classes written as single values are read back, and that a JSON object cannot be read into a class
+     * with no fields.
+     */
+    @Test
+    public void testFromJsonObjectReadsJdkValues() throws Exception {
+        Dated dated = new Dated();
+
+        Dated actual = ObjectSerializer.fromJsonObject(new ObjectSerializer(dated).toJsonObject(), Dated.class);
+
+        assertEquals(dated.date, actual.date);
+        assertEquals(dated.id, actual.id);
+
+        try {
+            ObjectSerializer.fromJsonObject(new JSONObject(), Date.class);
+            fail("A Date is not read from a JSON object");
+        } catch (SerializerException e) {
+            // expected
+        }
+    }
+
+    private enum Choice {FIRST, SECOND}
+
+    @SuppressWarnings("unused")
+    private static class Dated {
+        private Date date = new Date(1234567890L);
+        private UUID id = UUID.randomUUID();
+    }
+
+    @SuppressWarnings("unused")
+    private static class Outer {
+        private Outer() {
+        }
+
+        static final String constant = "constant";
+
+        private TestClass inner = new TestClass("hello", 1, "super", false);
+        private Choice choice = Choice.SECOND;
+        private Object missing = null;
+        private List<String> tags = Arrays.asList("a", "b");
+        private int[] numbers = {1, 2, 3};
+        private transient Map<String, Object> cache = Collections.emptyMap();
+    }
+}
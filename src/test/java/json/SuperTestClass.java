@@ -8,6 +8,9 @@ public class SuperTestClass {
     private String superStringField;
     private boolean superBooleanField;
 
+    SuperTestClass() {
+    }
+
     SuperTestClass(String s, boolean b){
         this.superBooleanField = b;
         this.superStringField = s;
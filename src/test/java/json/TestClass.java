@@ -7,6 +7,9 @@ class TestClass extends SuperTestClass {
     private String stringField;
     private int intField;
 
+    TestClass() {
+    }
+
     TestClass(String s, int i, String ss, boolean b) {
         super(ss, b);
         this.stringField = s;